@@ -0,0 +1,58 @@
+package ec.epn.detri.awm.reproductor.actividades;
+
+import android.content.Context;
+import android.view.ContextThemeWrapper;
+import android.view.LayoutInflater;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.annotation.UiThreadTest;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import ec.epn.detri.awm.reproductor.R;
+import ec.epn.detri.awm.reproductor.databinding.ActivityMainBinding;
+
+/**
+ * Microbenchmark del inflado de activity_main en onCreate(): sólo las
+ * vistas visibles al arrancar (con ViewStubs) frente a inflar también el
+ * cuadro del URL y el botón de reproducir, como antes de usar ViewStubs.
+ * El efecto en el arranque completo lo mide ArranqueBenchmark en :benchmark.
+ */
+@RunWith(AndroidJUnit4.class)
+public class InfladoVistasBenchmark {
+    @Rule
+    public final BenchmarkRule reglaBenchmark = new BenchmarkRule();
+
+    private LayoutInflater inflador;
+
+    @Before
+    public void setUp() {
+        Context contexto = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        inflador = LayoutInflater.from(new ContextThemeWrapper(contexto, R.style.Theme_Reproductor));
+    }
+
+    @Test
+    @UiThreadTest
+    public void soloVisibles() {
+        BenchmarkState estado = reglaBenchmark.getState();
+        while (estado.keepRunning())
+            ActivityMainBinding.inflate(inflador);
+    }
+
+    @Test
+    @UiThreadTest
+    public void todoInflado() {
+        BenchmarkState estado = reglaBenchmark.getState();
+        while (estado.keepRunning()) {
+            ActivityMainBinding vistas = ActivityMainBinding.inflate(inflador);
+            vistas.stubUrl.inflate();
+            vistas.stubIniciarDetener.inflate();
+        }
+    }
+}
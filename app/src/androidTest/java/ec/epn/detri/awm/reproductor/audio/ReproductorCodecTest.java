@@ -0,0 +1,218 @@
+package ec.epn.detri.awm.reproductor.audio;
+
+import android.content.Context;
+import android.media.AudioAttributes;
+import android.os.SystemClock;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Reproduce con ReproductorCodec un WAV generado (un tono de 3 s) y
+ * comprueba la preparación, el final, los saltos precisos, el
+ * encadenamiento con la siguiente canción y el fundido entre ambas.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ReproductorCodecTest {
+    private static final int SEGUNDOS = 3;
+
+    private static final int FRECUENCIA = 44100;
+
+    private static final long ESPERA_MS = 5000;
+
+    private static final AudioAttributes ATRIBUTOS = new AudioAttributes.Builder()
+            .setUsage(AudioAttributes.USAGE_MEDIA)
+            .setContentType(AudioAttributes.CONTENT_TYPE_MUSIC)
+            .build();
+
+    private File archivo;
+
+    private ReproductorCodec reproductor;
+
+    private final OyentePrueba oyente = new OyentePrueba();
+
+    /**
+     * Cuenta los avisos del reproductor.
+     */
+    private static final class OyentePrueba implements Reproductor.Oyente {
+        final CountDownLatch preparado = new CountDownLatch(1);
+        final CountDownLatch completado = new CountDownLatch(1);
+        volatile int errores;
+
+        @Override
+        public void alPreparar(Reproductor reproductor) {
+            preparado.countDown();
+        }
+
+        @Override
+        public void alCompletar(Reproductor reproductor) {
+            completado.countDown();
+        }
+
+        @Override
+        public void alInformar(Reproductor reproductor, int que, int extra) {
+        }
+
+        @Override
+        public boolean alFallar(Reproductor reproductor, int que, int extra) {
+            errores++;
+            return true;
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        Context contexto = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        archivo = new File(contexto.getCacheDir(), "tono.wav");
+        escribirTono(archivo, SEGUNDOS);
+        reproductor = new ReproductorCodec(ATRIBUTOS);
+        reproductor.setOyente(oyente);
+    }
+
+    @After
+    public void tearDown() {
+        reproductor.liberar();
+        archivo.delete();
+    }
+
+    @Test
+    public void preparaYTermina() throws Exception {
+        preparar(reproductor, oyente);
+        assertEquals(SEGUNDOS * 1000, reproductor.getDuracion(), 50);
+        assertEquals(0, reproductor.getPosicion());
+
+        reproductor.iniciar();
+        assertTrue(oyente.completado.await(SEGUNDOS * 1000 + ESPERA_MS, TimeUnit.MILLISECONDS));
+        assertEquals(SEGUNDOS * 1000, reproductor.getPosicion(), 50);
+        assertEquals(0, oyente.errores);
+    }
+
+    @Test
+    public void saltaAPosicionExacta() throws Exception {
+        preparar(reproductor, oyente);
+        reproductor.saltarA(2345);
+        assertEquals(2345, reproductor.getPosicion());
+
+        long inicio = SystemClock.uptimeMillis();
+        reproductor.iniciar();
+        while (reproductor.getPosicion() <= 2345)
+            assertTrue(SystemClock.uptimeMillis() - inicio < ESPERA_MS);
+
+        // Sólo quedaban 655 ms de audio.
+        assertTrue(oyente.completado.await(ESPERA_MS, TimeUnit.MILLISECONDS));
+        assertTrue(SystemClock.uptimeMillis() - inicio < 655 + 1000);
+    }
+
+    @Test
+    public void iniciaLaSiguienteAlTerminar() throws Exception {
+        ReproductorCodec siguiente = new ReproductorCodec(ATRIBUTOS);
+        try {
+            OyentePrueba oyenteSiguiente = new OyentePrueba();
+            siguiente.setOyente(oyenteSiguiente);
+            preparar(siguiente, oyenteSiguiente);
+            preparar(reproductor, oyente);
+
+            reproductor.saltarA(SEGUNDOS * 1000 - 500);
+            reproductor.setSiguiente(siguiente);
+            reproductor.iniciar();
+
+            assertTrue(oyente.completado.await(ESPERA_MS, TimeUnit.MILLISECONDS));
+            long limite = SystemClock.uptimeMillis() + ESPERA_MS;
+            while (siguiente.getPosicion() == 0)
+                assertTrue(SystemClock.uptimeMillis() < limite);
+        } finally {
+            siguiente.liberar();
+        }
+    }
+
+    @Test
+    public void fundeConLaSiguiente() throws Exception {
+        ReproductorCodec siguiente = new ReproductorCodec(ATRIBUTOS);
+        try {
+            OyentePrueba oyenteSiguiente = new OyentePrueba();
+            siguiente.setOyente(oyenteSiguiente);
+            siguiente.setFundido(1000);
+            reproductor.setFundido(1000);
+            preparar(siguiente, oyenteSiguiente);
+            preparar(reproductor, oyente);
+            // Con fundido, la siguiente no escribe nada antes de empezar.
+            SystemClock.sleep(200);
+            assertEquals(0, siguiente.getPosicion());
+
+            reproductor.saltarA(SEGUNDOS * 1000 - 1500);
+            reproductor.setSiguiente(siguiente);
+            reproductor.iniciar();
+
+            // La siguiente empieza a sonar cuando a ésta le queda 1 s.
+            long limite = SystemClock.uptimeMillis() + ESPERA_MS;
+            while (siguiente.getPosicion() == 0)
+                assertTrue(SystemClock.uptimeMillis() < limite);
+            assertEquals(1, oyente.completado.getCount());
+            assertTrue(oyente.completado.await(ESPERA_MS, TimeUnit.MILLISECONDS));
+            assertEquals(1000, siguiente.getPosicion(), 250);
+        } finally {
+            siguiente.liberar();
+        }
+    }
+
+    @Test
+    public void seReutilizaTrasReiniciar() throws Exception {
+        preparar(reproductor, oyente);
+        reproductor.iniciar();
+        reproductor.reiniciar();
+
+        OyentePrueba otro = new OyentePrueba();
+        reproductor.setOyente(otro);
+        preparar(reproductor, otro);
+        assertEquals(0, reproductor.getPosicion());
+        // Los avisos de la primera canción no llegan al nuevo oyente.
+        assertEquals(1, otro.completado.getCount());
+    }
+
+    private void preparar(ReproductorCodec destino, OyentePrueba oyenteDestino) throws Exception {
+        try (FileInputStream entrada = new FileInputStream(archivo)) {
+            destino.setFuente(entrada.getFD());
+        }
+        destino.preparar();
+        assertTrue(oyenteDestino.preparado.await(ESPERA_MS, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Escribe un WAV PCM de 16 bits estéreo con un tono de 440 Hz.
+     */
+    private static void escribirTono(File destino, int segundos) throws IOException {
+        int cuadros = FRECUENCIA * segundos;
+        int bytesDatos = cuadros * 4;
+        ByteBuffer wav = ByteBuffer.allocate(44 + bytesDatos).order(ByteOrder.LITTLE_ENDIAN);
+        wav.put("RIFF".getBytes("US-ASCII")).putInt(36 + bytesDatos)
+           .put("WAVE".getBytes("US-ASCII"))
+           .put("fmt ".getBytes("US-ASCII")).putInt(16)
+           .putShort((short) 1).putShort((short) 2)
+           .putInt(FRECUENCIA).putInt(FRECUENCIA * 4)
+           .putShort((short) 4).putShort((short) 16)
+           .put("data".getBytes("US-ASCII")).putInt(bytesDatos);
+        for (int i = 0; i < cuadros; i++) {
+            short muestra = (short) (8000 * Math.sin(2 * Math.PI * 440 * i / FRECUENCIA));
+            wav.putShort(muestra).putShort(muestra);
+        }
+        try (FileOutputStream salida = new FileOutputStream(destino)) {
+            salida.write(wav.array());
+        }
+    }
+}
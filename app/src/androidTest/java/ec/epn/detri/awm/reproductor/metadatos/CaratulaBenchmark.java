@@ -0,0 +1,60 @@
+package ec.epn.detri.awm.reproductor.metadatos;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Microbenchmark de la decodificación de una carátula de 1000x1000 (como
+ * las que traen las etiquetas) a la notificación, y de la memoria que ocupa
+ * reducida frente a decodificarla completa.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CaratulaBenchmark {
+    private static final String TAG = "CaratulaBenchmark";
+
+    private static final int LADO_ORIGINAL = 1000;
+
+    private static final int LADO = 256;
+
+    @Rule
+    public final BenchmarkRule reglaBenchmark = new BenchmarkRule();
+
+    private byte[] jpeg;
+
+    @Before
+    public void setUp() {
+        Bitmap original = Bitmap.createBitmap(LADO_ORIGINAL, LADO_ORIGINAL, Bitmap.Config.ARGB_8888);
+        for (int y = 0; y < LADO_ORIGINAL; y += 10)
+            for (int x = 0; x < LADO_ORIGINAL; x += 10)
+                original.setPixel(x, y, 0xff000000 | x * 7919 + y * 104729);
+        ByteArrayOutputStream salida = new ByteArrayOutputStream();
+        original.compress(Bitmap.CompressFormat.JPEG, 90, salida);
+        original.recycle();
+        jpeg = salida.toByteArray();
+    }
+
+    @Test
+    public void decodificarReducida() {
+        Bitmap caratula = ProveedorMetadatos.decodificar(jpeg, LADO);
+        assertTrue(caratula.getWidth() >= LADO && caratula.getWidth() < 2 * LADO);
+        Log.i(TAG, "Reducida: " + caratula.getAllocationByteCount() + " bytes, completa: "
+                   + LADO_ORIGINAL * LADO_ORIGINAL * 4 + " bytes");
+
+        BenchmarkState estado = reglaBenchmark.getState();
+        while (estado.keepRunning())
+            ProveedorMetadatos.decodificar(jpeg, LADO).recycle();
+    }
+}
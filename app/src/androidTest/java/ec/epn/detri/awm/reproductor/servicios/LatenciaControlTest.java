@@ -0,0 +1,121 @@
+package ec.epn.detri.awm.reproductor.servicios;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.IBinder;
+import android.os.RemoteException;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.rule.ServiceTestRule;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Mide la latencia de ida y vuelta de un comando al Servicio de Música por
+ * Binder (IReproductor) frente al camino anterior basado en intents.
+ */
+@RunWith(AndroidJUnit4.class)
+public class LatenciaControlTest {
+    private static final String TAG = "LatenciaControlTest";
+
+    private static final int REPETICIONES = 200;
+
+    @Rule
+    public final ServiceTestRule reglaServicio = new ServiceTestRule();
+
+    private Context contexto;
+
+    private IReproductor reproductor;
+
+    /**
+     * Libera un permiso cada vez que el servicio informa un cambio de estado.
+     */
+    private final Semaphore notificaciones = new Semaphore(0);
+
+    private final ICallbackReproductor.Stub callback = new ICallbackReproductor.Stub() {
+        @Override
+        public void alCambiarEstado(int estado, String url, int posicionMs, int duracionMs) {
+            notificaciones.release();
+        }
+
+        @Override
+        public void alCalcularPicos(String url, byte[] picos) {
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        contexto = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        IBinder binder = reglaServicio.bindService(
+                new Intent(contexto, ServicioReproductor.class));
+        reproductor = IReproductor.Stub.asInterface(binder);
+        reproductor.registrarCallback(callback);
+    }
+
+    @After
+    public void tearDown() throws RemoteException {
+        reproductor.eliminarCallback(callback);
+    }
+
+    @Test
+    public void binderEsMasRapidoQueIntent() throws Exception {
+        // Calentamiento de ambos caminos.
+        medirBinder(20);
+        medirIntent(20);
+
+        long nanosBinder = medirBinder(REPETICIONES);
+        long nanosIntent = medirIntent(REPETICIONES);
+
+        long nanosConsulta = 0;
+        for (int i = 0; i < REPETICIONES; i++) {
+            long inicio = System.nanoTime();
+            assertEquals(EstadoReproduccion.DETENIDO, reproductor.obtenerEstado());
+            nanosConsulta += System.nanoTime() - inicio;
+        }
+
+        Log.i(TAG, "ida y vuelta por Binder: " + nanosBinder / REPETICIONES / 1000 + " us, "
+                   + "por intent: " + nanosIntent / REPETICIONES / 1000 + " us, "
+                   + "consulta de estado: " + nanosConsulta / REPETICIONES / 1000 + " us");
+
+        assertTrue(nanosBinder < nanosIntent);
+    }
+
+    private long medirBinder(int repeticiones) throws Exception {
+        long total = 0;
+        for (int i = 0; i < repeticiones; i++) {
+            long inicio = System.nanoTime();
+            reproductor.detener();
+            esperarNotificacion();
+            total += System.nanoTime() - inicio;
+        }
+        return total;
+    }
+
+    private long medirIntent(int repeticiones) throws Exception {
+        Intent detener = new Intent(contexto, ServicioReproductor.class)
+                .setAction(ServicioReproductor.ACCION_DETENER);
+        long total = 0;
+        for (int i = 0; i < repeticiones; i++) {
+            long inicio = System.nanoTime();
+            contexto.startService(detener);
+            esperarNotificacion();
+            total += System.nanoTime() - inicio;
+        }
+        return total;
+    }
+
+    private void esperarNotificacion() throws InterruptedException {
+        assertTrue(notificaciones.tryAcquire(5, TimeUnit.SECONDS));
+    }
+}
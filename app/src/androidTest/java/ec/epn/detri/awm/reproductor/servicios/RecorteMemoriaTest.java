@@ -0,0 +1,69 @@
+package ec.epn.detri.awm.reproductor.servicios;
+
+import android.app.UiAutomation;
+import android.content.Context;
+import android.content.Intent;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.rule.ServiceTestRule;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+
+import ec.epn.detri.awm.reproductor.metricas.MetricasReproduccion;
+
+import static org.junit.Assert.*;
+
+/**
+ * Envía un onTrimMemory() crítico al proceso del Servicio de Música y
+ * comprueba que libera recursos sin dejar de responder.
+ */
+@RunWith(AndroidJUnit4.class)
+public class RecorteMemoriaTest {
+    private static final long ESPERA_MS = 5000;
+
+    @Rule
+    public final ServiceTestRule reglaServicio = new ServiceTestRule();
+
+    @Test
+    public void recorteCriticoNoDetieneElServicio() throws Exception {
+        Context contexto = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        IReproductor reproductor = IReproductor.Stub.asInterface(
+                reglaServicio.bindService(new Intent(contexto, ServicioReproductor.class)));
+
+        long antes = recortes(reproductor);
+        String proceso = contexto.getPackageName() + ":musicService";
+
+        // am sólo entrega el nivel si el proceso ya terminó de iniciar; se reintenta.
+        long limite = SystemClock.uptimeMillis() + ESPERA_MS;
+        while (recortes(reproductor) == antes && SystemClock.uptimeMillis() < limite) {
+            ejecutar("am send-trim-memory " + proceso + " RUNNING_CRITICAL");
+            SystemClock.sleep(200);
+        }
+
+        assertTrue(recortes(reproductor) > antes);
+        assertEquals(EstadoReproduccion.DETENIDO, reproductor.obtenerEstado());
+    }
+
+    private static long recortes(IReproductor reproductor) throws Exception {
+        return reproductor.obtenerMetricas().getLong(MetricasReproduccion.RECORTES_MEMORIA);
+    }
+
+    private static void ejecutar(String comando) throws IOException {
+        UiAutomation automatizacion = InstrumentationRegistry.getInstrumentation().getUiAutomation();
+        ParcelFileDescriptor salida = automatizacion.executeShellCommand(comando);
+        // Se lee hasta el final para esperar a que el comando termine.
+        try (ParcelFileDescriptor.AutoCloseInputStream entrada =
+                     new ParcelFileDescriptor.AutoCloseInputStream(salida)) {
+            byte[] buffer = new byte[256];
+            while (entrada.read(buffer) != -1) {
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package ec.epn.detri.awm.reproductor.utilidades;
+
+import android.widget.EditText;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.ext.junit.rules.ActivityScenarioRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.google.android.material.floatingactionbutton.FloatingActionButton;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import ec.epn.detri.awm.reproductor.R;
+import ec.epn.detri.awm.reproductor.actividades.ActividadReproductor;
+
+/**
+ * Microbenchmark del costo en el hilo de la UI (tiempo y asignaciones) de
+ * iniciar las animaciones del cuadro de texto del URL y de los botones. El
+ * costo de los cuadros dibujados lo mide AnimacionUrlBenchmark en :benchmark.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ControladorAnimacionesBenchmark {
+    @Rule
+    public final BenchmarkRule reglaBenchmark = new BenchmarkRule();
+
+    @Rule
+    public final ActivityScenarioRule<ActividadReproductor> reglaActividad =
+            new ActivityScenarioRule<>(ActividadReproductor.class);
+
+    @Test
+    public void mostrarYOcultarEditText() {
+        // El cuadro se infla (ViewStub) al pulsar "agregar" por primera vez.
+        reglaActividad.getScenario().onActivity(actividad -> actividad.agregarUrl(null));
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+
+        reglaActividad.getScenario().onActivity(actividad -> {
+            ControladorAnimaciones animaciones = new ControladorAnimaciones(actividad);
+            EditText texto = actividad.findViewById(R.id.txtUrl);
+            BenchmarkState estado = reglaBenchmark.getState();
+            while (estado.keepRunning()) {
+                animaciones.mostrarEditText(texto);
+                animaciones.ocultarEditText(texto);
+            }
+        });
+    }
+
+    @Test
+    public void mostrarYOcultarBoton() {
+        reglaActividad.getScenario().onActivity(actividad -> actividad.agregarUrl(null));
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+
+        reglaActividad.getScenario().onActivity(actividad -> {
+            ControladorAnimaciones animaciones = new ControladorAnimaciones(actividad);
+            FloatingActionButton boton = actividad.findViewById(R.id.btnIniciarDetener);
+            BenchmarkState estado = reglaBenchmark.getState();
+            while (estado.keepRunning()) {
+                animaciones.mostrarBoton(boton);
+                animaciones.ocultarBoton(boton);
+            }
+        });
+    }
+}
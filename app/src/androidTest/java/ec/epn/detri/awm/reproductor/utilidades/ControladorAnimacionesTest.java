@@ -0,0 +1,112 @@
+package ec.epn.detri.awm.reproductor.utilidades;
+
+import android.os.Debug;
+import android.view.View;
+import android.widget.EditText;
+
+import androidx.test.ext.junit.rules.ActivityScenarioRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.google.android.material.floatingactionbutton.FloatingActionButton;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import ec.epn.detri.awm.reproductor.R;
+import ec.epn.detri.awm.reproductor.actividades.ActividadReproductor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Comprueba que mostrar y ocultar el cuadro del URL y los botones no crea
+ * objetos, ni al iniciar las animaciones ni en sus cuadros.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ControladorAnimacionesTest {
+    private static final int REPETICIONES = 100;
+
+    /**
+     * Cuadros simulados por animación.
+     */
+    private static final int CUADROS = 20;
+
+    @Rule
+    public final ActivityScenarioRule<ActividadReproductor> reglaActividad =
+            new ActivityScenarioRule<>(ActividadReproductor.class);
+
+    @Before
+    public void setUp() {
+        // Infla el cuadro del URL y el botón de reproducir (ViewStubs).
+        reglaActividad.getScenario().onActivity(actividad -> actividad.agregarUrl(null));
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+    }
+
+    @Test
+    public void alternarNoCreaObjetos() {
+        reglaActividad.getScenario().onActivity(actividad -> {
+            ControladorAnimaciones animaciones = new ControladorAnimaciones(actividad);
+            EditText texto = actividad.findViewById(R.id.txtUrl);
+            FloatingActionButton boton = actividad.findViewById(R.id.btnIniciarDetener);
+            View agregar = actividad.findViewById(R.id.btnAgregar);
+
+            // La primera vez se crean las transiciones de cada vista.
+            alternar(animaciones, texto, boton, agregar);
+
+            Debug.startAllocCounting();
+            try {
+                Debug.resetThreadAllocCount();
+                for (int i = 0; i < REPETICIONES; i++)
+                    alternar(animaciones, texto, boton, agregar);
+                assertEquals(0, Debug.getThreadAllocCount());
+            } finally {
+                Debug.stopAllocCounting();
+            }
+        });
+    }
+
+    @Test
+    public void ocultarTerminaInvisible() {
+        reglaActividad.getScenario().onActivity(actividad -> {
+            ControladorAnimaciones animaciones = new ControladorAnimaciones(actividad);
+            FloatingActionButton boton = actividad.findViewById(R.id.btnIniciarDetener);
+
+            animaciones.mostrarBoton(boton);
+            animaciones.aparicion.avanzar(1f);
+            assertEquals(View.VISIBLE, boton.getVisibility());
+            assertEquals(1f, boton.getScaleX(), 0f);
+
+            animaciones.ocultarBoton(boton);
+            animaciones.aparicion.avanzar(1f);
+            assertEquals(View.INVISIBLE, boton.getVisibility());
+        });
+    }
+
+    /**
+     * Muestra y oculta todo, aplicando los cuadros de cada animación.
+     */
+    private static void alternar(ControladorAnimaciones animaciones,
+                                 EditText texto,
+                                 FloatingActionButton boton,
+                                 View agregar) {
+        animaciones.mostrarEditText(texto);
+        animaciones.mostrarBoton(boton);
+        animaciones.rotarBoton(agregar, true);
+        cuadros(animaciones);
+
+        animaciones.ocultarEditText(texto);
+        animaciones.ocultarBoton(boton);
+        animaciones.rotarBoton(agregar, false);
+        cuadros(animaciones);
+    }
+
+    private static void cuadros(ControladorAnimaciones animaciones) {
+        for (int i = 1; i <= CUADROS; i++) {
+            float fraccion = (float) i / CUADROS;
+            animaciones.revelacion.avanzar(fraccion);
+            animaciones.aparicion.avanzar(fraccion);
+        }
+    }
+}
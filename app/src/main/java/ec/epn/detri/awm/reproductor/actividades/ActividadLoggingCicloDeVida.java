@@ -1,21 +1,108 @@
 package ec.epn.detri.awm.reproductor.actividades;
 
 import android.app.Activity;
+import android.app.Application;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;   //Android Logger
+import android.view.Choreographer;
+import android.view.View;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
+import ec.epn.detri.awm.reproductor.BuildConfig;
+import ec.epn.detri.awm.reproductor.metricas.PerfilCicloDeVida;
 
 /**
  * Clase abstracta que sobreescribe los callbacks del ciclo de vida de la
  * Actividad (que lo instacia) para registrar los eventos necesarios.
+ *
+ * Además mide cuánto dura cada callback (incluido el código de la
+ * subclase, desde Android 10) y setContentView(), y el tiempo de arranque
+ * hasta el primer cuadro. Los tiempos se acumulan en PerfilCicloDeVida y se
+ * consultan con "adb shell dumpsys activity top". Con
+ * BuildConfig.PERFIL_CICLO_DE_VIDA en false (release) no se mide nada ni se
+ * crean objetos.
  */
 public abstract class ActividadLoggingCicloDeVida
         extends Activity {
+    /**
+     * Interruptor del perfil; al ser una constante, el compilador elimina
+     * el código de medición cuando es false.
+     */
+    private static final boolean PERFIL = BuildConfig.PERFIL_CICLO_DE_VIDA;
+
+    /**
+     * Desde Android 10 los callbacks "pre" y "post" permiten medir el
+     * callback completo, incluido el código de la subclase. Antes sólo se
+     * mide la parte de esta clase. onRestart() no tiene esos callbacks.
+     */
+    private static final boolean CALLBACKS_PRE_POST =
+            Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q;
+
+    /**
+     * True hasta que se mide el arranque en frío del proceso (sólo se usa
+     * en el hilo principal).
+     */
+    private static boolean sArranqueEnFrio = true;
+
     /**
      * Etiqueta de depuración usado por Android Logger
      */
     private final String TAG =
             getClass().getSimpleName();
 
+    /**
+     * Perfil de la clase de actividad (null si el perfil está deshabilitado).
+     */
+    private final PerfilCicloDeVida mPerfil =
+            PERFIL ? PerfilCicloDeVida.de(getClass()) : null;
+
+    /**
+     * Instante (uptimeMillis) de creación de la actividad.
+     */
+    private final long mCreacion = PERFIL ? SystemClock.uptimeMillis() : 0;
+
+    /**
+     * Instante (uptimeMillis) en que empezó el arranque en curso (0 si no
+     * hay uno), y su tipo (PerfilCicloDeVida.ARRANQUE_*).
+     */
+    private long mInicioArranque;
+    private int mTipoArranque;
+
+    /**
+     * Instante (nanoTime) en que empezó el callback en curso.
+     */
+    private long mInicioCallback;
+
+    /**
+     * Manejador del hilo principal para medir el final del primer cuadro.
+     */
+    private final Handler mManejador = PERFIL ? new Handler(Looper.getMainLooper()) : null;
+
+    /**
+     * Registra la duración del arranque. Se ejecuta después de que se
+     * dibujó el primer cuadro.
+     */
+    private final Runnable mFinPrimerCuadro = PERFIL ? this::registrarArranque : null;
+
+    /**
+     * Se ejecuta al inicio del primer cuadro; el cuadro termina de dibujarse
+     * antes del siguiente mensaje del hilo principal.
+     */
+    private final Choreographer.FrameCallback mPrimerCuadro =
+            PERFIL ? instante -> mManejador.post(mFinPrimerCuadro) : null;
+
+    public ActividadLoggingCicloDeVida() {
+        if (PERFIL && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q)
+            registerActivityLifecycleCallbacks(new Cronometro());
+    }
+
     /**
      * Sobreescritura del método OnCreate() que se invoca cuando se crea una instancia de la
      * Actividad. Aquí se debería agregar el código que necesita
@@ -29,6 +116,15 @@ public abstract class ActividadLoggingCicloDeVida
      */
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        long inicio = iniciarMedicion(PerfilCicloDeVida.CREAR);
+        if (PERFIL) {
+            if (sArranqueEnFrio) {
+                sArranqueEnFrio = false;
+                iniciarArranque(PerfilCicloDeVida.ARRANQUE_FRIO, Process.getStartUptimeMillis());
+            } else
+                iniciarArranque(PerfilCicloDeVida.ARRANQUE_TIBIO, mCreacion);
+        }
+
         super.onCreate(savedInstanceState);
 
         if (savedInstanceState != null) {
@@ -41,6 +137,7 @@ public abstract class ActividadLoggingCicloDeVida
             Log.d(TAG, "onCreate(): La actividad ha sido creada");
         }
 
+        terminarMedicion(PerfilCicloDeVida.CREAR, inicio);
     }
 
     /**
@@ -50,8 +147,10 @@ public abstract class ActividadLoggingCicloDeVida
      */
     @Override
     protected void onStart() {
+        long inicio = iniciarMedicion(PerfilCicloDeVida.INICIAR);
         super.onStart();
         Log.d(TAG, "onStart() - La actividad está apunto de hacerse visible");
+        terminarMedicion(PerfilCicloDeVida.INICIAR, inicio);
     }
 
     /**
@@ -65,9 +164,14 @@ public abstract class ActividadLoggingCicloDeVida
      */
     @Override
     protected void onResume() {
+        long inicio = iniciarMedicion(PerfilCicloDeVida.REANUDAR);
         super.onResume();
         Log.d(TAG,
                 "onResume() - la actividad ya está visible");
+
+        if (PERFIL && mInicioArranque != 0)
+            Choreographer.getInstance().postFrameCallback(mPrimerCuadro);
+        terminarMedicion(PerfilCicloDeVida.REANUDAR, inicio);
     }
 
     /**
@@ -78,10 +182,12 @@ public abstract class ActividadLoggingCicloDeVida
      */
     @Override
     protected void onPause() {
+        long inicio = iniciarMedicion(PerfilCicloDeVida.PAUSAR);
         super.onPause();
         Log.d(TAG,
                 "onPause() - otra actividad está tomando el foco y esta actividad está" +
                         "a punto de ser pausada");
+        terminarMedicion(PerfilCicloDeVida.PAUSAR, inicio);
     }
 
     /**
@@ -92,9 +198,11 @@ public abstract class ActividadLoggingCicloDeVida
      */
     @Override
     protected void onStop() {
+        long inicio = iniciarMedicion(PerfilCicloDeVida.DETENER);
         super.onStop();
         Log.d(TAG,
                 "onStop() - la actividad ya no es visible y se ha detenido");
+        terminarMedicion(PerfilCicloDeVida.DETENER, inicio);
     }
 
     /**
@@ -103,8 +211,13 @@ public abstract class ActividadLoggingCicloDeVida
      */
     @Override
     protected void onRestart() {
+        long inicio = iniciarMedicion(PerfilCicloDeVida.REINICIAR);
+        if (PERFIL)
+            iniciarArranque(PerfilCicloDeVida.ARRANQUE_CALIENTE, SystemClock.uptimeMillis());
+
         super.onRestart();
         Log.d(TAG, "onRestart() - la actividad está apunto de ser reiniciado");
+        terminarMedicion(PerfilCicloDeVida.REINICIAR, inicio);
     }
 
     /**
@@ -113,7 +226,184 @@ public abstract class ActividadLoggingCicloDeVida
      */
     @Override
     protected void onDestroy() {
+        long inicio = iniciarMedicion(PerfilCicloDeVida.DESTRUIR);
+        if (PERFIL) {
+            Choreographer.getInstance().removeFrameCallback(mPrimerCuadro);
+            mManejador.removeCallbacks(mFinPrimerCuadro);
+        }
+
         super.onDestroy();
         Log.d(TAG, "onDestroy() - la actividad está apunto de ser destruida");
+        terminarMedicion(PerfilCicloDeVida.DESTRUIR, inicio);
+    }
+
+    /**
+     * Mide cuánto tarda en inflarse y asignarse el layout.
+     */
+    @Override
+    public void setContentView(int layoutResID) {
+        long inicio = PERFIL ? System.nanoTime() : 0;
+        super.setContentView(layoutResID);
+        if (PERFIL)
+            mPerfil.registrar(PerfilCicloDeVida.CONTENIDO, System.nanoTime() - inicio);
+    }
+
+    @Override
+    public void setContentView(View vista) {
+        long inicio = PERFIL ? System.nanoTime() : 0;
+        super.setContentView(vista);
+        if (PERFIL)
+            mPerfil.registrar(PerfilCicloDeVida.CONTENIDO, System.nanoTime() - inicio);
+    }
+
+    /**
+     * Agrega los tiempos del ciclo de vida a "dumpsys activity".
+     */
+    @Override
+    public void dump(String prefijo, FileDescriptor fd, PrintWriter salida, String[] args) {
+        super.dump(prefijo, fd, salida, args);
+        if (PERFIL)
+            PerfilCicloDeVida.volcarTodos(salida);
+    }
+
+    /**
+     * @return El instante de inicio si esta clase debe medir el callback,
+     * o 0 si no (perfil deshabilitado, o lo mide el Cronometro).
+     */
+    private static long iniciarMedicion(int callback) {
+        if (PERFIL && (!CALLBACKS_PRE_POST || callback == PerfilCicloDeVida.REINICIAR))
+            return System.nanoTime();
+        return 0;
+    }
+
+    private void terminarMedicion(int callback, long inicio) {
+        if (PERFIL && inicio != 0)
+            mPerfil.registrar(callback, System.nanoTime() - inicio);
+    }
+
+    private void iniciarArranque(int tipo, long inicioUptime) {
+        mTipoArranque = tipo;
+        mInicioArranque = inicioUptime;
+    }
+
+    /**
+     * Registra el arranque en curso al terminar su primer cuadro.
+     */
+    private void registrarArranque() {
+        if (mInicioArranque == 0)
+            return;
+
+        long duracion = SystemClock.uptimeMillis() - mInicioArranque;
+        PerfilCicloDeVida.registrarArranque(mTipoArranque, duracion);
+        Log.i(TAG, "Arranque " + PerfilCicloDeVida.nombreArranque(mTipoArranque)
+                   + " hasta el primer cuadro: " + duracion + " ms");
+
+        // El contenido de estas actividades está completo en el primer cuadro.
+        if (mTipoArranque != PerfilCicloDeVida.ARRANQUE_CALIENTE)
+            reportFullyDrawn();
+        mInicioArranque = 0;
+    }
+
+    /**
+     * Mide cada callback completo (incluido el código de la subclase) con
+     * los callbacks "pre" y "post" del ciclo de vida (Android 10+).
+     */
+    private class Cronometro implements Application.ActivityLifecycleCallbacks {
+        private void iniciar() {
+            mInicioCallback = System.nanoTime();
+        }
+
+        private void terminar(int callback) {
+            mPerfil.registrar(callback, System.nanoTime() - mInicioCallback);
+        }
+
+        @Override
+        public void onActivityPreCreated(Activity actividad, Bundle estado) {
+            iniciar();
+        }
+
+        @Override
+        public void onActivityPostCreated(Activity actividad, Bundle estado) {
+            terminar(PerfilCicloDeVida.CREAR);
+        }
+
+        @Override
+        public void onActivityPreStarted(Activity actividad) {
+            iniciar();
+        }
+
+        @Override
+        public void onActivityPostStarted(Activity actividad) {
+            terminar(PerfilCicloDeVida.INICIAR);
+        }
+
+        @Override
+        public void onActivityPreResumed(Activity actividad) {
+            iniciar();
+        }
+
+        @Override
+        public void onActivityPostResumed(Activity actividad) {
+            terminar(PerfilCicloDeVida.REANUDAR);
+        }
+
+        @Override
+        public void onActivityPrePaused(Activity actividad) {
+            iniciar();
+        }
+
+        @Override
+        public void onActivityPostPaused(Activity actividad) {
+            terminar(PerfilCicloDeVida.PAUSAR);
+        }
+
+        @Override
+        public void onActivityPreStopped(Activity actividad) {
+            iniciar();
+        }
+
+        @Override
+        public void onActivityPostStopped(Activity actividad) {
+            terminar(PerfilCicloDeVida.DETENER);
+        }
+
+        @Override
+        public void onActivityPreDestroyed(Activity actividad) {
+            iniciar();
+        }
+
+        @Override
+        public void onActivityPostDestroyed(Activity actividad) {
+            terminar(PerfilCicloDeVida.DESTRUIR);
+        }
+
+        // Callbacks obligatorios de la interfaz que no se usan.
+        @Override
+        public void onActivityCreated(Activity actividad, Bundle estado) {
+        }
+
+        @Override
+        public void onActivityStarted(Activity actividad) {
+        }
+
+        @Override
+        public void onActivityResumed(Activity actividad) {
+        }
+
+        @Override
+        public void onActivityPaused(Activity actividad) {
+        }
+
+        @Override
+        public void onActivityStopped(Activity actividad) {
+        }
+
+        @Override
+        public void onActivitySaveInstanceState(Activity actividad, Bundle estado) {
+        }
+
+        @Override
+        public void onActivityDestroyed(Activity actividad) {
+        }
     }
 }
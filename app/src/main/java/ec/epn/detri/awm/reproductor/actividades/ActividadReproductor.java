@@ -1,26 +1,75 @@
 package ec.epn.detri.awm.reproductor.actividades;
 
+import android.content.ComponentName;
+import android.content.ContentResolver;
 import android.content.Intent;
+import android.content.ServiceConnection;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.IBinder;
+import android.os.RemoteException;
+import android.os.SystemClock;
 import android.text.TextUtils;
+import android.util.Log;
+import android.view.Choreographer;
 import android.view.KeyEvent;
 import android.view.View;
-import android.view.animation.AnimationUtils;
 import android.view.inputmethod.EditorInfo;
 import android.webkit.URLUtil;
 import android.widget.EditText;
 
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
 import ec.epn.detri.awm.reproductor.R;
+import ec.epn.detri.awm.reproductor.cola.ImportacionUrls;
+import ec.epn.detri.awm.reproductor.databinding.ActivityMainBinding;
+import ec.epn.detri.awm.reproductor.descargas.TrabajoDescarga;
+import ec.epn.detri.awm.reproductor.red.ListaHls;
+import ec.epn.detri.awm.reproductor.servicios.EstadoCompartido;
+import ec.epn.detri.awm.reproductor.servicios.EstadoReproduccion;
+import ec.epn.detri.awm.reproductor.servicios.ICallbackReproductor;
+import ec.epn.detri.awm.reproductor.servicios.IReproductor;
+import ec.epn.detri.awm.reproductor.servicios.MotorAudio;
 import ec.epn.detri.awm.reproductor.servicios.ServicioReproductor;
+import ec.epn.detri.awm.reproductor.utilidades.ControladorAnimaciones;
 import ec.epn.detri.awm.reproductor.utilidades.UiUtils;
 
 /**
- * Esta actividad obtiene el URL de una canción en formato MP3 y lo usa
- * para crear un Intent para iniciar un Servicio Iniciado para reproducir la
- * canción
+ * Esta actividad obtiene el URL de una canción en formato MP3 y se vincula
+ * al Servicio de Música para reproducirla. Los comandos se envían por la
+ * interfaz IReproductor; si el servicio aún no está vinculado, se usa un
+ * Intent para iniciarlo.
+ *
+ * Si el intent trae el extra MotorAudio.EXTRA, el servicio usa ese motor
+ * de audio; con ServicioReproductor.EXTRA_FUNDIDO, ese fundido entre
+ * canciones.
+ *
+ * Una lista de canciones (varias URLs pegadas en el cuadro, un texto
+ * compartido o un archivo M3U/PLS) se importa con ImportacionUrls: se
+ * valida fuera del hilo principal y las canciones se encolan por lotes a
+ * medida que se validan.
+ *
+ * Mientras suena una canción, la barra de progreso se reemplaza por su
+ * forma de onda en cuanto el servicio entrega los picos (ver FormaOnda);
+ * arrastrarla salta a otra posición.
+ *
+ * Mantener pulsado el botón de reproducir programa la descarga de la
+ * canción para escucharla sin conexión (ver TrabajoDescarga); después el
+ * servicio la reproduce desde el archivo, sin usar la red.
+ *
+ * Las vistas se obtienen con view binding. El cuadro del URL y el botón de
+ * reproducir empiezan ocultos, así que se inflan desde ViewStubs la primera
+ * vez que el usuario pulsa "agregar", y no retrasan el primer cuadro.
  */
 public class ActividadReproductor
        extends ActividadLoggingCicloDeVida {
@@ -31,25 +80,166 @@ public class ActividadReproductor
             "https://www.soundhelix.com/examples/mp3/SoundHelix-Song-1.mp3";
 
     /**
-     * Referencia hacia el textbox para ingresar el URL de la canción
+     * Vistas de activity_main.
+     */
+    private ActivityMainBinding vistas;
+
+    /**
+     * Animaciones del cuadro del URL y de los botones (reutilizadas).
+     */
+    private ControladorAnimaciones animaciones;
+
+    /**
+     * Referencia hacia el textbox para ingresar el URL de la canción (null
+     * hasta que se infla).
      */
     private EditText txtURLCancion;
 
     /**
-     * Intent usado para iniciar/detener el Servicio de Música (ServicioReproductor)
+     * Interfaz de control del Servicio de Música (null si no está vinculado).
+     */
+    private IReproductor reproductor;
+
+    /**
+     * True si el servicio está reproduciendo (o preparando) una canción.
      */
-    private Intent intentServicioMusica;
+    private boolean reproduciendo;
 
     /**
-     * Referencia hacia el botón para agregar un URL.
+     * Canción actual según el último cambio de estado, y canción de los
+     * picos que muestra la forma de onda.
      */
-    private FloatingActionButton btnAgregarURL;
+    private String urlActual;
+    private String urlPicos;
 
     /**
-     * Referencia hacia el botón para iniciar o detener la reproducción de una acción.
+     * Recibe los cambios de estado desde el Servicio de Música. Se invoca en
+     * un hilo de Binder, por eso la UI se actualiza en el hilo principal.
+     */
+    private final ICallbackReproductor.Stub callbackReproductor =
+            new ICallbackReproductor.Stub() {
+                @Override
+                public void alCambiarEstado(final int estado,
+                                            String url,
+                                            int posicionMs,
+                                            int duracionMs) {
+                    runOnUiThread(() -> {
+                        actualizarBoton(estado != EstadoReproduccion.DETENIDO);
+                        cambiarCancion(url);
+                        programarCuadro();
+                    });
+                }
+
+                @Override
+                public void alCalcularPicos(final String url, final byte[] picos) {
+                    runOnUiThread(() -> mostrarPicos(url, picos));
+                }
+            };
+
+    /**
+     * Conexión con el Servicio de Música.
+     */
+    private final ServiceConnection conexionServicio = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName nombre, IBinder binder) {
+            reproductor = IReproductor.Stub.asInterface(binder);
+            try {
+                reproductor.registrarCallback(callbackReproductor);
+                int motor = getIntent().getIntExtra(MotorAudio.EXTRA, -1);
+                if (motor >= 0)
+                    reproductor.usarMotor(motor);
+                int fundido = getIntent().getIntExtra(ServicioReproductor.EXTRA_FUNDIDO, -1);
+                if (fundido >= 0)
+                    reproductor.usarFundido(fundido);
+                actualizarBoton(reproductor.obtenerEstado() != EstadoReproduccion.DETENIDO);
+                encolarImportadas();
+            } catch (RemoteException e) {
+                reproductor = null;
+            }
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName nombre) {
+            // El proceso :musicService murió.
+            reproductor = null;
+            actualizarBoton(false);
+        }
+    };
+
+    /**
+     * Referencia hacia el botón para iniciar o detener la reproducción de una
+     * acción (null hasta que se infla).
      */
     private FloatingActionButton btnIniciarDetener;
 
+    /**
+     * Estado de la reproducción que el servicio publica en memoria
+     * compartida (null si no se pudo mapear).
+     */
+    private EstadoCompartido estadoCompartido;
+
+    /**
+     * Copia local del estado compartido, reutilizada en cada cuadro.
+     */
+    private final EstadoCompartido.Instantanea instantanea =
+            new EstadoCompartido.Instantanea();
+
+    /**
+     * True entre onResume() y onPause().
+     */
+    private boolean enPrimerPlano;
+
+    /**
+     * True si actualizacionCuadro está programada para el próximo cuadro.
+     */
+    private boolean cuadroProgramado;
+
+    /**
+     * Actualiza la barra de progreso leyendo el estado compartido, sin
+     * llamadas al proceso del servicio. Se repite en cada cuadro sólo
+     * mientras la canción se prepara o suena; detenida o en pausa, la
+     * posición no cambia y la vuelve a programar alCambiarEstado().
+     */
+    private final Choreographer.FrameCallback actualizacionCuadro =
+            new Choreographer.FrameCallback() {
+                @Override
+                public void doFrame(long instanteCuadroNanos) {
+                    cuadroProgramado = false;
+                    if (actualizarProgreso())
+                        programarCuadro();
+                }
+            };
+
+    /**
+     * Importación de una lista en curso (null si no hay ninguna).
+     */
+    private ImportacionUrls importacion;
+
+    /**
+     * Canciones importadas que aún no se enviaron al servicio.
+     */
+    private final ArrayList<String> importadasPendientes = new ArrayList<>();
+
+    /**
+     * Recibe en el hilo principal los lotes de canciones validadas.
+     */
+    private final ImportacionUrls.Oyente oyenteImportacion = new ImportacionUrls.Oyente() {
+        @Override
+        public void alValidar(List<String> urls) {
+            importadasPendientes.addAll(urls);
+            encolarImportadas();
+        }
+
+        @Override
+        public void alTerminar(ImportacionUrls.Resumen resumen) {
+            importacion = null;
+            UiUtils.mostrarMensajeToast(ActividadReproductor.this, resumen.completa
+                    ? getString(R.string.importacion_terminada, resumen.validas,
+                                resumen.repetidas, resumen.invalidas + resumen.rechazadas)
+                    : getString(R.string.importacion_incompleta, resumen.validas));
+        }
+    };
+
     /**
      * Variable auxiliar  para controlar cuando el cuadro de texto para ingresar unURL
      * está visible
@@ -65,28 +255,120 @@ public class ActividadReproductor
     protected void onCreate(Bundle estadoGuardado) {
         super.onCreate(estadoGuardado);
 
-        setContentView(R.layout.activity_main);
-        // Inicialización de los elementos UI de la vista
-        inicializarVista();
+        vistas = ActivityMainBinding.inflate(getLayoutInflater());
+        setContentView(vistas.getRoot());
+        animaciones = new ControladorAnimaciones(this);
+        vistas.formaOnda.setOyente(this::saltarA);
+
+        try {
+            estadoCompartido = EstadoCompartido.abrir(
+                    new File(getFilesDir(), EstadoCompartido.NOMBRE_ARCHIVO));
+        } catch (IOException e) {
+            Log.w(getClass().getSimpleName(), "No se pudo mapear el estado compartido", e);
+        }
+
+        // Al recrearse la actividad, la lista ya se importó.
+        if (estadoGuardado == null)
+            importarDesdeIntent(getIntent());
+    }
+
+    /**
+     * Empieza a actualizar el progreso en cada cuadro.
+     */
+    @Override
+    protected void onResume() {
+        super.onResume();
+        enPrimerPlano = true;
+        programarCuadro();
+    }
+
+    /**
+     * Deja de actualizar el progreso mientras la actividad no está en primer plano.
+     */
+    @Override
+    protected void onPause() {
+        enPrimerPlano = false;
+        cuadroProgramado = false;
+        Choreographer.getInstance().removeFrameCallback(actualizacionCuadro);
+        super.onPause();
     }
 
     /**
-     * Inicializa las vistas
+     * Programa la actualización del progreso en el próximo cuadro, si la
+     * actividad está en primer plano y aún no estaba programada.
      */
-    private void inicializarVista() {
-        txtURLCancion = (EditText) findViewById(R.id.txtUrl);
+    private void programarCuadro() {
+        if (!enPrimerPlano || cuadroProgramado || estadoCompartido == null)
+            return;
+        cuadroProgramado = true;
+        Choreographer.getInstance().postFrameCallback(actualizacionCuadro);
+    }
 
-        btnAgregarURL =
-            (FloatingActionButton) findViewById(R.id.btnAgregar);
+    /**
+     * Libera el mapeo del estado compartido y cancela la importación en curso.
+     */
+    @Override
+    protected void onDestroy() {
+        // Las canciones ya encoladas se quedan en la cola.
+        if (importacion != null) {
+            importacion.close();
+            importacion = null;
+        }
+        if (estadoCompartido != null) {
+            try {
+                estadoCompartido.close();
+            } catch (IOException e) {
+                // El mapeo se libera igual al terminar el proceso.
+            }
+            estadoCompartido = null;
+        }
+        super.onDestroy();
+    }
 
-        btnIniciarDetener =
-            (FloatingActionButton) findViewById(R.id.btnIniciarDetener);
+    /**
+     * Se vincula al Servicio de Música mientras la actividad está visible.
+     */
+    @Override
+    protected void onStart() {
+        super.onStart();
+        bindService(new Intent(this, ServicioReproductor.class),
+                    conexionServicio,
+                    BIND_AUTO_CREATE);
+    }
 
-        // hace TXT invisible para propósitos de animación
-        txtURLCancion.setVisibility(View.INVISIBLE);
+    /**
+     * Se desvincula del Servicio de Música. Si está reproduciendo, el
+     * servicio sigue vivo.
+     */
+    @Override
+    protected void onStop() {
+        if (reproductor != null) {
+            try {
+                reproductor.eliminarCallback(callbackReproductor);
+            } catch (RemoteException e) {
+                // El servicio ya no existe; no hay nada que eliminar.
+            }
+            reproductor = null;
+        }
+        unbindService(conexionServicio);
+        super.onStop();
+    }
 
-        // hace BTN invisible para propósitos de animación
-        btnIniciarDetener.setVisibility(View.INVISIBLE);
+    /**
+     * Infla el cuadro del URL y el botón de reproducir (ocultos) la primera
+     * vez que se necesitan.
+     */
+    private void inflarPanelUrl() {
+        if (txtURLCancion != null)
+            return;
+
+        txtURLCancion = (EditText) vistas.stubUrl.inflate();
+        btnIniciarDetener = (FloatingActionButton) vistas.stubIniciarDetener.inflate();
+        btnIniciarDetener.setOnLongClickListener(v -> {
+            descargarSinConexion();
+            return true;
+        });
+        actualizarBoton(reproduciendo);
 
         // Registra un "listener" para ayudar a mostrar el botón de Inicio/Stop
         // cuando el usuario presione ENTER
@@ -103,7 +385,7 @@ public class ActividadReproductor
                         txtURLCancion.setText(
                                 String.valueOf(CANCION_POR_DEFECTO));
                     }
-                    UiUtils.mostrarBoton(btnIniciarDetener);
+                    animaciones.mostrarBoton(btnIniciarDetener);
                     return true;
                 } else
                     return false;
@@ -118,30 +400,23 @@ public class ActividadReproductor
         // Comprueba si el EditText es visible para determinar el tipo de animaciones a utilizar.
         if (auxBtnVisible) {
             // Oculta el EditText usando una animación circular y pone el booleano en false.
-            UiUtils.ocultarEditText(txtURLCancion);
+            animaciones.ocultarEditText(txtURLCancion);
             auxBtnVisible = false;
 
             // Rotar el texto de la imagen de 'x' a '+'
-            int animRedId = R.anim.fab_rotate_backward;
+            animaciones.rotarBoton(vistas.btnAgregar, false);
 
-            // Cargar e iniciar la animación.
-            btnAgregarURL.startAnimation
-                (AnimationUtils.loadAnimation(this,
-                                              animRedId));
             // Oculta el botón Iniciar/Detener.
-            UiUtils.ocultarBoton(btnIniciarDetener);
+            animaciones.ocultarBoton(btnIniciarDetener);
         } else {
             // Muestra el EditText usando una animación circular y pone el booleano en true.
-            UiUtils.mostrarEditText(txtURLCancion);
+            inflarPanelUrl();
+            animaciones.mostrarEditText(txtURLCancion);
             auxBtnVisible = true;
             txtURLCancion.requestFocus();
 
             // Rotar el texto de la imagen de '+' a 'x'
-            int animRedId = R.anim.fab_rotate_forward;
-
-            // Cargar e iniciar la animación.
-            btnAgregarURL.startAnimation(AnimationUtils.loadAnimation(this,
-                    animRedId));
+            animaciones.rotarBoton(vistas.btnAgregar, true);
         }
     }
     /**
@@ -150,7 +425,7 @@ public class ActividadReproductor
      * @param view La vista
      */
     public void iniciarDetenerReproduccion(View view) {
-        if (intentServicioMusica == null)
+        if (!reproduciendo)
             iniciarCancion();
         else
             detenerCancion();
@@ -163,6 +438,13 @@ public class ActividadReproductor
         UiUtils.ocultarTeclado(this,
                              txtURLCancion.getWindowToken());
 
+        // Varias URLs pegadas se importan como una lista.
+        final String texto = txtURLCancion.getText().toString().trim();
+        if (texto.split("\\s+").length > 1) {
+            importar(() -> new StringReader(texto));
+            return;
+        }
+
         // Obtener el URL de la canción
         Uri url = obtenerUrl();
 
@@ -172,31 +454,212 @@ public class ActividadReproductor
                               "URL inválida "
                               + url.toString());
         else {
-            // Crea un intent que iniciará el Servicio de Música para
-            // reproducir una canción solicitada.
-            intentServicioMusica =
-                ServicioReproductor.fabricarIntent(this,
-                                        url);
-
-            // Inicia el servicio por medio de un intent explícito
-            startService(intentServicioMusica);
+            // Envía el comando por Binder; si el servicio aún no está
+            // vinculado, lo inicia con un intent explícito.
+            if (!enviarComando(r -> r.reproducir(url.toString())))
+                startService(ServicioReproductor.fabricarIntent(this,
+                                                                url));
 
             // Actualiza el ícono del botón a "detener"
-            btnIniciarDetener.setImageResource(R.drawable.ic_media_stop);
+            actualizarBoton(true);
         }
     }
 
+    /**
+     * Programa la descarga de la canción del cuadro para escucharla sin
+     * conexión. WorkManager la ejecuta en este proceso (no en el del
+     * servicio), con Wi-Fi y el equipo cargando.
+     */
+    private void descargarSinConexion() {
+        String url = obtenerUrl().toString();
+        if (!URLUtil.isNetworkUrl(url) || ListaHls.esHls(url)) {
+            UiUtils.mostrarMensajeToast(this, getString(R.string.descarga_imposible));
+            return;
+        }
+        TrabajoDescarga.programar(getApplicationContext(), url);
+        UiUtils.mostrarMensajeToast(this, getString(R.string.descarga_programada));
+    }
+
     /**
      * Detiene la reproducción de una canción a través del Servicio de Música
      */
     public void detenerCancion() {
         // Detiene a través del método del API.
-        stopService(intentServicioMusica);
-        intentServicioMusica = null;
+        if (!enviarComando(IReproductor::detener))
+            startService(new Intent(this, ServicioReproductor.class)
+                         .setAction(ServicioReproductor.ACCION_DETENER));
 
         // Actualiza el ícono del botón a "iniciar"
-        btnIniciarDetener.setImageResource(android.R.drawable.ic_media_play);
-    }	
+        actualizarBoton(false);
+    }
+
+    /**
+     * Importa la lista que otra app compartió (texto o archivo) o pidió
+     * abrir (archivo M3U/PLS).
+     */
+    private void importarDesdeIntent(Intent intent) {
+        String accion = intent.getAction();
+        if (Intent.ACTION_SEND.equals(accion)) {
+            final String texto = intent.getStringExtra(Intent.EXTRA_TEXT);
+            Uri archivo = intent.getParcelableExtra(Intent.EXTRA_STREAM);
+            if (texto != null)
+                importar(() -> new StringReader(texto));
+            else if (archivo != null)
+                importar(abrirLista(archivo));
+        } else if (Intent.ACTION_VIEW.equals(accion) && intent.getData() != null)
+            importar(abrirLista(intent.getData()));
+    }
+
+    /**
+     * @return Fuente que lee el archivo de la lista desde su ContentProvider.
+     */
+    private ImportacionUrls.Fuente abrirLista(final Uri archivo) {
+        final ContentResolver contenido = getContentResolver();
+        return () -> {
+            InputStream entrada = contenido.openInputStream(archivo);
+            if (entrada == null)
+                throw new FileNotFoundException(archivo.toString());
+            return new InputStreamReader(entrada, StandardCharsets.UTF_8);
+        };
+    }
+
+    /**
+     * Empieza a importar una lista, cancelando la importación anterior.
+     */
+    private void importar(ImportacionUrls.Fuente fuente) {
+        if (importacion != null)
+            importacion.close();
+        importacion = new ImportacionUrls(oyenteImportacion, this::runOnUiThread);
+        importacion.importar(fuente, null);
+        UiUtils.mostrarMensajeToast(this, getString(R.string.importacion_iniciada));
+    }
+
+    /**
+     * Envía al servicio las canciones importadas pendientes, en lotes
+     * pequeños para no exceder el límite de una transacción de Binder.
+     */
+    private void encolarImportadas() {
+        while (!importadasPendientes.isEmpty()) {
+            List<String> lote = importadasPendientes.subList(
+                    0, Math.min(ImportacionUrls.LOTE, importadasPendientes.size()));
+            final ArrayList<String> urls = new ArrayList<>(lote);
+            if (!enviarComando(r -> r.encolar(urls)))
+                // Se reintenta al vincularse con el servicio.
+                return;
+            lote.clear();
+        }
+    }
+
+    /**
+     * Comando que se envía al Servicio de Música por Binder.
+     */
+    private interface Comando {
+        void enviar(IReproductor reproductor) throws RemoteException;
+    }
+
+    /**
+     * Envía un comando al Servicio de Música si está vinculado.
+     * @return True si el comando se envió.
+     */
+    private boolean enviarComando(Comando comando) {
+        if (reproductor == null)
+            return false;
+        try {
+            comando.enviar(reproductor);
+            return true;
+        } catch (RemoteException e) {
+            reproductor = null;
+            return false;
+        }
+    }
+
+    /**
+     * Muestra "detener" mientras hay una canción en curso, o "iniciar" si no.
+     */
+    private void actualizarBoton(boolean enCurso) {
+        reproduciendo = enCurso;
+        if (btnIniciarDetener != null)
+            btnIniciarDetener.setImageResource(enCurso
+                                               ? R.drawable.ic_media_stop
+                                               : android.R.drawable.ic_media_play);
+    }
+
+    /**
+     * Lee el estado compartido y refleja la posición en la barra de progreso.
+     * @return True si la canción se prepara o suena, es decir, si el
+     * progreso cambiará en los próximos cuadros (si la lectura falla, según
+     * el último estado leído).
+     */
+    private boolean actualizarProgreso() {
+        if (estadoCompartido == null)
+            return false;
+        if (!estadoCompartido.leer(instantanea))
+            return enCurso(instantanea.estado);
+
+        boolean conDuracion = instantanea.estado != EstadoReproduccion.DETENIDO
+                              && instantanea.duracionMs > 0;
+        boolean conOnda = conDuracion && vistas.formaOnda.tienePicos();
+        int visibilidad = conDuracion && !conOnda ? View.VISIBLE : View.INVISIBLE;
+        if (vistas.barraProgreso.getVisibility() != visibilidad)
+            vistas.barraProgreso.setVisibility(visibilidad);
+        int visibilidadOnda = conOnda ? View.VISIBLE : View.GONE;
+        if (vistas.formaOnda.getVisibility() != visibilidadOnda)
+            vistas.formaOnda.setVisibility(visibilidadOnda);
+
+        if (conOnda)
+            vistas.formaOnda.setProgreso(
+                    instantanea.posicionEstimada(SystemClock.elapsedRealtime()),
+                    instantanea.duracionMs);
+        else if (conDuracion) {
+            if (vistas.barraProgreso.getMax() != (int) instantanea.duracionMs)
+                vistas.barraProgreso.setMax((int) instantanea.duracionMs);
+            vistas.barraProgreso.setProgress(
+                    (int) instantanea.posicionEstimada(SystemClock.elapsedRealtime()));
+        }
+        return enCurso(instantanea.estado);
+    }
+
+    private static boolean enCurso(int estado) {
+        return estado == EstadoReproduccion.PREPARANDO
+               || estado == EstadoReproduccion.REPRODUCIENDO;
+    }
+
+    /**
+     * Borra la forma de onda si cambió la canción.
+     */
+    private void cambiarCancion(String url) {
+        urlActual = url;
+        if (urlPicos != null && !urlPicos.equals(url)) {
+            urlPicos = null;
+            vistas.formaOnda.setPicos(null);
+        }
+    }
+
+    /**
+     * Muestra la forma de onda, salvo que los picos sean de una canción
+     * anterior (los avisos llegan en desorden entre los dos callbacks).
+     */
+    private void mostrarPicos(String url, byte[] picos) {
+        if (urlActual != null && !urlActual.equals(url))
+            return;
+        urlPicos = url;
+        vistas.formaOnda.setPicos(picos);
+        // En pausa no hay cuadros programados: muestra la onda ahora.
+        programarCuadro();
+    }
+
+    /**
+     * Salta a la posición elegida en la forma de onda.
+     */
+    private void saltarA(float fraccion) {
+        if (reproductor == null || instantanea.duracionMs <= 0)
+            return;
+        try {
+            reproductor.saltarA((int) (fraccion * instantanea.duracionMs));
+        } catch (RemoteException e) {
+            // El proceso del servicio murió; onServiceDisconnected() lo indica.
+        }
+    }
 
     /**
      * Obtiene la URL a descargar en base a la entrada del usuario.
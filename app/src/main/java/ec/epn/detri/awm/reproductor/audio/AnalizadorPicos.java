@@ -0,0 +1,211 @@
+package ec.epn.detri.awm.reproductor.audio;
+
+import android.media.AudioFormat;
+import android.media.MediaCodec;
+import android.media.MediaDataSource;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Calcula los picos de una canción (ver ReductorPicos) decodificándola con
+ * su propio MediaExtractor y MediaCodec, en modo síncrono, en un hilo de
+ * prioridad de fondo: la reproducción no espera por él, y él sólo espera
+ * por los bytes que aún no se descargan (ver FuenteEntradaCache).
+ *
+ * Nunca guarda el PCM: cada salida del decodificador se reduce y se
+ * devuelve. Los picos se escriben en un archivo temporal que se renombra
+ * al terminar, así que un archivo de picos siempre está completo. Si ya
+ * existe, sólo se lee.
+ */
+public class AnalizadorPicos implements Runnable {
+    private static final String TAG = "AnalizadorPicos";
+
+    /**
+     * Espera máxima por un buffer del decodificador.
+     */
+    private static final long ESPERA_US = 10 * 1000;
+
+    /**
+     * Recibe los picos calculados (en el hilo del analizador).
+     */
+    public interface Oyente {
+        void alCalcular(String url, byte[] picos);
+    }
+
+    private final String url;
+
+    private final MediaDataSource fuente;
+
+    private final String ruta;
+
+    private final File destino;
+
+    private final Oyente oyente;
+
+    private volatile boolean cancelado;
+
+    /**
+     * @param url Canción analizada.
+     * @param fuente Fuente de los datos; se cierra al terminar.
+     * @param destino Archivo de los picos (ver ArchivoPicos.archivo()).
+     */
+    public AnalizadorPicos(String url, MediaDataSource fuente, File destino, Oyente oyente) {
+        this(url, fuente, null, destino, oyente);
+    }
+
+    /**
+     * @param ruta Archivo local de la canción (la propia canción o su
+     * descarga sin conexión).
+     */
+    public AnalizadorPicos(String url, String ruta, File destino, Oyente oyente) {
+        this(url, null, ruta, destino, oyente);
+    }
+
+    private AnalizadorPicos(String url, MediaDataSource fuente, String ruta,
+                            File destino, Oyente oyente) {
+        this.url = url;
+        this.fuente = fuente;
+        this.ruta = ruta;
+        this.destino = destino;
+        this.oyente = oyente;
+    }
+
+    /**
+     * Detiene el análisis sin avisar al oyente; el archivo temporal se
+     * descarta.
+     */
+    public void cancelar() {
+        cancelado = true;
+        cerrarFuente();
+    }
+
+    @Override
+    public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        try {
+            if (!cancelado && !destino.exists())
+                calcular();
+        } catch (IOException | IllegalArgumentException | IllegalStateException e) {
+            if (!cancelado)
+                Log.w(TAG, "No se pudieron calcular los picos de " + url, e);
+        } finally {
+            cerrarFuente();
+        }
+
+        byte[] picos = cancelado ? null : ArchivoPicos.leer(destino);
+        if (picos != null)
+            oyente.alCalcular(url, picos);
+    }
+
+    private void calcular() throws IOException {
+        long inicio = System.nanoTime();
+        File temporal = new File(destino.getPath() + ".tmp");
+        MediaExtractor extractor = new MediaExtractor();
+        MediaCodec codec = null;
+        boolean completo = false;
+        try (OutputStream salida = ArchivoPicos.crear(temporal)) {
+            if (fuente != null)
+                extractor.setDataSource(fuente);
+            else
+                extractor.setDataSource(ruta);
+
+            MediaFormat formato = null;
+            for (int i = 0; i < extractor.getTrackCount() && formato == null; i++) {
+                MediaFormat candidato = extractor.getTrackFormat(i);
+                String mime = candidato.getString(MediaFormat.KEY_MIME);
+                if (mime != null && mime.startsWith("audio/")) {
+                    extractor.selectTrack(i);
+                    formato = candidato;
+                }
+            }
+            if (formato == null)
+                throw new IOException("La fuente no tiene audio");
+
+            ReductorPicos reductor = new ReductorPicos(salida);
+            configurar(reductor, formato);
+            codec = MediaCodec.createDecoderByType(formato.getString(MediaFormat.KEY_MIME));
+            codec.configure(formato, null, null, 0);
+            codec.start();
+            decodificar(extractor, codec, reductor);
+            reductor.terminar();
+            completo = !cancelado;
+
+            Log.i(TAG, reductor.getPicos() + " picos de " + url + " en "
+                       + (System.nanoTime() - inicio) / 1000000 + " ms");
+        } finally {
+            if (codec != null)
+                codec.release();
+            extractor.release();
+            if (!completo || !temporal.renameTo(destino))
+                temporal.delete();
+        }
+    }
+
+    /**
+     * Pasa las muestras del extractor al decodificador y cada salida al
+     * reductor, hasta el final de la canción o hasta que se cancele.
+     */
+    private void decodificar(MediaExtractor extractor, MediaCodec codec, ReductorPicos reductor)
+            throws IOException {
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        boolean finEntrada = false;
+        while (!cancelado) {
+            if (!finEntrada) {
+                int indice = codec.dequeueInputBuffer(ESPERA_US);
+                if (indice >= 0) {
+                    // Bloquea mientras la fuente espera bytes de la red.
+                    int tamanio = extractor.readSampleData(codec.getInputBuffer(indice), 0);
+                    if (tamanio < 0) {
+                        codec.queueInputBuffer(indice, 0, 0, 0,
+                                               MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                        finEntrada = true;
+                    } else {
+                        codec.queueInputBuffer(indice, 0, tamanio, extractor.getSampleTime(), 0);
+                        extractor.advance();
+                    }
+                }
+            }
+
+            int indice = codec.dequeueOutputBuffer(info, ESPERA_US);
+            if (indice == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED)
+                configurar(reductor, codec.getOutputFormat());
+            else if (indice >= 0) {
+                ByteBuffer pcm = codec.getOutputBuffer(indice);
+                if (pcm != null && info.size > 0) {
+                    pcm.limit(info.offset + info.size);
+                    pcm.position(info.offset);
+                    reductor.agregar(pcm);
+                }
+                codec.releaseOutputBuffer(indice, false);
+                if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0)
+                    return;
+            }
+        }
+    }
+
+    private static void configurar(ReductorPicos reductor, MediaFormat formato) {
+        boolean flotante = formato.containsKey(MediaFormat.KEY_PCM_ENCODING)
+                           && formato.getInteger(MediaFormat.KEY_PCM_ENCODING)
+                              == AudioFormat.ENCODING_PCM_FLOAT;
+        reductor.configurar(formato.getInteger(MediaFormat.KEY_SAMPLE_RATE),
+                            formato.getInteger(MediaFormat.KEY_CHANNEL_COUNT),
+                            flotante);
+    }
+
+    private void cerrarFuente() {
+        if (fuente == null)
+            return;
+        try {
+            fuente.close();
+        } catch (IOException e) {
+            // No queda nada por hacer.
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package ec.epn.detri.awm.reproductor.audio;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import ec.epn.detri.awm.reproductor.cache.CacheAudio;
+
+/**
+ * Archivo de los picos de una canción (ver ReductorPicos), junto a la
+ * caché de canciones y con la misma clave: una cabecera (magia, versión y
+ * ms por pico) seguida de un byte por pico. Una canción de 5 minutos
+ * ocupa 3 KB.
+ */
+public final class ArchivoPicos {
+    private static final int MAGIA = 0x5049434f;
+
+    private static final int VERSION = 1;
+
+    private static final int CABECERA = 12;
+
+    private static final String EXTENSION = ".picos";
+
+    /**
+     * Picos de más (unas 14 horas) indican un archivo dañado.
+     */
+    private static final int MAXIMO_PICOS = 512 * 1024;
+
+    private ArchivoPicos() {
+    }
+
+    /**
+     * @return El archivo de los picos de la canción dentro del directorio.
+     */
+    public static File archivo(File directorio, String url) {
+        return new File(directorio, CacheAudio.calcularClave(url) + EXTENSION);
+    }
+
+    /**
+     * Crea el archivo y escribe la cabecera.
+     * @return El flujo donde se escriben los picos.
+     */
+    public static OutputStream crear(File archivo) throws IOException {
+        File directorio = archivo.getParentFile();
+        if (directorio != null && !directorio.exists())
+            directorio.mkdirs();
+
+        DataOutputStream salida = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(archivo)));
+        salida.writeInt(MAGIA);
+        salida.writeInt(VERSION);
+        salida.writeInt(ReductorPicos.MS_POR_PICO);
+        return salida;
+    }
+
+    /**
+     * @return Los picos guardados, o null si el archivo no existe o no es
+     * válido.
+     */
+    public static byte[] leer(File archivo) {
+        long picos = archivo.length() - CABECERA;
+        if (picos < 0 || picos > MAXIMO_PICOS)
+            return null;
+
+        try (DataInputStream entrada = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(archivo)))) {
+            if (entrada.readInt() != MAGIA || entrada.readInt() != VERSION
+                || entrada.readInt() != ReductorPicos.MS_POR_PICO)
+                return null;
+            byte[] datos = new byte[(int) picos];
+            entrada.readFully(datos);
+            return datos;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
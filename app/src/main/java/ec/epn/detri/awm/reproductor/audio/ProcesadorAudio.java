@@ -0,0 +1,140 @@
+package ec.epn.detri.awm.reproductor.audio;
+
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Etapa de procesamiento entre el decodificador y el AudioTrack de
+ * ReproductorCodec: multiplica cada bloque de PCM por la ganancia de
+ * normalización de la canción (ReplayGain) y por las curvas del fundido
+ * con la canción anterior o la siguiente.
+ *
+ * La ganancia de un bloque varía linealmente entre la de su primer y la de
+ * su último cuadro. Los bloques duran menos de 100 ms, así que la rampa
+ * sigue bien las curvas del fundido y suaviza los cambios de ganancia (sin
+ * chasquidos). Las muestras pasan a float en arreglos reservados una vez,
+ * y los ciclos no tienen ramas ni dependencias entre iteraciones, para que
+ * el compilador los vectorice.
+ *
+ * No es segura para hilos: la usa sólo el hilo de salida.
+ */
+public final class ProcesadorAudio {
+    /**
+     * Ganancia máxima de la normalización (+12 dB): una etiqueta errónea no
+     * debe dejar el volumen al máximo.
+     */
+    static final float GANANCIA_MAXIMA = 4f;
+
+    private static final float ESCALA_16_BITS = 32768f;
+
+    private final float[] muestras;
+
+    private final short[] cortos;
+
+    /**
+     * @param maximoMuestras Muestras (de todos los canales) del bloque más
+     * grande que se procesará.
+     */
+    public ProcesadorAudio(int maximoMuestras) {
+        muestras = new float[maximoMuestras];
+        cortos = new short[maximoMuestras];
+    }
+
+    /**
+     * Aplica una rampa de ganancia a PCM de 16 bits, en el lugar.
+     * @param pcm Vista de las muestras desde la posición 0.
+     * @param n Muestras a procesar.
+     * @param inicio Ganancia de la primera muestra.
+     * @param fin Ganancia tras la última muestra.
+     */
+    public void procesar(ShortBuffer pcm, int n, float inicio, float fin) {
+        pcm.clear();
+        pcm.get(cortos, 0, n);
+        aFlotante(cortos, muestras, n);
+        aplicarRampa(muestras, n, inicio, fin);
+        aPcm16(muestras, cortos, n);
+        pcm.clear();
+        pcm.put(cortos, 0, n);
+    }
+
+    /**
+     * Aplica una rampa de ganancia a PCM en float, en el lugar.
+     */
+    public void procesar(FloatBuffer pcm, int n, float inicio, float fin) {
+        pcm.clear();
+        pcm.get(muestras, 0, n);
+        aplicarRampa(muestras, n, inicio, fin);
+        limitar(muestras, n);
+        pcm.clear();
+        pcm.put(muestras, 0, n);
+    }
+
+    /**
+     * @param db Ganancia de la etiqueta (REPLAYGAIN_TRACK_GAIN), o NaN si no
+     * la hay.
+     * @param pico Muestra máxima de la canción (1 es la escala completa), o
+     * 0 si no se conoce.
+     * @return Factor por el que se multiplican las muestras, limitado para
+     * que el pico no sature.
+     */
+    public static float ganancia(float db, float pico) {
+        if (Float.isNaN(db))
+            return 1f;
+        float ganancia = (float) Math.pow(10, db / 20);
+        if (pico > 0)
+            ganancia = Math.min(ganancia, 1f / pico);
+        return Math.min(ganancia, GANANCIA_MAXIMA);
+    }
+
+    /**
+     * Curva de la canción que entra en un fundido de igual potencia: la
+     * suma de las potencias de ambas canciones se mantiene constante.
+     * @param x Avance del fundido, de 0 a 1.
+     */
+    static float curvaEntrada(float x) {
+        return (float) Math.sin(Math.max(0f, Math.min(1f, x)) * Math.PI / 2);
+    }
+
+    /**
+     * Curva de la canción que sale (ver curvaEntrada()).
+     */
+    static float curvaSalida(float x) {
+        return (float) Math.cos(Math.max(0f, Math.min(1f, x)) * Math.PI / 2);
+    }
+
+    static void aFlotante(short[] origen, float[] destino, int n) {
+        for (int i = 0; i < n; i++)
+            destino[i] = origen[i] * (1f / ESCALA_16_BITS);
+    }
+
+    /**
+     * Convierte a 16 bits, saturando lo que pasa de la escala completa.
+     */
+    static void aPcm16(float[] origen, short[] destino, int n) {
+        for (int i = 0; i < n; i++)
+            destino[i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE,
+                                                                    (int) (origen[i] * ESCALA_16_BITS)));
+    }
+
+    /**
+     * Multiplica las muestras por una ganancia que va linealmente de inicio
+     * a fin. Avanza por muestra y no por cuadro: entre los canales de un
+     * cuadro la diferencia es inaudible, y así el ciclo no depende del
+     * número de canales.
+     */
+    static void aplicarRampa(float[] muestras, int n, float inicio, float fin) {
+        if (inicio == fin) {
+            for (int i = 0; i < n; i++)
+                muestras[i] *= inicio;
+            return;
+        }
+        float paso = (fin - inicio) / n;
+        for (int i = 0; i < n; i++)
+            muestras[i] *= inicio + paso * i;
+    }
+
+    static void limitar(float[] muestras, int n) {
+        for (int i = 0; i < n; i++)
+            muestras[i] = Math.max(-1f, Math.min(1f, muestras[i]));
+    }
+}
@@ -0,0 +1,150 @@
+package ec.epn.detri.awm.reproductor.audio;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Reduce el PCM decodificado de una canción a un byte por cada MS_POR_PICO
+ * ms: la amplitud máxima (de todos los canales) en ese intervalo. Procesa
+ * el audio a medida que llega y escribe cada pico en cuanto se completa,
+ * así que la memoria no depende de la duración de la canción.
+ *
+ * El pico se guarda en escala de raíz cuadrada (0 a 255), que conserva
+ * visibles los pasajes suaves al dibujar la forma de onda.
+ */
+public final class ReductorPicos {
+    /**
+     * Duración de audio que representa cada pico.
+     */
+    public static final int MS_POR_PICO = 100;
+
+    private static final int MAXIMO_16_BITS = 32768;
+
+    private final OutputStream salida;
+
+    private int frecuencia;
+    private int canales;
+    private boolean flotante;
+    private int bytesPorCuadro;
+
+    /**
+     * Picos escritos antes del último cambio de formato, y cuadros
+     * procesados desde entonces.
+     */
+    private long picosBase;
+    private long cuadros;
+
+    /**
+     * Cuadro (desde el último cambio de formato) en que termina el pico
+     * en curso.
+     */
+    private long finPico;
+
+    private long picos;
+
+    /**
+     * Muestra máxima (en valor absoluto, escala de 16 bits) del pico en curso.
+     */
+    private int maximo;
+
+    /**
+     * @param salida Destino de los picos (uno por byte).
+     */
+    public ReductorPicos(OutputStream salida) {
+        this.salida = salida;
+    }
+
+    /**
+     * Asigna el formato del PCM que sigue; el pico en curso continúa con
+     * el nuevo formato.
+     * @param flotante True para PCM en float, false para 16 bits.
+     */
+    public void configurar(int frecuencia, int canales, boolean flotante) {
+        if (frecuencia <= 0 || canales <= 0)
+            throw new IllegalArgumentException(frecuencia + " Hz, " + canales + " canales");
+        this.frecuencia = frecuencia;
+        this.canales = canales;
+        this.flotante = flotante;
+        bytesPorCuadro = canales * (flotante ? 4 : 2);
+        picosBase = picos;
+        cuadros = 0;
+        finPico = cuadrosHastaPico(1);
+    }
+
+    /**
+     * Procesa el PCM entre la posición y el límite del buffer (sin moverlos).
+     * Cambia el orden del buffer al nativo, que es el de MediaCodec.
+     */
+    public void agregar(ByteBuffer pcm) throws IOException {
+        if (bytesPorCuadro == 0)
+            throw new IllegalStateException("Formato sin configurar");
+        pcm.order(ByteOrder.nativeOrder());
+
+        int pos = pcm.position();
+        int limite = pcm.limit() - (pcm.limit() - pos) % bytesPorCuadro;
+        while (pos < limite) {
+            long restantes = Math.min(finPico - cuadros, (limite - pos) / bytesPorCuadro);
+            int fin = pos + (int) restantes * bytesPorCuadro;
+            int max = maximo;
+            if (flotante)
+                for (; pos < fin; pos += 4) {
+                    int m = (int) (Math.abs(pcm.getFloat(pos)) * MAXIMO_16_BITS);
+                    if (m > max)
+                        max = m;
+                }
+            else
+                for (; pos < fin; pos += 2) {
+                    int m = pcm.getShort(pos);
+                    if (m < 0)
+                        m = -m;
+                    if (m > max)
+                        max = m;
+                }
+            maximo = max;
+            cuadros += restantes;
+            if (cuadros == finPico)
+                emitir();
+        }
+    }
+
+    /**
+     * Escribe el pico incompleto del final de la canción, si lo hay.
+     */
+    public void terminar() throws IOException {
+        if (cuadros > cuadrosHastaPico(picos - picosBase))
+            emitir();
+    }
+
+    /**
+     * @return Picos escritos hasta ahora.
+     */
+    public long getPicos() {
+        return picos;
+    }
+
+    /**
+     * @return El pico en escala de raíz cuadrada, de 0 a 255.
+     */
+    static int escalar(int maximo) {
+        if (maximo >= MAXIMO_16_BITS)
+            return 255;
+        return (int) Math.round(255 * Math.sqrt((double) maximo / MAXIMO_16_BITS));
+    }
+
+    private void emitir() throws IOException {
+        salida.write(escalar(maximo));
+        picos++;
+        maximo = 0;
+        finPico = cuadrosHastaPico(picos - picosBase + 1);
+    }
+
+    /**
+     * @return Cuadro (desde el último cambio de formato) en que termina el
+     * pico indicado; se calcula desde el inicio para no acumular redondeos.
+     */
+    private long cuadrosHastaPico(long pico) {
+        return pico * frecuencia * MS_POR_PICO / 1000;
+    }
+}
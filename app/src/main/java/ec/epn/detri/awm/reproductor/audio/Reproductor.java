@@ -0,0 +1,101 @@
+package ec.epn.detri.awm.reproductor.audio;
+
+import android.media.MediaDataSource;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+
+/**
+ * Motor de reproducción de una canción, con el mismo ciclo que MediaPlayer:
+ * se le asigna una fuente, se prepara de forma asíncrona, se inicia, y al
+ * terminar se reinicia para reutilizarlo con otra canción.
+ *
+ * Hay dos implementaciones: ReproductorMediaPlayer (el MediaPlayer del
+ * sistema) y ReproductorCodec (MediaExtractor + MediaCodec + AudioTrack).
+ * Los avisos al Oyente llegan en el hilo principal.
+ */
+public interface Reproductor {
+    /**
+     * Recibe los avisos del reproductor. Los códigos de alInformar() y
+     * alFallar() son los de MediaPlayer (MEDIA_INFO_*, MEDIA_ERROR_*).
+     */
+    interface Oyente {
+        void alPreparar(Reproductor reproductor);
+
+        void alCompletar(Reproductor reproductor);
+
+        void alInformar(Reproductor reproductor, int que, int extra);
+
+        /**
+         * @return False para que el reproductor invoque alCompletar() a
+         * continuación (como MediaPlayer).
+         */
+        boolean alFallar(Reproductor reproductor, int que, int extra);
+    }
+
+    void setOyente(Oyente oyente);
+
+    /**
+     * Asigna un archivo local (ruta) o un URL.
+     */
+    void setFuente(String ruta) throws IOException;
+
+    /**
+     * Asigna un archivo abierto; el descriptor se puede cerrar al volver.
+     */
+    void setFuente(FileDescriptor descriptor) throws IOException;
+
+    void setFuente(MediaDataSource fuente) throws IOException;
+
+    /**
+     * Empieza a preparar la canción sin bloquear; al terminar se invoca
+     * Oyente.alPreparar().
+     */
+    void preparar();
+
+    void iniciar();
+
+    void pausar();
+
+    void saltarA(int posicionMs);
+
+    int getPosicion();
+
+    /**
+     * @return La duración en ms, o -1 si no se conoce.
+     */
+    int getDuracion();
+
+    void setVolumen(float volumen);
+
+    /**
+     * Asigna la ganancia de normalización de la canción (ver
+     * ProcesadorAudio.ganancia()), que multiplica al volumen.
+     * ReproductorMediaPlayer sólo puede atenuar; reiniciar() la vuelve a 1.
+     */
+    void setGanancia(float ganancia);
+
+    /**
+     * Asigna la duración del fundido con la canción encadenada con
+     * setSiguiente() (0, el valor inicial, para pasar a ella sin pausa pero
+     * sin fundido). Sólo ReproductorCodec la soporta, y el fundido ocurre
+     * cuando ambas canciones lo usan.
+     */
+    void setFundido(int ms);
+
+    /**
+     * Indica el reproductor que debe empezar en cuanto termine éste (null
+     * para ninguno), ya preparado.
+     */
+    void setSiguiente(Reproductor siguiente);
+
+    /**
+     * Vuelve al estado inicial, sin fuente, para reutilizarlo.
+     */
+    void reiniciar();
+
+    /**
+     * Libera los recursos nativos; el reproductor no se puede volver a usar.
+     */
+    void liberar();
+}
@@ -0,0 +1,1123 @@
+package ec.epn.detri.awm.reproductor.audio;
+
+import android.media.AudioAttributes;
+import android.media.AudioFormat;
+import android.media.AudioTrack;
+import android.media.MediaCodec;
+import android.media.MediaDataSource;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.media.MediaPlayer;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Reproductor que decodifica con MediaExtractor y MediaCodec (en modo
+ * asíncrono) y escribe el PCM en un AudioTrack, en lugar de MediaPlayer:
+ * - el hilo "ReproductorCodec" atiende los callbacks de MediaCodec: lee
+ *   las muestras del extractor y copia cada salida del decodificador a
+ *   bloques de ByteBuffer directos;
+ * - el hilo "SalidaAudio" escribe los bloques en el AudioTrack sin
+ *   bloquear, y espera en el monitor cuando el AudioTrack está lleno;
+ * - los bloques se reservan una vez y circulan entre dos colas (libres y
+ *   llenos), así que no se asigna memoria por cuadro de audio;
+ * - preparar() no termina hasta tener el primer bloque decodificado, que
+ *   se escribe en el AudioTrack antes de iniciar(): el audio sale en
+ *   cuanto se llama a play(). MediaCodec y AudioTrack se reutilizan entre
+ *   canciones del mismo formato;
+ * - los saltos son precisos: el extractor vuelve al cuadro de sincronía
+ *   anterior y se descartan las muestras antes del objetivo;
+ * - antes de escribir cada bloque, ProcesadorAudio le aplica la ganancia
+ *   de normalización y, si se pidió un fundido (setFundido()), las curvas
+ *   del fundido: al llegar al fundido de salida, este reproductor inicia al
+ *   siguiente, que entra con la curva complementaria mientras el mezclador
+ *   del sistema suma ambos AudioTrack. Pausar o reanudar éste durante el
+ *   fundido también pausa o reanuda al siguiente, y un salto lo cancela.
+ *
+ * La lectura del extractor bloquea al hilo del decodificador mientras la
+ * fuente espera datos de la red; la salida sigue con lo ya decodificado y,
+ * si se agota, avisa el corte con MEDIA_INFO_BUFFERING_START/END.
+ */
+public class ReproductorCodec implements Reproductor {
+    private static final String TAG = "ReproductorCodec";
+
+    /**
+     * Bloques de PCM decodificado por delante de la salida (con 16 KB por
+     * bloque, unos 2 s de audio estéreo a 44,1 kHz).
+     */
+    static final int BLOQUES = 24;
+
+    static final int TAMANIO_BLOQUE = 16 * 1024;
+
+    /**
+     * Bytes de los bloques, que se reservan al crear el reproductor y se
+     * conservan al reiniciarlo.
+     */
+    public static final int BYTES_BLOQUES = BLOQUES * TAMANIO_BLOQUE;
+
+    /**
+     * Duración del buffer del AudioTrack. Uno más corto reduce la latencia
+     * de pausas y saltos, pero despierta más veces al hilo de salida.
+     */
+    private static final int MS_PISTA = 120;
+
+    /**
+     * Salidas del decodificador que pueden esperar bloques libres.
+     */
+    private static final int MAXIMO_PENDIENTES = 32;
+
+    // Estados, en el orden del ciclo de vida.
+    private static final int INACTIVO = 0;
+    private static final int PREPARANDO = 1;
+    private static final int PREPARADO = 2;
+    private static final int REPRODUCIENDO = 3;
+    private static final int PAUSADO = 4;
+    private static final int COMPLETADO = 5;
+    private static final int ERROR = 6;
+    private static final int LIBERADO = 7;
+
+    // Avisos al oyente.
+    private static final int AVISO_PREPARADO = 0;
+    private static final int AVISO_COMPLETADO = 1;
+    private static final int AVISO_INFO = 2;
+    private static final int AVISO_ERROR = 3;
+
+    /**
+     * PCM decodificado de una misma generación (ver generacion). Un bloque
+     * con fin = true marca el final de la canción.
+     */
+    private static final class Bloque {
+        final ByteBuffer datos = ByteBuffer.allocateDirect(TAMANIO_BLOQUE);
+        // Vistas de las muestras para ProcesadorAudio.
+        final ShortBuffer cortos = datos.duplicate().order(ByteOrder.nativeOrder()).asShortBuffer();
+        final FloatBuffer flotantes = datos.duplicate().order(ByteOrder.nativeOrder()).asFloatBuffer();
+        int generacion;
+        boolean fin;
+        /**
+         * True si ya se le aplicó la ganancia (se escribe en varias partes
+         * cuando el AudioTrack está lleno).
+         */
+        boolean procesado;
+    }
+
+    /**
+     * Cola FIFO de capacidad fija (no es segura para hilos).
+     */
+    private static final class ColaBloques {
+        private final Bloque[] bloques;
+        private int primero;
+        private int tamanio;
+
+        ColaBloques(int capacidad) {
+            bloques = new Bloque[capacidad];
+        }
+
+        void agregar(Bloque bloque) {
+            bloques[(primero + tamanio++) % bloques.length] = bloque;
+        }
+
+        Bloque primero() {
+            return tamanio == 0 ? null : bloques[primero];
+        }
+
+        Bloque quitar() {
+            if (tamanio == 0)
+                return null;
+            Bloque bloque = bloques[primero];
+            bloques[primero] = null;
+            primero = (primero + 1) % bloques.length;
+            tamanio--;
+            return bloque;
+        }
+    }
+
+    private final AudioAttributes atributos;
+
+    private final Handler principal = new Handler(Looper.getMainLooper());
+
+    private final HandlerThread hiloCodec;
+
+    private final Handler manejadorCodec;
+
+    private final Object monitor = new Object();
+
+    private volatile Oyente oyente;
+
+    // Estado compartido protegido por monitor.
+    private final ColaBloques libres = new ColaBloques(BLOQUES);
+    private final ColaBloques llenos = new ColaBloques(BLOQUES);
+    private volatile int estado = INACTIVO;
+    /**
+     * Cambia en cada reiniciar(): descarta los avisos de la canción anterior.
+     */
+    private int sesion;
+    /**
+     * Cambia en cada salto: descarta los bloques decodificados antes.
+     */
+    private int generacion;
+    private long objetivoUs;
+    private int posicionBaseMs;
+    private long cuadrosEscritos;
+    private boolean enCorte;
+    private boolean decodificadorEsperando;
+    private int duracionMs = -1;
+    private float volumen = 1f;
+    private Reproductor siguiente;
+    private String rutaFuente;
+    private ParcelFileDescriptor descriptorFuente;
+    private MediaDataSource datosFuente;
+    private AudioTrack pista;
+    private int frecuencia;
+    private int canales;
+    private int codificacion;
+    private int bytesPorCuadro;
+    private long esperaMs;
+    private ByteBuffer silencio;
+    private float ganancia = 1f;
+    /**
+     * Ganancia al final del último bloque procesado: un cambio de ganancia
+     * se aplica en rampa a lo largo del bloque siguiente.
+     */
+    private float gananciaAplicada = 1f;
+    private int fundidoMs;
+    /**
+     * Fundidos en curso, en cuadros desde el inicio de la canción (0
+     * cuadros si no hay fundido).
+     */
+    private long inicioEntrada;
+    private long cuadrosEntrada;
+    private long inicioSalida;
+    private long cuadrosSalida;
+
+    // Estado del hilo de salida.
+    private final ProcesadorAudio procesador = new ProcesadorAudio(TAMANIO_BLOQUE / 2);
+
+    // Estado del hilo del decodificador.
+    private MediaExtractor extractor;
+    private MediaCodec codec;
+    private String mimeCodec;
+    private ParcelFileDescriptor descriptor;
+    private MediaDataSource datos;
+    private boolean codecActivo;
+    private boolean finEntrada;
+    private int generacionCodec;
+    private long recorteUs;
+    private final int[] indicesPendientes = new int[MAXIMO_PENDIENTES];
+    private final ByteBuffer[] salidasPendientes = new ByteBuffer[MAXIMO_PENDIENTES];
+    private final int[] posicionesPendientes = new int[MAXIMO_PENDIENTES];
+    private final int[] limitesPendientes = new int[MAXIMO_PENDIENTES];
+    private final boolean[] finalesPendientes = new boolean[MAXIMO_PENDIENTES];
+    private int primeraPendiente;
+    private int numPendientes;
+
+    private final Runnable drenar = this::drenar;
+
+    private final Runnable buscar = this::buscar;
+
+    private final Runnable cerrar = this::cerrar;
+
+    private final MediaCodec.Callback callbackCodec = new MediaCodec.Callback() {
+        @Override
+        public void onInputBufferAvailable(MediaCodec c, int indice) {
+            if (c == codec)
+                alimentar(indice);
+        }
+
+        @Override
+        public void onOutputBufferAvailable(MediaCodec c, int indice, MediaCodec.BufferInfo info) {
+            if (c == codec)
+                recibirSalida(indice, info);
+        }
+
+        @Override
+        public void onOutputFormatChanged(MediaCodec c, MediaFormat formato) {
+            if (c == codec)
+                configurarSalida(formato);
+        }
+
+        @Override
+        public void onError(MediaCodec c, MediaCodec.CodecException e) {
+            if (c == codec)
+                fallar(MediaPlayer.MEDIA_ERROR_MALFORMED, e);
+        }
+    };
+
+    /**
+     * Constructor; crea los hilos y reserva los bloques.
+     * @param atributos Uso del audio (el sistema lo atenúa cuando otra app
+     * lo pide).
+     */
+    public ReproductorCodec(AudioAttributes atributos) {
+        this.atributos = atributos;
+        for (int i = 0; i < BLOQUES; i++)
+            libres.agregar(new Bloque());
+
+        hiloCodec = new HandlerThread(TAG, Process.THREAD_PRIORITY_AUDIO);
+        hiloCodec.start();
+        manejadorCodec = new Handler(hiloCodec.getLooper());
+
+        Thread hiloSalida = new Thread(this::escribir, "SalidaAudio");
+        hiloSalida.setDaemon(true);
+        hiloSalida.start();
+    }
+
+    @Override
+    public void setOyente(Oyente oyente) {
+        this.oyente = oyente;
+    }
+
+    @Override
+    public void setFuente(String ruta) {
+        synchronized (monitor) {
+            verificarInactivo();
+            rutaFuente = ruta;
+        }
+    }
+
+    @Override
+    public void setFuente(FileDescriptor descriptor) throws IOException {
+        // El extractor lo abre más tarde, en su hilo.
+        ParcelFileDescriptor copia = ParcelFileDescriptor.dup(descriptor);
+        synchronized (monitor) {
+            verificarInactivo();
+            descriptorFuente = copia;
+        }
+    }
+
+    @Override
+    public void setFuente(MediaDataSource fuente) {
+        synchronized (monitor) {
+            verificarInactivo();
+            datosFuente = fuente;
+        }
+    }
+
+    @Override
+    public void preparar() {
+        synchronized (monitor) {
+            verificarInactivo();
+            if (rutaFuente == null && descriptorFuente == null && datosFuente == null)
+                throw new IllegalStateException("Sin fuente");
+            estado = PREPARANDO;
+            final int sesionPreparada = sesion;
+            manejadorCodec.post(() -> abrir(sesionPreparada));
+        }
+    }
+
+    @Override
+    public void iniciar() {
+        synchronized (monitor) {
+            if (estado == COMPLETADO)
+                saltar(0);
+            if (estado != PREPARADO && estado != PAUSADO)
+                return;
+            estado = REPRODUCIENDO;
+            if (pista != null)
+                pista.play();
+            if (cuadrosSalida > 0 && siguiente != null)
+                siguiente.iniciar();
+            monitor.notifyAll();
+        }
+    }
+
+    @Override
+    public void pausar() {
+        synchronized (monitor) {
+            if (estado != REPRODUCIENDO)
+                return;
+            estado = PAUSADO;
+            if (pista != null)
+                pista.pause();
+            if (cuadrosSalida > 0 && siguiente != null)
+                siguiente.pausar();
+            monitor.notifyAll();
+        }
+    }
+
+    @Override
+    public void saltarA(int posicionMs) {
+        synchronized (monitor) {
+            if (estado >= PREPARANDO && estado <= COMPLETADO)
+                saltar(posicionMs);
+        }
+    }
+
+    @Override
+    public int getPosicion() {
+        synchronized (monitor) {
+            return posicionActual();
+        }
+    }
+
+    @Override
+    public int getDuracion() {
+        synchronized (monitor) {
+            return duracionMs;
+        }
+    }
+
+    @Override
+    public void setVolumen(float volumen) {
+        synchronized (monitor) {
+            this.volumen = volumen;
+            if (pista != null)
+                pista.setVolume(volumen);
+        }
+    }
+
+    @Override
+    public void setGanancia(float ganancia) {
+        synchronized (monitor) {
+            this.ganancia = ganancia;
+            // Sin nada escrito aún, no hace falta la rampa desde la anterior.
+            if (estado < REPRODUCIENDO && cuadrosEscritos == 0)
+                gananciaAplicada = ganancia;
+        }
+    }
+
+    @Override
+    public void setFundido(int ms) {
+        synchronized (monitor) {
+            fundidoMs = ms;
+            monitor.notifyAll();
+        }
+    }
+
+    @Override
+    public void setSiguiente(Reproductor siguiente) {
+        synchronized (monitor) {
+            // La canción que entraba se descarta: ésta vuelve a su volumen.
+            if (siguiente != this.siguiente)
+                cuadrosSalida = 0;
+            this.siguiente = siguiente;
+        }
+    }
+
+    @Override
+    public void reiniciar() {
+        ParcelFileDescriptor descriptorSinAbrir;
+        MediaDataSource datosSinAbrir;
+        synchronized (monitor) {
+            if (estado == LIBERADO)
+                return;
+            sesion++;
+            generacion++;
+            estado = INACTIVO;
+            siguiente = null;
+            duracionMs = -1;
+            objetivoUs = 0;
+            posicionBaseMs = 0;
+            cuadrosEscritos = 0;
+            enCorte = false;
+            ganancia = 1f;
+            gananciaAplicada = 1f;
+            fundidoMs = 0;
+            cuadrosEntrada = 0;
+            cuadrosSalida = 0;
+            descartarLlenos();
+            if (pista != null) {
+                pista.pause();
+                pista.flush();
+            }
+            descriptorSinAbrir = descriptorFuente;
+            datosSinAbrir = datosFuente;
+            descriptorFuente = null;
+            datosFuente = null;
+            rutaFuente = null;
+            monitor.notifyAll();
+        }
+        cerrarFuente(descriptorSinAbrir, datosSinAbrir);
+        manejadorCodec.post(cerrar);
+    }
+
+    @Override
+    public void liberar() {
+        reiniciar();
+        synchronized (monitor) {
+            if (estado == LIBERADO)
+                return;
+            estado = LIBERADO;
+            if (pista != null) {
+                pista.release();
+                pista = null;
+            }
+            monitor.notifyAll();
+        }
+        manejadorCodec.post(() -> {
+            if (codec != null) {
+                codec.release();
+                codec = null;
+            }
+        });
+        hiloCodec.quitSafely();
+    }
+
+    private void verificarInactivo() {
+        if (estado != INACTIVO)
+            throw new IllegalStateException("El reproductor no está inactivo");
+    }
+
+    /**
+     * Descarta lo decodificado y reposiciona la salida; el decodificador
+     * se reposiciona en su hilo. Debe invocarse con el monitor tomado.
+     */
+    private void saltar(int posicionMs) {
+        generacion++;
+        objetivoUs = posicionMs * 1000L;
+        posicionBaseMs = posicionMs;
+        cuadrosEscritos = 0;
+        descartarLlenos();
+        if (cuadrosSalida > 0 && siguiente instanceof ReproductorCodec)
+            ((ReproductorCodec) siguiente).cancelarFundido();
+        cuadrosEntrada = 0;
+        cuadrosSalida = 0;
+        gananciaAplicada = ganancia;
+        if (estado == COMPLETADO)
+            estado = PAUSADO;
+        if (enCorte) {
+            enCorte = false;
+            avisar(AVISO_INFO, MediaPlayer.MEDIA_INFO_BUFFERING_END, 0);
+        }
+        if (pista != null) {
+            pista.pause();
+            pista.flush();
+            if (estado == REPRODUCIENDO)
+                pista.play();
+        }
+        monitor.notifyAll();
+        manejadorCodec.post(buscar);
+    }
+
+    /**
+     * Empieza a sonar con la curva de entrada del fundido (lo invoca el
+     * reproductor anterior al llegar a su fundido de salida).
+     * @param ms Duración del fundido.
+     * @return False si no usa fundido o no está recién preparado.
+     */
+    private boolean iniciarFundido(int ms) {
+        synchronized (monitor) {
+            if (estado != PREPARADO || fundidoMs <= 0)
+                return false;
+            cuadrosEntrada = Math.max(1, ms * (long) frecuencia / 1000);
+            inicioEntrada = cuadroEscrito();
+            iniciar();
+            return true;
+        }
+    }
+
+    /**
+     * Deja el reproductor como recién preparado, al inicio de la canción,
+     * cuando el anterior cancela el fundido (p.ej. por un salto).
+     */
+    private void cancelarFundido() {
+        synchronized (monitor) {
+            if (estado != REPRODUCIENDO && estado != PAUSADO)
+                return;
+            estado = PREPARADO;
+            if (pista != null)
+                pista.pause();
+            saltar(0);
+        }
+    }
+
+    /**
+     * @return El cuadro de la canción que sigue a lo escrito en el
+     * AudioTrack. Debe invocarse con el monitor tomado.
+     */
+    private long cuadroEscrito() {
+        return posicionBaseMs * (long) frecuencia / 1000 + cuadrosEscritos;
+    }
+
+    /**
+     * @return La posición reproducida. Debe invocarse con el monitor tomado.
+     */
+    private int posicionActual() {
+        if (pista == null || frecuencia == 0)
+            return posicionBaseMs;
+        long cuadros = Math.min(cabeza(), cuadrosEscritos);
+        return posicionBaseMs + (int) (cuadros * 1000 / frecuencia);
+    }
+
+    /**
+     * @return Cuadros reproducidos desde el último flush() o play().
+     */
+    private long cabeza() {
+        return pista.getPlaybackHeadPosition() & 0xFFFFFFFFL;
+    }
+
+    private void descartarLlenos() {
+        Bloque bloque;
+        while ((bloque = llenos.quitar()) != null)
+            devolverLibre(bloque);
+    }
+
+    private void devolverLibre(Bloque bloque) {
+        libres.agregar(bloque);
+        if (decodificadorEsperando) {
+            decodificadorEsperando = false;
+            manejadorCodec.post(drenar);
+        }
+    }
+
+    /**
+     * Envía un aviso al oyente en el hilo principal, salvo que antes se
+     * reinicie el reproductor. Debe invocarse con el monitor tomado.
+     */
+    private void avisar(final int aviso, final int que, final int extra) {
+        final int sesionAviso = sesion;
+        principal.post(() -> {
+            Oyente destino = oyente;
+            synchronized (monitor) {
+                if (destino == null || sesion != sesionAviso)
+                    return;
+            }
+            switch (aviso) {
+                case AVISO_PREPARADO:
+                    destino.alPreparar(this);
+                    break;
+                case AVISO_COMPLETADO:
+                    destino.alCompletar(this);
+                    break;
+                case AVISO_INFO:
+                    destino.alInformar(this, que, extra);
+                    break;
+                case AVISO_ERROR:
+                    if (!destino.alFallar(this, que, extra))
+                        destino.alCompletar(this);
+                    break;
+            }
+        });
+    }
+
+    /**
+     * Deja el reproductor en estado de error y avisa al oyente.
+     */
+    private void fallar(int extra, Exception e) {
+        Log.w(TAG, "Error de reproducción", e);
+        synchronized (monitor) {
+            if (estado == INACTIVO || estado >= ERROR)
+                return;
+            estado = ERROR;
+            descartarLlenos();
+            if (pista != null)
+                pista.pause();
+            avisar(AVISO_ERROR, MediaPlayer.MEDIA_ERROR_UNKNOWN, extra);
+        }
+    }
+
+    /**
+     * Cierra la fuente, como MediaPlayer al reiniciarse.
+     */
+    private static void cerrarFuente(ParcelFileDescriptor descriptor, MediaDataSource datos) {
+        try {
+            if (descriptor != null)
+                descriptor.close();
+            if (datos != null)
+                datos.close();
+        } catch (IOException e) {
+            Log.w(TAG, "No se pudo cerrar la fuente", e);
+        }
+    }
+
+    // ---- Hilo del decodificador ----
+
+    /**
+     * Abre la fuente y arranca el decodificador de su primera pista de audio.
+     */
+    private void abrir(int sesionPreparada) {
+        String ruta;
+        long objetivo;
+        synchronized (monitor) {
+            if (sesion != sesionPreparada || estado != PREPARANDO)
+                return;
+            ruta = rutaFuente;
+            datos = datosFuente;
+            descriptor = descriptorFuente;
+            datosFuente = null;
+            descriptorFuente = null;
+            objetivo = objetivoUs;
+            generacionCodec = generacion;
+        }
+
+        try {
+            extractor = new MediaExtractor();
+            if (datos != null)
+                extractor.setDataSource(datos);
+            else if (descriptor != null)
+                extractor.setDataSource(descriptor.getFileDescriptor());
+            else
+                extractor.setDataSource(ruta);
+
+            MediaFormat formato = null;
+            for (int i = 0; i < extractor.getTrackCount() && formato == null; i++) {
+                MediaFormat candidato = extractor.getTrackFormat(i);
+                String mime = candidato.getString(MediaFormat.KEY_MIME);
+                if (mime != null && mime.startsWith("audio/")) {
+                    extractor.selectTrack(i);
+                    formato = candidato;
+                }
+            }
+            if (formato == null)
+                throw new IOException("La fuente no tiene audio");
+
+            synchronized (monitor) {
+                duracionMs = formato.containsKey(MediaFormat.KEY_DURATION)
+                        ? (int) (formato.getLong(MediaFormat.KEY_DURATION) / 1000)
+                        : -1;
+            }
+            if (objetivo > 0)
+                extractor.seekTo(objetivo, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+            recorteUs = objetivo;
+            finEntrada = false;
+
+            String mime = formato.getString(MediaFormat.KEY_MIME);
+            if (codec != null && !mime.equals(mimeCodec)) {
+                codec.release();
+                codec = null;
+            }
+            if (codec == null) {
+                codec = MediaCodec.createDecoderByType(mime);
+                mimeCodec = mime;
+            }
+            codec.setCallback(callbackCodec, manejadorCodec);
+            codec.configure(formato, null, null, 0);
+            codec.start();
+            codecActivo = true;
+        } catch (IOException e) {
+            fallar(MediaPlayer.MEDIA_ERROR_IO, e);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            fallar(MediaPlayer.MEDIA_ERROR_UNSUPPORTED, e);
+        }
+    }
+
+    /**
+     * Detiene el decodificador (sin liberarlo, para reutilizarlo) y cierra
+     * la fuente.
+     */
+    private void cerrar() {
+        codecActivo = false;
+        vaciarPendientes();
+        if (codec != null)
+            try {
+                codec.stop();
+            } catch (IllegalStateException e) {
+                codec.release();
+                codec = null;
+            }
+        if (extractor != null) {
+            extractor.release();
+            extractor = null;
+        }
+        cerrarFuente(descriptor, datos);
+        descriptor = null;
+        datos = null;
+    }
+
+    /**
+     * Reposiciona el extractor y el decodificador en el último salto pedido.
+     */
+    private void buscar() {
+        long objetivo;
+        int generacionPedida;
+        synchronized (monitor) {
+            objetivo = objetivoUs;
+            generacionPedida = generacion;
+        }
+        if (!codecActivo || generacionPedida == generacionCodec)
+            return;
+
+        try {
+            // flush() devuelve al codec todas sus salidas pendientes.
+            codec.flush();
+            vaciarPendientes();
+            extractor.seekTo(objetivo, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+            generacionCodec = generacionPedida;
+            recorteUs = objetivo;
+            finEntrada = false;
+            codec.start();
+        } catch (IllegalStateException e) {
+            fallar(MediaPlayer.MEDIA_ERROR_MALFORMED, e);
+        }
+    }
+
+    /**
+     * Pasa la siguiente muestra del extractor al decodificador.
+     */
+    private void alimentar(int indice) {
+        if (!codecActivo || finEntrada || estado >= ERROR)
+            return;
+        try {
+            ByteBuffer entrada = codec.getInputBuffer(indice);
+            int tamanio = extractor.readSampleData(entrada, 0);
+            if (tamanio < 0) {
+                codec.queueInputBuffer(indice, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                finEntrada = true;
+            } else {
+                codec.queueInputBuffer(indice, 0, tamanio, extractor.getSampleTime(), 0);
+                extractor.advance();
+            }
+        } catch (IllegalStateException e) {
+            // Índice de antes de un flush(): el codec ya lo recuperó.
+        }
+    }
+
+    /**
+     * Encola una salida del decodificador y la copia a los bloques libres.
+     * Tras un salto se recortan las muestras anteriores al objetivo.
+     */
+    private void recibirSalida(int indice, MediaCodec.BufferInfo info) {
+        if (!codecActivo || numPendientes == MAXIMO_PENDIENTES)
+            return;
+        ByteBuffer salida;
+        try {
+            salida = codec.getOutputBuffer(indice);
+        } catch (IllegalStateException e) {
+            return;
+        }
+        if (salida == null)
+            return;
+
+        int posicion = info.offset;
+        int limite = info.offset + info.size;
+        if (recorteUs > info.presentationTimeUs && bytesPorCuadro > 0) {
+            long cuadros = (recorteUs - info.presentationTimeUs) * frecuencia / 1000000;
+            posicion = (int) Math.min(limite, posicion + cuadros * bytesPorCuadro);
+        }
+
+        int k = (primeraPendiente + numPendientes) % MAXIMO_PENDIENTES;
+        indicesPendientes[k] = indice;
+        salidasPendientes[k] = salida;
+        posicionesPendientes[k] = posicion;
+        limitesPendientes[k] = limite;
+        finalesPendientes[k] = (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+        numPendientes++;
+        drenar();
+    }
+
+    /**
+     * Copia las salidas pendientes a bloques libres, en orden, y devuelve
+     * al codec las que se copiaron completas. Si no quedan bloques libres,
+     * sigue cuando la salida devuelva uno.
+     */
+    private void drenar() {
+        while (numPendientes > 0) {
+            int k = primeraPendiente;
+            ByteBuffer salida = salidasPendientes[k];
+            while (posicionesPendientes[k] < limitesPendientes[k] || finalesPendientes[k]) {
+                Bloque bloque = tomarLibre();
+                if (bloque == null)
+                    return;
+
+                bloque.datos.clear();
+                if (posicionesPendientes[k] < limitesPendientes[k]) {
+                    int n = Math.min(TAMANIO_BLOQUE,
+                                     limitesPendientes[k] - posicionesPendientes[k]);
+                    salida.limit(posicionesPendientes[k] + n);
+                    salida.position(posicionesPendientes[k]);
+                    bloque.datos.put(salida);
+                    posicionesPendientes[k] += n;
+                    bloque.fin = false;
+                } else {
+                    finalesPendientes[k] = false;
+                    bloque.fin = true;
+                }
+                bloque.datos.flip();
+                bloque.procesado = false;
+                entregar(bloque);
+            }
+
+            try {
+                codec.releaseOutputBuffer(indicesPendientes[k], false);
+            } catch (IllegalStateException e) {
+                // Índice de antes de un flush().
+            }
+            salidasPendientes[k] = null;
+            primeraPendiente = (k + 1) % MAXIMO_PENDIENTES;
+            numPendientes--;
+        }
+    }
+
+    private void vaciarPendientes() {
+        for (int i = 0; i < MAXIMO_PENDIENTES; i++)
+            salidasPendientes[i] = null;
+        primeraPendiente = 0;
+        numPendientes = 0;
+    }
+
+    private Bloque tomarLibre() {
+        synchronized (monitor) {
+            Bloque bloque = libres.quitar();
+            if (bloque == null)
+                decodificadorEsperando = true;
+            return bloque;
+        }
+    }
+
+    /**
+     * Pasa un bloque a la salida. El primero de la canción completa la
+     * preparación.
+     */
+    private void entregar(Bloque bloque) {
+        synchronized (monitor) {
+            if (generacionCodec != generacion || estado == INACTIVO || estado >= ERROR) {
+                devolverLibre(bloque);
+                return;
+            }
+            bloque.generacion = generacionCodec;
+            llenos.agregar(bloque);
+            monitor.notifyAll();
+
+            if (estado == PREPARANDO) {
+                estado = PREPARADO;
+                avisar(AVISO_PREPARADO, 0, 0);
+            }
+        }
+    }
+
+    /**
+     * Crea el AudioTrack para el formato de salida del decodificador, o
+     * conserva el actual si el formato no cambió.
+     */
+    private void configurarSalida(MediaFormat formato) {
+        int nuevaFrecuencia = formato.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+        int nuevosCanales = formato.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+        int nuevaCodificacion = formato.containsKey(MediaFormat.KEY_PCM_ENCODING)
+                ? formato.getInteger(MediaFormat.KEY_PCM_ENCODING)
+                : AudioFormat.ENCODING_PCM_16BIT;
+
+        synchronized (monitor) {
+            if (pista != null && frecuencia == nuevaFrecuencia
+                && canales == nuevosCanales && codificacion == nuevaCodificacion)
+                return;
+
+            try {
+                if (pista != null) {
+                    posicionBaseMs = posicionActual();
+                    cuadrosEscritos = 0;
+                    pista.release();
+                    pista = null;
+                }
+                frecuencia = nuevaFrecuencia;
+                canales = nuevosCanales;
+                codificacion = nuevaCodificacion;
+                bytesPorCuadro = canales * (codificacion == AudioFormat.ENCODING_PCM_FLOAT ? 4 : 2);
+                pista = crearPista();
+                silencio = ByteBuffer.allocateDirect(TAMANIO_BLOQUE);
+                esperaMs = MS_PISTA / 3;
+                if (estado == REPRODUCIENDO)
+                    pista.play();
+                monitor.notifyAll();
+            } catch (IllegalArgumentException | UnsupportedOperationException e) {
+                fallar(MediaPlayer.MEDIA_ERROR_UNSUPPORTED, e);
+            }
+        }
+    }
+
+    /**
+     * Crea un AudioTrack en modo de baja latencia (desde Android 8), con un
+     * buffer de MS_PISTA.
+     */
+    private AudioTrack crearPista() {
+        int mascara;
+        if (canales == 1)
+            mascara = AudioFormat.CHANNEL_OUT_MONO;
+        else if (canales == 2)
+            mascara = AudioFormat.CHANNEL_OUT_STEREO;
+        else
+            throw new IllegalArgumentException(canales + " canales no soportados");
+
+        int tamanio = Math.max(AudioTrack.getMinBufferSize(frecuencia, mascara, codificacion),
+                               frecuencia * MS_PISTA / 1000 * bytesPorCuadro);
+        AudioTrack.Builder constructor = new AudioTrack.Builder()
+                .setAudioAttributes(atributos)
+                .setAudioFormat(new AudioFormat.Builder()
+                                        .setSampleRate(frecuencia)
+                                        .setChannelMask(mascara)
+                                        .setEncoding(codificacion)
+                                        .build())
+                .setTransferMode(AudioTrack.MODE_STREAM)
+                .setBufferSizeInBytes(tamanio);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)
+            constructor.setPerformanceMode(AudioTrack.PERFORMANCE_MODE_LOW_LATENCY);
+
+        AudioTrack nueva = constructor.build();
+        nueva.setVolume(volumen);
+        return nueva;
+    }
+
+    // ---- Hilo de salida ----
+
+    /**
+     * Ciclo del hilo de salida: escribe los bloques llenos en el AudioTrack
+     * y detecta los cortes y el final de la canción.
+     */
+    private void escribir() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_AUDIO);
+        synchronized (monitor) {
+            try {
+                while (estado != LIBERADO) {
+                    Bloque bloque = llenos.primero();
+                    if (bloque != null && bloque.generacion != generacion) {
+                        devolverLibre(llenos.quitar());
+                        continue;
+                    }
+
+                    boolean avanzo;
+                    if (bloque == null || pista == null) {
+                        if (bloque == null)
+                            revisarCorte();
+                        avanzo = false;
+                    } else if (bloque.fin)
+                        avanzo = terminar();
+                    else if (estado == PREPARADO && fundidoMs > 0)
+                        // Si empieza con un fundido, nada puede sonar antes
+                        // de conocer su curva.
+                        avanzo = false;
+                    else {
+                        if (!bloque.procesado)
+                            procesar(bloque);
+                        avanzo = escribirBloque(bloque);
+                    }
+
+                    // Mientras suena se revisa el AudioTrack periódicamente;
+                    // en pausa basta con esperar un cambio.
+                    if (!avanzo)
+                        monitor.wait(estado == REPRODUCIENDO ? esperaMs : 0);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Aplica al bloque la ganancia y los fundidos según su posición en la
+     * canción, e inicia la siguiente canción si el bloque entra en el
+     * fundido de salida.
+     */
+    private void procesar(Bloque bloque) {
+        bloque.procesado = true;
+        long cuadro = cuadroEscrito();
+        int muestras = bloque.datos.remaining() / bytesPorCuadro * canales;
+        revisarFundido(cuadro);
+
+        float inicio = gananciaAplicada * envolvente(cuadro);
+        float fin = ganancia * envolvente(cuadro + muestras / canales);
+        gananciaAplicada = ganancia;
+        if (inicio == 1f && fin == 1f)
+            return;
+        if (codificacion == AudioFormat.ENCODING_PCM_16BIT)
+            procesador.procesar(bloque.cortos, muestras, inicio, fin);
+        else if (codificacion == AudioFormat.ENCODING_PCM_FLOAT)
+            procesador.procesar(bloque.flotantes, muestras, inicio, fin);
+    }
+
+    /**
+     * Inicia el fundido con la siguiente canción si suena, ambas lo usan y
+     * el cuadro llegó a los últimos fundidoMs de ésta (como mucho la mitad
+     * de la canción).
+     */
+    private void revisarFundido(long cuadro) {
+        if (cuadrosSalida > 0 || fundidoMs <= 0 || duracionMs <= 0 || estado != REPRODUCIENDO
+            || !(siguiente instanceof ReproductorCodec))
+            return;
+        long fin = duracionMs * (long) frecuencia / 1000;
+        long inicio = fin - Math.min(fundidoMs, duracionMs / 2) * (long) frecuencia / 1000;
+        if (cuadro < inicio || cuadro >= fin)
+            return;
+
+        int ms = (int) ((fin - cuadro) * 1000 / frecuencia);
+        if (((ReproductorCodec) siguiente).iniciarFundido(ms)) {
+            inicioSalida = cuadro;
+            cuadrosSalida = fin - cuadro;
+        }
+    }
+
+    /**
+     * @return La ganancia de los fundidos en el cuadro (1 fuera de ellos).
+     */
+    private float envolvente(long cuadro) {
+        float envolvente = 1f;
+        if (cuadrosEntrada > 0)
+            envolvente *= ProcesadorAudio.curvaEntrada(
+                    (float) (cuadro - inicioEntrada) / cuadrosEntrada);
+        if (cuadrosSalida > 0)
+            envolvente *= ProcesadorAudio.curvaSalida(
+                    (float) (cuadro - inicioSalida) / cuadrosSalida);
+        return envolvente;
+    }
+
+    /**
+     * @return True si el bloque se escribió completo.
+     */
+    private boolean escribirBloque(Bloque bloque) {
+        int escritos = pista.write(bloque.datos, bloque.datos.remaining(),
+                                   AudioTrack.WRITE_NON_BLOCKING);
+        if (escritos < 0) {
+            fallar(escritos, new IOException("AudioTrack.write(): " + escritos));
+            return false;
+        }
+
+        cuadrosEscritos += escritos / bytesPorCuadro;
+        if (escritos > 0 && enCorte) {
+            enCorte = false;
+            avisar(AVISO_INFO, MediaPlayer.MEDIA_INFO_BUFFERING_END, 0);
+        }
+        if (bloque.datos.hasRemaining())
+            // El AudioTrack está lleno.
+            return false;
+
+        devolverLibre(llenos.quitar());
+        return true;
+    }
+
+    /**
+     * Avisa un corte si suena y el AudioTrack ya reprodujo todo lo escrito.
+     */
+    private void revisarCorte() {
+        if (estado == REPRODUCIENDO && !enCorte && pista != null
+            && cuadrosEscritos > 0 && cabeza() >= cuadrosEscritos) {
+            enCorte = true;
+            avisar(AVISO_INFO, MediaPlayer.MEDIA_INFO_BUFFERING_START, 0);
+        }
+    }
+
+    /**
+     * Espera a que el AudioTrack reproduzca lo último escrito (empujándolo
+     * con silencio, porque no reproduce un buffer incompleto), y luego
+     * inicia la siguiente canción y avisa el final.
+     * @return True si la canción terminó.
+     */
+    private boolean terminar() {
+        if (estado != REPRODUCIENDO)
+            return false;
+        if (cabeza() < cuadrosEscritos) {
+            silencio.clear();
+            pista.write(silencio, silencio.remaining(), AudioTrack.WRITE_NON_BLOCKING);
+            return false;
+        }
+
+        devolverLibre(llenos.quitar());
+        posicionBaseMs = posicionActual();
+        cuadrosEscritos = 0;
+        pista.pause();
+        pista.flush();
+        estado = COMPLETADO;
+        if (siguiente != null)
+            siguiente.iniciar();
+        avisar(AVISO_COMPLETADO, 0, 0);
+        return true;
+    }
+}
@@ -0,0 +1,168 @@
+package ec.epn.detri.awm.reproductor.audio;
+
+import android.media.AudioAttributes;
+import android.media.MediaDataSource;
+import android.media.MediaPlayer;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+
+/**
+ * Reproductor basado en MediaPlayer. Dos de estos se encadenan con
+ * setNextMediaPlayer(); si el siguiente es de otro tipo, se inicia al
+ * terminar la canción.
+ */
+public class ReproductorMediaPlayer implements Reproductor,
+                                               MediaPlayer.OnPreparedListener,
+                                               MediaPlayer.OnCompletionListener,
+                                               MediaPlayer.OnInfoListener,
+                                               MediaPlayer.OnErrorListener {
+    private final MediaPlayer player = new MediaPlayer();
+
+    private Oyente oyente;
+
+    private Reproductor siguiente;
+
+    private float volumen = 1f;
+
+    private float ganancia = 1f;
+
+    /**
+     * Constructor
+     * @param atributos Uso del audio (el sistema lo atenúa cuando otra app
+     * lo pide).
+     */
+    public ReproductorMediaPlayer(AudioAttributes atributos) {
+        player.setAudioAttributes(atributos);
+        player.setOnPreparedListener(this);
+        player.setOnCompletionListener(this);
+        player.setOnInfoListener(this);
+        player.setOnErrorListener(this);
+    }
+
+    @Override
+    public void setOyente(Oyente oyente) {
+        this.oyente = oyente;
+    }
+
+    @Override
+    public void setFuente(String ruta) throws IOException {
+        player.setDataSource(ruta);
+    }
+
+    @Override
+    public void setFuente(FileDescriptor descriptor) throws IOException {
+        player.setDataSource(descriptor);
+    }
+
+    @Override
+    public void setFuente(MediaDataSource fuente) {
+        player.setDataSource(fuente);
+    }
+
+    @Override
+    public void preparar() {
+        player.prepareAsync();
+    }
+
+    @Override
+    public void iniciar() {
+        player.start();
+    }
+
+    @Override
+    public void pausar() {
+        player.pause();
+    }
+
+    @Override
+    public void saltarA(int posicionMs) {
+        player.seekTo(posicionMs);
+    }
+
+    @Override
+    public int getPosicion() {
+        return player.getCurrentPosition();
+    }
+
+    @Override
+    public int getDuracion() {
+        return player.getDuration();
+    }
+
+    @Override
+    public void setVolumen(float volumen) {
+        this.volumen = volumen;
+        asignarVolumen();
+    }
+
+    /**
+     * MediaPlayer no amplifica: las ganancias mayores que 1 se ignoran.
+     */
+    @Override
+    public void setGanancia(float ganancia) {
+        this.ganancia = Math.min(ganancia, 1f);
+        asignarVolumen();
+    }
+
+    /**
+     * setNextMediaPlayer() no superpone las canciones: no hay fundido.
+     */
+    @Override
+    public void setFundido(int ms) {
+    }
+
+    private void asignarVolumen() {
+        player.setVolume(volumen * ganancia, volumen * ganancia);
+    }
+
+    @Override
+    public void setSiguiente(Reproductor siguiente) {
+        this.siguiente = siguiente;
+        player.setNextMediaPlayer(siguiente instanceof ReproductorMediaPlayer
+                                  ? ((ReproductorMediaPlayer) siguiente).player
+                                  : null);
+    }
+
+    @Override
+    public void reiniciar() {
+        // Válido en cualquier estado de MediaPlayer.
+        player.reset();
+        siguiente = null;
+        ganancia = 1f;
+        asignarVolumen();
+    }
+
+    @Override
+    public void liberar() {
+        player.release();
+        siguiente = null;
+    }
+
+    @Override
+    public void onPrepared(MediaPlayer mp) {
+        if (oyente != null)
+            oyente.alPreparar(this);
+    }
+
+    @Override
+    public void onCompletion(MediaPlayer mp) {
+        // El framework ya inició al siguiente si también es un MediaPlayer.
+        if (siguiente != null && !(siguiente instanceof ReproductorMediaPlayer))
+            siguiente.iniciar();
+        if (oyente != null)
+            oyente.alCompletar(this);
+    }
+
+    @Override
+    public boolean onInfo(MediaPlayer mp, int que, int extra) {
+        if (oyente != null)
+            oyente.alInformar(this, que, extra);
+        return false;
+    }
+
+    @Override
+    public boolean onError(MediaPlayer mp, int que, int extra) {
+        return oyente != null && oyente.alFallar(this, que, extra);
+    }
+}
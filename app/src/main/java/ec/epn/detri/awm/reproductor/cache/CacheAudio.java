@@ -0,0 +1,286 @@
+package ec.epn.detri.awm.reproductor.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Caché de canciones en disco, indexada por URL y limitada en tamaño.
+ * Cuando se supera el tamaño máximo se eliminan las entradas usadas
+ * menos recientemente (LRU), excepto aquellas que están en uso.
+ * El índice se guarda en un archivo para sobrevivir a reinicios del proceso.
+ */
+public class CacheAudio {
+    /**
+     * Nombre del archivo que guarda el índice de la caché.
+     */
+    private static final String ARCHIVO_INDICE = "indice";
+
+    /**
+     * Versión del formato del índice.
+     */
+    private static final int VERSION_INDICE = 1;
+
+    /**
+     * Extensión de los archivos de datos.
+     */
+    private static final String EXTENSION_DATOS = ".dat";
+
+    /**
+     * Directorio donde se guardan los archivos de la caché.
+     */
+    private final File directorio;
+
+    /**
+     * Tamaño máximo de la caché en bytes.
+     */
+    private final long tamanioMaximo;
+
+    /**
+     * Entradas en orden de acceso (la primera es la usada menos recientemente).
+     */
+    private final LinkedHashMap<String, EntradaCache> entradas =
+            new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Número de usuarios de cada entrada. Una entrada en uso no se elimina.
+     */
+    private final Map<String, Integer> enUso = new HashMap<>();
+
+    /**
+     * Constructor
+     * @param directorio Directorio de la caché (se crea si no existe).
+     * @param tamanioMaximo Tamaño máximo en bytes.
+     */
+    public CacheAudio(File directorio, long tamanioMaximo) {
+        this.directorio = directorio;
+        this.tamanioMaximo = tamanioMaximo;
+
+        if (!directorio.exists())
+            directorio.mkdirs();
+
+        cargarIndice();
+    }
+
+    /**
+     * Obtiene (o crea) la entrada asociada al URL y la marca como en uso.
+     * Cada llamada debe ir acompañada de una llamada a liberar().
+     */
+    public synchronized EntradaCache abrir(String url) {
+        String clave = calcularClave(url);
+        EntradaCache entrada = entradas.get(clave);
+
+        if (entrada == null) {
+            entrada = new EntradaCache(clave, url);
+            entradas.put(clave, entrada);
+        }
+        entrada.asignarUltimoAcceso(System.currentTimeMillis());
+
+        Integer usuarios = enUso.get(clave);
+        enUso.put(clave, usuarios == null ? 1 : usuarios + 1);
+        return entrada;
+    }
+
+    /**
+     * Indica que la entrada ya no está en uso, guarda el índice y recorta
+     * la caché si es necesario.
+     */
+    public synchronized void liberar(EntradaCache entrada) {
+        Integer usuarios = enUso.get(entrada.getClave());
+        if (usuarios == null || usuarios <= 1)
+            enUso.remove(entrada.getClave());
+        else
+            enUso.put(entrada.getClave(), usuarios - 1);
+
+        recortar();
+        guardarIndice();
+    }
+
+    /**
+     * @return El archivo de datos de la entrada.
+     */
+    public File archivo(EntradaCache entrada) {
+        return new File(directorio, entrada.getClave() + EXTENSION_DATOS);
+    }
+
+    /**
+     * Registra las cabeceras de una respuesta completa (200) o parcial (206).
+     */
+    synchronized void registrarCabeceras(EntradaCache entrada,
+                                         String etag,
+                                         String ultimaModificacion,
+                                         long longitud) {
+        entrada.asignarValidadores(etag, ultimaModificacion);
+        entrada.asignarLongitud(longitud);
+        guardarIndice();
+    }
+
+    /**
+     * Descarta el contenido de una entrada (p.ej. porque cambió en el servidor).
+     */
+    public synchronized void invalidar(EntradaCache entrada) {
+        entrada.asignarValidadores(null, null);
+        entrada.asignarLongitud(-1);
+        entrada.asignarDescargados(0);
+        archivo(entrada).delete();
+        guardarIndice();
+    }
+
+    /**
+     * Persiste el estado de la entrada (p.ej. al terminar o cancelar una descarga).
+     */
+    synchronized void actualizar(EntradaCache entrada) {
+        guardarIndice();
+    }
+
+    /**
+     * @return El tamaño actual en disco de la caché.
+     */
+    public synchronized long tamanioActual() {
+        long total = 0;
+        for (EntradaCache entrada : entradas.values())
+            total += entrada.getDescargados();
+        return total;
+    }
+
+    /**
+     * Elimina las entradas menos usadas hasta respetar el tamaño máximo.
+     */
+    private void recortar() {
+        long total = tamanioActual();
+        Iterator<EntradaCache> iterador = entradas.values().iterator();
+
+        while (total > tamanioMaximo && iterador.hasNext()) {
+            EntradaCache entrada = iterador.next();
+            if (enUso.containsKey(entrada.getClave()))
+                continue;
+
+            total -= entrada.getDescargados();
+            archivo(entrada).delete();
+            iterador.remove();
+        }
+    }
+
+    /**
+     * Carga el índice desde disco. Si no existe o está corrupto, la caché
+     * empieza vacía y se eliminan los archivos huérfanos.
+     */
+    private void cargarIndice() {
+        File indice = new File(directorio, ARCHIVO_INDICE);
+        List<EntradaCache> leidas = new ArrayList<>();
+
+        if (indice.exists()) {
+            try (DataInputStream entrada = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(indice)))) {
+                if (entrada.readInt() == VERSION_INDICE) {
+                    int cantidad = entrada.readInt();
+                    for (int i = 0; i < cantidad; i++) {
+                        EntradaCache e = new EntradaCache(entrada.readUTF(),
+                                                          entrada.readUTF());
+                        e.asignarValidadores(leerOpcional(entrada),
+                                             leerOpcional(entrada));
+                        e.asignarLongitud(entrada.readLong());
+                        e.asignarUltimoAcceso(entrada.readLong());
+                        // Lo que realmente está en disco manda sobre lo registrado.
+                        e.asignarDescargados(archivo(e).length());
+                        leidas.add(e);
+                    }
+                }
+            } catch (IOException e) {
+                leidas.clear();
+            }
+        }
+
+        // Reconstruye el orden LRU a partir del instante de último acceso.
+        Collections.sort(leidas, new Comparator<EntradaCache>() {
+            @Override
+            public int compare(EntradaCache a, EntradaCache b) {
+                return Long.compare(a.getUltimoAcceso(), b.getUltimoAcceso());
+            }
+        });
+        for (EntradaCache e : leidas)
+            entradas.put(e.getClave(), e);
+
+        // Borra los archivos de datos que no pertenecen a ninguna entrada.
+        File[] archivos = directorio.listFiles();
+        if (archivos != null)
+            for (File f : archivos) {
+                String nombre = f.getName();
+                if (nombre.endsWith(EXTENSION_DATOS)
+                    && !entradas.containsKey(nombre.substring(0, nombre.length()
+                                                 - EXTENSION_DATOS.length())))
+                    f.delete();
+            }
+    }
+
+    /**
+     * Guarda el índice en un archivo temporal y lo renombra, de modo que
+     * nunca quede un índice a medio escribir.
+     */
+    private void guardarIndice() {
+        File temporal = new File(directorio, ARCHIVO_INDICE + ".tmp");
+
+        try (DataOutputStream salida = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temporal)))) {
+            salida.writeInt(VERSION_INDICE);
+            salida.writeInt(entradas.size());
+            for (EntradaCache e : entradas.values()) {
+                salida.writeUTF(e.getClave());
+                salida.writeUTF(e.getUrl());
+                escribirOpcional(salida, e.getEtag());
+                escribirOpcional(salida, e.getUltimaModificacion());
+                salida.writeLong(e.getLongitud());
+                salida.writeLong(e.getUltimoAcceso());
+            }
+        } catch (IOException e) {
+            temporal.delete();
+            return;
+        }
+
+        temporal.renameTo(new File(directorio, ARCHIVO_INDICE));
+    }
+
+    private static String leerOpcional(DataInputStream entrada) throws IOException {
+        return entrada.readBoolean() ? entrada.readUTF() : null;
+    }
+
+    private static void escribirOpcional(DataOutputStream salida,
+                                         String valor) throws IOException {
+        salida.writeBoolean(valor != null);
+        if (valor != null)
+            salida.writeUTF(valor);
+    }
+
+    /**
+     * Calcula la clave de un URL (SHA-1 en hexadecimal). También nombra los
+     * archivos de CacheMetadatos.
+     */
+    public static String calcularClave(String url) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1")
+                    .digest(url.getBytes(Charset.forName("UTF-8")));
+            StringBuilder clave = new StringBuilder(hash.length * 2);
+            for (byte b : hash)
+                clave.append(String.format("%02x", b));
+            return clave.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
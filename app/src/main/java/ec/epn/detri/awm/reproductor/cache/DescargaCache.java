@@ -0,0 +1,509 @@
+package ec.epn.detri.awm.reproductor.cache;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.util.Random;
+
+import ec.epn.detri.awm.reproductor.red.ClienteHttp;
+import ec.epn.detri.awm.reproductor.red.EsperaReintentos;
+import ec.epn.detri.awm.reproductor.red.LectorStreaming;
+
+/**
+ * Descarga una canción hacia su entrada de la caché de disco. Si la entrada
+ * ya tiene una parte descargada, reanuda la descarga con una petición Range
+ * (validada con If-Range). Mientras descarga, los lectores pueden esperar a
+ * que los bytes que necesitan estén en disco, de modo que la reproducción
+ * y la escritura en caché ocurren a la vez.
+ *
+ * Una descarga de precarga (ver PrecargaCanciones) se detiene al llegar a
+ * un límite de bytes y cede el ancho de banda mientras la reproducción
+ * espera datos; si el usuario llega a esa canción, la reproducción adopta
+ * la descarga en curso con quitarLimite().
+ *
+ * Si la conexión se corta por una causa transitoria, la descarga se
+ * reanuda desde lo ya escrito en disco, con esperas exponenciales con
+ * fluctuación (ver EsperaReintentos); mientras tanto los lectores sólo
+ * esperan. Si al reanudar la canción cambió en el servidor, la descarga
+ * falla en lugar de mezclar las dos versiones.
+ */
+public class DescargaCache implements Runnable {
+    /**
+     * Tamaño del bloque de lectura de la red.
+     */
+    public static final int TAMANIO_BLOQUE = 16 * 1024;
+
+    /**
+     * Esperas entre reconexiones tras un corte (las mismas que las de
+     * LectorStreaming).
+     */
+    private static final long REINTENTO_BASE_MS = 250;
+    private static final long REINTENTO_MAXIMO_MS = 8000;
+    private static final int REINTENTOS = 8;
+
+    private final CacheAudio cache;
+
+    private final EntradaCache entrada;
+
+    /**
+     * Monitor usado para avisar a los lectores de nuevos datos.
+     */
+    private final Object monitor = new Object();
+
+    private volatile boolean cancelada;
+
+    /**
+     * True cuando ya se conocen las cabeceras de la respuesta.
+     */
+    private boolean cabecerasListas;
+
+    /**
+     * True cuando la descarga terminó (bien o con error).
+     */
+    private boolean terminada;
+
+    /**
+     * Error de la descarga, si lo hubo.
+     */
+    private IOException error;
+
+    /**
+     * Posición del archivo en la que se detiene la descarga (protegida por
+     * monitor).
+     */
+    private long limite = Long.MAX_VALUE;
+
+    /**
+     * True si la descarga se detuvo por llegar al límite.
+     */
+    private boolean alcanzoLimite;
+
+    /**
+     * Mientras indique que la reproducción espera datos, la descarga se
+     * pausa (null si la descarga no es de precarga).
+     */
+    private volatile PrecargaCanciones.Prioridad prioridad;
+
+    /**
+     * Hilo que ejecuta la descarga.
+     */
+    private volatile Thread hilo;
+
+    /**
+     * Conexión en curso, para poder cortarla al cancelar.
+     */
+    private volatile HttpURLConnection conexion;
+
+    /**
+     * Posición más alta pedida por los lectores.
+     */
+    private volatile long ultimaLectura;
+
+    /**
+     * Esperas entre reconexiones (sólo las usa el hilo de descarga).
+     */
+    private final EsperaReintentos reintentos =
+            new EsperaReintentos(REINTENTO_BASE_MS, REINTENTO_MAXIMO_MS, REINTENTOS, new Random());
+
+    // Estadísticas (sólo las escribe el hilo de descarga).
+    private volatile long bytesTransferidos;
+    private volatile long nanosTransferencia;
+    private volatile int reconexiones;
+    private volatile long nanosSinRed;
+
+    /**
+     * Instante del corte en curso (0 si no hay uno; sólo lo usa el hilo de
+     * descarga).
+     */
+    private long inicioCorte;
+
+    /**
+     * Constructor
+     * @param cache Caché a la que pertenece la entrada.
+     * @param entrada Entrada en uso (abierta con CacheAudio.abrir()).
+     */
+    public DescargaCache(CacheAudio cache, EntradaCache entrada) {
+        this.cache = cache;
+        this.entrada = entrada;
+    }
+
+    /**
+     * Constructor de una descarga de precarga.
+     * @param limite Número de bytes desde el inicio de la canción a descargar.
+     * @param prioridad Indica cuándo ceder el ancho de banda a la reproducción.
+     */
+    DescargaCache(CacheAudio cache,
+                  EntradaCache entrada,
+                  long limite,
+                  PrecargaCanciones.Prioridad prioridad) {
+        this(cache, entrada);
+        this.limite = limite;
+        this.prioridad = prioridad;
+    }
+
+    public EntradaCache getEntrada() {
+        return entrada;
+    }
+
+    /**
+     * Detiene la descarga. Lo descargado hasta ese momento se conserva
+     * para reanudarlo más tarde.
+     */
+    public void cancelar() {
+        cancelada = true;
+        synchronized (monitor) {
+            monitor.notifyAll();
+        }
+
+        // Corta una lectura bloqueada en la red.
+        HttpURLConnection actual = conexion;
+        if (actual != null)
+            actual.disconnect();
+    }
+
+    /**
+     * Convierte una descarga de precarga en una descarga completa con la
+     * prioridad de la reproducción.
+     * @return False si la descarga ya se detuvo (por el límite, un error o
+     * una cancelación) y no puede adoptarse.
+     */
+    boolean quitarLimite() {
+        synchronized (monitor) {
+            if (alcanzoLimite || terminada || cancelada)
+                return false;
+            limite = Long.MAX_VALUE;
+            prioridad = null;
+            monitor.notifyAll();
+        }
+
+        // La precarga corre con prioridad baja; la reproducción no.
+        Thread actual = hilo;
+        if (actual != null)
+            actual.setPriority(Thread.NORM_PRIORITY);
+        return true;
+    }
+
+    /**
+     * @return Bytes descargados por delante de la última posición pedida
+     * por los lectores (Long.MAX_VALUE si la descarga ya terminó).
+     */
+    public long getBytesPorDelante() {
+        synchronized (monitor) {
+            if (terminada)
+                return Long.MAX_VALUE;
+        }
+        return Math.max(0, entrada.getDescargados() - ultimaLectura);
+    }
+
+    /**
+     * @return Bytes recibidos de la red por esta descarga.
+     */
+    public long getBytesTransferidos() {
+        return bytesTransferidos;
+    }
+
+    /**
+     * @return Tiempo (en ns) bloqueado leyendo de la red, sin contar las
+     * pausas para ceder el ancho de banda.
+     */
+    public long getNanosTransferencia() {
+        return nanosTransferencia;
+    }
+
+    /**
+     * @return Número de reconexiones tras un corte de la red.
+     */
+    public int getReconexiones() {
+        return reconexiones;
+    }
+
+    /**
+     * @return Tiempo total (en ns) desde cada corte recuperado hasta que
+     * volvieron a llegar datos.
+     */
+    public long getNanosSinRed() {
+        return nanosSinRed;
+    }
+
+    @Override
+    public void run() {
+        hilo = Thread.currentThread();
+        if (prioridad == null)
+            hilo.setPriority(Thread.NORM_PRIORITY);
+
+        try {
+            while (true) {
+                try {
+                    descargar(reconexiones > 0);
+                    break;
+                } catch (IOException e) {
+                    if (inicioCorte == 0)
+                        inicioCorte = System.nanoTime();
+                    if (!esperarReintento(e)) {
+                        error = e;
+                        break;
+                    }
+                    reconexiones++;
+                }
+            }
+        } finally {
+            hilo = null;
+            cache.actualizar(entrada);
+            synchronized (monitor) {
+                cabecerasListas = true;
+                terminada = true;
+                monitor.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Tras un error transitorio, espera antes de reanudar la descarga.
+     * @return False si hay que dejarla: el error es permanente, se agotaron
+     * los intentos o se canceló.
+     */
+    private boolean esperarReintento(IOException e) {
+        if (cancelada || ClienteHttp.clasificar(e) != ClienteHttp.ERROR_TRANSITORIO)
+            return false;
+        long espera = reintentos.siguiente();
+        if (espera < 0)
+            return false;
+
+        long fin = System.nanoTime() + espera * 1000000;
+        synchronized (monitor) {
+            try {
+                long resto;
+                while (!cancelada && (resto = fin - System.nanoTime()) > 0)
+                    monitor.wait(resto / 1000000 + 1);
+            } catch (InterruptedException interrupcion) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            return !cancelada;
+        }
+    }
+
+    /**
+     * Descarga desde lo ya escrito en disco hasta el final (o el límite).
+     * @param reanudando True si es una reconexión tras un corte: entonces
+     * la canción no puede haber cambiado.
+     */
+    private void descargar(boolean reanudando) throws IOException {
+        HttpURLConnection conexion = null;
+        boolean completa = false;
+
+        try {
+            long inicio = entrada.getDescargados();
+            if (cancelada)
+                throw new InterruptedIOException("Descarga cancelada");
+            conexion = ClienteHttp.abrir(entrada.getUrl());
+            this.conexion = conexion;
+
+            // La precarga también pide el resto de la canción (aunque corte
+            // al llegar al límite) para que la reproducción pueda adoptarla.
+            if (inicio > 0) {
+                conexion.setRequestProperty("Range", "bytes=" + inicio + "-");
+                if (entrada.validador() != null)
+                    conexion.setRequestProperty("If-Range", entrada.validador());
+            }
+
+            int codigo = ClienteHttp.respuesta(conexion);
+            long longitud;
+
+            if (codigo == HttpURLConnection.HTTP_PARTIAL) {
+                longitud = LectorStreaming.longitudTotal(conexion.getHeaderField("Content-Range"));
+            } else if (codigo == HttpURLConnection.HTTP_OK) {
+                // Los lectores ya pudieron leer lo descargado de la versión anterior.
+                if (reanudando && inicio > 0)
+                    throw new ClienteHttp.RecursoCambiado(entrada.getUrl());
+                // El servidor no soporta Range o el recurso cambió: empezar de cero.
+                inicio = 0;
+                longitud = conexion.getContentLengthLong();
+            } else
+                throw new ClienteHttp.ErrorHttp(codigo, entrada.getUrl());
+
+            cache.registrarCabeceras(entrada,
+                                     conexion.getHeaderField("ETag"),
+                                     conexion.getHeaderField("Last-Modified"),
+                                     longitud);
+            entrada.asignarDescargados(inicio);
+            synchronized (monitor) {
+                cabecerasListas = true;
+                monitor.notifyAll();
+            }
+
+            completa = copiar(conexion.getInputStream(), inicio);
+        } finally {
+            this.conexion = null;
+            // Una descarga completa deja la conexión para la siguiente petición.
+            if (conexion != null)
+                ClienteHttp.liberar(conexion, completa);
+        }
+    }
+
+    /**
+     * Copia el cuerpo de la respuesta al archivo de la entrada a partir de la
+     * posición indicada.
+     * @return True si se leyó el cuerpo hasta el final; false si se canceló
+     * o se llegó al límite.
+     */
+    private boolean copiar(InputStream entradaRed, long posicion) throws IOException {
+        byte[] bloque = new byte[TAMANIO_BLOQUE];
+
+        try (RandomAccessFile archivo = new RandomAccessFile(cache.archivo(entrada), "rw")) {
+            archivo.setLength(posicion);
+            archivo.seek(posicion);
+
+            while (!cancelada) {
+                cederAnchoDeBanda();
+
+                long inicioLectura = System.nanoTime();
+                int leidos = entradaRed.read(bloque);
+                if (leidos == -1) {
+                    // Algunas versiones de HttpURLConnection no informan un
+                    // cuerpo cortado antes de su longitud.
+                    if (entrada.getLongitud() >= 0 && posicion < entrada.getLongitud())
+                        throw new EOFException("Fin inesperado del flujo en " + posicion);
+                    break;
+                }
+                nanosTransferencia += System.nanoTime() - inicioLectura;
+                bytesTransferidos += leidos;
+                if (inicioCorte != 0) {
+                    nanosSinRed += System.nanoTime() - inicioCorte;
+                    inicioCorte = 0;
+                    reintentos.reiniciar();
+                }
+
+                archivo.write(bloque, 0, leidos);
+                posicion += leidos;
+                entrada.asignarDescargados(posicion);
+                synchronized (monitor) {
+                    monitor.notifyAll();
+                    if (posicion >= limite) {
+                        alcanzoLimite = true;
+                        return false;
+                    }
+                }
+            }
+
+            if (cancelada)
+                return false;
+
+            // Si el servidor no informó la longitud, ahora se conoce.
+            if (entrada.getLongitud() < 0)
+                cache.registrarCabeceras(entrada,
+                                         entrada.getEtag(),
+                                         entrada.getUltimaModificacion(),
+                                         posicion);
+            return true;
+        }
+    }
+
+    /**
+     * Pausa la descarga mientras la reproducción espera datos.
+     */
+    private void cederAnchoDeBanda() throws InterruptedIOException {
+        PrecargaCanciones.Prioridad actual;
+        while (!cancelada
+               && (actual = prioridad) != null
+               && actual.hayReproduccionEsperando()) {
+            synchronized (monitor) {
+                try {
+                    monitor.wait(PrecargaCanciones.PAUSA_MS);
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+        }
+    }
+
+    /**
+     * Bloquea hasta que haya datos disponibles en la posición indicada.
+     * @return Número de bytes disponibles a partir de la posición, o -1 si
+     * la posición está más allá del final de la canción.
+     */
+    public long esperarDatos(long posicion) throws IOException {
+        ultimaLectura = Math.max(ultimaLectura, posicion);
+        synchronized (monitor) {
+            try {
+                while (true) {
+                    // Antes de las cabeceras no se sabe si lo que hay en disco sigue vigente.
+                    long descargados = entrada.getDescargados();
+                    if (cabecerasListas && posicion < descargados)
+                        return descargados - posicion;
+                    if (cancelada)
+                        throw new InterruptedIOException("Descarga cancelada");
+                    if (terminada) {
+                        if (error != null)
+                            throw error;
+                        return -1;
+                    }
+                    monitor.wait();
+                }
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
+    /**
+     * Bloquea hasta conocer las cabeceras de la respuesta.
+     * @return La longitud total de la canción, o -1 si es desconocida.
+     */
+    public long esperarLongitud() throws IOException {
+        synchronized (monitor) {
+            try {
+                while (!cabecerasListas && !cancelada)
+                    monitor.wait();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            if (error != null && entrada.getLongitud() < 0)
+                throw error;
+            return entrada.getLongitud();
+        }
+    }
+
+    /**
+     * Revalida una entrada completa con una petición condicional
+     * (If-None-Match / If-Modified-Since).
+     * @return True si la copia local sigue vigente (304), o si no se pudo
+     * contactar al servidor; False si el recurso cambió.
+     */
+    public static boolean revalidar(EntradaCache entrada) {
+        HttpURLConnection conexion = null;
+        boolean sinCuerpo = false;
+
+        try {
+            conexion = ClienteHttp.abrir(entrada.getUrl());
+            if (entrada.getEtag() != null)
+                conexion.setRequestProperty("If-None-Match", entrada.getEtag());
+            if (entrada.getUltimaModificacion() != null)
+                conexion.setRequestProperty("If-Modified-Since",
+                                            entrada.getUltimaModificacion());
+
+            int codigo = ClienteHttp.respuesta(conexion);
+            // Un 304 no tiene cuerpo y la conexión puede reutilizarse; un 200
+            // trae la canción entera y se corta.
+            sinCuerpo = codigo == HttpURLConnection.HTTP_NOT_MODIFIED;
+            if (codigo == HttpURLConnection.HTTP_NOT_MODIFIED)
+                return true;
+            if (codigo != HttpURLConnection.HTTP_OK)
+                return true;
+
+            // Sin validadores no hay forma de saber si cambió; se compara la longitud.
+            if (entrada.getEtag() == null && entrada.getUltimaModificacion() == null)
+                return conexion.getContentLengthLong() == entrada.getLongitud();
+            return false;
+        } catch (IOException e) {
+            // Sin red la copia local es la mejor opción.
+            return true;
+        } finally {
+            if (conexion != null)
+                ClienteHttp.liberar(conexion, sinCuerpo);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package ec.epn.detri.awm.reproductor.cache;
+
+/**
+ * Representa una canción almacenada (total o parcialmente) en la caché
+ * de disco. Guarda los validadores HTTP (ETag y Last-Modified) necesarios
+ * para revalidar la copia local y reanudar descargas con Range.
+ */
+public class EntradaCache {
+    /**
+     * Clave de la entrada (hash del URL), usada como nombre del archivo.
+     */
+    private final String clave;
+
+    /**
+     * URL de la canción.
+     */
+    private final String url;
+
+    /**
+     * Validador ETag devuelto por el servidor (puede ser null).
+     */
+    private volatile String etag;
+
+    /**
+     * Validador Last-Modified devuelto por el servidor (puede ser null).
+     */
+    private volatile String ultimaModificacion;
+
+    /**
+     * Tamaño total de la canción en bytes, o -1 si aún no se conoce.
+     */
+    private volatile long longitud = -1;
+
+    /**
+     * Bytes contiguos (desde el inicio) que ya están escritos en disco.
+     */
+    private volatile long descargados;
+
+    /**
+     * Instante del último acceso, usado para el orden LRU al recargar el índice.
+     */
+    private volatile long ultimoAcceso;
+
+    EntradaCache(String clave, String url) {
+        this.clave = clave;
+        this.url = url;
+    }
+
+    public String getClave() {
+        return clave;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    public String getUltimaModificacion() {
+        return ultimaModificacion;
+    }
+
+    public long getLongitud() {
+        return longitud;
+    }
+
+    public long getDescargados() {
+        return descargados;
+    }
+
+    public long getUltimoAcceso() {
+        return ultimoAcceso;
+    }
+
+    /**
+     * @return True si la canción está completa en disco.
+     */
+    public boolean estaCompleta() {
+        return longitud > 0 && descargados >= longitud;
+    }
+
+    /**
+     * @return El validador a usar en If-Range (se prefiere el ETag).
+     */
+    String validador() {
+        return etag != null ? etag : ultimaModificacion;
+    }
+
+    void asignarValidadores(String etag, String ultimaModificacion) {
+        this.etag = etag;
+        this.ultimaModificacion = ultimaModificacion;
+    }
+
+    void asignarLongitud(long longitud) {
+        this.longitud = longitud;
+    }
+
+    void asignarDescargados(long descargados) {
+        this.descargados = descargados;
+    }
+
+    void asignarUltimoAcceso(long ultimoAcceso) {
+        this.ultimoAcceso = ultimoAcceso;
+    }
+}
@@ -0,0 +1,88 @@
+package ec.epn.detri.awm.reproductor.cache;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import ec.epn.detri.awm.reproductor.red.LectorStreaming;
+
+/**
+ * Guarda en la caché los bytes que llegan por un LectorStreaming. Sólo se
+ * escribe el tramo contiguo desde el inicio de la canción: si el usuario
+ * salta hacia adelante, lo que llegue después del salto no se guarda, y la
+ * parte faltante se completará con Range en una próxima reproducción.
+ *
+ * Si la entrada ya tenía un tramo y la respuesta trae otros validadores
+ * (la canción cambió en el servidor), ese tramo se descarta: de lo
+ * contrario quedaría la versión nueva pegada a la anterior.
+ */
+public class EscrituraCache implements LectorStreaming.Receptor {
+    private final CacheAudio cache;
+
+    private final EntradaCache entrada;
+
+    private RandomAccessFile archivo;
+
+    public EscrituraCache(CacheAudio cache, EntradaCache entrada) {
+        this.cache = cache;
+        this.entrada = entrada;
+    }
+
+    @Override
+    public void alRecibirCabeceras(String etag, String ultimaModificacion, long longitud) {
+        if (entrada.getDescargados() > 0 && cambio(etag, ultimaModificacion, longitud))
+            cache.invalidar(entrada);
+        cache.registrarCabeceras(entrada, etag, ultimaModificacion, longitud);
+        try {
+            archivo = new RandomAccessFile(cache.archivo(entrada), "rw");
+            archivo.setLength(entrada.getDescargados());
+        } catch (IOException e) {
+            archivo = null;
+        }
+    }
+
+    @Override
+    public void alRecibirDatos(long posicion, byte[] datos, int offset, int tamanio) {
+        long descargados = entrada.getDescargados();
+        if (archivo == null || posicion > descargados || posicion + tamanio <= descargados)
+            return;
+
+        // Sólo se escribe la parte que extiende el tramo contiguo.
+        int desplazamiento = (int) (descargados - posicion);
+        try {
+            archivo.seek(descargados);
+            archivo.write(datos, offset + desplazamiento, tamanio - desplazamiento);
+            entrada.asignarDescargados(posicion + tamanio);
+        } catch (IOException e) {
+            cerrarArchivo();
+        }
+    }
+
+    @Override
+    public void alTerminar() {
+        cerrarArchivo();
+        cache.actualizar(entrada);
+    }
+
+    /**
+     * @return True si la respuesta no es de la versión guardada. Se
+     * compara el validador que se usaría en If-Range; sin validadores
+     * guardados, sólo la longitud.
+     */
+    private boolean cambio(String etag, String ultimaModificacion, long longitud) {
+        String guardado = entrada.validador();
+        if (guardado != null)
+            return !guardado.equals(entrada.getEtag() != null ? etag : ultimaModificacion);
+        return entrada.getLongitud() > 0 && longitud >= 0 && longitud != entrada.getLongitud();
+    }
+
+    private void cerrarArchivo() {
+        if (archivo != null) {
+            try {
+                archivo.close();
+            } catch (IOException e) {
+                // Nada más que hacer: la entrada conserva lo ya escrito.
+            }
+            archivo = null;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package ec.epn.detri.awm.reproductor.cache;
+
+import android.media.MediaDataSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Fuente de datos para MediaPlayer que lee la canción desde el archivo de
+ * la caché mientras se descarga. Si MediaPlayer pide bytes que aún no han
+ * llegado, la lectura se bloquea hasta que la descarga los escriba.
+ */
+public class FuenteCacheAudio extends MediaDataSource {
+    private final DescargaCache descarga;
+
+    private final RandomAccessFile archivo;
+
+    /**
+     * Constructor
+     * @param descarga Descarga en curso que llena el archivo.
+     * @param archivo Archivo de datos de la entrada.
+     */
+    public FuenteCacheAudio(DescargaCache descarga, File archivo) throws IOException {
+        this.descarga = descarga;
+        this.archivo = new RandomAccessFile(archivo, "rw");
+    }
+
+    @Override
+    public int readAt(long posicion, byte[] buffer, int offset, int tamanio) throws IOException {
+        if (tamanio == 0)
+            return 0;
+
+        long disponibles = descarga.esperarDatos(posicion);
+        if (disponibles < 0)
+            return -1;
+
+        synchronized (archivo) {
+            archivo.seek(posicion);
+            return archivo.read(buffer, offset, (int) Math.min(tamanio, disponibles));
+        }
+    }
+
+    @Override
+    public long getSize() throws IOException {
+        return descarga.esperarLongitud();
+    }
+
+    @Override
+    public void close() throws IOException {
+        archivo.close();
+    }
+}
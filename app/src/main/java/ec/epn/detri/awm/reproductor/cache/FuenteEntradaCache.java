@@ -0,0 +1,35 @@
+package ec.epn.detri.awm.reproductor.cache;
+
+import android.media.MediaDataSource;
+
+import java.io.IOException;
+
+/**
+ * Fuente de datos respaldada por un LectorEntradaCache: lee una canción de
+ * la caché a medida que otro la descarga.
+ */
+public class FuenteEntradaCache extends MediaDataSource {
+    private final LectorEntradaCache lector;
+
+    /**
+     * Constructor (marca la entrada del URL como en uso).
+     */
+    public FuenteEntradaCache(CacheAudio cache, String url) {
+        lector = new LectorEntradaCache(cache, url);
+    }
+
+    @Override
+    public int readAt(long posicion, byte[] buffer, int offset, int tamanio) throws IOException {
+        return lector.leer(posicion, buffer, offset, tamanio);
+    }
+
+    @Override
+    public long getSize() {
+        return lector.longitud();
+    }
+
+    @Override
+    public void close() throws IOException {
+        lector.close();
+    }
+}
@@ -0,0 +1,123 @@
+package ec.epn.detri.awm.reproductor.cache;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Lee una canción de la caché a medida que otro la descarga, sin importar
+ * quién: una DescargaCache, una precarga o la EscrituraCache de un
+ * LectorStreaming. En lugar de esperar a una descarga
+ * concreta, consulta cada ESPERA_MS los bytes contiguos de la entrada.
+ *
+ * Mantiene la entrada en uso (no se recorta de la caché) hasta close().
+ * Pensado para lectores en segundo plano, como AnalizadorPicos (a través
+ * de FuenteEntradaCache).
+ */
+public class LectorEntradaCache implements Closeable {
+    /**
+     * Cada cuánto se revisa si llegaron más bytes.
+     */
+    private static final long ESPERA_MS = 250;
+
+    /**
+     * Si la descarga no avanza en este tiempo (p.ej. se canceló), la
+     * lectura falla.
+     */
+    static final long MAXIMO_SIN_AVANCE_MS = 30 * 1000;
+
+    private final CacheAudio cache;
+
+    private final EntradaCache entrada;
+
+    private RandomAccessFile archivo;
+
+    private volatile boolean cerrada;
+
+    /**
+     * Constructor (marca la entrada del URL como en uso).
+     */
+    public LectorEntradaCache(CacheAudio cache, String url) {
+        this.cache = cache;
+        entrada = cache.abrir(url);
+    }
+
+    /**
+     * Lee desde la posición; si esos bytes aún no se descargan, espera a
+     * que lleguen.
+     * @return Bytes leídos, o -1 al final de la canción.
+     */
+    public int leer(long posicion, byte[] buffer, int offset, int tamanio) throws IOException {
+        if (tamanio == 0)
+            return 0;
+
+        long disponibles = esperarDatos(posicion);
+        if (disponibles < 0)
+            return -1;
+
+        synchronized (this) {
+            if (cerrada)
+                throw new InterruptedIOException("Lector cerrado");
+            if (archivo == null)
+                archivo = new RandomAccessFile(cache.archivo(entrada), "r");
+            archivo.seek(posicion);
+            return archivo.read(buffer, offset, (int) Math.min(tamanio, disponibles));
+        }
+    }
+
+    /**
+     * @return La longitud de la canción (ver EntradaCache.getLongitud()).
+     */
+    public long longitud() {
+        return entrada.getLongitud();
+    }
+
+    /**
+     * Libera la entrada; una lectura bloqueada termina con una excepción.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (cerrada)
+                return;
+            cerrada = true;
+            if (archivo != null)
+                archivo.close();
+        }
+        cache.liberar(entrada);
+    }
+
+    /**
+     * @return Bytes disponibles desde la posición, o -1 si está más allá
+     * del final de la canción.
+     */
+    private long esperarDatos(long posicion) throws IOException {
+        long ultimoAvance = System.currentTimeMillis();
+        long anteriores = entrada.getDescargados();
+        while (true) {
+            if (cerrada)
+                throw new InterruptedIOException("Lector cerrado");
+
+            long descargados = entrada.getDescargados();
+            long longitud = entrada.getLongitud();
+            if (posicion < descargados)
+                return descargados - posicion;
+            if (longitud > 0 && posicion >= longitud)
+                return -1;
+
+            long ahora = System.currentTimeMillis();
+            if (descargados != anteriores) {
+                anteriores = descargados;
+                ultimoAvance = ahora;
+            } else if (ahora - ultimoAvance > MAXIMO_SIN_AVANCE_MS)
+                throw new IOException("La descarga no avanza");
+
+            try {
+                Thread.sleep(ESPERA_MS);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+        }
+    }
+}
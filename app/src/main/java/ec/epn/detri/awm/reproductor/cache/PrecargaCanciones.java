@@ -0,0 +1,241 @@
+package ec.epn.detri.awm.reproductor.cache;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Descarga en segundo plano el inicio de las próximas canciones de la cola
+ * mientras suena la actual, para que al pasar a ellas empiecen a sonar sin
+ * esperar a la red.
+ *
+ * - Las canciones se descargan en el orden de la cola (la más próxima primero).
+ * - El número de descargas simultáneas depende del ancho de banda medido:
+ *   en una red lenta se descarga una canción a la vez.
+ * - Las descargas usan hilos de baja prioridad y se pausan mientras la
+ *   reproducción espera datos, para no quitarle ancho de banda.
+ * - Al reprogramar (p.ej. porque el usuario saltó de canción) se cancelan
+ *   las descargas que ya no hacen falta; lo descargado queda en la caché.
+ */
+public class PrecargaCanciones {
+    /**
+     * Indica si la reproducción en curso necesita el ancho de banda.
+     * Se consulta desde los hilos de precarga.
+     */
+    public interface Prioridad {
+        boolean hayReproduccionEsperando();
+    }
+
+    /**
+     * Intervalo con que una descarga pausada vuelve a consultar la prioridad.
+     */
+    static final long PAUSA_MS = 100;
+
+    /**
+     * Ancho de banda (bytes/s) a partir del cual se permiten varias
+     * descargas simultáneas (256 KB/s, unos 2 Mbps).
+     */
+    static final double ANCHO_PARALELO = 256 * 1024;
+
+    /**
+     * Bytes mínimos de una descarga para usarla como muestra del ancho de banda.
+     */
+    private static final long MUESTRA_MINIMA = 32 * 1024;
+
+    /**
+     * Peso de cada nueva muestra en el promedio del ancho de banda.
+     */
+    private static final double PESO_MUESTRA = 0.3;
+
+    private final CacheAudio cache;
+
+    private final int maximoSimultaneas;
+
+    private final Prioridad prioridad;
+
+    private final ExecutorService ejecutor = Executors.newCachedThreadPool();
+
+    // Estado protegido por this.
+    private final ArrayDeque<String> pendientes = new ArrayDeque<>();
+    private final Map<String, DescargaCache> enCurso = new HashMap<>();
+    private final Set<DescargaCache> adoptadas = new HashSet<>();
+    private long bytesPorCancion;
+    private double anchoDeBanda;
+    private int completadas;
+    private long bytesDescargados;
+    private boolean cerrada;
+
+    /**
+     * Constructor
+     * @param cache Caché donde se guardan las precargas.
+     * @param maximoSimultaneas Máximo de descargas a la vez con una red rápida.
+     * @param prioridad Indica cuándo ceder el ancho de banda a la reproducción.
+     */
+    public PrecargaCanciones(CacheAudio cache, int maximoSimultaneas, Prioridad prioridad) {
+        this.cache = cache;
+        this.maximoSimultaneas = maximoSimultaneas;
+        this.prioridad = prioridad;
+    }
+
+    /**
+     * Reemplaza la lista de canciones a precargar. Las descargas en curso de
+     * canciones que siguen en la lista continúan; las demás se cancelan.
+     * @param urls Próximas canciones, en orden de reproducción.
+     * @param bytesPorCancion Bytes a descargar desde el inicio de cada canción.
+     */
+    public synchronized void programar(List<String> urls, long bytesPorCancion) {
+        if (cerrada)
+            return;
+        this.bytesPorCancion = bytesPorCancion;
+
+        pendientes.clear();
+        Iterator<Map.Entry<String, DescargaCache>> it = enCurso.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, DescargaCache> descarga = it.next();
+            if (!urls.contains(descarga.getKey())) {
+                descarga.getValue().cancelar();
+                it.remove();
+            }
+        }
+
+        for (String url : urls)
+            if (!enCurso.containsKey(url) && !pendientes.contains(url))
+                pendientes.add(url);
+        despachar();
+    }
+
+    /**
+     * Cancela todas las precargas.
+     */
+    public synchronized void cancelarTodo() {
+        pendientes.clear();
+        for (DescargaCache descarga : enCurso.values())
+            descarga.cancelar();
+        enCurso.clear();
+    }
+
+    /**
+     * Entrega a la reproducción la precarga en curso de la canción, sin
+     * límite ni pausas, para no abrir una segunda conexión.
+     * @return La descarga adoptada (su entrada queda abierta y debe
+     * liberarse con CacheAudio.liberar()), o null si no había una precarga
+     * en curso de esa canción.
+     */
+    public synchronized DescargaCache tomar(String url) {
+        pendientes.remove(url);
+        DescargaCache descarga = enCurso.remove(url);
+        if (descarga == null)
+            return null;
+
+        if (descarga.quitarLimite())
+            adoptadas.add(descarga);
+        else {
+            // Ya terminó o está terminando: la reproducción continúa desde la caché.
+            descarga.cancelar();
+            descarga = null;
+        }
+        despachar();
+        return descarga;
+    }
+
+    /**
+     * Cancela todo y detiene los hilos de precarga.
+     */
+    public synchronized void cerrar() {
+        cancelarTodo();
+        cerrada = true;
+        ejecutor.shutdown();
+    }
+
+    /**
+     * @return Ancho de banda estimado en bytes/s (0 si aún no se conoce).
+     */
+    public synchronized double getAnchoDeBanda() {
+        return anchoDeBanda;
+    }
+
+    /**
+     * @return Número de precargas que llegaron a su límite.
+     */
+    public synchronized int getCompletadas() {
+        return completadas;
+    }
+
+    /**
+     * @return Bytes descargados por precargas que no fueron adoptadas.
+     */
+    public synchronized long getBytesDescargados() {
+        return bytesDescargados;
+    }
+
+    /**
+     * @return Número de descargas de precarga en curso.
+     */
+    public synchronized int getSimultaneas() {
+        return enCurso.size();
+    }
+
+    /**
+     * Inicia descargas pendientes mientras haya lugar.
+     */
+    private void despachar() {
+        while (!cerrada && !pendientes.isEmpty() && enCurso.size() < simultaneasPermitidas()) {
+            String url = pendientes.pollFirst();
+            EntradaCache entrada = cache.abrir(url);
+
+            if (entrada.estaCompleta() || entrada.getDescargados() >= bytesPorCancion) {
+                cache.liberar(entrada);
+                continue;
+            }
+
+            final DescargaCache descarga =
+                    new DescargaCache(cache, entrada, bytesPorCancion, prioridad);
+            enCurso.put(url, descarga);
+            ejecutor.execute(() -> ejecutar(url, descarga));
+        }
+    }
+
+    private int simultaneasPermitidas() {
+        return anchoDeBanda >= ANCHO_PARALELO ? maximoSimultaneas : 1;
+    }
+
+    /**
+     * Ejecuta una descarga en el hilo de precarga.
+     */
+    private void ejecutar(String url, DescargaCache descarga) {
+        Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
+        descarga.run();
+
+        synchronized (this) {
+            if (adoptadas.remove(descarga))
+                // La entrada ahora pertenece a la reproducción.
+                return;
+
+            if (enCurso.remove(url, descarga)
+                && descarga.getEntrada().getDescargados() >= bytesPorCancion)
+                completadas++;
+            bytesDescargados += descarga.getBytesTransferidos();
+            registrarMuestra(descarga);
+            cache.liberar(descarga.getEntrada());
+            despachar();
+        }
+    }
+
+    private void registrarMuestra(DescargaCache descarga) {
+        long bytes = descarga.getBytesTransferidos();
+        long nanos = descarga.getNanosTransferencia();
+        if (bytes < MUESTRA_MINIMA || nanos <= 0)
+            return;
+
+        double muestra = bytes * 1e9 / nanos;
+        anchoDeBanda = anchoDeBanda == 0
+                ? muestra
+                : anchoDeBanda + PESO_MUESTRA * (muestra - anchoDeBanda);
+    }
+}
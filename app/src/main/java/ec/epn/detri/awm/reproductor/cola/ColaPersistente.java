@@ -0,0 +1,401 @@
+package ec.epn.detri.awm.reproductor.cola;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Cola de reproducción que se guarda en disco de forma incremental. Cada
+ * modificación se agrega al final de un registro (append-only) en lugar de
+ * reescribir la cola completa; al abrirla se vuelve a aplicar el registro.
+ * Cuando el registro crece demasiado respecto a la cola, se compacta
+ * escribiendo sólo el contenido actual.
+ *
+ * Si el archivo no se puede escribir, la cola sigue funcionando en memoria
+ * (igual que el índice de CacheAudio, guardar es sólo un "mejor esfuerzo").
+ *
+ * No es segura para hilos: el servicio la usa desde el hilo principal.
+ */
+public class ColaPersistente implements Closeable {
+    private static final int MAGIA = 0x434f4c41;
+
+    private static final int VERSION = 1;
+
+    // Tipos de registro.
+    private static final byte AGREGAR = 1;
+    private static final byte INSERTAR = 2;
+    private static final byte MOVER = 3;
+    private static final byte ELIMINAR = 4;
+    private static final byte LIMPIAR = 5;
+    private static final byte ACTUAL = 6;
+
+    /**
+     * Número mínimo de registros antes de considerar una compactación.
+     */
+    private static final int MINIMO_PARA_COMPACTAR = 1000;
+
+    private static final int TAMANIO_BUFFER_ES = 64 * 1024;
+
+    private final File archivo;
+
+    /**
+     * URLs de la cola, en orden de reproducción.
+     */
+    private final ArrayList<String> urls = new ArrayList<>();
+
+    /**
+     * Índice de la canción actual (-1 si no hay ninguna).
+     */
+    private int actual = -1;
+
+    /**
+     * Número de registros en el archivo.
+     */
+    private int registros;
+
+    /**
+     * Registro abierto para agregar; null si la cola dejó de guardarse.
+     */
+    private DataOutputStream salida;
+
+    private ColaPersistente(File archivo) {
+        this.archivo = archivo;
+    }
+
+    /**
+     * Abre la cola guardada en el archivo (o una vacía si no existe).
+     */
+    public static ColaPersistente abrir(File archivo) {
+        ColaPersistente cola = new ColaPersistente(archivo);
+        boolean completo;
+        try {
+            completo = cola.cargar();
+        } catch (IOException e) {
+            completo = false;
+        }
+
+        if (!completo || cola.debeCompactarse())
+            // Un registro incompleto (p.ej. el proceso murió a mitad de una
+            // escritura) se descarta reescribiendo sólo lo que se pudo leer.
+            cola.compactar();
+        else
+            try {
+                cola.salida = abrirSalida(archivo, true);
+            } catch (IOException e) {
+                cola.salida = null;
+            }
+        return cola;
+    }
+
+    /**
+     * @return False si la cola ya no se está guardando en disco.
+     */
+    public boolean esPersistente() {
+        return salida != null;
+    }
+
+    public int tamanio() {
+        return urls.size();
+    }
+
+    public String url(int indice) {
+        return urls.get(indice);
+    }
+
+    /**
+     * @return Una vista de sólo lectura de las URLs de la cola.
+     */
+    public List<String> urls() {
+        return Collections.unmodifiableList(urls);
+    }
+
+    public int getActual() {
+        return actual;
+    }
+
+    /**
+     * @return True si hay una canción después de la actual.
+     */
+    public boolean haySiguiente() {
+        return actual + 1 < urls.size();
+    }
+
+    /**
+     * Agrega una canción al final de la cola.
+     */
+    public void agregar(String url) {
+        agregar(Collections.singletonList(url));
+    }
+
+    /**
+     * Agrega varias canciones al final de la cola, con una sola escritura a disco.
+     */
+    public void agregar(List<String> nuevas) {
+        urls.ensureCapacity(urls.size() + nuevas.size());
+        urls.addAll(nuevas);
+        if (salida == null)
+            return;
+
+        try {
+            for (String url : nuevas) {
+                salida.writeByte(AGREGAR);
+                salida.writeUTF(url);
+            }
+            confirmar(nuevas.size());
+        } catch (IOException e) {
+            cerrarSalida();
+        }
+    }
+
+    /**
+     * Inserta una canción en la posición indicada.
+     */
+    public void insertar(int indice, String url) {
+        aplicarInsertar(indice, url);
+        if (salida == null)
+            return;
+
+        try {
+            salida.writeByte(INSERTAR);
+            salida.writeInt(indice);
+            salida.writeUTF(url);
+            confirmar(1);
+        } catch (IOException e) {
+            cerrarSalida();
+        }
+    }
+
+    /**
+     * Mueve una canción de una posición a otra.
+     */
+    public void mover(int desde, int hasta) {
+        aplicarMover(desde, hasta);
+        if (salida == null)
+            return;
+
+        try {
+            salida.writeByte(MOVER);
+            salida.writeInt(desde);
+            salida.writeInt(hasta);
+            confirmar(1);
+        } catch (IOException e) {
+            cerrarSalida();
+        }
+    }
+
+    /**
+     * Elimina la canción de la posición indicada.
+     */
+    public void eliminar(int indice) {
+        aplicarEliminar(indice);
+        escribirEntero(ELIMINAR, indice);
+    }
+
+    /**
+     * Vacía la cola.
+     */
+    public void limpiar() {
+        urls.clear();
+        actual = -1;
+        if (salida == null)
+            return;
+
+        try {
+            salida.writeByte(LIMPIAR);
+            confirmar(1);
+        } catch (IOException e) {
+            cerrarSalida();
+        }
+    }
+
+    /**
+     * Cambia la canción actual.
+     */
+    public void setActual(int indice) {
+        if (indice < -1 || indice >= urls.size())
+            throw new IndexOutOfBoundsException("Índice " + indice);
+        if (indice == actual)
+            return;
+
+        actual = indice;
+        escribirEntero(ACTUAL, indice);
+    }
+
+    /**
+     * Reescribe el archivo con el contenido actual de la cola (en un archivo
+     * temporal que luego reemplaza al registro).
+     */
+    public void compactar() {
+        cerrarSalida();
+
+        File temporal = new File(archivo.getPath() + ".tmp");
+        try {
+            try (DataOutputStream nueva = abrirSalida(temporal, false)) {
+                nueva.writeInt(MAGIA);
+                nueva.writeInt(VERSION);
+                for (String url : urls) {
+                    nueva.writeByte(AGREGAR);
+                    nueva.writeUTF(url);
+                }
+                nueva.writeByte(ACTUAL);
+                nueva.writeInt(actual);
+            }
+            if (!temporal.renameTo(archivo))
+                throw new IOException("No se pudo reemplazar " + archivo);
+
+            registros = urls.size() + 1;
+            salida = abrirSalida(archivo, true);
+        } catch (IOException e) {
+            temporal.delete();
+            salida = null;
+        }
+    }
+
+    @Override
+    public void close() {
+        cerrarSalida();
+    }
+
+    private void escribirEntero(byte tipo, int valor) {
+        if (salida == null)
+            return;
+
+        try {
+            salida.writeByte(tipo);
+            salida.writeInt(valor);
+            confirmar(1);
+        } catch (IOException e) {
+            cerrarSalida();
+        }
+    }
+
+    /**
+     * Envía lo escrito al sistema operativo (sin fsync) y compacta si el
+     * registro creció demasiado.
+     */
+    private void confirmar(int nuevosRegistros) throws IOException {
+        salida.flush();
+        registros += nuevosRegistros;
+        if (debeCompactarse())
+            compactar();
+    }
+
+    /**
+     * También se usa tras un error de escritura: el registro puede haber
+     * quedado a medias, así que no se agrega nada más y la próxima apertura
+     * descarta el registro incompleto.
+     */
+    private void cerrarSalida() {
+        if (salida != null) {
+            try {
+                salida.close();
+            } catch (IOException e) {
+                // Lo que no se llegó a escribir se pierde.
+            }
+            salida = null;
+        }
+    }
+
+    private boolean debeCompactarse() {
+        return registros > MINIMO_PARA_COMPACTAR && registros > 2 * urls.size();
+    }
+
+    /**
+     * Aplica el registro guardado.
+     * @return False si el archivo terminaba en un registro incompleto o
+     * tenía un formato desconocido.
+     */
+    private boolean cargar() throws IOException {
+        if (!archivo.exists())
+            return false;
+
+        try (DataInputStream entrada = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(archivo), TAMANIO_BUFFER_ES))) {
+            if (entrada.readInt() != MAGIA || entrada.readInt() != VERSION)
+                return false;
+
+            while (true) {
+                int tipo = entrada.read();
+                if (tipo == -1)
+                    return true;
+
+                switch (tipo) {
+                    case AGREGAR:
+                        urls.add(entrada.readUTF());
+                        break;
+                    case INSERTAR:
+                        aplicarInsertar(entrada.readInt(), entrada.readUTF());
+                        break;
+                    case MOVER:
+                        aplicarMover(entrada.readInt(), entrada.readInt());
+                        break;
+                    case ELIMINAR:
+                        aplicarEliminar(entrada.readInt());
+                        break;
+                    case LIMPIAR:
+                        urls.clear();
+                        actual = -1;
+                        break;
+                    case ACTUAL:
+                        actual = entrada.readInt();
+                        break;
+                    default:
+                        return false;
+                }
+                registros++;
+            }
+        } catch (EOFException | IndexOutOfBoundsException e) {
+            actual = Math.min(actual, urls.size() - 1);
+            return false;
+        }
+    }
+
+    private void aplicarInsertar(int indice, String url) {
+        urls.add(indice, url);
+        if (indice <= actual)
+            actual++;
+    }
+
+    private void aplicarMover(int desde, int hasta) {
+        urls.add(hasta, urls.remove(desde));
+
+        // La canción actual sigue siendo la misma aunque cambie su índice.
+        if (actual == desde)
+            actual = hasta;
+        else if (desde < actual && hasta >= actual)
+            actual--;
+        else if (desde > actual && hasta <= actual)
+            actual++;
+    }
+
+    private void aplicarEliminar(int indice) {
+        urls.remove(indice);
+        if (indice < actual)
+            actual--;
+        else if (indice == actual)
+            // La siguiente canción pasa a ocupar el lugar de la eliminada.
+            actual = Math.min(actual, urls.size()) - 1;
+    }
+
+    private static DataOutputStream abrirSalida(File archivo, boolean agregar) throws IOException {
+        boolean nuevo = !archivo.exists() || archivo.length() == 0;
+        DataOutputStream salida = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(archivo, agregar), TAMANIO_BUFFER_ES));
+        if (agregar && nuevo) {
+            salida.writeInt(MAGIA);
+            salida.writeInt(VERSION);
+            salida.flush();
+        }
+        return salida;
+    }
+}
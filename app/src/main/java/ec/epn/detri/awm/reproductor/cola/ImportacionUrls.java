@@ -0,0 +1,360 @@
+package ec.epn.detri.awm.reproductor.cola;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import ec.epn.detri.awm.reproductor.red.ClienteHttp;
+
+/**
+ * Importa una lista de canciones (pegada, compartida o un archivo
+ * M3U/PLS) a la cola, fuera del hilo principal:
+ * - un hilo lee la lista línea por línea (ver LectorListas), resuelve cada
+ *   entrada y descarta las repetidas y las que no son URLs http(s);
+ * - cada URL nueva se valida con una petición HEAD en un pool de
+ *   SIMULTANEAS hilos de baja prioridad. El lector se bloquea mientras haya
+ *   EN_VUELO validaciones pendientes, así que una lista de miles de líneas
+ *   no llena la memoria de tareas;
+ * - las URLs válidas se entregan por lotes a medida que se resuelven (la
+ *   primera sola, para que empiece a sonar cuanto antes), en el orden en
+ *   que terminan y no en el de la lista. Un lote incompleto se entrega
+ *   cuando vence su plazo (INTERVALO_LOTE_MS), aunque las validaciones
+ *   que faltan tarden hasta TIMEOUT_MS.
+ *
+ * Las peticiones HEAD pasan por ClienteHttp, así que las de un mismo
+ * servidor reutilizan sus conexiones.
+ */
+public class ImportacionUrls implements Closeable {
+    /**
+     * Recibe los resultados de la importación, en el Executor de entrega.
+     */
+    public interface Oyente {
+        /**
+         * @param urls URLs validadas desde el último lote.
+         */
+        void alValidar(List<String> urls);
+
+        void alTerminar(Resumen resumen);
+    }
+
+    /**
+     * Fuente de la lista. Se abre en el hilo de la importación, porque
+     * puede leer de disco o de un ContentProvider.
+     */
+    public interface Fuente {
+        Reader abrir() throws IOException;
+    }
+
+    /**
+     * Totales de una importación.
+     */
+    public static final class Resumen {
+        /**
+         * Entradas leídas de la lista.
+         */
+        public final int entradas;
+
+        public final int repetidas;
+
+        /**
+         * Entradas que no son URLs http(s).
+         */
+        public final int invalidas;
+
+        /**
+         * URLs cuyo servidor no respondió o respondió con un error.
+         */
+        public final int rechazadas;
+
+        public final int validas;
+
+        /**
+         * False si la lista no se pudo leer hasta el final.
+         */
+        public final boolean completa;
+
+        Resumen(int entradas, int repetidas, int invalidas, int rechazadas, int validas,
+                boolean completa) {
+            this.entradas = entradas;
+            this.repetidas = repetidas;
+            this.invalidas = invalidas;
+            this.rechazadas = rechazadas;
+            this.validas = validas;
+            this.completa = completa;
+        }
+    }
+
+    /**
+     * Validaciones simultáneas (igual al número de conexiones que el pool
+     * de ClienteHttp conserva por servidor).
+     */
+    static final int SIMULTANEAS = 8;
+
+    /**
+     * Validaciones en curso o en espera como máximo.
+     */
+    static final int EN_VUELO = 2 * SIMULTANEAS;
+
+    /**
+     * URLs por lote entregado.
+     */
+    public static final int LOTE = 64;
+
+    /**
+     * Tiempo máximo que una URL validada espera a completar su lote.
+     */
+    static final long INTERVALO_LOTE_MS = 250;
+
+    /**
+     * Tiempo de espera de cada validación (más corto que el de la reproducción).
+     */
+    private static final int TIMEOUT_MS = 5000;
+
+    private final Oyente oyente;
+
+    private final Executor entrega;
+
+    private final ThreadPoolExecutor validadores;
+
+    /**
+     * Entrega los lotes incompletos al vencer su plazo.
+     */
+    private final ScheduledThreadPoolExecutor temporizador;
+
+    private final Semaphore enVuelo = new Semaphore(EN_VUELO);
+
+    private Thread hilo;
+
+    private volatile boolean cancelada;
+
+    // Estado protegido por this.
+    private ArrayList<String> lote = new ArrayList<>();
+    /**
+     * Lotes tomados hasta ahora; un plazo sólo vale para el lote que lo
+     * programó.
+     */
+    private long lotesTomados;
+    private ScheduledFuture<?> plazoLote;
+    private int rechazadas;
+    private int validas;
+
+    /**
+     * Constructor
+     * @param oyente Recibe los lotes y el resumen.
+     * @param entrega Hilo en el que se avisa al oyente (p.ej. el principal).
+     */
+    public ImportacionUrls(Oyente oyente, Executor entrega) {
+        this.oyente = oyente;
+        this.entrega = entrega;
+        validadores = new ThreadPoolExecutor(SIMULTANEAS, SIMULTANEAS,
+                                             1, TimeUnit.SECONDS,
+                                             new ArrayBlockingQueue<>(EN_VUELO),
+                                             tarea -> crearHilo(tarea, "ValidacionUrl"));
+        validadores.allowCoreThreadTimeOut(true);
+        temporizador = new ScheduledThreadPoolExecutor(1, tarea -> crearHilo(tarea, "LoteUrls"));
+        temporizador.setRemoveOnCancelPolicy(true);
+    }
+
+    private static Thread crearHilo(Runnable tarea, String nombre) {
+        Thread hilo = new Thread(tarea, nombre);
+        hilo.setDaemon(true);
+        hilo.setPriority(Thread.MIN_PRIORITY);
+        return hilo;
+    }
+
+    /**
+     * Empieza la importación en segundo plano. Se llama una sola vez.
+     * @param base URL de la lista, para resolver entradas relativas (null
+     * si no tiene).
+     */
+    public synchronized void importar(final Fuente fuente, final URL base) {
+        if (hilo != null)
+            throw new IllegalStateException("La importación ya empezó");
+
+        hilo = new Thread(() -> ejecutar(fuente, base), "ImportacionUrls");
+        hilo.setDaemon(true);
+        hilo.setPriority(Thread.MIN_PRIORITY);
+        hilo.start();
+    }
+
+    /**
+     * Cancela la importación; el oyente no recibe más avisos. Las URLs ya
+     * entregadas quedan en la cola.
+     */
+    @Override
+    public void close() {
+        cancelada = true;
+        Thread lector;
+        synchronized (this) {
+            lector = hilo;
+        }
+        if (lector != null)
+            lector.interrupt();
+        validadores.shutdownNow();
+        temporizador.shutdownNow();
+    }
+
+    /**
+     * Lee la lista y reparte las validaciones (en el hilo de la importación).
+     */
+    private void ejecutar(Fuente fuente, URL base) {
+        Set<String> vistas = new HashSet<>();
+        int entradas = 0;
+        int repetidas = 0;
+        int invalidas = 0;
+        boolean completa = true;
+
+        try (Reader lista = fuente.abrir()) {
+            LectorListas lector = new LectorListas(lista);
+            String entrada;
+            while (!cancelada && (entrada = lector.siguiente()) != null) {
+                entradas++;
+                final String url = LectorListas.resolver(entrada, base);
+                if (url == null)
+                    invalidas++;
+                else if (!vistas.add(url))
+                    repetidas++;
+                else {
+                    enVuelo.acquire();
+                    validadores.execute(() -> {
+                        try {
+                            registrar(url, validar(url));
+                        } finally {
+                            enVuelo.release();
+                        }
+                    });
+                }
+            }
+        } catch (IOException e) {
+            // Se entrega lo que se alcanzó a leer.
+            completa = false;
+        } catch (InterruptedException | RejectedExecutionException e) {
+            // close() interrumpe el hilo y rechaza las tareas nuevas.
+            return;
+        }
+
+        try {
+            // Espera a que terminen las validaciones pendientes.
+            enVuelo.acquire(EN_VUELO);
+        } catch (InterruptedException e) {
+            return;
+        }
+        validadores.shutdown();
+        if (cancelada)
+            return;
+
+        synchronized (this) {
+            // Dentro del bloqueo, para que un plazo que vence ahora no
+            // entregue su lote después del resumen.
+            List<String> resto = tomarLote();
+            temporizador.shutdown();
+            if (!resto.isEmpty())
+                entregar(resto);
+            final Resumen resumen =
+                    new Resumen(entradas, repetidas, invalidas, rechazadas, validas, completa);
+            entrega.execute(() -> {
+                if (!cancelada)
+                    oyente.alTerminar(resumen);
+            });
+        }
+    }
+
+    /**
+     * Cuenta el resultado de una validación y entrega el lote si está listo.
+     */
+    private void registrar(String url, boolean valida) {
+        List<String> listo = null;
+        synchronized (this) {
+            if (!valida) {
+                rechazadas++;
+                return;
+            }
+            validas++;
+            lote.add(url);
+            if (lote.size() >= LOTE || validas == 1)
+                listo = tomarLote();
+            else if (plazoLote == null)
+                programarPlazo();
+        }
+        if (listo != null)
+            entregar(listo);
+    }
+
+    /**
+     * Programa la entrega del lote actual dentro de INTERVALO_LOTE_MS.
+     */
+    private void programarPlazo() {
+        final long numero = lotesTomados;
+        try {
+            plazoLote = temporizador.schedule(() -> vencerPlazo(numero),
+                                              INTERVALO_LOTE_MS, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Cancelada: no hay nada que entregar.
+        }
+    }
+
+    /**
+     * Entrega el lote si aún es el que programó el plazo.
+     */
+    private synchronized void vencerPlazo(long numero) {
+        if (numero != lotesTomados || cancelada)
+            return;
+        plazoLote = null;
+        entregar(tomarLote());
+    }
+
+    private List<String> tomarLote() {
+        List<String> listo = lote;
+        lote = new ArrayList<>();
+        lotesTomados++;
+        if (plazoLote != null) {
+            plazoLote.cancel(false);
+            plazoLote = null;
+        }
+        return listo;
+    }
+
+    private void entregar(final List<String> urls) {
+        entrega.execute(() -> {
+            if (!cancelada)
+                oyente.alValidar(urls);
+        });
+    }
+
+    /**
+     * Comprueba con una petición HEAD que el servidor tiene la canción.
+     * Un servidor que no acepta HEAD (405, 501) se da por válido.
+     */
+    static boolean validar(String url) {
+        HttpURLConnection conexion = null;
+        try {
+            conexion = ClienteHttp.abrir(url);
+            conexion.setConnectTimeout(TIMEOUT_MS);
+            conexion.setReadTimeout(TIMEOUT_MS);
+            conexion.setRequestMethod("HEAD");
+            int codigo = ClienteHttp.respuesta(conexion);
+            ClienteHttp.liberar(conexion, true);
+            return codigo < 400
+                   || codigo == HttpURLConnection.HTTP_BAD_METHOD
+                   || codigo == HttpURLConnection.HTTP_NOT_IMPLEMENTED;
+        } catch (IOException | IllegalArgumentException e) {
+            if (conexion != null)
+                conexion.disconnect();
+            return false;
+        }
+    }
+}
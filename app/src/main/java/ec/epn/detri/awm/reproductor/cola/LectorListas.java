@@ -0,0 +1,107 @@
+package ec.epn.detri.awm.reproductor.cola;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.Locale;
+
+/**
+ * Lee las entradas de una lista de canciones, línea por línea, sin
+ * cargarla completa en memoria. Acepta:
+ * - M3U/M3U8: una entrada por línea; las líneas con '#' son comentarios;
+ * - PLS: sólo las claves "FileN=" (Title, Length, etc. se ignoran);
+ * - texto plano: una o varias URLs por línea, separadas por espacios (lo
+ *   que queda al pegar una lista en el cuadro del URL).
+ */
+final class LectorListas {
+    private final BufferedReader lector;
+
+    /**
+     * URLs restantes de una línea con varias.
+     */
+    private final ArrayDeque<String> pendientes = new ArrayDeque<>();
+
+    LectorListas(Reader lista) {
+        lector = lista instanceof BufferedReader
+                ? (BufferedReader) lista
+                : new BufferedReader(lista);
+    }
+
+    /**
+     * @return La siguiente entrada tal como aparece en la lista (puede ser
+     * relativa o no ser un URL), o null al final.
+     */
+    String siguiente() throws IOException {
+        while (pendientes.isEmpty()) {
+            String linea = lector.readLine();
+            if (linea == null)
+                return null;
+            separar(linea.trim());
+        }
+        return pendientes.pollFirst();
+    }
+
+    private void separar(String linea) {
+        if (linea.isEmpty() || linea.charAt(0) == '#' || linea.charAt(0) == '[')
+            return;
+
+        int igual = linea.indexOf('=');
+        if (igual > 0 && esClavePls(linea, igual)) {
+            if (linea.regionMatches(true, 0, "File", 0, 4))
+                pendientes.add(linea.substring(igual + 1).trim());
+            return;
+        }
+
+        // Una ruta relativa puede tener espacios; sólo se separan las
+        // líneas en las que todas las partes son URLs absolutas.
+        String[] partes = linea.split("\\s+");
+        if (partes.length > 1)
+            for (String parte : partes)
+                if (parte.indexOf("://") < 0) {
+                    pendientes.add(linea);
+                    return;
+                }
+        for (String parte : partes)
+            pendientes.add(parte);
+    }
+
+    /**
+     * @return True si lo que precede al '=' es una clave PLS (letras y un
+     * número opcional), y no parte de la consulta de un URL.
+     */
+    private static boolean esClavePls(String linea, int igual) {
+        for (int i = 0; i < igual; i++) {
+            char c = linea.charAt(i);
+            if (!(c >= 'A' && c <= 'Z' || c >= 'a' && c <= 'z' || c >= '0' && c <= '9'))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Convierte una entrada en el URL que se reproduce.
+     * @param base URL de la lista, para resolver entradas relativas (null
+     * si la lista no viene de un servidor).
+     * @return El URL absoluto http(s), sin fragmento, o null si la entrada
+     * no es válida.
+     */
+    static String resolver(String entrada, URL base) {
+        try {
+            URL url = base != null
+                    ? new URL(base, entrada.replace(" ", "%20"))
+                    : new URL(entrada);
+            String esquema = url.getProtocol().toLowerCase(Locale.ROOT);
+            if (!esquema.equals("http") && !esquema.equals("https") || url.getHost().isEmpty())
+                return null;
+
+            String texto = url.toExternalForm();
+            int fragmento = texto.indexOf('#');
+            return fragmento < 0 ? texto : texto.substring(0, fragmento);
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+}
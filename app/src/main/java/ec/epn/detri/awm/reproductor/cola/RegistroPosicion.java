@@ -0,0 +1,298 @@
+package ec.epn.detri.awm.reproductor.cola;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Guarda la posición de la canción actual en un registro pequeño, para
+ * retomarla si el proceso del servicio muere. Igual que ColaPersistente,
+ * cada punto de control se agrega al final del archivo (sin fsync) y al
+ * abrirlo se conserva el último; cuando el registro llega a
+ * MAXIMO_REGISTROS se reescribe sólo con la posición actual.
+ *
+ * Las escrituras se agrupan: una posición nueva de la misma canción sólo
+ * se escribe si avanzó al menos INTERVALO_MS desde la última guardada,
+ * salvo que se pida guardarla de inmediato (p.ej. al pausar).
+ *
+ * No es segura para hilos: el servicio la usa desde el hilo principal.
+ */
+public class RegistroPosicion implements Closeable {
+    private static final int MAGIA = 0x504f5349;
+
+    private static final int VERSION = 1;
+
+    // Tipos de registro.
+    private static final byte CANCION = 1;
+    private static final byte POSICION = 2;
+    private static final byte LIMPIAR = 3;
+
+    /**
+     * Diferencia mínima de posición para escribir un punto de control.
+     */
+    static final int INTERVALO_MS = 5000;
+
+    /**
+     * Número de registros a partir del cual se reescribe el archivo.
+     */
+    static final int MAXIMO_REGISTROS = 512;
+
+    private final File archivo;
+
+    /**
+     * Última posición guardada (url null si no hay ninguna).
+     */
+    private String url;
+    private int posicion;
+    private int duracion;
+
+    private int registros;
+
+    /**
+     * Registro abierto para agregar; null si la posición dejó de guardarse.
+     */
+    private DataOutputStream salida;
+
+    private RegistroPosicion(File archivo) {
+        this.archivo = archivo;
+    }
+
+    /**
+     * Abre el registro guardado en el archivo (o uno vacío si no existe).
+     */
+    public static RegistroPosicion abrir(File archivo) {
+        RegistroPosicion registro = new RegistroPosicion(archivo);
+        boolean completo;
+        try {
+            completo = registro.cargar();
+        } catch (IOException e) {
+            completo = false;
+        }
+
+        if (!completo || registro.registros >= MAXIMO_REGISTROS)
+            registro.compactar();
+        else
+            try {
+                registro.salida = abrirSalida(archivo, true);
+            } catch (IOException e) {
+                registro.salida = null;
+            }
+        return registro;
+    }
+
+    /**
+     * @return URL de la canción guardada, o null si no hay ninguna.
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * @return Posición guardada en milisegundos.
+     */
+    public int getPosicion() {
+        return posicion;
+    }
+
+    /**
+     * @return Duración de la canción guardada en milisegundos (0 si no se
+     * conocía).
+     */
+    public int getDuracion() {
+        return duracion;
+    }
+
+    /**
+     * @return False si la posición ya no se está guardando en disco.
+     */
+    public boolean esPersistente() {
+        return salida != null;
+    }
+
+    /**
+     * Registra la posición de la canción actual.
+     * @param inmediato Si es false, la posición sólo se escribe si cambió la
+     * canción o avanzó (o retrocedió) al menos INTERVALO_MS.
+     * @return True si se escribió un punto de control.
+     */
+    public boolean guardar(String url, int posicionMs, int duracionMs, boolean inmediato) {
+        boolean otraCancion = !url.equals(this.url);
+        if (!otraCancion && posicionMs == posicion && duracionMs == duracion)
+            return false;
+        if (!otraCancion && !inmediato && Math.abs(posicionMs - posicion) < INTERVALO_MS)
+            return false;
+
+        this.url = url;
+        posicion = posicionMs;
+        duracion = duracionMs;
+        if (salida == null)
+            return false;
+
+        try {
+            int nuevos = 1;
+            if (otraCancion) {
+                salida.writeByte(CANCION);
+                salida.writeUTF(url);
+                nuevos++;
+            }
+            salida.writeByte(POSICION);
+            salida.writeInt(posicionMs);
+            salida.writeInt(duracionMs);
+            confirmar(nuevos);
+            return true;
+        } catch (IOException e) {
+            cerrarSalida();
+            return false;
+        }
+    }
+
+    /**
+     * Olvida la posición guardada (p.ej. porque la cola terminó).
+     */
+    public void limpiar() {
+        if (url == null)
+            return;
+
+        url = null;
+        posicion = 0;
+        duracion = 0;
+        if (salida == null)
+            return;
+
+        try {
+            salida.writeByte(LIMPIAR);
+            confirmar(1);
+        } catch (IOException e) {
+            cerrarSalida();
+        }
+    }
+
+    /**
+     * Reescribe el archivo sólo con la última posición (en un archivo
+     * temporal que luego reemplaza al registro).
+     */
+    public void compactar() {
+        cerrarSalida();
+
+        File temporal = new File(archivo.getPath() + ".tmp");
+        try {
+            try (DataOutputStream nueva = abrirSalida(temporal, false)) {
+                nueva.writeInt(MAGIA);
+                nueva.writeInt(VERSION);
+                registros = 0;
+                if (url != null) {
+                    nueva.writeByte(CANCION);
+                    nueva.writeUTF(url);
+                    nueva.writeByte(POSICION);
+                    nueva.writeInt(posicion);
+                    nueva.writeInt(duracion);
+                    registros = 2;
+                }
+            }
+            if (!temporal.renameTo(archivo))
+                throw new IOException("No se pudo reemplazar " + archivo);
+
+            salida = abrirSalida(archivo, true);
+        } catch (IOException e) {
+            temporal.delete();
+            salida = null;
+        }
+    }
+
+    @Override
+    public void close() {
+        cerrarSalida();
+    }
+
+    /**
+     * Envía lo escrito al sistema operativo (sin fsync) y compacta si el
+     * registro creció demasiado.
+     */
+    private void confirmar(int nuevosRegistros) throws IOException {
+        salida.flush();
+        registros += nuevosRegistros;
+        if (registros >= MAXIMO_REGISTROS)
+            compactar();
+    }
+
+    /**
+     * Ver ColaPersistente.cerrarSalida().
+     */
+    private void cerrarSalida() {
+        if (salida != null) {
+            try {
+                salida.close();
+            } catch (IOException e) {
+                // Lo que no se llegó a escribir se pierde.
+            }
+            salida = null;
+        }
+    }
+
+    /**
+     * Lee el registro guardado. Un punto de control incompleto al final del
+     * archivo se ignora: queda el anterior.
+     * @return False si el archivo no existía, terminaba en un registro
+     * incompleto o tenía un formato desconocido.
+     */
+    private boolean cargar() throws IOException {
+        if (!archivo.exists())
+            return false;
+
+        try (DataInputStream entrada = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(archivo)))) {
+            if (entrada.readInt() != MAGIA || entrada.readInt() != VERSION)
+                return false;
+
+            String cancion = null;
+            while (true) {
+                int tipo = entrada.read();
+                if (tipo == -1)
+                    return true;
+
+                switch (tipo) {
+                    case CANCION:
+                        cancion = entrada.readUTF();
+                        break;
+                    case POSICION:
+                        int posicionLeida = entrada.readInt();
+                        int duracionLeida = entrada.readInt();
+                        url = cancion;
+                        posicion = posicionLeida;
+                        duracion = duracionLeida;
+                        break;
+                    case LIMPIAR:
+                        cancion = null;
+                        url = null;
+                        posicion = 0;
+                        duracion = 0;
+                        break;
+                    default:
+                        return false;
+                }
+                registros++;
+            }
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    private static DataOutputStream abrirSalida(File archivo, boolean agregar) throws IOException {
+        boolean nuevo = !archivo.exists() || archivo.length() == 0;
+        DataOutputStream salida = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(archivo, agregar)));
+        if (agregar && nuevo) {
+            salida.writeInt(MAGIA);
+            salida.writeInt(VERSION);
+            salida.flush();
+        }
+        return salida;
+    }
+}
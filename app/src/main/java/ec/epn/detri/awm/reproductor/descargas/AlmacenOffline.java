@@ -0,0 +1,60 @@
+package ec.epn.detri.awm.reproductor.descargas;
+
+import java.io.File;
+
+import ec.epn.detri.awm.reproductor.cache.CacheAudio;
+
+/**
+ * Canciones descargadas para escucharlas sin conexión. A diferencia de la
+ * caché (CacheAudio), viven en el directorio de archivos de la app: el
+ * sistema no las borra al faltar espacio y no se recortan por tamaño.
+ *
+ * Cada canción es un archivo con la clave de su URL (la misma de la
+ * caché); junto a él están, mientras se descarga, la parte descargada y
+ * su estado (ver DescargaPorTrozos). El proceso del servicio sólo
+ * consulta si una canción está completa; las descargas corren en el de
+ * la app (ver TrabajoDescarga).
+ */
+public class AlmacenOffline {
+    /**
+     * Nombre del directorio dentro de getFilesDir().
+     */
+    public static final String DIRECTORIO = "offline";
+
+    private final File directorio;
+
+    public AlmacenOffline(File directorio) {
+        this.directorio = directorio;
+    }
+
+    /**
+     * @return El archivo de la canción (exista o no).
+     */
+    public File archivo(String url) {
+        return new File(directorio, CacheAudio.calcularClave(url));
+    }
+
+    /**
+     * @return True si la canción está descargada completa.
+     */
+    public boolean estaDescargada(String url) {
+        return archivo(url).isFile();
+    }
+
+    /**
+     * @return Una descarga (nueva o para retomar) de la canción.
+     */
+    public DescargaPorTrozos descarga(String url) {
+        return new DescargaPorTrozos(url, archivo(url),
+                                     DescargaPorTrozos.PARALELAS,
+                                     DescargaPorTrozos.TAMANIO_TROZO);
+    }
+
+    /**
+     * Borra la canción y lo que haya de una descarga a medias.
+     */
+    public void eliminar(String url) {
+        descarga(url).descartar();
+        archivo(url).delete();
+    }
+}
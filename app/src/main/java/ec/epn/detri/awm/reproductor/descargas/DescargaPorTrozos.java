@@ -0,0 +1,420 @@
+package ec.epn.detri.awm.reproductor.descargas;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import ec.epn.detri.awm.reproductor.red.ClienteHttp;
+import ec.epn.detri.awm.reproductor.red.LectorStreaming;
+
+/**
+ * Descarga una canción completa para escucharla sin conexión, en trozos
+ * de tamanioTrozo bytes pedidos con Range por varias conexiones a la vez:
+ * - la primera petición pide el primer trozo y trae la longitud y el
+ *   validador (no hace falta un HEAD); con ellos se reserva el archivo
+ *   completo (setLength) y se crea el estado (ver EstadoDescarga);
+ * - cada conexión toma el siguiente trozo pendiente y lo escribe en su
+ *   posición con FileChannel.write(buffer, posición), sin seek ni
+ *   bloqueos entre hilos;
+ * - un trozo se marca en el estado sólo cuando está entero en disco
+ *   (Content-Range exacto y el cuerpo completo, ni un byte más).
+ *
+ * Si la descarga se corta (cancelar(), un error o la muerte del proceso),
+ * la siguiente retoma sólo los trozos que faltan, con If-Range: si la
+ * canción cambió en el servidor, se descarta lo descargado y se empieza
+ * de nuevo. Un servidor sin Range se descarga en un solo trozo.
+ *
+ * La canción se escribe en destino + ".parcial" y se renombra a destino
+ * cuando todos los trozos están escritos y la longitud coincide, así que
+ * destino siempre es una canción completa.
+ */
+public class DescargaPorTrozos {
+    /**
+     * Tamaño de los trozos por defecto.
+     */
+    public static final int TAMANIO_TROZO = 1024 * 1024;
+
+    /**
+     * Conexiones simultáneas por defecto.
+     */
+    public static final int PARALELAS = 4;
+
+    /**
+     * Tamaño del bloque de lectura de la red.
+     */
+    private static final int TAMANIO_BLOQUE = 16 * 1024;
+
+    /**
+     * Range Not Satisfiable (no tiene constante en HttpURLConnection).
+     */
+    private static final int HTTP_RANGO_INVALIDO = 416;
+
+    /**
+     * Error que no se corrige reintentando (p.ej. un 404 o una radio en
+     * vivo, sin longitud).
+     */
+    public static class NoDescargable extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        NoDescargable(String mensaje) {
+            super(mensaje);
+        }
+    }
+
+    private final String url;
+
+    private final File destino;
+
+    private final File parcial;
+
+    private final File archivoEstado;
+
+    private final int paralelas;
+
+    private final int tamanioTrozo;
+
+    private volatile boolean cancelada;
+
+    /**
+     * Conexiones en curso, para poder cortarlas al cancelar.
+     */
+    private final Set<HttpURLConnection> conexiones = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong bytesTransferidos = new AtomicLong();
+
+    private volatile int trozosPrevios;
+
+    private volatile int trozosTotales;
+
+    /**
+     * Constructor
+     * @param destino Archivo de la canción descargada.
+     * @param paralelas Conexiones simultáneas.
+     * @param tamanioTrozo Bytes por petición.
+     */
+    public DescargaPorTrozos(String url, File destino, int paralelas, int tamanioTrozo) {
+        if (paralelas < 1 || tamanioTrozo < 1)
+            throw new IllegalArgumentException(paralelas + " conexiones, trozos de "
+                                               + tamanioTrozo);
+        this.url = url;
+        this.destino = destino;
+        this.paralelas = paralelas;
+        this.tamanioTrozo = tamanioTrozo;
+        parcial = new File(destino.getPath() + ".parcial");
+        archivoEstado = new File(destino.getPath() + ".trozos");
+    }
+
+    /**
+     * Descarga la canción (o lo que falta de ella). Bloquea hasta terminar.
+     * @throws InterruptedIOException Si se canceló; lo descargado se conserva.
+     * @throws NoDescargable Si la canción no se puede descargar.
+     */
+    public void descargar() throws IOException {
+        if (destino.isFile())
+            return;
+        File directorio = destino.getParentFile();
+        if (directorio != null && !directorio.exists())
+            directorio.mkdirs();
+
+        try {
+            intentar();
+        } catch (ClienteHttp.RecursoCambiado e) {
+            descartar();
+            intentar();
+        }
+    }
+
+    /**
+     * Detiene la descarga: corta las conexiones en curso. Los trozos ya
+     * escritos quedan marcados para retomarla.
+     */
+    public void cancelar() {
+        cancelada = true;
+        for (HttpURLConnection conexion : conexiones)
+            conexion.disconnect();
+    }
+
+    /**
+     * Borra lo descargado a medias (la canción completa se conserva).
+     */
+    public void descartar() {
+        parcial.delete();
+        archivoEstado.delete();
+    }
+
+    /**
+     * @return Bytes recibidos de la red por esta descarga.
+     */
+    public long getBytesTransferidos() {
+        return bytesTransferidos.get();
+    }
+
+    /**
+     * @return Trozos que ya estaban escritos al empezar (de una descarga
+     * anterior).
+     */
+    public int getTrozosPrevios() {
+        return trozosPrevios;
+    }
+
+    /**
+     * @return Trozos de la canción (0 si aún no se conoce su longitud).
+     */
+    public int getTrozosTotales() {
+        return trozosTotales;
+    }
+
+    private void intentar() throws IOException {
+        EstadoDescarga estado = EstadoDescarga.abrir(archivoEstado, url);
+        if (estado != null && parcial.length() != estado.getLongitud()) {
+            estado.close();
+            estado = null;
+        }
+
+        // Sin estado, la primera petición (el primer trozo) lo crea.
+        HttpURLConnection primera = null;
+        if (estado == null) {
+            descartar();
+            primera = ClienteHttp.abrir(url);
+            primera.setRequestProperty("Range", "bytes=0-" + (tamanioTrozo - 1));
+            conexiones.add(primera);
+            try {
+                estado = crearEstado(primera);
+            } catch (IOException e) {
+                conexiones.remove(primera);
+                ClienteHttp.liberar(primera, false);
+                throw e;
+            }
+        }
+
+        trozosPrevios = estado.getEscritos();
+        trozosTotales = estado.getTrozos();
+        try (EstadoDescarga trozos = estado;
+             RandomAccessFile archivo = new RandomAccessFile(parcial, "rw")) {
+            FileChannel canal = archivo.getChannel();
+            repartir(trozos, canal, primera);
+
+            if (!trozos.estaCompleta() || canal.size() != trozos.getLongitud())
+                throw new IOException("Descarga incompleta: " + trozos.getEscritos() + " de "
+                                      + trozos.getTrozos() + " trozos, " + canal.size()
+                                      + " de " + trozos.getLongitud() + " bytes");
+            canal.force(true);
+        }
+
+        if (!parcial.renameTo(destino))
+            throw new IOException("No se pudo mover " + parcial + " a " + destino);
+        archivoEstado.delete();
+    }
+
+    /**
+     * Lee las cabeceras de la primera respuesta, reserva el archivo y crea
+     * el estado. Si el servidor respondió con la canción entera (sin
+     * Range), el estado tiene un solo trozo.
+     */
+    private EstadoDescarga crearEstado(HttpURLConnection primera) throws IOException {
+        int codigo = ClienteHttp.respuesta(primera);
+        long longitud;
+        long trozo;
+        if (codigo == HttpURLConnection.HTTP_PARTIAL) {
+            longitud = LectorStreaming.longitudTotal(primera.getHeaderField("Content-Range"));
+            trozo = tamanioTrozo;
+        } else if (codigo == HttpURLConnection.HTTP_OK) {
+            longitud = primera.getContentLengthLong();
+            trozo = Math.max(1, longitud);
+        } else if (codigo >= 400 && codigo < 500)
+            throw new NoDescargable("HTTP " + codigo + " al descargar " + url);
+        else
+            throw new IOException("HTTP " + codigo + " al descargar " + url);
+
+        if (longitud <= 0)
+            throw new NoDescargable("Longitud desconocida: " + url);
+        if (cancelada)
+            throw new InterruptedIOException("Descarga cancelada");
+
+        try (RandomAccessFile archivo = new RandomAccessFile(parcial, "rw")) {
+            archivo.setLength(longitud);
+        }
+        return EstadoDescarga.crear(archivoEstado, url, longitud, trozo, validador(primera));
+    }
+
+    /**
+     * Reparte los trozos pendientes entre las conexiones: este hilo y
+     * paralelas - 1 más. Espera a que terminen todas.
+     * @param primera Conexión con el primer trozo ya pedido, o null.
+     */
+    private void repartir(final EstadoDescarga trozos, final FileChannel canal,
+                          HttpURLConnection primera) throws IOException {
+        final int[] pendientes = trozos.pendientes();
+        // El primer trozo, si ya se pidió, lo copia este hilo.
+        final AtomicInteger siguiente = new AtomicInteger(primera != null ? 1 : 0);
+        final AtomicReference<IOException> error = new AtomicReference<>();
+
+        Runnable trabajador = () -> {
+            byte[] bloque = new byte[TAMANIO_BLOQUE];
+            int i;
+            while (!cancelada && error.get() == null
+                   && (i = siguiente.getAndIncrement()) < pendientes.length)
+                try {
+                    descargarTrozo(pendientes[i], trozos, canal, bloque);
+                } catch (IOException e) {
+                    // Los demás terminan sus trozos pero no toman otros.
+                    error.compareAndSet(null, e);
+                } catch (RuntimeException e) {
+                    // HttpURLConnection falla así si cancelar() la corta
+                    // mientras envía la petición.
+                    error.compareAndSet(null, new IOException(e));
+                }
+        };
+
+        int hilos = Math.min(paralelas, pendientes.length);
+        Thread[] adicionales = new Thread[Math.max(0, hilos - 1)];
+        for (int i = 0; i < adicionales.length; i++) {
+            adicionales[i] = new Thread(trabajador, "DescargaPorTrozos");
+            adicionales[i].start();
+        }
+
+        try {
+            if (primera != null)
+                try {
+                    copiarTrozo(primera, 0, trozos, canal, new byte[TAMANIO_BLOQUE]);
+                } catch (IOException e) {
+                    error.compareAndSet(null, e);
+                }
+            trabajador.run();
+        } finally {
+            try {
+                for (Thread hilo : adicionales)
+                    hilo.join();
+            } catch (InterruptedException e) {
+                cancelar();
+                throw new InterruptedIOException();
+            }
+        }
+
+        if (cancelada)
+            throw new InterruptedIOException("Descarga cancelada");
+        if (error.get() != null)
+            throw error.get();
+    }
+
+    /**
+     * Pide un trozo con Range (e If-Range, para no mezclar dos versiones
+     * de la canción) y lo escribe en su posición.
+     */
+    private void descargarTrozo(int trozo, EstadoDescarga trozos, FileChannel canal,
+                                byte[] bloque) throws IOException {
+        HttpURLConnection conexion = ClienteHttp.abrir(url);
+        conexion.setRequestProperty("Range",
+                                    "bytes=" + trozos.inicio(trozo) + "-" + (trozos.fin(trozo) - 1));
+        if (trozos.getValidador() != null)
+            conexion.setRequestProperty("If-Range", trozos.getValidador());
+        conexiones.add(conexion);
+        if (cancelada) {
+            conexiones.remove(conexion);
+            throw new InterruptedIOException("Descarga cancelada");
+        }
+
+        int codigo;
+        try {
+            codigo = ClienteHttp.respuesta(conexion);
+        } catch (IOException e) {
+            conexiones.remove(conexion);
+            ClienteHttp.liberar(conexion, false);
+            throw e;
+        }
+
+        boolean aceptada = codigo == HttpURLConnection.HTTP_PARTIAL
+                           // Un servidor sin Range responde con la canción entera.
+                           || codigo == HttpURLConnection.HTTP_OK && trozos.getTrozos() == 1;
+        if (!aceptada) {
+            conexiones.remove(conexion);
+            ClienteHttp.liberar(conexion, false);
+            // 200 (falló If-Range) o 416 (la canción ahora es más corta).
+            if (codigo == HttpURLConnection.HTTP_OK || codigo == HTTP_RANGO_INVALIDO)
+                throw new ClienteHttp.RecursoCambiado(url);
+            throw new IOException("HTTP " + codigo + " al descargar " + url);
+        }
+        copiarTrozo(conexion, trozo, trozos, canal, bloque);
+    }
+
+    /**
+     * Copia el cuerpo de la respuesta en la posición del trozo, comprueba
+     * que esté completo y marca el trozo. Libera la conexión.
+     */
+    private void copiarTrozo(HttpURLConnection conexion, int trozo, EstadoDescarga trozos,
+                             FileChannel canal, byte[] bloque) throws IOException {
+        long inicio = trozos.inicio(trozo);
+        long fin = trozos.fin(trozo);
+        boolean reutilizable = false;
+        try {
+            verificar(conexion, inicio, fin, trozos);
+
+            InputStream cuerpo = conexion.getInputStream();
+            ByteBuffer buffer = ByteBuffer.wrap(bloque);
+            long posicion = inicio;
+            while (posicion < fin) {
+                if (cancelada)
+                    throw new InterruptedIOException("Descarga cancelada");
+                int leidos = cuerpo.read(bloque, 0, (int) Math.min(bloque.length, fin - posicion));
+                if (leidos < 0)
+                    throw new EOFException("Trozo " + trozo + " incompleto: " + url);
+                bytesTransferidos.addAndGet(leidos);
+
+                buffer.clear();
+                buffer.limit(leidos);
+                while (buffer.hasRemaining())
+                    posicion += canal.write(buffer, posicion);
+            }
+            if (cuerpo.read() >= 0)
+                throw new IOException("Trozo " + trozo + " más largo de lo pedido: " + url);
+            reutilizable = true;
+
+            // El trozo queda en disco antes de marcarlo.
+            canal.force(false);
+            trozos.marcar(trozo);
+        } finally {
+            conexiones.remove(conexion);
+            ClienteHttp.liberar(conexion, reutilizable);
+        }
+    }
+
+    /**
+     * Comprueba que la respuesta sea exactamente el trozo pedido de la
+     * misma versión de la canción.
+     */
+    private void verificar(HttpURLConnection conexion, long inicio, long fin,
+                           EstadoDescarga trozos) throws IOException {
+        if (conexion.getResponseCode() == HttpURLConnection.HTTP_OK) {
+            String validador = trozos.getValidador();
+            if (conexion.getContentLengthLong() != trozos.getLongitud()
+                || validador != null && !validador.equals(validador(conexion)))
+                throw new ClienteHttp.RecursoCambiado(url);
+            return;
+        }
+
+        String esperado = "bytes " + inicio + "-" + (fin - 1) + "/" + trozos.getLongitud();
+        String rango = conexion.getHeaderField("Content-Range");
+        if (!esperado.equals(rango))
+            throw new IOException("Rango inesperado: " + rango + " en lugar de " + esperado);
+    }
+
+    /**
+     * @return El validador de la respuesta para If-Range (ETag, o si no
+     * hay, Last-Modified), o null.
+     */
+    private static String validador(HttpURLConnection conexion) {
+        String etag = conexion.getHeaderField("ETag");
+        return etag != null ? etag : conexion.getHeaderField("Last-Modified");
+    }
+}
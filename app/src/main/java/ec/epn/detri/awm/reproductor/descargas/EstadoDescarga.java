@@ -0,0 +1,197 @@
+package ec.epn.detri.awm.reproductor.descargas;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+/**
+ * Estado persistente de una DescargaPorTrozos: qué canción, su longitud y
+ * validador (ETag o Last-Modified), el tamaño de los trozos y un mapa de
+ * bits con los trozos ya escritos.
+ *
+ * El archivo es una cabecera seguida del mapa (un bit por trozo). Marcar
+ * un trozo escribe sólo el byte que lo contiene, en su posición, así que
+ * el estado en disco siempre está al día y sobrevive a la muerte del
+ * proceso sin reescribir el archivo.
+ */
+final class EstadoDescarga implements Closeable {
+    private static final int MAGIA = 0x54524f5a;
+
+    private static final int VERSION = 1;
+
+    private final RandomAccessFile archivo;
+
+    private final long longitud;
+
+    private final long tamanioTrozo;
+
+    private final String validador;
+
+    private final int trozos;
+
+    /**
+     * Posición del mapa de bits dentro del archivo.
+     */
+    private final long inicioMapa;
+
+    private final byte[] mapa;
+
+    /**
+     * Byte del mapa que se escribe al marcar un trozo.
+     */
+    private final ByteBuffer escritura = ByteBuffer.allocate(1);
+
+    private EstadoDescarga(RandomAccessFile archivo, long longitud, long tamanioTrozo,
+                           String validador, long inicioMapa, byte[] mapa) {
+        this.archivo = archivo;
+        this.longitud = longitud;
+        this.tamanioTrozo = tamanioTrozo;
+        this.validador = validador;
+        this.inicioMapa = inicioMapa;
+        this.mapa = mapa;
+        trozos = contarTrozos(longitud, tamanioTrozo);
+    }
+
+    /**
+     * Crea (o reemplaza) el estado de una descarga sin trozos escritos.
+     * @param validador ETag o Last-Modified de la respuesta, o null.
+     */
+    static EstadoDescarga crear(File destino, String url, long longitud, long tamanioTrozo,
+                                String validador) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream cabecera = new DataOutputStream(bytes);
+        cabecera.writeInt(MAGIA);
+        cabecera.writeInt(VERSION);
+        cabecera.writeUTF(url);
+        cabecera.writeLong(longitud);
+        cabecera.writeLong(tamanioTrozo);
+        cabecera.writeUTF(validador != null ? validador : "");
+        int inicioMapa = cabecera.size();
+        byte[] mapa = new byte[(contarTrozos(longitud, tamanioTrozo) + 7) / 8];
+        cabecera.write(mapa);
+
+        try (FileOutputStream salida = new FileOutputStream(destino)) {
+            salida.write(bytes.toByteArray());
+        }
+        return new EstadoDescarga(new RandomAccessFile(destino, "rw"), longitud, tamanioTrozo,
+                                  validador, inicioMapa, mapa);
+    }
+
+    /**
+     * @return El estado guardado de la descarga del URL, o null si no
+     * existe, es de otra canción o está dañado.
+     */
+    static EstadoDescarga abrir(File origen, String url) {
+        if (!origen.isFile())
+            return null;
+
+        RandomAccessFile archivo = null;
+        try {
+            archivo = new RandomAccessFile(origen, "rw");
+            if (archivo.readInt() != MAGIA || archivo.readInt() != VERSION
+                || !url.equals(archivo.readUTF()))
+                throw new IOException("Estado de otra descarga");
+            long longitud = archivo.readLong();
+            long tamanioTrozo = archivo.readLong();
+            String validador = archivo.readUTF();
+            if (longitud <= 0 || tamanioTrozo <= 0)
+                throw new IOException("Estado dañado");
+
+            long inicioMapa = archivo.getFilePointer();
+            byte[] mapa = new byte[(contarTrozos(longitud, tamanioTrozo) + 7) / 8];
+            if (archivo.length() != inicioMapa + mapa.length)
+                throw new IOException("Estado incompleto");
+            archivo.readFully(mapa);
+            return new EstadoDescarga(archivo, longitud, tamanioTrozo,
+                                      validador.isEmpty() ? null : validador,
+                                      inicioMapa, mapa);
+        } catch (IOException | IllegalArgumentException e) {
+            if (archivo != null)
+                try {
+                    archivo.close();
+                } catch (IOException ignorada) {
+                    // Se descarta igual.
+                }
+            return null;
+        }
+    }
+
+    long getLongitud() {
+        return longitud;
+    }
+
+    String getValidador() {
+        return validador;
+    }
+
+    int getTrozos() {
+        return trozos;
+    }
+
+    /**
+     * @return Posición del primer byte del trozo.
+     */
+    long inicio(int trozo) {
+        return trozo * tamanioTrozo;
+    }
+
+    /**
+     * @return Posición siguiente al último byte del trozo.
+     */
+    long fin(int trozo) {
+        return Math.min(longitud, (trozo + 1) * tamanioTrozo);
+    }
+
+    synchronized boolean estaEscrito(int trozo) {
+        return (mapa[trozo >> 3] & (1 << (trozo & 7))) != 0;
+    }
+
+    synchronized int getEscritos() {
+        int escritos = 0;
+        for (byte b : mapa)
+            escritos += Integer.bitCount(b & 0xff);
+        return escritos;
+    }
+
+    boolean estaCompleta() {
+        return getEscritos() == trozos;
+    }
+
+    /**
+     * @return Los trozos que faltan, en orden.
+     */
+    synchronized int[] pendientes() {
+        int[] pendientes = new int[trozos - getEscritos()];
+        for (int trozo = 0, i = 0; trozo < trozos; trozo++)
+            if (!estaEscrito(trozo))
+                pendientes[i++] = trozo;
+        return pendientes;
+    }
+
+    /**
+     * Marca el trozo como escrito, en memoria y en disco.
+     */
+    synchronized void marcar(int trozo) throws IOException {
+        mapa[trozo >> 3] |= 1 << (trozo & 7);
+        escritura.clear();
+        escritura.put(0, mapa[trozo >> 3]);
+        archivo.getChannel().write(escritura, inicioMapa + (trozo >> 3));
+    }
+
+    @Override
+    public void close() throws IOException {
+        archivo.close();
+    }
+
+    private static int contarTrozos(long longitud, long tamanioTrozo) {
+        long trozos = (longitud + tamanioTrozo - 1) / tamanioTrozo;
+        if (trozos > Integer.MAX_VALUE)
+            throw new IllegalArgumentException(trozos + " trozos");
+        return (int) trozos;
+    }
+}
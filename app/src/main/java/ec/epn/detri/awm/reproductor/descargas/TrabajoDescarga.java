@@ -0,0 +1,114 @@
+package ec.epn.detri.awm.reproductor.descargas;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.work.BackoffPolicy;
+import androidx.work.Constraints;
+import androidx.work.Data;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import ec.epn.detri.awm.reproductor.cache.CacheAudio;
+
+/**
+ * Descarga una canción para escucharla sin conexión con WorkManager, sólo
+ * con una red sin límite de datos (Wi-Fi) y con el equipo cargando.
+ *
+ * Si las condiciones dejan de cumplirse o el sistema detiene el trabajo
+ * (o mata el proceso), la descarga se corta y WorkManager la reintenta
+ * más tarde: como el estado de los trozos está en disco, sólo se piden
+ * los que faltan. Los errores de red se reintentan con espera exponencial
+ * hasta MAXIMO_INTENTOS veces.
+ */
+public class TrabajoDescarga extends Worker {
+    private static final String TAG = "TrabajoDescarga";
+
+    /**
+     * Clave del URL en los datos de entrada.
+     */
+    static final String CLAVE_URL = "url";
+
+    private static final int MAXIMO_INTENTOS = 5;
+
+    private static final long ESPERA_REINTENTO_S = 60;
+
+    /**
+     * Descarga en curso, para cortarla en onStopped().
+     */
+    private volatile DescargaPorTrozos descarga;
+
+    public TrabajoDescarga(Context contexto, WorkerParameters parametros) {
+        super(contexto, parametros);
+    }
+
+    /**
+     * Programa la descarga de la canción. Si ya está programada, se
+     * conserva la anterior.
+     */
+    public static void programar(Context contexto, String url) {
+        Constraints condiciones = new Constraints.Builder()
+                .setRequiredNetworkType(NetworkType.UNMETERED)
+                .setRequiresCharging(true)
+                .build();
+        OneTimeWorkRequest trabajo = new OneTimeWorkRequest.Builder(TrabajoDescarga.class)
+                .setConstraints(condiciones)
+                .setInputData(new Data.Builder().putString(CLAVE_URL, url).build())
+                .setBackoffCriteria(BackoffPolicy.EXPONENTIAL,
+                                    ESPERA_REINTENTO_S, TimeUnit.SECONDS)
+                .addTag(TAG)
+                .build();
+        WorkManager.getInstance(contexto).enqueueUniqueWork(
+                TAG + ":" + CacheAudio.calcularClave(url), ExistingWorkPolicy.KEEP, trabajo);
+    }
+
+    @Override
+    public Result doWork() {
+        String url = getInputData().getString(CLAVE_URL);
+        if (url == null)
+            return Result.failure();
+
+        AlmacenOffline almacen = new AlmacenOffline(
+                new File(getApplicationContext().getFilesDir(), AlmacenOffline.DIRECTORIO));
+        descarga = almacen.descarga(url);
+        if (isStopped())
+            return Result.retry();
+
+        long inicio = SystemClock.elapsedRealtime();
+        try {
+            descarga.descargar();
+            Log.i(TAG, url + ": " + descarga.getBytesTransferidos() / 1024 + " KB en "
+                       + (SystemClock.elapsedRealtime() - inicio) + " ms, "
+                       + descarga.getTrozosPrevios() + " de " + descarga.getTrozosTotales()
+                       + " trozos ya descargados");
+            return Result.success();
+        } catch (DescargaPorTrozos.NoDescargable e) {
+            Log.w(TAG, "No se puede descargar " + url, e);
+            descarga.descartar();
+            return Result.failure();
+        } catch (IOException e) {
+            if (isStopped())
+                // Se retoma cuando vuelvan a cumplirse las condiciones.
+                return Result.retry();
+            Log.w(TAG, "Error al descargar " + url + " (intento "
+                       + (getRunAttemptCount() + 1) + ")", e);
+            return getRunAttemptCount() + 1 < MAXIMO_INTENTOS ? Result.retry() : Result.failure();
+        }
+    }
+
+    @Override
+    public void onStopped() {
+        DescargaPorTrozos actual = descarga;
+        if (actual != null)
+            actual.cancelar();
+    }
+}
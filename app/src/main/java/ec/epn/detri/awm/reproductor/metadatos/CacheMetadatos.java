@@ -0,0 +1,187 @@
+package ec.epn.detri.awm.reproductor.metadatos;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import ec.epn.detri.awm.reproductor.cache.CacheAudio;
+
+/**
+ * Caché en disco de las etiquetas, un archivo por URL (con la misma clave
+ * que CacheAudio), limitada en tamaño. La carátula se guarda ya reducida,
+ * así que cada entrada ocupa unas decenas de KB. Al superar el tamaño
+ * máximo se borran los archivos usados menos recientemente, según su fecha
+ * de modificación (que se actualiza al leerlos).
+ *
+ * Se usa desde los hilos de ProveedorMetadatos; los métodos son
+ * sincronizados.
+ */
+public class CacheMetadatos {
+    private static final int MAGIA = 0x4d455441;
+
+    private static final int VERSION = 2;
+
+    private static final String EXTENSION = ".meta";
+
+    private final File directorio;
+
+    private final long tamanioMaximo;
+
+    /**
+     * Bytes en disco (-1 hasta que se recorren los archivos la primera vez).
+     */
+    private long tamanioActual = -1;
+
+    /**
+     * Constructor (no accede al disco).
+     * @param directorio Directorio de la caché (se crea si no existe).
+     * @param tamanioMaximo Tamaño máximo en bytes.
+     */
+    public CacheMetadatos(File directorio, long tamanioMaximo) {
+        this.directorio = directorio;
+        this.tamanioMaximo = tamanioMaximo;
+    }
+
+    /**
+     * @return La etiqueta guardada para el URL, o null si no está.
+     */
+    public synchronized EtiquetaId3 leer(String url) {
+        File archivo = archivo(url);
+        if (!archivo.exists())
+            return null;
+
+        try (DataInputStream entrada = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(archivo)))) {
+            if (entrada.readInt() != MAGIA || entrada.readInt() != VERSION
+                || !url.equals(entrada.readUTF()))
+                throw new IOException("Entrada no válida");
+
+            String titulo = leerOpcional(entrada);
+            String artista = leerOpcional(entrada);
+            String album = leerOpcional(entrada);
+            long duracionMs = entrada.readLong();
+            float gananciaDb = entrada.readFloat();
+            float pico = entrada.readFloat();
+            byte[] imagen = null;
+            String tipoImagen = null;
+            int longitud = entrada.readInt();
+            if (longitud >= 0) {
+                tipoImagen = leerOpcional(entrada);
+                imagen = new byte[longitud];
+                entrada.readFully(imagen);
+            }
+            archivo.setLastModified(System.currentTimeMillis());
+            return new EtiquetaId3(titulo, artista, album, duracionMs, imagen, tipoImagen,
+                                   gananciaDb, pico);
+        } catch (IOException e) {
+            borrar(archivo);
+            return null;
+        }
+    }
+
+    /**
+     * Guarda la etiqueta del URL y recorta la caché si hace falta. Si no se
+     * puede escribir, la etiqueta simplemente no queda guardada.
+     */
+    public synchronized void guardar(String url, EtiquetaId3 etiqueta) {
+        File archivo = archivo(url);
+        File temporal = new File(directorio, archivo.getName() + ".tmp");
+        if (!directorio.exists())
+            directorio.mkdirs();
+
+        try (DataOutputStream salida = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temporal)))) {
+            salida.writeInt(MAGIA);
+            salida.writeInt(VERSION);
+            salida.writeUTF(url);
+            escribirOpcional(salida, etiqueta.titulo);
+            escribirOpcional(salida, etiqueta.artista);
+            escribirOpcional(salida, etiqueta.album);
+            salida.writeLong(etiqueta.duracionMs);
+            salida.writeFloat(etiqueta.gananciaDb);
+            salida.writeFloat(etiqueta.pico);
+            if (etiqueta.imagen != null) {
+                salida.writeInt(etiqueta.imagen.length);
+                escribirOpcional(salida, etiqueta.tipoImagen);
+                salida.write(etiqueta.imagen);
+            } else
+                salida.writeInt(-1);
+        } catch (IOException e) {
+            temporal.delete();
+            return;
+        }
+
+        long anterior = archivo.length();
+        if (!temporal.renameTo(archivo)) {
+            temporal.delete();
+            return;
+        }
+        if (tamanioActual >= 0)
+            tamanioActual += archivo.length() - anterior;
+        recortar();
+    }
+
+    /**
+     * @return Bytes que ocupa la caché en disco.
+     */
+    public synchronized long tamanioActual() {
+        if (tamanioActual < 0) {
+            tamanioActual = 0;
+            for (File archivo : archivos())
+                tamanioActual += archivo.length();
+        }
+        return tamanioActual;
+    }
+
+    /**
+     * Borra las entradas usadas menos recientemente hasta respetar el
+     * tamaño máximo.
+     */
+    private void recortar() {
+        if (tamanioActual() <= tamanioMaximo)
+            return;
+
+        File[] archivos = archivos();
+        Arrays.sort(archivos, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (int i = 0; i < archivos.length && tamanioActual > tamanioMaximo; i++)
+            borrar(archivos[i]);
+    }
+
+    private void borrar(File archivo) {
+        long longitud = archivo.length();
+        if (archivo.delete() && tamanioActual >= 0)
+            tamanioActual -= longitud;
+    }
+
+    private File[] archivos() {
+        File[] archivos = directorio.listFiles((carpeta, nombre) -> nombre.endsWith(EXTENSION));
+        return archivos != null ? archivos : new File[0];
+    }
+
+    private File archivo(String url) {
+        return new File(directorio, CacheAudio.calcularClave(url) + EXTENSION);
+    }
+
+    private static String leerOpcional(DataInputStream entrada) throws IOException {
+        return entrada.readBoolean() ? entrada.readUTF() : null;
+    }
+
+    private static void escribirOpcional(DataOutputStream salida,
+                                         String valor) throws IOException {
+        salida.writeBoolean(valor != null);
+        if (valor != null)
+            salida.writeUTF(valor);
+    }
+}
@@ -0,0 +1,438 @@
+package ec.epn.detri.awm.reproductor.metadatos;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Título, artista, álbum, duración, carátula y ganancia de normalización
+ * (ReplayGain) de una canción, leídos de su etiqueta ID3v2 (versiones 2.2,
+ * 2.3 y 2.4). La etiqueta está al inicio del archivo, así que basta con
+ * sus primeros bytes (ver tamanio()).
+ *
+ * Se ignoran los cuadros comprimidos o cifrados; de las imágenes se
+ * prefiere la portada (tipo 3) y, si no hay, la primera.
+ */
+public final class EtiquetaId3 {
+    /**
+     * Bytes de la cabecera (y del pie, en la versión 2.4).
+     */
+    public static final int CABECERA = 10;
+
+    /**
+     * Etiqueta de una canción sin ID3v2 (o que no se pudo leer).
+     */
+    public static final EtiquetaId3 VACIA = new EtiquetaId3(null, null, null, -1, null, null);
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final Charset UTF_16 = Charset.forName("UTF-16");
+    private static final Charset UTF_16BE = Charset.forName("UTF-16BE");
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int PORTADA = 3;
+
+    /**
+     * Diferencia entre la referencia de ReplayGain 2 (-18 LUFS) y la de
+     * EBU R128 (-23 LUFS).
+     */
+    private static final float DB_R128_A_REPLAYGAIN = 5f;
+
+    public final String titulo;
+
+    public final String artista;
+
+    public final String album;
+
+    /**
+     * Duración según el cuadro TLEN (-1 si no lo hay).
+     */
+    public final long duracionMs;
+
+    /**
+     * Imagen codificada (JPEG, PNG...), o null si no hay carátula.
+     */
+    public final byte[] imagen;
+
+    /**
+     * Tipo MIME de la imagen.
+     */
+    public final String tipoImagen;
+
+    /**
+     * Ganancia de ReplayGain de la canción en dB (NaN si no la indica).
+     */
+    public final float gananciaDb;
+
+    /**
+     * Muestra máxima de la canción según ReplayGain (1 es la escala
+     * completa; 0 si no la indica).
+     */
+    public final float pico;
+
+    /**
+     * Constructor de una etiqueta sin ReplayGain.
+     */
+    public EtiquetaId3(String titulo, String artista, String album, long duracionMs,
+                       byte[] imagen, String tipoImagen) {
+        this(titulo, artista, album, duracionMs, imagen, tipoImagen, Float.NaN, 0);
+    }
+
+    public EtiquetaId3(String titulo, String artista, String album, long duracionMs,
+                       byte[] imagen, String tipoImagen, float gananciaDb, float pico) {
+        this.titulo = titulo;
+        this.artista = artista;
+        this.album = album;
+        this.duracionMs = duracionMs;
+        this.imagen = imagen;
+        this.tipoImagen = tipoImagen;
+        this.gananciaDb = gananciaDb;
+        this.pico = pico;
+    }
+
+    /**
+     * @return Una copia con otra imagen (p.ej. la carátula reducida).
+     */
+    public EtiquetaId3 conImagen(byte[] imagen, String tipoImagen) {
+        return new EtiquetaId3(titulo, artista, album, duracionMs, imagen, tipoImagen,
+                               gananciaDb, pico);
+    }
+
+    /**
+     * @return Bytes que ocupa en memoria, sin contar los objetos vacíos.
+     */
+    public int getBytes() {
+        return 2 * (longitud(titulo) + longitud(artista) + longitud(album))
+               + (imagen != null ? imagen.length : 0);
+    }
+
+    private static int longitud(String texto) {
+        return texto != null ? texto.length() : 0;
+    }
+
+    /**
+     * @param inicio Primeros bytes del archivo (al menos CABECERA).
+     * @return Bytes de la etiqueta ID3v2 completa (cabecera y pie incluidos),
+     * o 0 si el archivo no empieza con una.
+     */
+    public static int tamanio(byte[] inicio, int longitud) {
+        if (longitud < CABECERA
+            || inicio[0] != 'I' || inicio[1] != 'D' || inicio[2] != '3'
+            || inicio[3] < 2 || inicio[3] > 4)
+            return 0;
+        int tamanio = sincronizado(inicio, 6);
+        if (tamanio < 0)
+            return 0;
+        boolean pie = inicio[3] == 4 && (inicio[5] & 0x10) != 0;
+        return CABECERA + tamanio + (pie ? CABECERA : 0);
+    }
+
+    /**
+     * Lee la etiqueta al inicio de los datos. Si está incompleta, se leen
+     * los cuadros que alcanzan. Los cuadros desincronizados de la versión
+     * 2.4 se corrigen sobre los mismos datos.
+     * @return La etiqueta, o VACIA si los datos no empiezan con una.
+     */
+    public static EtiquetaId3 leer(byte[] datos, int longitud) {
+        if (tamanio(datos, longitud) == 0)
+            return VACIA;
+
+        int version = datos[3];
+        int banderas = datos[5] & 0xff;
+        // La versión 2.2 usaba este bit para una compresión nunca definida.
+        if (version == 2 && (banderas & 0x40) != 0)
+            return VACIA;
+
+        // Sólo se copian los datos si hay que deshacer la desincronización.
+        byte[] cuerpo = datos;
+        int pos = CABECERA;
+        int finCuerpo = Math.min(longitud, CABECERA + sincronizado(datos, 6));
+        boolean desincronizada = (banderas & 0x80) != 0;
+        if (desincronizada) {
+            cuerpo = Arrays.copyOfRange(datos, CABECERA, finCuerpo);
+            pos = 0;
+            finCuerpo = cuerpo.length;
+            if (version < 4)
+                finCuerpo = resincronizar(cuerpo, 0, finCuerpo);
+        }
+
+        if (version > 2 && (banderas & 0x40) != 0 && pos + 4 <= finCuerpo) {
+            // Cabecera extendida: en 2.3 su tamaño no se incluye a sí mismo.
+            int extendida = version == 3 ? 4 + entero(cuerpo, pos) : sincronizado(cuerpo, pos);
+            if (extendida < 4)
+                return VACIA;
+            pos += extendida;
+        }
+
+        Lectura lectura = new Lectura();
+        int cabeceraCuadro = version == 2 ? 6 : 10;
+        while (pos + cabeceraCuadro <= finCuerpo && cuerpo[pos] != 0) {
+            String id;
+            int tamanio;
+            int formato = 0;
+            if (version == 2) {
+                id = new String(cuerpo, pos, 3, ISO_8859_1);
+                tamanio = (cuerpo[pos + 3] & 0xff) << 16
+                          | (cuerpo[pos + 4] & 0xff) << 8
+                          | cuerpo[pos + 5] & 0xff;
+            } else {
+                id = new String(cuerpo, pos, 4, ISO_8859_1);
+                tamanio = version == 3 ? entero(cuerpo, pos + 4) : sincronizado(cuerpo, pos + 4);
+                formato = cuerpo[pos + 9] & 0xff;
+            }
+            int inicio = pos + cabeceraCuadro;
+            if (tamanio < 0 || tamanio > finCuerpo - inicio)
+                break;
+            pos = inicio + tamanio;
+
+            int finCuadro = inicio + tamanio;
+            if (version == 3) {
+                // Comprimido o cifrado.
+                if ((formato & 0xc0) != 0)
+                    continue;
+                if ((formato & 0x20) != 0)
+                    inicio++;
+            } else if (version == 4) {
+                if ((formato & 0x0c) != 0)
+                    continue;
+                if ((formato & 0x40) != 0)
+                    inicio++;
+                if ((formato & 0x01) != 0)
+                    inicio += 4;
+                if ((formato & 0x02) != 0 || desincronizada)
+                    finCuadro = resincronizar(cuerpo, inicio, finCuadro);
+            }
+            if (inicio < finCuadro)
+                lectura.cuadro(id, cuerpo, inicio, finCuadro);
+        }
+        return lectura.etiqueta();
+    }
+
+    /**
+     * Acumula los cuadros que interesan.
+     */
+    private static final class Lectura {
+        String titulo;
+        String artista;
+        String album;
+        long duracionMs = -1;
+        byte[] imagen;
+        String tipoImagen;
+        boolean esPortada;
+        float gananciaDb = Float.NaN;
+        float gananciaR128 = Float.NaN;
+        float pico;
+
+        void cuadro(String id, byte[] datos, int inicio, int fin) {
+            switch (id) {
+                case "TIT2":
+                case "TT2":
+                    titulo = texto(datos, inicio, fin);
+                    break;
+                case "TPE1":
+                case "TP1":
+                    artista = texto(datos, inicio, fin);
+                    break;
+                case "TALB":
+                case "TAL":
+                    album = texto(datos, inicio, fin);
+                    break;
+                case "TLEN":
+                case "TLE":
+                    try {
+                        String ms = texto(datos, inicio, fin);
+                        if (ms != null)
+                            duracionMs = Long.parseLong(ms.trim());
+                    } catch (NumberFormatException e) {
+                        // Se ignora un TLEN mal formado.
+                    }
+                    break;
+                case "APIC":
+                case "PIC":
+                    if (!esPortada)
+                        imagen(id.length() == 3, datos, inicio, fin);
+                    break;
+                case "TXXX":
+                case "TXX":
+                    textoLibre(datos, inicio, fin);
+                    break;
+            }
+        }
+
+        /**
+         * TXXX: codificación, descripción (terminada en 0) y valor. Se leen
+         * los de ReplayGain de la canción ("-6.20 dB", "0.988") y el de EBU
+         * R128 (en 1/256 dB respecto a -23 LUFS), que se usa si no hay
+         * ReplayGain.
+         */
+        private void textoLibre(byte[] datos, int inicio, int fin) {
+            int codificacion = datos[inicio];
+            int finDescripcion = terminador(datos, inicio + 1, fin, codificacion);
+            if (finDescripcion < 0)
+                return;
+            String descripcion = new String(datos, inicio + 1, finDescripcion - inicio - 1,
+                                            juego(codificacion)).trim();
+            int pos = finDescripcion + (codificacion == 1 || codificacion == 2 ? 2 : 1);
+            if (pos >= fin)
+                return;
+            String valor = new String(datos, pos, fin - pos, juego(codificacion)).trim();
+            // Se ignoran las unidades ("dB") y lo que siga al número.
+            int espacio = valor.indexOf(' ');
+            if (espacio > 0)
+                valor = valor.substring(0, espacio);
+
+            try {
+                switch (descripcion.toUpperCase(Locale.ROOT)) {
+                    case "REPLAYGAIN_TRACK_GAIN":
+                        gananciaDb = Float.parseFloat(valor);
+                        break;
+                    case "REPLAYGAIN_TRACK_PEAK":
+                        pico = Float.parseFloat(valor);
+                        break;
+                    case "R128_TRACK_GAIN":
+                        gananciaR128 = Integer.parseInt(valor) / 256f + DB_R128_A_REPLAYGAIN;
+                        break;
+                }
+            } catch (NumberFormatException e) {
+                // Se ignora un valor mal formado.
+            }
+        }
+
+        /**
+         * APIC: codificación, MIME (terminado en 0), tipo, descripción
+         * (terminada en 0) e imagen. PIC (2.2) lleva un formato de tres
+         * letras en lugar del MIME.
+         */
+        private void imagen(boolean v22, byte[] datos, int inicio, int fin) {
+            int codificacion = datos[inicio];
+            int pos = inicio + 1;
+            String tipo;
+            if (v22) {
+                if (pos + 3 > fin)
+                    return;
+                String formato = new String(datos, pos, 3, ISO_8859_1);
+                tipo = "PNG".equalsIgnoreCase(formato) ? "image/png" : "image/jpeg";
+                pos += 3;
+            } else {
+                int finTipo = terminador(datos, pos, fin, 0);
+                if (finTipo < 0)
+                    return;
+                tipo = new String(datos, pos, finTipo - pos, ISO_8859_1);
+                if (tipo.isEmpty())
+                    tipo = "image/jpeg";
+                else if (tipo.indexOf('/') < 0)
+                    tipo = "image/" + tipo.toLowerCase(Locale.ROOT);
+                pos = finTipo + 1;
+            }
+            if (pos >= fin)
+                return;
+            int uso = datos[pos++];
+
+            int finDescripcion = terminador(datos, pos, fin, codificacion);
+            if (finDescripcion < 0)
+                return;
+            pos = finDescripcion + (codificacion == 1 || codificacion == 2 ? 2 : 1);
+            if (pos >= fin)
+                return;
+
+            if (imagen == null || uso == PORTADA) {
+                imagen = Arrays.copyOfRange(datos, pos, fin);
+                tipoImagen = tipo;
+                esPortada = uso == PORTADA;
+            }
+        }
+
+        EtiquetaId3 etiqueta() {
+            if (Float.isNaN(gananciaDb))
+                gananciaDb = gananciaR128;
+            if (titulo == null && artista == null && album == null
+                && duracionMs < 0 && imagen == null && Float.isNaN(gananciaDb))
+                return VACIA;
+            return new EtiquetaId3(titulo, artista, album, duracionMs, imagen, tipoImagen,
+                                   gananciaDb, pico);
+        }
+    }
+
+    /**
+     * Decodifica un cuadro de texto: un byte de codificación y el texto.
+     * En 2.4 puede haber varios valores separados por 0; se usa el primero.
+     * @return El texto, o null si está vacío.
+     */
+    private static String texto(byte[] datos, int inicio, int fin) {
+        int codificacion = datos[inicio];
+        int pos = inicio + 1;
+        int finTexto = terminador(datos, pos, fin, codificacion);
+        if (finTexto < 0)
+            finTexto = fin;
+
+        String texto = new String(datos, pos, finTexto - pos, juego(codificacion)).trim();
+        return texto.isEmpty() ? null : texto;
+    }
+
+    /**
+     * @return El juego de caracteres del byte de codificación de un cuadro.
+     */
+    private static Charset juego(int codificacion) {
+        switch (codificacion) {
+            case 1:
+                return UTF_16;
+            case 2:
+                return UTF_16BE;
+            case 3:
+                return UTF_8;
+            default:
+                return ISO_8859_1;
+        }
+    }
+
+    /**
+     * @return Posición del terminador (0, o 00 alineado en UTF-16) desde
+     * pos, o -1 si no lo hay antes de fin.
+     */
+    private static int terminador(byte[] datos, int pos, int fin, int codificacion) {
+        if (codificacion == 1 || codificacion == 2) {
+            for (int i = pos; i + 1 < fin; i += 2)
+                if (datos[i] == 0 && datos[i + 1] == 0)
+                    return i;
+        } else
+            for (int i = pos; i < fin; i++)
+                if (datos[i] == 0)
+                    return i;
+        return -1;
+    }
+
+    /**
+     * Deshace la desincronización (cada FF 00 vuelve a ser FF) en el lugar.
+     * @return El nuevo fin de los datos.
+     */
+    private static int resincronizar(byte[] datos, int inicio, int fin) {
+        int destino = inicio;
+        for (int i = inicio; i < fin; i++) {
+            datos[destino++] = datos[i];
+            if (datos[i] == (byte) 0xff && i + 1 < fin && datos[i + 1] == 0)
+                i++;
+        }
+        // Lo que queda entre el nuevo fin y el anterior no se vuelve a leer.
+        return destino;
+    }
+
+    /**
+     * @return Entero "sincronizado" (7 bits por byte), o -1 si no es válido.
+     */
+    private static int sincronizado(byte[] datos, int pos) {
+        int valor = 0;
+        for (int i = 0; i < 4; i++) {
+            int b = datos[pos + i] & 0xff;
+            if (b >= 0x80)
+                return -1;
+            valor = valor << 7 | b;
+        }
+        return valor;
+    }
+
+    private static int entero(byte[] datos, int pos) {
+        return (datos[pos] & 0xff) << 24
+               | (datos[pos + 1] & 0xff) << 16
+               | (datos[pos + 2] & 0xff) << 8
+               | datos[pos + 3] & 0xff;
+    }
+}
@@ -0,0 +1,139 @@
+package ec.epn.detri.awm.reproductor.metadatos;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.Arrays;
+
+import ec.epn.detri.awm.reproductor.red.ClienteHttp;
+
+/**
+ * Lee la etiqueta ID3v2 de una canción remota pidiendo sólo los bytes de
+ * la etiqueta, nunca la canción completa:
+ * - la primera petición pide PRIMER_BLOQUE bytes (suficientes para una
+ *   etiqueta sin carátula) y se lee completa, para que la conexión vuelva
+ *   al pool de ClienteHttp;
+ * - si la cabecera indica una etiqueta más grande, una segunda petición
+ *   Range pide el resto (hasta MAXIMO_ETIQUETA);
+ * - si el servidor no soporta Range, se lee sólo la etiqueta y se corta
+ *   la conexión.
+ *
+ * De una canción descargada sin conexión se lee la etiqueta del archivo.
+ */
+public final class LectorMetadatos {
+    /**
+     * Bytes de la primera petición.
+     */
+    static final int PRIMER_BLOQUE = 16 * 1024;
+
+    /**
+     * Bytes máximos que se leen de una etiqueta. Una más grande suele
+     * tener una carátula enorme; se leen los cuadros que alcanzan.
+     */
+    static final int MAXIMO_ETIQUETA = 2 * 1024 * 1024;
+
+    private LectorMetadatos() {
+    }
+
+    /**
+     * @return La etiqueta de la canción, o EtiquetaId3.VACIA si no tiene.
+     * @throws IOException Si no se pudo leer del servidor.
+     */
+    public static EtiquetaId3 leer(String url) throws IOException {
+        byte[] datos = new byte[PRIMER_BLOQUE];
+        int leidos;
+        int necesarios;
+        boolean parcial;
+
+        HttpURLConnection conexion = pedir(url, 0, PRIMER_BLOQUE - 1);
+        boolean reutilizable = false;
+        try {
+            int codigo = ClienteHttp.respuesta(conexion);
+            if (codigo != HttpURLConnection.HTTP_OK && codigo != HttpURLConnection.HTTP_PARTIAL)
+                throw new IOException("HTTP " + codigo + " al leer la etiqueta de " + url);
+            parcial = codigo == HttpURLConnection.HTTP_PARTIAL;
+
+            InputStream cuerpo = conexion.getInputStream();
+            leidos = leer(cuerpo, datos, 0, EtiquetaId3.CABECERA);
+            necesarios = Math.min(EtiquetaId3.tamanio(datos, leidos), MAXIMO_ETIQUETA);
+
+            if (parcial) {
+                // El cuerpo no pasa de PRIMER_BLOQUE: se lee completo.
+                leidos += leer(cuerpo, datos, leidos, datos.length - leidos);
+                reutilizable = cuerpo.read() < 0;
+            } else if (necesarios > leidos) {
+                datos = Arrays.copyOf(datos, Math.max(datos.length, necesarios));
+                leidos += leer(cuerpo, datos, leidos, necesarios - leidos);
+            }
+        } finally {
+            ClienteHttp.liberar(conexion, reutilizable);
+        }
+
+        if (parcial && necesarios > leidos) {
+            datos = Arrays.copyOf(datos, necesarios);
+            leidos += leerResto(url, datos, leidos, necesarios);
+        }
+        return EtiquetaId3.leer(datos, leidos);
+    }
+
+    /**
+     * @return La etiqueta de la canción local, o EtiquetaId3.VACIA si no
+     * tiene.
+     */
+    public static EtiquetaId3 leer(File archivo) throws IOException {
+        try (InputStream entrada = new FileInputStream(archivo)) {
+            byte[] datos = new byte[EtiquetaId3.CABECERA];
+            int leidos = leer(entrada, datos, 0, datos.length);
+            int necesarios = Math.min(EtiquetaId3.tamanio(datos, leidos), MAXIMO_ETIQUETA);
+            if (necesarios > leidos) {
+                datos = Arrays.copyOf(datos, necesarios);
+                leidos += leer(entrada, datos, leidos, necesarios - leidos);
+            }
+            return EtiquetaId3.leer(datos, leidos);
+        }
+    }
+
+    /**
+     * Pide los bytes [desde, hasta] de la etiqueta y los copia en los datos.
+     * @return Bytes leídos (0 si el servidor no respondió con el rango).
+     */
+    private static int leerResto(String url, byte[] datos, int desde, int hasta)
+            throws IOException {
+        HttpURLConnection conexion = pedir(url, desde, hasta - 1);
+        boolean reutilizable = false;
+        try {
+            if (ClienteHttp.respuesta(conexion) != HttpURLConnection.HTTP_PARTIAL)
+                return 0;
+            InputStream cuerpo = conexion.getInputStream();
+            int leidos = leer(cuerpo, datos, desde, hasta - desde);
+            reutilizable = cuerpo.read() < 0;
+            return leidos;
+        } finally {
+            ClienteHttp.liberar(conexion, reutilizable);
+        }
+    }
+
+    private static HttpURLConnection pedir(String url, int desde, int hasta) throws IOException {
+        HttpURLConnection conexion = ClienteHttp.abrir(url);
+        conexion.setRequestProperty("Range", "bytes=" + desde + "-" + hasta);
+        return conexion;
+    }
+
+    /**
+     * Lee hasta "cantidad" bytes, o hasta el final del cuerpo.
+     * @return Bytes leídos.
+     */
+    private static int leer(InputStream entrada, byte[] destino, int posicion, int cantidad)
+            throws IOException {
+        int total = 0;
+        while (total < cantidad) {
+            int leidos = entrada.read(destino, posicion + total, cantidad - total);
+            if (leidos < 0)
+                break;
+            total += leidos;
+        }
+        return total;
+    }
+}
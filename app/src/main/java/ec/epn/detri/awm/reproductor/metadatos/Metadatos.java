@@ -0,0 +1,65 @@
+package ec.epn.detri.awm.reproductor.metadatos;
+
+import android.graphics.Bitmap;
+
+/**
+ * Metadatos de una canción listos para mostrar: los textos de su etiqueta
+ * y la carátula ya decodificada al tamaño de la pantalla.
+ */
+public final class Metadatos {
+    /**
+     * Metadatos de una canción sin etiqueta (o que no se pudo leer).
+     */
+    static final Metadatos VACIOS = new Metadatos(EtiquetaId3.VACIA, null);
+
+    /**
+     * Bytes aproximados de los objetos de una entrada, sin textos ni carátula.
+     */
+    private static final int BYTES_FIJOS = 64;
+
+    public final String titulo;
+
+    public final String artista;
+
+    public final String album;
+
+    /**
+     * Duración según la etiqueta (-1 si no la indica).
+     */
+    public final long duracionMs;
+
+    /**
+     * Carátula reducida, o null si no hay.
+     */
+    public final Bitmap caratula;
+
+    /**
+     * ReplayGain de la canción (ver EtiquetaId3).
+     */
+    public final float gananciaDb;
+
+    public final float pico;
+
+    Metadatos(EtiquetaId3 etiqueta, Bitmap caratula) {
+        titulo = etiqueta.titulo;
+        artista = etiqueta.artista;
+        album = etiqueta.album;
+        duracionMs = etiqueta.duracionMs;
+        this.caratula = caratula;
+        gananciaDb = etiqueta.gananciaDb;
+        pico = etiqueta.pico;
+    }
+
+    /**
+     * @return Bytes que ocupa la entrada en la caché en memoria.
+     */
+    public int getBytes() {
+        return BYTES_FIJOS
+               + 2 * (longitud(titulo) + longitud(artista) + longitud(album))
+               + (caratula != null ? caratula.getAllocationByteCount() : 0);
+    }
+
+    private static int longitud(String texto) {
+        return texto != null ? texto.length() : 0;
+    }
+}
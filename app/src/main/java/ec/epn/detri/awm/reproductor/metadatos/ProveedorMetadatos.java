@@ -0,0 +1,269 @@
+package ec.epn.detri.awm.reproductor.metadatos;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Process;
+import android.util.LruCache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ec.epn.detri.awm.reproductor.metricas.Histograma;
+
+/**
+ * Obtiene los metadatos (título, artista, álbum y carátula) de las
+ * canciones para la notificación y la MediaSession:
+ * - primero en una caché en memoria (LRU limitada en bytes, con las
+ *   carátulas ya decodificadas);
+ * - luego, en un pool de hilos de baja prioridad, en la caché en disco
+ *   (CacheMetadatos) y por último en la red, leyendo sólo la etiqueta ID3v2
+ *   (LectorMetadatos), salvo que la canción esté descargada sin conexión:
+ *   entonces se lee de su archivo;
+ * - la carátula se decodifica reducida al lado indicado (inSampleSize, y en
+ *   RGB_565 si no tiene transparencia), y se guarda así en disco.
+ *
+ * Una canción sin etiqueta, o cuya etiqueta no se pudo leer, queda en
+ * memoria como VACIOS para no volver a pedirla.
+ *
+ * Se usa desde el hilo del Handler (el principal del servicio).
+ */
+public class ProveedorMetadatos {
+    /**
+     * Recibe los metadatos buscados en segundo plano.
+     */
+    public interface Oyente {
+        void alObtener(String url, Metadatos metadatos);
+    }
+
+    /**
+     * Indica qué canciones tienen una copia local completa.
+     */
+    public interface ArchivosLocales {
+        /**
+         * @return El archivo de la canción, o null si sólo está en la red.
+         */
+        File buscar(String url);
+    }
+
+    private static final int HILOS = 2;
+
+    /**
+     * Calidad JPEG de las carátulas reducidas guardadas en disco.
+     */
+    private static final int CALIDAD_JPEG = 85;
+
+    private final Handler manejador;
+
+    private final CacheMetadatos disco;
+
+    private final int ladoCaratula;
+
+    private final ArchivosLocales locales;
+
+    private final LruCache<String, Metadatos> memoria;
+
+    private final ExecutorService ejecutor = Executors.newFixedThreadPool(HILOS, tarea -> {
+        Thread hilo = new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            tarea.run();
+        }, "Metadatos");
+        hilo.setDaemon(true);
+        return hilo;
+    });
+
+    /**
+     * Oyentes de las búsquedas en curso, por URL.
+     */
+    private final Map<String, List<Oyente>> pendientes = new HashMap<>();
+
+    private final AtomicLong aciertosDisco = new AtomicLong();
+    private final AtomicLong lecturasRed = new AtomicLong();
+    private final AtomicLong errores = new AtomicLong();
+    private final Histograma lectura = new Histograma();
+    private final Histograma decodificacion = new Histograma();
+
+    /**
+     * Constructor
+     * @param directorio Directorio de la caché en disco.
+     * @param bytesDisco Tamaño máximo de la caché en disco.
+     * @param bytesMemoria Tamaño máximo de la caché en memoria.
+     * @param ladoCaratula Lado en píxeles al que se reducen las carátulas.
+     * @param locales Copias locales de las canciones (se consulta en los
+     * hilos del pool).
+     * @param manejador Hilo en el que se avisa a los oyentes.
+     */
+    public ProveedorMetadatos(File directorio, long bytesDisco, int bytesMemoria,
+                              int ladoCaratula, ArchivosLocales locales, Handler manejador) {
+        this.manejador = manejador;
+        this.ladoCaratula = ladoCaratula;
+        this.locales = locales;
+        disco = new CacheMetadatos(directorio, bytesDisco);
+        memoria = new LruCache<String, Metadatos>(bytesMemoria) {
+            @Override
+            protected int sizeOf(String url, Metadatos metadatos) {
+                return metadatos.getBytes();
+            }
+        };
+    }
+
+    /**
+     * @return Los metadatos de la canción si ya están en memoria. Si no,
+     * devuelve null, los busca en segundo plano y se los entrega al oyente.
+     */
+    public Metadatos obtener(final String url, Oyente oyente) {
+        Metadatos metadatos = memoria.get(url);
+        if (metadatos != null)
+            return metadatos;
+
+        List<Oyente> oyentes = pendientes.get(url);
+        if (oyentes == null) {
+            oyentes = new ArrayList<>(1);
+            pendientes.put(url, oyentes);
+            ejecutor.execute(() -> {
+                final Metadatos encontrados = buscar(url);
+                manejador.post(() -> entregar(url, encontrados));
+            });
+        }
+        if (!oyentes.contains(oyente))
+            oyentes.add(oyente);
+        return null;
+    }
+
+    /**
+     * @return Bytes de los metadatos y carátulas en memoria.
+     */
+    public long bytesEnMemoria() {
+        return memoria.size();
+    }
+
+    /**
+     * Vacía la caché en memoria (la de disco se conserva).
+     */
+    public void liberarMemoria() {
+        memoria.evictAll();
+    }
+
+    /**
+     * Cancela las búsquedas pendientes.
+     */
+    public void cerrar() {
+        ejecutor.shutdownNow();
+        pendientes.clear();
+        memoria.evictAll();
+    }
+
+    /**
+     * Escribe el estado de las cachés (para dumpsys).
+     */
+    public void volcar(PrintWriter salida) {
+        salida.println(String.format(Locale.ROOT,
+                "Metadatos: %d KB en memoria, %d KB en disco; aciertos en memoria %d/%d,"
+                + " en disco %d; %d leídos de la red, %d errores",
+                memoria.size() / 1024, disco.tamanioActual() / 1024,
+                memoria.hitCount(), memoria.hitCount() + memoria.missCount(),
+                aciertosDisco.get(), lecturasRed.get(), errores.get()));
+        lectura.volcar(salida, "metadatos.lectura");
+        decodificacion.volcar(salida, "metadatos.decodificacion");
+    }
+
+    private void entregar(String url, Metadatos metadatos) {
+        List<Oyente> oyentes = pendientes.remove(url);
+        if (oyentes == null)
+            // Se cerró mientras tanto.
+            return;
+        memoria.put(url, metadatos);
+        for (Oyente oyente : oyentes)
+            oyente.alObtener(url, metadatos);
+    }
+
+    /**
+     * Busca en disco y, si no están, en la copia local de la canción o en
+     * la red (en un hilo del pool).
+     */
+    private Metadatos buscar(String url) {
+        EtiquetaId3 etiqueta = disco.leer(url);
+        if (etiqueta != null) {
+            aciertosDisco.incrementAndGet();
+            return new Metadatos(etiqueta, decodificar(etiqueta.imagen));
+        }
+
+        try {
+            long inicio = System.nanoTime();
+            File local = locales.buscar(url);
+            if (local != null)
+                etiqueta = LectorMetadatos.leer(local);
+            else {
+                etiqueta = LectorMetadatos.leer(url);
+                lecturasRed.incrementAndGet();
+            }
+            lectura.registrar((System.nanoTime() - inicio) / 1000000);
+        } catch (IOException e) {
+            errores.incrementAndGet();
+            return Metadatos.VACIOS;
+        }
+
+        Bitmap caratula = decodificar(etiqueta.imagen);
+        byte[] reducida = caratula != null ? comprimir(caratula) : null;
+        disco.guardar(url, etiqueta.conImagen(reducida,
+                                              reducida == null ? null
+                                              : caratula.hasAlpha() ? "image/png" : "image/jpeg"));
+        return new Metadatos(etiqueta, caratula);
+    }
+
+    /**
+     * @return La carátula reducida, o null si no hay o no se pudo decodificar.
+     */
+    private Bitmap decodificar(byte[] imagen) {
+        if (imagen == null)
+            return null;
+        long inicio = System.nanoTime();
+        Bitmap caratula = decodificar(imagen, ladoCaratula);
+        decodificacion.registrar((System.nanoTime() - inicio) / 1000000);
+        return caratula;
+    }
+
+    /**
+     * Decodifica la imagen reducida por la mayor potencia de 2 que la deja
+     * con ambos lados de al menos "lado" píxeles. Un JPEG (sin
+     * transparencia) se decodifica en RGB_565, con la mitad de memoria.
+     */
+    static Bitmap decodificar(byte[] imagen, int lado) {
+        BitmapFactory.Options opciones = new BitmapFactory.Options();
+        opciones.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(imagen, 0, imagen.length, opciones);
+        if (opciones.outWidth <= 0 || opciones.outHeight <= 0)
+            return null;
+
+        int reduccion = 1;
+        while (opciones.outWidth / (reduccion * 2) >= lado
+               && opciones.outHeight / (reduccion * 2) >= lado)
+            reduccion *= 2;
+
+        opciones.inJustDecodeBounds = false;
+        opciones.inSampleSize = reduccion;
+        opciones.inPreferredConfig = "image/jpeg".equals(opciones.outMimeType)
+                ? Bitmap.Config.RGB_565
+                : Bitmap.Config.ARGB_8888;
+        return BitmapFactory.decodeByteArray(imagen, 0, imagen.length, opciones);
+    }
+
+    private static byte[] comprimir(Bitmap caratula) {
+        ByteArrayOutputStream salida = new ByteArrayOutputStream();
+        boolean png = caratula.hasAlpha();
+        if (!caratula.compress(png ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG,
+                               CALIDAD_JPEG, salida))
+            return null;
+        return salida.toByteArray();
+    }
+}
@@ -0,0 +1,118 @@
+package ec.epn.detri.awm.reproductor.metricas;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histograma de latencias con cubetas fijas (por omisión en milisegundos).
+ * Registrar un valor no crea objetos ni toma locks, así que puede usarse
+ * desde cualquier hilo, incluidos los callbacks de MediaPlayer.
+ */
+public class Histograma {
+    /**
+     * Límites en milisegundos de las cubetas por omisión.
+     */
+    static final long[] LIMITES_MS = {
+            1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000
+    };
+
+    /**
+     * Límite superior (inclusive) de cada cubeta; la última cubeta guarda
+     * los valores mayores al último límite.
+     */
+    private final long[] limites;
+
+    /**
+     * Unidad de los valores, sólo para volcar().
+     */
+    private final String unidad;
+
+    private final AtomicLongArray cubetas;
+
+    private final AtomicLong total = new AtomicLong();
+
+    private final AtomicLong suma = new AtomicLong();
+
+    private final AtomicLong maximo = new AtomicLong();
+
+    public Histograma() {
+        this(LIMITES_MS, "ms");
+    }
+
+    /**
+     * @param limites Límites crecientes de las cubetas.
+     * @param unidad Unidad de los valores (p.ej. "us").
+     */
+    public Histograma(long[] limites, String unidad) {
+        this.limites = limites;
+        this.unidad = unidad;
+        cubetas = new AtomicLongArray(limites.length + 1);
+    }
+
+    /**
+     * Registra un valor. Los valores negativos se cuentan como 0.
+     */
+    public void registrar(long valor) {
+        valor = Math.max(0, valor);
+        cubetas.incrementAndGet(cubeta(valor));
+        total.incrementAndGet();
+        suma.addAndGet(valor);
+
+        long actual = maximo.get();
+        while (valor > actual && !maximo.compareAndSet(actual, valor))
+            actual = maximo.get();
+    }
+
+    public long getTotal() {
+        return total.get();
+    }
+
+    public long getMaximo() {
+        return maximo.get();
+    }
+
+    public long getPromedio() {
+        long n = total.get();
+        return n == 0 ? 0 : suma.get() / n;
+    }
+
+    /**
+     * @param fraccion Fracción entre 0 y 1 (p.ej. 0.9 para el percentil 90).
+     * @return Una cota superior del percentil: el límite de la cubeta donde
+     * cae, sin pasar del máximo registrado (0 si no hay valores).
+     */
+    public long percentil(double fraccion) {
+        long n = total.get();
+        if (n == 0)
+            return 0;
+
+        long objetivo = Math.max(1, (long) Math.ceil(fraccion * n));
+        long acumulado = 0;
+        for (int i = 0; i < limites.length; i++) {
+            acumulado += cubetas.get(i);
+            if (acumulado >= objetivo)
+                return Math.min(limites[i], maximo.get());
+        }
+        return maximo.get();
+    }
+
+    /**
+     * Escribe un resumen de una línea.
+     */
+    public void volcar(PrintWriter salida, String nombre) {
+        salida.println(String.format(Locale.ROOT,
+                "  %-24s n=%d prom=%d%s p50=%d%s p90=%d%s p99=%d%s max=%d%s",
+                nombre, getTotal(), getPromedio(), unidad,
+                percentil(0.5), unidad, percentil(0.9), unidad,
+                percentil(0.99), unidad, getMaximo(), unidad));
+    }
+
+    private int cubeta(long valor) {
+        for (int i = 0; i < limites.length; i++)
+            if (valor <= limites[i])
+                return i;
+        return limites.length;
+    }
+}
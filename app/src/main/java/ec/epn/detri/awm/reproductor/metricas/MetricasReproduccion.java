@@ -0,0 +1,243 @@
+package ec.epn.detri.awm.reproductor.metricas;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Métricas de rendimiento de la reproducción: latencias desde el comando
+ * hasta que la canción suena, cortes por falta de datos (rebuffer), bytes
+ * descargados, reconexiones tras cortes de la red, recuperaciones tras un
+ * error del reproductor y errores de MediaPlayer por código.
+ *
+ * Los instantes son de System.nanoTime() (monótono). Los contadores son
+ * atómicos y los histogramas tienen tamaño fijo, de modo que registrar una
+ * métrica no crea objetos ni bloquea.
+ */
+public class MetricasReproduccion {
+    /**
+     * Códigos de error de MediaPlayer que se cuentan por separado (el resto
+     * se cuenta como "otros").
+     */
+    private static final int[] CODIGOS_ERROR = {
+            1, 100, 200, -1004, -1007, -1010, -110
+    };
+
+    private static final String[] NOMBRES_ERROR = {
+            "UNKNOWN", "SERVER_DIED", "NOT_VALID_FOR_PROGRESSIVE_PLAYBACK",
+            "IO", "MALFORMED", "UNSUPPORTED", "TIMED_OUT", "otros"
+    };
+
+    // Claves de exportar().
+    public static final String COMANDOS = "comandos";
+    public static final String REBUFFERS = "rebuffers";
+    public static final String MS_EN_REBUFFER = "msEnRebuffer";
+    public static final String BYTES_DESCARGADOS = "bytesDescargados";
+    public static final String RECORTES_MEMORIA = "recortesMemoria";
+    public static final String CAMBIOS_VARIANTE = "cambiosVariante";
+    public static final String ERRORES = "errores";
+    public static final String RECONEXIONES = "reconexiones";
+    public static final String MS_SIN_RED = "msSinRed";
+    public static final String RECUPERACIONES = "recuperaciones";
+    public static final String COMANDO_A_PREPARADA = "comandoAPreparada";
+    public static final String PREPARACION = "preparacion";
+    public static final String COMANDO_A_AUDIO = "comandoAAudio";
+    public static final String REBUFFER = "rebuffer";
+    public static final String SILENCIO_ENTRE_CANCIONES = "silencioEntreCanciones";
+    public static final String RECUPERACION = "recuperacion";
+
+    private final AtomicLong comandos = new AtomicLong();
+    private final AtomicLong rebuffers = new AtomicLong();
+    private final AtomicLong nanosEnRebuffer = new AtomicLong();
+    private final AtomicLong bytesDescargados = new AtomicLong();
+    private final AtomicLong recortesMemoria = new AtomicLong();
+    private final AtomicLong cambiosVariante = new AtomicLong();
+    private final AtomicLongArray errores = new AtomicLongArray(NOMBRES_ERROR.length);
+    private final AtomicLong reconexiones = new AtomicLong();
+    private final AtomicLong nanosSinRed = new AtomicLong();
+
+    private final Histograma comandoAPreparada = new Histograma();
+    private final Histograma preparacion = new Histograma();
+    private final Histograma comandoAAudio = new Histograma();
+    private final Histograma rebuffer = new Histograma();
+    private final Histograma silencioEntreCanciones = new Histograma();
+    private final Histograma recuperacion = new Histograma();
+
+    /**
+     * Cuenta un comando recibido (por intent o por Binder).
+     */
+    public void registrarComando() {
+        comandos.incrementAndGet();
+    }
+
+    /**
+     * Registra que una canción quedó preparada.
+     * @param inicioComando Instante del comando que pidió la canción (0 si
+     * se preparó por adelantado, sin un comando).
+     * @param inicioPreparacion Instante de la llamada a prepareAsync().
+     * @param ahora Instante de onPrepared().
+     */
+    public void registrarPreparada(long inicioComando, long inicioPreparacion, long ahora) {
+        preparacion.registrar(milis(ahora - inicioPreparacion));
+        if (inicioComando != 0)
+            comandoAPreparada.registrar(milis(ahora - inicioComando));
+    }
+
+    /**
+     * Registra el tiempo desde el comando hasta que empezó a sonar la canción.
+     */
+    public void registrarPrimerAudio(long inicioComando, long ahora) {
+        comandoAAudio.registrar(milis(ahora - inicioComando));
+    }
+
+    /**
+     * Registra un corte de la reproducción por falta de datos.
+     * @param nanos Duración del corte.
+     */
+    public void registrarRebuffer(long nanos) {
+        rebuffers.incrementAndGet();
+        nanosEnRebuffer.addAndGet(nanos);
+        rebuffer.registrar(milis(nanos));
+    }
+
+    /**
+     * Registra el silencio entre el final de una canción y el inicio de la
+     * siguiente cuando ésta no estaba preparada a tiempo.
+     */
+    public void registrarSilencio(long nanos) {
+        silencioEntreCanciones.registrar(milis(nanos));
+    }
+
+    public void registrarBytes(long bytes) {
+        bytesDescargados.addAndGet(bytes);
+    }
+
+    /**
+     * Cuenta una vez que el servicio liberó recursos en onTrimMemory().
+     */
+    public void registrarRecorteMemoria() {
+        recortesMemoria.incrementAndGet();
+    }
+
+    /**
+     * Suma los cambios de variante de un flujo HLS.
+     */
+    public void registrarCambiosVariante(int cambios) {
+        cambiosVariante.addAndGet(cambios);
+    }
+
+    /**
+     * Suma las reconexiones de la fuente de una canción tras cortes de la
+     * red, y el tiempo hasta que volvieron a llegar datos.
+     */
+    public void registrarReconexiones(int reconexiones, long nanosSinRed) {
+        this.reconexiones.addAndGet(reconexiones);
+        this.nanosSinRed.addAndGet(nanosSinRed);
+    }
+
+    /**
+     * Registra que la canción volvió a sonar tras un error del reproductor.
+     * @param nanos Tiempo desde el error.
+     */
+    public void registrarRecuperacion(long nanos) {
+        recuperacion.registrar(milis(nanos));
+    }
+
+    /**
+     * Cuenta un error de MediaPlayer.
+     * @param what Código principal de onError().
+     * @param extra Código específico de onError() (p.ej. MEDIA_ERROR_IO).
+     */
+    public void registrarError(int what, int extra) {
+        int indice = indiceError(extra);
+        if (indice == CODIGOS_ERROR.length)
+            indice = indiceError(what);
+        errores.incrementAndGet(indice);
+    }
+
+    public long getRebuffers() {
+        return rebuffers.get();
+    }
+
+    public long getErrores() {
+        long total = 0;
+        for (int i = 0; i < errores.length(); i++)
+            total += errores.get(i);
+        return total;
+    }
+
+    /**
+     * Copia las métricas como pares clave/valor. Cada histograma se exporta
+     * como "nombre.n", "nombre.p50", "nombre.p90", "nombre.p99" y
+     * "nombre.max" (en ms).
+     */
+    public void exportar(Map<String, Long> destino) {
+        destino.put(COMANDOS, comandos.get());
+        destino.put(REBUFFERS, rebuffers.get());
+        destino.put(MS_EN_REBUFFER, nanosEnRebuffer.get() / 1000000);
+        destino.put(BYTES_DESCARGADOS, bytesDescargados.get());
+        destino.put(RECORTES_MEMORIA, recortesMemoria.get());
+        destino.put(CAMBIOS_VARIANTE, cambiosVariante.get());
+        destino.put(ERRORES, getErrores());
+        for (int i = 0; i < NOMBRES_ERROR.length; i++)
+            destino.put(ERRORES + "." + NOMBRES_ERROR[i], errores.get(i));
+        destino.put(RECONEXIONES, reconexiones.get());
+        destino.put(MS_SIN_RED, nanosSinRed.get() / 1000000);
+        destino.put(RECUPERACIONES, recuperacion.getTotal());
+
+        exportar(destino, COMANDO_A_PREPARADA, comandoAPreparada);
+        exportar(destino, PREPARACION, preparacion);
+        exportar(destino, COMANDO_A_AUDIO, comandoAAudio);
+        exportar(destino, REBUFFER, rebuffer);
+        exportar(destino, SILENCIO_ENTRE_CANCIONES, silencioEntreCanciones);
+        exportar(destino, RECUPERACION, recuperacion);
+    }
+
+    /**
+     * Escribe las métricas en formato legible (para dumpsys).
+     */
+    public void volcar(PrintWriter salida) {
+        salida.println("Métricas de reproducción:");
+        salida.println(String.format(Locale.ROOT,
+                "  comandos=%d rebuffers=%d (%d ms) bytes=%d recortesMemoria=%d cambiosVariante=%d",
+                comandos.get(), rebuffers.get(), nanosEnRebuffer.get() / 1000000,
+                bytesDescargados.get(), recortesMemoria.get(), cambiosVariante.get()));
+        salida.println(String.format(Locale.ROOT,
+                "  reconexiones=%d (%d ms sin red)",
+                reconexiones.get(), nanosSinRed.get() / 1000000));
+
+        comandoAPreparada.volcar(salida, COMANDO_A_PREPARADA);
+        preparacion.volcar(salida, PREPARACION);
+        comandoAAudio.volcar(salida, COMANDO_A_AUDIO);
+        rebuffer.volcar(salida, REBUFFER);
+        silencioEntreCanciones.volcar(salida, SILENCIO_ENTRE_CANCIONES);
+        recuperacion.volcar(salida, RECUPERACION);
+
+        salida.print("  errores:");
+        for (int i = 0; i < NOMBRES_ERROR.length; i++)
+            if (errores.get(i) > 0)
+                salida.print(" " + NOMBRES_ERROR[i] + "=" + errores.get(i));
+        salida.println();
+    }
+
+    private static void exportar(Map<String, Long> destino, String nombre, Histograma histograma) {
+        destino.put(nombre + ".n", histograma.getTotal());
+        destino.put(nombre + ".p50", histograma.percentil(0.5));
+        destino.put(nombre + ".p90", histograma.percentil(0.9));
+        destino.put(nombre + ".p99", histograma.percentil(0.99));
+        destino.put(nombre + ".max", histograma.getMaximo());
+    }
+
+    private static int indiceError(int codigo) {
+        for (int i = 0; i < CODIGOS_ERROR.length; i++)
+            if (CODIGOS_ERROR[i] == codigo)
+                return i;
+        return CODIGOS_ERROR.length;
+    }
+
+    private static long milis(long nanos) {
+        return nanos / 1000000;
+    }
+}
@@ -0,0 +1,138 @@
+package ec.epn.detri.awm.reproductor.metricas;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tiempos del ciclo de vida de las actividades: duración de cada callback
+ * (por clase de actividad) y tiempos de arranque del proceso hasta el
+ * primer cuadro.
+ *
+ * Los perfiles se crean una vez por clase; registrar un tiempo no crea
+ * objetos.
+ */
+public class PerfilCicloDeVida {
+    // Callbacks medidos.
+    public static final int CREAR = 0;
+    public static final int INICIAR = 1;
+    public static final int REANUDAR = 2;
+    public static final int PAUSAR = 3;
+    public static final int DETENER = 4;
+    public static final int REINICIAR = 5;
+    public static final int DESTRUIR = 6;
+    public static final int CONTENIDO = 7;
+
+    private static final String[] NOMBRES = {
+            "onCreate", "onStart", "onResume", "onPause",
+            "onStop", "onRestart", "onDestroy", "setContentView"
+    };
+
+    // Tipos de arranque.
+    /**
+     * Desde que inició el proceso hasta el primer cuadro de la primera actividad.
+     */
+    public static final int ARRANQUE_FRIO = 0;
+    /**
+     * Desde que se creó la actividad (con el proceso ya iniciado) hasta su
+     * primer cuadro.
+     */
+    public static final int ARRANQUE_TIBIO = 1;
+    /**
+     * Desde que se reinició una actividad detenida hasta su primer cuadro.
+     */
+    public static final int ARRANQUE_CALIENTE = 2;
+
+    private static final String[] NOMBRES_ARRANQUE = {"frío", "tibio", "caliente"};
+
+    /**
+     * Límites en microsegundos de las cubetas de los callbacks.
+     */
+    private static final long[] LIMITES_US = {
+            50, 100, 200, 500, 1000, 2000, 5000, 10000,
+            16000, 33000, 50000, 100000, 200000, 500000
+    };
+
+    private static final Map<Class<?>, PerfilCicloDeVida> PERFILES = new ConcurrentHashMap<>();
+
+    private static final Histograma[] ARRANQUES = {
+            new Histograma(), new Histograma(), new Histograma()
+    };
+
+    private final String nombre;
+
+    private final Histograma[] callbacks = new Histograma[NOMBRES.length];
+
+    private PerfilCicloDeVida(String nombre) {
+        this.nombre = nombre;
+        for (int i = 0; i < callbacks.length; i++)
+            callbacks[i] = new Histograma(LIMITES_US, "us");
+    }
+
+    /**
+     * @return El perfil de la clase de actividad indicada (se crea la primera vez).
+     */
+    public static PerfilCicloDeVida de(Class<?> clase) {
+        PerfilCicloDeVida perfil = PERFILES.get(clase);
+        if (perfil == null) {
+            PerfilCicloDeVida nuevo = new PerfilCicloDeVida(clase.getSimpleName());
+            perfil = PERFILES.putIfAbsent(clase, nuevo);
+            if (perfil == null)
+                perfil = nuevo;
+        }
+        return perfil;
+    }
+
+    /**
+     * Registra la duración de un callback.
+     * @param callback Una de las constantes CREAR, INICIAR, etc.
+     */
+    public void registrar(int callback, long nanos) {
+        callbacks[callback].registrar(nanos / 1000);
+    }
+
+    /**
+     * @return El histograma (en microsegundos) del callback indicado.
+     */
+    public Histograma getCallback(int callback) {
+        return callbacks[callback];
+    }
+
+    /**
+     * Registra un tiempo de arranque.
+     * @param tipo ARRANQUE_FRIO, ARRANQUE_TIBIO o ARRANQUE_CALIENTE.
+     */
+    public static void registrarArranque(int tipo, long milis) {
+        ARRANQUES[tipo].registrar(milis);
+    }
+
+    /**
+     * @return El histograma (en milisegundos) del tipo de arranque indicado.
+     */
+    public static Histograma getArranque(int tipo) {
+        return ARRANQUES[tipo];
+    }
+
+    /**
+     * @return Nombre legible del tipo de arranque.
+     */
+    public static String nombreArranque(int tipo) {
+        return NOMBRES_ARRANQUE[tipo];
+    }
+
+    /**
+     * Escribe los tiempos de arranque y los de todas las actividades.
+     */
+    public static void volcarTodos(PrintWriter salida) {
+        salida.println("Arranques:");
+        for (int i = 0; i < ARRANQUES.length; i++)
+            ARRANQUES[i].volcar(salida, NOMBRES_ARRANQUE[i]);
+
+        for (PerfilCicloDeVida perfil : PERFILES.values()) {
+            salida.println(perfil.nombre + ":");
+            for (int i = 0; i < perfil.callbacks.length; i++)
+                if (perfil.callbacks[i].getTotal() > 0)
+                    perfil.callbacks[i].volcar(salida, NOMBRES[i]);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package ec.epn.detri.awm.reproductor.red;
+
+/**
+ * Buffer circular de tamaño fijo que guarda una ventana contigua de un
+ * flujo de bytes, direccionada por la posición absoluta dentro del flujo.
+ * Contiene los bytes del intervalo [inicio, fin). Al escribir más allá de
+ * la capacidad se sobreescriben los bytes más antiguos.
+ *
+ * No es seguro para hilos: quien lo use debe sincronizar el acceso.
+ */
+public class BufferCircular {
+    private final byte[] datos;
+
+    /**
+     * Posición absoluta del byte más antiguo guardado.
+     */
+    private long inicio;
+
+    /**
+     * Posición absoluta siguiente al último byte escrito.
+     */
+    private long fin;
+
+    /**
+     * Constructor
+     * @param datos Arreglo (posiblemente reutilizado) que respalda el buffer.
+     */
+    public BufferCircular(byte[] datos) {
+        this.datos = datos;
+    }
+
+    public int capacidad() {
+        return datos.length;
+    }
+
+    public long getInicio() {
+        return inicio;
+    }
+
+    public long getFin() {
+        return fin;
+    }
+
+    /**
+     * Vacía el buffer y lo coloca en la posición indicada del flujo.
+     */
+    public void reiniciar(long posicion) {
+        inicio = posicion;
+        fin = posicion;
+    }
+
+    /**
+     * @return True si el byte de la posición indicada está en el buffer.
+     */
+    public boolean contiene(long posicion) {
+        return posicion >= inicio && posicion < fin;
+    }
+
+    /**
+     * @return Número de bytes que pueden escribirse sin sobreescribir
+     * los bytes a partir de la posición indicada.
+     */
+    public int espacioLibre(long conservarDesde) {
+        long ocupado = fin - Math.max(inicio, conservarDesde);
+        return (int) Math.max(0, datos.length - ocupado);
+    }
+
+    /**
+     * Agrega bytes al final del buffer, descartando los más antiguos si
+     * es necesario.
+     */
+    public void escribir(byte[] origen, int offset, int tamanio) {
+        if (tamanio > datos.length) {
+            offset += tamanio - datos.length;
+            fin += tamanio - datos.length;
+            tamanio = datos.length;
+        }
+
+        int indice = (int) (fin % datos.length);
+        int primerTramo = Math.min(tamanio, datos.length - indice);
+        System.arraycopy(origen, offset, datos, indice, primerTramo);
+        System.arraycopy(origen, offset + primerTramo, datos, 0, tamanio - primerTramo);
+
+        fin += tamanio;
+        inicio = Math.max(inicio, fin - datos.length);
+    }
+
+    /**
+     * Copia bytes a partir de la posición indicada, que debe estar en el buffer.
+     * @return Número de bytes copiados.
+     */
+    public int leer(long posicion, byte[] destino, int offset, int tamanio) {
+        int disponibles = (int) Math.min(tamanio, fin - posicion);
+        int indice = (int) (posicion % datos.length);
+        int primerTramo = Math.min(disponibles, datos.length - indice);
+
+        System.arraycopy(datos, indice, destino, offset, primerTramo);
+        System.arraycopy(datos, 0, destino, offset + primerTramo, disponibles - primerTramo);
+        return disponibles;
+    }
+
+    /**
+     * @return El arreglo que respalda el buffer (para devolverlo a un pool).
+     */
+    byte[] arreglo() {
+        return datos;
+    }
+}
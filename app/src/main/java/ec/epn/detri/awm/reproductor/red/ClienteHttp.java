@@ -0,0 +1,324 @@
+package ec.epn.detri.awm.reproductor.red;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.PrintWriter;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLHandshakeException;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import ec.epn.detri.awm.reproductor.metricas.Histograma;
+
+/**
+ * Punto único por el que el proceso del servicio abre conexiones HTTP
+ * (reproducción, precarga, revalidaciones de la caché y listas HLS), para
+ * que todas compartan el pool de conexiones persistentes de
+ * HttpURLConnection y la caché de sesiones TLS:
+ * - todas las conexiones HTTPS usan la misma SSLSocketFactory (el pool
+ *   sólo reutiliza una conexión con la misma fábrica, y las sesiones TLS se
+ *   reanudan desde la caché de su SSLContext);
+ * - una respuesta leída hasta el final se cierra sin disconnect(), lo que
+ *   devuelve el socket al pool para la siguiente petición al mismo
+ *   servidor (el siguiente salto o canción empieza sin DNS, TCP ni TLS);
+ * - una respuesta abandonada a medias (un salto, una precarga que llegó a
+ *   su límite) se corta con disconnect(), en lugar de vaciar el resto.
+ *
+ * Cuenta las peticiones, los sockets TLS nuevos y los handshakes completos
+ * o reanudados, y mide el tiempo hasta las cabeceras de cada respuesta.
+ *
+ * clasificar() decide si un error de red merece reintentarse (ver
+ * EsperaReintentos).
+ */
+public final class ClienteHttp {
+    /**
+     * Tiempo máximo de espera de conexión y de lectura.
+     */
+    public static final int TIMEOUT_MS = 15000;
+
+    /**
+     * Conexiones inactivas que conserva el pool (reproducción, precargas
+     * y revalidaciones a la vez).
+     */
+    private static final int MAXIMO_CONEXIONES = 8;
+
+    /**
+     * Tiempo que se conserva una conexión inactiva en el pool.
+     */
+    private static final long DURACION_KEEP_ALIVE_MS = 5 * 60 * 1000;
+
+    /**
+     * Clases de error de red (ver clasificar()).
+     * - TRANSITORIO: un corte, un tiempo agotado o un error del servidor;
+     *   reintentar puede funcionar.
+     * - PERMANENTE: el recurso no existe, no se puede leer o cambió;
+     *   reintentar daría lo mismo.
+     * - CANCELADO: la lectura se cortó a propósito (close(), cancelar()).
+     */
+    public static final int ERROR_TRANSITORIO = 0;
+    public static final int ERROR_PERMANENTE = 1;
+    public static final int ERROR_CANCELADO = 2;
+
+    // Claves de exportar().
+    public static final String PETICIONES = "http.peticiones";
+    public static final String CONEXIONES_TLS = "http.conexionesTls";
+    public static final String HANDSHAKES_TLS = "http.handshakesTls";
+    public static final String SESIONES_REANUDADAS = "http.sesionesReanudadas";
+    public static final String HASTA_CABECERAS = "http.hastaCabeceras";
+
+    static {
+        // Se leen al crear el pool, antes de la primera conexión.
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", String.valueOf(MAXIMO_CONEXIONES));
+        System.setProperty("http.keepAliveDuration", String.valueOf(DURACION_KEEP_ALIVE_MS));
+    }
+
+    private static final AtomicLong peticiones = new AtomicLong();
+    private static final AtomicLong conexionesTls = new AtomicLong();
+    private static final AtomicLong handshakesTls = new AtomicLong();
+    private static final AtomicLong sesionesReanudadas = new AtomicLong();
+    private static final Histograma hastaCabeceras = new Histograma();
+
+    private static volatile FabricaTls fabricaTls =
+            new FabricaTls(HttpsURLConnection.getDefaultSSLSocketFactory());
+
+    /**
+     * Respuesta HTTP con un código que no es el esperado.
+     */
+    public static class ErrorHttp extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public final int codigo;
+
+        public ErrorHttp(int codigo, String url) {
+            super("HTTP " + codigo + " al leer " + url);
+            this.codigo = codigo;
+        }
+    }
+
+    /**
+     * La canción cambió en el servidor mientras se leía: los bytes nuevos no
+     * se pueden unir a los ya leídos.
+     */
+    public static class RecursoCambiado extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public RecursoCambiado(String url) {
+            super("La canción cambió en el servidor: " + url);
+        }
+    }
+
+    private ClienteHttp() {
+    }
+
+    /**
+     * Crea una conexión (aún sin conectar) con los tiempos de espera del
+     * reproductor.
+     */
+    public static HttpURLConnection abrir(String url) throws IOException {
+        HttpURLConnection conexion = (HttpURLConnection) new URL(url).openConnection();
+        conexion.setConnectTimeout(TIMEOUT_MS);
+        conexion.setReadTimeout(TIMEOUT_MS);
+        if (conexion instanceof HttpsURLConnection)
+            ((HttpsURLConnection) conexion).setSSLSocketFactory(fabricaTls);
+        return conexion;
+    }
+
+    /**
+     * Envía la petición y espera las cabeceras de la respuesta.
+     * @return El código de estado HTTP.
+     */
+    public static int respuesta(HttpURLConnection conexion) throws IOException {
+        long inicio = System.nanoTime();
+        int codigo = conexion.getResponseCode();
+        peticiones.incrementAndGet();
+        hastaCabeceras.registrar((System.nanoTime() - inicio) / 1000000);
+        return codigo;
+    }
+
+    /**
+     * @return ERROR_TRANSITORIO, ERROR_PERMANENTE o ERROR_CANCELADO. Un error
+     * que no se reconoce como permanente (la mayoría son cortes de la red,
+     * que cada versión de Android informa con una excepción distinta) se
+     * considera transitorio.
+     */
+    public static int clasificar(IOException e) {
+        if (e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException))
+            return ERROR_CANCELADO;
+        if (e instanceof ErrorHttp) {
+            int codigo = ((ErrorHttp) e).codigo;
+            return codigo >= 500 || codigo == HttpURLConnection.HTTP_CLIENT_TIMEOUT
+                   || codigo == 429
+                    ? ERROR_TRANSITORIO
+                    : ERROR_PERMANENTE;
+        }
+        if (e instanceof FileNotFoundException || e instanceof MalformedURLException
+            || e instanceof SSLHandshakeException || e instanceof SSLPeerUnverifiedException
+            || e instanceof RecursoCambiado)
+            return ERROR_PERMANENTE;
+        return ERROR_TRANSITORIO;
+    }
+
+    /**
+     * Termina de usar una conexión.
+     * @param reutilizable True si el cuerpo se leyó completo (o no lo hay):
+     * la conexión vuelve al pool. Si es false se cierra el socket.
+     */
+    public static void liberar(HttpURLConnection conexion, boolean reutilizable) {
+        if (!reutilizable) {
+            conexion.disconnect();
+            return;
+        }
+
+        try {
+            InputStream cuerpo = conexion.getResponseCode() >= 400
+                    ? conexion.getErrorStream()
+                    : conexion.getInputStream();
+            if (cuerpo != null)
+                cuerpo.close();
+        } catch (IOException e) {
+            conexion.disconnect();
+        }
+    }
+
+    public static long getPeticiones() {
+        return peticiones.get();
+    }
+
+    /**
+     * @return Número de sockets TLS abiertos (uno por conexión HTTPS nueva).
+     */
+    public static long getConexionesTls() {
+        return conexionesTls.get();
+    }
+
+    /**
+     * @return Número de handshakes TLS terminados, completos o reanudados.
+     */
+    public static long getHandshakesTls() {
+        return handshakesTls.get();
+    }
+
+    /**
+     * @return Número de handshakes que reanudaron una sesión TLS anterior.
+     */
+    public static long getSesionesReanudadas() {
+        return sesionesReanudadas.get();
+    }
+
+    /**
+     * Copia los contadores como pares clave/valor (ver
+     * MetricasReproduccion.exportar()).
+     */
+    public static void exportar(Map<String, Long> destino) {
+        destino.put(PETICIONES, peticiones.get());
+        destino.put(CONEXIONES_TLS, conexionesTls.get());
+        destino.put(HANDSHAKES_TLS, handshakesTls.get());
+        destino.put(SESIONES_REANUDADAS, sesionesReanudadas.get());
+        destino.put(HASTA_CABECERAS + ".n", hastaCabeceras.getTotal());
+        destino.put(HASTA_CABECERAS + ".p50", hastaCabeceras.percentil(0.5));
+        destino.put(HASTA_CABECERAS + ".p90", hastaCabeceras.percentil(0.9));
+        destino.put(HASTA_CABECERAS + ".max", hastaCabeceras.getMaximo());
+    }
+
+    /**
+     * Escribe los contadores en formato legible (para dumpsys).
+     */
+    public static void volcar(PrintWriter salida) {
+        salida.println(String.format(Locale.ROOT,
+                "HTTP: %d peticiones, %d conexiones TLS, %d handshakes (%d reanudados)",
+                peticiones.get(), conexionesTls.get(),
+                handshakesTls.get(), sesionesReanudadas.get()));
+        hastaCabeceras.volcar(salida, HASTA_CABECERAS);
+    }
+
+    /**
+     * Reemplaza la fábrica de sockets TLS base (p.ej. para confiar en el
+     * certificado de un servidor de pruebas).
+     */
+    static void usarFabricaTls(SSLSocketFactory base) {
+        fabricaTls = new FabricaTls(base);
+    }
+
+    /**
+     * SSLSocketFactory que delega en otra y cuenta los sockets creados y
+     * sus handshakes. Una sesión creada antes que el socket es una sesión
+     * reanudada.
+     */
+    private static final class FabricaTls extends SSLSocketFactory {
+        private final SSLSocketFactory base;
+
+        FabricaTls(SSLSocketFactory base) {
+            this.base = base;
+        }
+
+        private static Socket contar(Socket socket) {
+            if (socket instanceof SSLSocket) {
+                conexionesTls.incrementAndGet();
+                final long creado = System.currentTimeMillis();
+                ((SSLSocket) socket).addHandshakeCompletedListener(evento -> {
+                    handshakesTls.incrementAndGet();
+                    if (evento.getSession().getCreationTime() < creado)
+                        sesionesReanudadas.incrementAndGet();
+                });
+            }
+            return socket;
+        }
+
+        @Override
+        public String[] getDefaultCipherSuites() {
+            return base.getDefaultCipherSuites();
+        }
+
+        @Override
+        public String[] getSupportedCipherSuites() {
+            return base.getSupportedCipherSuites();
+        }
+
+        @Override
+        public Socket createSocket() throws IOException {
+            return contar(base.createSocket());
+        }
+
+        @Override
+        public Socket createSocket(Socket socket, String host, int puerto, boolean cerrar)
+                throws IOException {
+            return contar(base.createSocket(socket, host, puerto, cerrar));
+        }
+
+        @Override
+        public Socket createSocket(String host, int puerto) throws IOException {
+            return contar(base.createSocket(host, puerto));
+        }
+
+        @Override
+        public Socket createSocket(String host, int puerto, InetAddress local, int puertoLocal)
+                throws IOException {
+            return contar(base.createSocket(host, puerto, local, puertoLocal));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int puerto) throws IOException {
+            return contar(base.createSocket(host, puerto));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int puerto, InetAddress local, int puertoLocal)
+                throws IOException {
+            return contar(base.createSocket(host, puerto, local, puertoLocal));
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package ec.epn.detri.awm.reproductor.red;
+
+import java.util.Random;
+
+/**
+ * Esperas entre reintentos con crecimiento exponencial y fluctuación
+ * aleatoria: la n-ésima espera es un valor al azar entre la mitad y el
+ * total de base * 2^n (sin pasar de máximo). La fluctuación evita que
+ * varias conexiones cortadas a la vez (la canción, la precarga) vuelvan a
+ * intentarlo todas en el mismo instante.
+ *
+ * Tras un número de intentos sin progreso se da por vencido; reiniciar()
+ * (al recibir datos) vuelve a empezar por la espera más corta.
+ */
+public class EsperaReintentos {
+    private final long baseMs;
+
+    private final long maximoMs;
+
+    private final int intentos;
+
+    private final Random azar;
+
+    private int fallos;
+
+    /**
+     * @param baseMs Espera antes del primer reintento (en promedio, 3/4).
+     * @param maximoMs Tope de cada espera.
+     * @param intentos Reintentos seguidos sin progreso antes de rendirse.
+     */
+    public EsperaReintentos(long baseMs, long maximoMs, int intentos, Random azar) {
+        this.baseMs = baseMs;
+        this.maximoMs = maximoMs;
+        this.intentos = intentos;
+        this.azar = azar;
+    }
+
+    /**
+     * Registra un fallo.
+     * @return Milisegundos a esperar antes de reintentar, o -1 si ya se
+     * agotaron los intentos.
+     */
+    public long siguiente() {
+        if (fallos >= intentos)
+            return -1;
+        long tope = Math.min(maximoMs, baseMs << Math.min(fallos, 30));
+        fallos++;
+        return tope / 2 + (long) (azar.nextDouble() * (tope - tope / 2));
+    }
+
+    /**
+     * Vuelve a la espera más corta (tras un reintento con éxito).
+     */
+    public void reiniciar() {
+        fallos = 0;
+    }
+
+    /**
+     * @return Fallos seguidos desde el último reinicio.
+     */
+    public int getFallos() {
+        return fallos;
+    }
+}
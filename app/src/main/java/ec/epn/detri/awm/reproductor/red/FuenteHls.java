@@ -0,0 +1,33 @@
+package ec.epn.detri.awm.reproductor.red;
+
+import android.media.MediaDataSource;
+
+import java.io.IOException;
+
+/**
+ * Fuente de datos para MediaPlayer respaldada por un LectorHls: presenta
+ * los segmentos de las variantes elegidas como un único flujo de audio de
+ * longitud desconocida.
+ */
+public class FuenteHls extends MediaDataSource {
+    private final LectorHls lector;
+
+    public FuenteHls(LectorHls lector) {
+        this.lector = lector;
+    }
+
+    @Override
+    public int readAt(long posicion, byte[] buffer, int offset, int tamanio) throws IOException {
+        return lector.leer(posicion, buffer, offset, tamanio);
+    }
+
+    @Override
+    public long getSize() {
+        return -1;
+    }
+
+    @Override
+    public void close() {
+        lector.close();
+    }
+}
@@ -0,0 +1,33 @@
+package ec.epn.detri.awm.reproductor.red;
+
+import android.media.MediaDataSource;
+
+import java.io.IOException;
+
+/**
+ * Fuente de datos para MediaPlayer respaldada por un LectorStreaming.
+ * Reemplaza la pila HTTP interna de MediaPlayer, de modo que el buffer,
+ * los saltos y el tiempo de espera quedan bajo control de la aplicación.
+ */
+public class FuenteStreaming extends MediaDataSource {
+    private final LectorStreaming lector;
+
+    public FuenteStreaming(LectorStreaming lector) {
+        this.lector = lector;
+    }
+
+    @Override
+    public int readAt(long posicion, byte[] buffer, int offset, int tamanio) throws IOException {
+        return lector.leer(posicion, buffer, offset, tamanio);
+    }
+
+    @Override
+    public long getSize() throws IOException {
+        return lector.longitud();
+    }
+
+    @Override
+    public void close() {
+        lector.close();
+    }
+}
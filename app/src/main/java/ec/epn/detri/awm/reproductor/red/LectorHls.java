@@ -0,0 +1,502 @@
+package ec.epn.detri.awm.reproductor.red;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Lee un flujo HLS de sólo audio (segmentos MPEG-TS, ADTS/AAC o MP3) en
+ * un hilo de fondo y lo entrega a MediaPlayer como un único flujo de
+ * bytes: los segmentos se concatenan, en orden, en un buffer circular como
+ * el de LectorStreaming.
+ *
+ * La variante de cada segmento la elige un SelectorVariante con el ancho
+ * de banda medido al descargar los segmentos anteriores, de modo que los
+ * cambios de variante ocurren entre segmentos y la reproducción no se
+ * interrumpe. Sólo se alterna entre variantes con los mismos códecs que la
+ * primera de la lista maestra. Al concatenar se quita la etiqueta ID3 que
+ * encabeza los segmentos de audio empaquetado, salvo la del primero.
+ *
+ * El flujo no tiene longitud conocida y sólo admite lecturas hacia
+ * adelante o dentro de los últimos RESERVA_ATRAS bytes leídos.
+ */
+public class LectorHls implements Closeable {
+    /**
+     * Bytes ya leídos que se conservan para saltos cortos hacia atrás.
+     */
+    static final int RESERVA_ATRAS = 256 * 1024;
+
+    /**
+     * Intentos extra de descargar un segmento (o una lista) antes de fallar.
+     */
+    static final int REINTENTOS = 2;
+
+    private final String url;
+
+    private final PoolBuffers poolBuffers;
+
+    private final PoolBuffers poolBloques;
+
+    private final SelectorVariante selector;
+
+    private final BufferCircular buffer;
+
+    private final Object monitor = new Object();
+
+    private final Thread hilo;
+
+    // Usados sólo por el hilo de descarga.
+    private List<ListaHls.Variante> variantes;
+    private long[] tasas;
+    private ListaHls[] listas;
+    private long escritosSegmento;
+
+    // Estado compartido protegido por monitor.
+    private HttpURLConnection conexion;
+    private boolean finDelFlujo;
+    private IOException error;
+    private long ultimaLectura;
+    private boolean cerrado;
+    private long tasaActual;
+
+    // Estadísticas.
+    private long nanosEspera;
+    private int esperas;
+    private long bytesDescargados;
+    private int segmentos;
+    private int cambiosVariante;
+
+    /**
+     * Crea el lector y empieza a descargar la lista del URL.
+     * @param url URL de la lista maestra (o de la lista de segmentos).
+     * @param poolBuffers Pool de arreglos para el buffer circular.
+     * @param poolBloques Pool de arreglos para los bloques de lectura de la red.
+     * @param selector Elige la variante de cada segmento.
+     */
+    public LectorHls(String url,
+                     PoolBuffers poolBuffers,
+                     PoolBuffers poolBloques,
+                     SelectorVariante selector) {
+        this.url = url;
+        this.poolBuffers = poolBuffers;
+        this.poolBloques = poolBloques;
+        this.selector = selector;
+        this.buffer = new BufferCircular(poolBuffers.obtener());
+
+        hilo = new Thread(this::descargar, "LectorHls");
+        hilo.setDaemon(true);
+        hilo.start();
+    }
+
+    /**
+     * Copia bytes del flujo a partir de la posición indicada, bloqueando
+     * hasta que estén disponibles.
+     * @return Número de bytes copiados, o -1 al final del flujo.
+     */
+    public int leer(long posicion, byte[] destino, int offset, int tamanio) throws IOException {
+        if (tamanio == 0)
+            return 0;
+
+        long inicioEspera = 0;
+        synchronized (monitor) {
+            try {
+                while (true) {
+                    if (cerrado)
+                        throw new IOException("Lector cerrado");
+
+                    if (buffer.contiene(posicion)) {
+                        int leidos = buffer.leer(posicion, destino, offset, tamanio);
+                        ultimaLectura = posicion + leidos;
+                        monitor.notifyAll();
+                        return leidos;
+                    }
+                    if (posicion < buffer.getInicio())
+                        throw new IOException("Posición " + posicion + " ya descartada del flujo HLS");
+                    if (error != null)
+                        throw error;
+                    if (finDelFlujo)
+                        return -1;
+
+                    // El escritor puede liberar espacio hasta la posición esperada.
+                    ultimaLectura = Math.max(ultimaLectura, posicion);
+                    if (inicioEspera == 0)
+                        inicioEspera = System.nanoTime();
+                    monitor.wait();
+                }
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            } finally {
+                if (inicioEspera != 0) {
+                    nanosEspera += System.nanoTime() - inicioEspera;
+                    esperas++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Detiene la descarga y devuelve los buffers a sus pools.
+     */
+    @Override
+    public void close() {
+        synchronized (monitor) {
+            if (cerrado)
+                return;
+            cerrado = true;
+            if (conexion != null)
+                conexion.disconnect();
+            monitor.notifyAll();
+        }
+    }
+
+    /**
+     * @return Tiempo total (en ns) que los lectores esperaron datos.
+     */
+    public long getNanosEspera() {
+        synchronized (monitor) {
+            return nanosEspera;
+        }
+    }
+
+    /**
+     * @return Número de lecturas que tuvieron que esperar datos.
+     */
+    public int getEsperas() {
+        synchronized (monitor) {
+            return esperas;
+        }
+    }
+
+    public long getBytesDescargados() {
+        synchronized (monitor) {
+            return bytesDescargados;
+        }
+    }
+
+    /**
+     * @return Bytes en el buffer por delante de la última lectura
+     * (Long.MAX_VALUE si ya se descargó hasta el final del flujo).
+     */
+    public long getBytesPorDelante() {
+        synchronized (monitor) {
+            if (finDelFlujo)
+                return Long.MAX_VALUE;
+            return Math.max(0, buffer.getFin() - ultimaLectura);
+        }
+    }
+
+    /**
+     * @return Número de segmentos descargados.
+     */
+    public int getSegmentos() {
+        synchronized (monitor) {
+            return segmentos;
+        }
+    }
+
+    /**
+     * @return Número de veces que se cambió de variante entre segmentos.
+     */
+    public int getCambiosVariante() {
+        synchronized (monitor) {
+            return cambiosVariante;
+        }
+    }
+
+    /**
+     * @return Tasa declarada (bits/s) de la variante del último segmento
+     * (0 si aún no se eligió ninguna o la lista no la declara).
+     */
+    public long getTasaActual() {
+        synchronized (monitor) {
+            return tasaActual;
+        }
+    }
+
+    /**
+     * @return Audio (ms) descargado por delante de la reproducción, estimado
+     * con la tasa de la variante actual.
+     */
+    private long msPorDelante() {
+        long bytes = getBytesPorDelante();
+        synchronized (monitor) {
+            if (tasaActual <= 0)
+                return 0;
+            return bytes == Long.MAX_VALUE ? Long.MAX_VALUE : bytes * 8000 / tasaActual;
+        }
+    }
+
+    /**
+     * Ciclo del hilo de descarga.
+     */
+    private void descargar() {
+        byte[] bloque = poolBloques.obtener();
+
+        try {
+            try {
+                descargarSegmentos(bloque);
+                synchronized (monitor) {
+                    finDelFlujo = true;
+                    monitor.notifyAll();
+                }
+            } catch (IOException e) {
+                synchronized (monitor) {
+                    if (!cerrado)
+                        error = e;
+                    monitor.notifyAll();
+                }
+            }
+
+            // Lo que queda en el buffer se puede seguir leyendo hasta que se cierre.
+            synchronized (monitor) {
+                while (!cerrado)
+                    monitor.wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            poolBloques.devolver(bloque);
+            synchronized (monitor) {
+                cerrado = true;
+                poolBuffers.devolver(buffer.arreglo());
+                monitor.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Descarga los segmentos en orden hasta el final de la lista o hasta
+     * que se cierre el lector.
+     */
+    private void descargarSegmentos(byte[] bloque) throws IOException, InterruptedException {
+        prepararVariantes(conReintentos(null));
+
+        long secuencia = -1;
+        int descargados = 0;
+        int fallos = 0;
+        int actual = -1;
+        while (!estaCerrado()) {
+            // Un segmento que falló a medias se retoma en la misma variante.
+            int elegida = escritosSegmento > 0
+                    ? actual
+                    : selector.elegir(tasas, actual, msPorDelante());
+            ListaHls lista = listas[elegida];
+            if (lista == null)
+                lista = listas[elegida] = conReintentos(variantes.get(elegida).url);
+
+            if (secuencia < lista.getSecuenciaInicial())
+                secuencia = lista.getSecuenciaInicial();
+            ListaHls.Segmento segmento = lista.segmento(secuencia);
+            if (segmento == null) {
+                if (lista.esCompleta())
+                    return;
+                // En vivo: se espera a que la lista crezca y se descarga de nuevo.
+                synchronized (monitor) {
+                    if (!cerrado)
+                        monitor.wait(Math.max(500, lista.getDuracionObjetivoMs() / 2));
+                }
+                listas[elegida] = null;
+                continue;
+            }
+
+            synchronized (monitor) {
+                if (actual >= 0 && elegida != actual)
+                    cambiosVariante++;
+                tasaActual = tasas[elegida];
+            }
+            actual = elegida;
+
+            try {
+                descargarSegmento(segmento, bloque, descargados > 0);
+                escritosSegmento = 0;
+                secuencia++;
+                descargados++;
+                fallos = 0;
+            } catch (IOException e) {
+                if (estaCerrado() || ++fallos > REINTENTOS)
+                    throw e;
+                // Se reintenta el segmento, probablemente en una variante más baja.
+                selector.registrarFallo();
+            }
+        }
+    }
+
+    private boolean estaCerrado() {
+        synchronized (monitor) {
+            return cerrado;
+        }
+    }
+
+    /**
+     * Descarga una lista, reintentando si falla.
+     * @param urlLista URL de la lista, o null para la del flujo.
+     */
+    private ListaHls conReintentos(String urlLista) throws IOException {
+        for (int intento = 0; ; intento++) {
+            try {
+                return ListaHls.descargar(urlLista != null ? urlLista : url);
+            } catch (IOException e) {
+                if (estaCerrado() || intento >= REINTENTOS)
+                    throw e;
+            }
+        }
+    }
+
+    /**
+     * Toma de la lista maestra las variantes con los mismos códecs que la
+     * primera, ordenadas por tasa. Una lista de segmentos es una única
+     * variante sin tasa declarada.
+     */
+    private void prepararVariantes(ListaHls lista) {
+        if (!lista.esMaestra()) {
+            variantes = Collections.singletonList(new ListaHls.Variante(0, null, url));
+            tasas = new long[] {0};
+            listas = new ListaHls[] {lista};
+            return;
+        }
+
+        String codecs = lista.getVariantes().get(0).codecs;
+        variantes = new ArrayList<>();
+        for (ListaHls.Variante v : lista.getVariantes())
+            if (Objects.equals(codecs, v.codecs))
+                variantes.add(v);
+        Collections.sort(variantes, (a, b) -> Long.compare(a.tasa, b.tasa));
+
+        tasas = new long[variantes.size()];
+        for (int i = 0; i < tasas.length; i++)
+            tasas[i] = variantes.get(i).tasa;
+        listas = new ListaHls[variantes.size()];
+    }
+
+    /**
+     * Descarga un segmento al final del buffer y registra la muestra de
+     * ancho de banda.
+     * @param quitarId3 Descarta la etiqueta ID3 al inicio del segmento.
+     */
+    private void descargarSegmento(ListaHls.Segmento segmento, byte[] bloque, boolean quitarId3)
+            throws IOException, InterruptedException {
+        HttpURLConnection nueva = ClienteHttp.abrir(segmento.url);
+
+        synchronized (monitor) {
+            if (cerrado)
+                throw new InterruptedIOException();
+            conexion = nueva;
+        }
+
+        long inicio = System.nanoTime();
+        long nanosBloqueado = 0;
+        long bytes = 0;
+        boolean completo = false;
+        try {
+            int codigo = ClienteHttp.respuesta(nueva);
+            if (codigo != HttpURLConnection.HTTP_OK)
+                throw new IOException("HTTP " + codigo + " al leer " + segmento.url);
+
+            InputStream cuerpo = nueva.getInputStream();
+            // Lo ya escrito en un intento anterior del segmento se descarta.
+            long omitir = escritosSegmento;
+            long escritos = 0;
+
+            int leidos = leerCompleto(cuerpo, bloque, 10);
+            bytes += leidos;
+            int saltar = quitarId3 ? tamanioId3(bloque, leidos) : 0;
+            if (saltar > 0) {
+                bytes += saltar(cuerpo, saltar - leidos);
+                leidos = 0;
+            }
+
+            do {
+                int desde = (int) Math.min(leidos, Math.max(0, omitir - escritos));
+                escritos += leidos;
+                nanosBloqueado += escribir(bloque, desde, leidos - desde);
+                escritosSegmento = Math.max(escritosSegmento, escritos);
+                leidos = cuerpo.read(bloque);
+                if (leidos > 0)
+                    bytes += leidos;
+            } while (leidos != -1);
+            completo = true;
+        } finally {
+            synchronized (monitor) {
+                if (conexion == nueva)
+                    conexion = null;
+            }
+            ClienteHttp.liberar(nueva, completo);
+        }
+
+        selector.registrarMuestra(bytes, System.nanoTime() - inicio - nanosBloqueado);
+        synchronized (monitor) {
+            segmentos++;
+        }
+    }
+
+    /**
+     * Agrega bytes al buffer, esperando a que haya espacio.
+     * @return Tiempo (ns) que se esperó por espacio.
+     */
+    private long escribir(byte[] bloque, int offset, int tamanio)
+            throws IOException, InterruptedException {
+        if (tamanio == 0)
+            return 0;
+
+        long inicioEspera = 0;
+        synchronized (monitor) {
+            while (!cerrado && buffer.espacioLibre(ultimaLectura - RESERVA_ATRAS) < tamanio) {
+                if (inicioEspera == 0)
+                    inicioEspera = System.nanoTime();
+                monitor.wait();
+            }
+            if (cerrado)
+                throw new InterruptedIOException();
+
+            buffer.escribir(bloque, offset, tamanio);
+            bytesDescargados += tamanio;
+            monitor.notifyAll();
+        }
+        return inicioEspera == 0 ? 0 : System.nanoTime() - inicioEspera;
+    }
+
+    private static int leerCompleto(InputStream entrada, byte[] destino, int tamanio)
+            throws IOException {
+        int total = 0;
+        while (total < tamanio) {
+            int leidos = entrada.read(destino, total, tamanio - total);
+            if (leidos == -1)
+                break;
+            total += leidos;
+        }
+        return total;
+    }
+
+    private static long saltar(InputStream entrada, long tamanio) throws IOException {
+        long total = 0;
+        while (total < tamanio) {
+            long saltados = entrada.skip(tamanio - total);
+            if (saltados <= 0) {
+                if (entrada.read() == -1)
+                    break;
+                saltados = 1;
+            }
+            total += saltados;
+        }
+        return total;
+    }
+
+    /**
+     * @return Tamaño total de la etiqueta ID3v2 cuya cabecera (10 bytes)
+     * está al inicio del bloque, o 0 si no hay una.
+     */
+    static int tamanioId3(byte[] cabecera, int tamanio) {
+        if (tamanio < 10 || cabecera[0] != 'I' || cabecera[1] != 'D' || cabecera[2] != '3')
+            return 0;
+        int contenido = (cabecera[6] & 0x7f) << 21 | (cabecera[7] & 0x7f) << 14
+                        | (cabecera[8] & 0x7f) << 7 | (cabecera[9] & 0x7f);
+        boolean pie = (cabecera[5] & 0x10) != 0;
+        return 10 + contenido + (pie ? 10 : 0);
+    }
+}
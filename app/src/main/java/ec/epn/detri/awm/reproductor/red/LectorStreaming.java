@@ -0,0 +1,548 @@
+package ec.epn.detri.awm.reproductor.red;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.util.Random;
+
+/**
+ * Lee una canción por HTTP en un hilo de fondo hacia un buffer circular
+ * de tamaño fijo, y atiende lecturas con acceso aleatorio. Si se pide una
+ * posición que no está en el buffer ni va a llegar pronto, se reconecta
+ * con una petición Range a partir de esa posición.
+ *
+ * Si la conexión se corta (o el servidor falla) por una causa transitoria
+ * (ver ClienteHttp.clasificar()), se reconecta sola a partir del último
+ * byte recibido, con esperas exponenciales con fluctuación (ver
+ * EsperaReintentos): el buffer se conserva y los lectores sólo esperan,
+ * sin que el reproductor vea un error ni tenga que prepararse de nuevo. La
+ * reconexión lleva If-Range, y si la canción cambió en el servidor se
+ * informa el error en lugar de mezclar las dos versiones.
+ *
+ * Los buffers se toman de pools para no crear arreglos nuevos por canción
+ * ni por lectura.
+ */
+public class LectorStreaming implements Closeable {
+    /**
+     * Recibe los bytes a medida que llegan de la red (p.ej. para guardarlos
+     * en la caché). Se invoca desde el hilo de descarga.
+     */
+    public interface Receptor {
+        void alRecibirCabeceras(String etag, String ultimaModificacion, long longitud);
+
+        void alRecibirDatos(long posicion, byte[] datos, int offset, int tamanio);
+
+        void alTerminar();
+    }
+
+    /**
+     * Bytes ya leídos que se conservan para saltos cortos hacia atrás.
+     */
+    static final int RESERVA_ATRAS = 256 * 1024;
+
+    /**
+     * Si se pide una posición a menos de esta distancia del final del buffer,
+     * se espera a que llegue en lugar de reconectar.
+     */
+    static final int VENTANA_ESPERA = 256 * 1024;
+
+    /**
+     * Esperas entre reconexiones tras un corte: de 125-250 ms a 4-8 s, hasta
+     * 8 intentos seguidos sin recibir datos (unos 30 s en total).
+     */
+    static final long REINTENTO_BASE_MS = 250;
+    static final long REINTENTO_MAXIMO_MS = 8000;
+    static final int REINTENTOS = 8;
+
+    private final String url;
+
+    private final PoolBuffers poolBuffers;
+
+    private final PoolBuffers poolBloques;
+
+    private final Receptor receptor;
+
+    private final BufferCircular buffer;
+
+    private final Object monitor = new Object();
+
+    private final Thread hilo;
+
+    // Usados sólo por el hilo de descarga.
+    private final EsperaReintentos reintentos;
+    private String validador;
+
+    // Estado compartido protegido por monitor.
+    private HttpURLConnection conexion;
+    private boolean cabecerasListas;
+    private long longitud = -1;
+    private boolean finDelFlujo;
+    private boolean descargaActiva = true;
+    private IOException error;
+    private long posicionSolicitada = -1;
+    private long ultimaLectura;
+    private boolean cerrado;
+    private long inicioCorte;
+
+    // Estadísticas.
+    private long nanosEspera;
+    private int esperas;
+    private long bytesDescargados;
+    private int reposicionamientos;
+    private int reconexiones;
+    private int cortesRecuperados;
+    private long nanosRecuperacion;
+
+    /**
+     * Crea el lector y empieza a descargar desde el inicio.
+     * @param url URL de la canción.
+     * @param poolBuffers Pool de arreglos para el buffer circular.
+     * @param poolBloques Pool de arreglos para los bloques de lectura de la red.
+     * @param receptor Receptor de los bytes descargados (puede ser null).
+     */
+    public LectorStreaming(String url,
+                           PoolBuffers poolBuffers,
+                           PoolBuffers poolBloques,
+                           Receptor receptor) {
+        this(url, poolBuffers, poolBloques, receptor,
+             new EsperaReintentos(REINTENTO_BASE_MS, REINTENTO_MAXIMO_MS, REINTENTOS,
+                                  new Random()));
+    }
+
+    /**
+     * @param reintentos Esperas entre reconexiones tras un corte.
+     */
+    LectorStreaming(String url,
+                    PoolBuffers poolBuffers,
+                    PoolBuffers poolBloques,
+                    Receptor receptor,
+                    EsperaReintentos reintentos) {
+        this.url = url;
+        this.poolBuffers = poolBuffers;
+        this.poolBloques = poolBloques;
+        this.receptor = receptor;
+        this.reintentos = reintentos;
+        this.buffer = new BufferCircular(poolBuffers.obtener());
+
+        hilo = new Thread(this::descargar, "LectorStreaming");
+        hilo.setDaemon(true);
+        hilo.start();
+    }
+
+    /**
+     * Copia bytes de la canción a partir de la posición indicada, bloqueando
+     * hasta que estén disponibles.
+     * @return Número de bytes copiados, o -1 al final de la canción.
+     */
+    public int leer(long posicion, byte[] destino, int offset, int tamanio) throws IOException {
+        if (tamanio == 0)
+            return 0;
+
+        long inicioEspera = 0;
+        synchronized (monitor) {
+            try {
+                while (true) {
+                    if (cerrado)
+                        throw new IOException("Lector cerrado");
+
+                    if (cabecerasListas) {
+                        if (longitud >= 0 && posicion >= longitud)
+                            return -1;
+
+                        if (posicionSolicitada < 0 && buffer.contiene(posicion)) {
+                            int leidos = buffer.leer(posicion, destino, offset, tamanio);
+                            ultimaLectura = posicion + leidos;
+                            monitor.notifyAll();
+                            return leidos;
+                        }
+
+                        if (posicionSolicitada >= 0) {
+                            if (!llegaraPronto(posicion, posicionSolicitada))
+                                solicitar(posicion);
+                        } else if (descargaActiva) {
+                            if (!llegaraPronto(posicion, buffer.getFin()))
+                                solicitar(posicion);
+                        } else if (error != null) {
+                            // Se informa el error una vez; la siguiente lectura reintenta.
+                            IOException e = error;
+                            error = null;
+                            throw e;
+                        } else if (finDelFlujo && posicion == buffer.getFin())
+                            return -1;
+                        else
+                            solicitar(posicion);
+
+                        // El escritor puede liberar espacio hasta la posición esperada.
+                        ultimaLectura = Math.max(ultimaLectura, posicion);
+                    }
+
+                    if (inicioEspera == 0)
+                        inicioEspera = System.nanoTime();
+                    monitor.wait();
+                }
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            } finally {
+                if (inicioEspera != 0) {
+                    nanosEspera += System.nanoTime() - inicioEspera;
+                    esperas++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Bloquea hasta conocer las cabeceras de la respuesta.
+     * @return La longitud de la canción, o -1 si es desconocida.
+     */
+    public long longitud() throws IOException {
+        synchronized (monitor) {
+            try {
+                while (!cabecerasListas && !cerrado)
+                    monitor.wait();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            if (error != null && longitud < 0)
+                throw error;
+            return longitud;
+        }
+    }
+
+    /**
+     * Detiene la descarga y devuelve los buffers a sus pools.
+     */
+    @Override
+    public void close() {
+        synchronized (monitor) {
+            if (cerrado)
+                return;
+            cerrado = true;
+            desconectar();
+            monitor.notifyAll();
+        }
+    }
+
+    /**
+     * @return Tiempo total (en ns) que los lectores esperaron datos.
+     */
+    public long getNanosEspera() {
+        synchronized (monitor) {
+            return nanosEspera;
+        }
+    }
+
+    /**
+     * @return Número de lecturas que tuvieron que esperar datos.
+     */
+    public int getEsperas() {
+        synchronized (monitor) {
+            return esperas;
+        }
+    }
+
+    public long getBytesDescargados() {
+        synchronized (monitor) {
+            return bytesDescargados;
+        }
+    }
+
+    /**
+     * @return Bytes en el buffer por delante de la última lectura
+     * (Long.MAX_VALUE si ya se descargó hasta el final de la canción).
+     */
+    public long getBytesPorDelante() {
+        synchronized (monitor) {
+            if (finDelFlujo)
+                return Long.MAX_VALUE;
+            return Math.max(0, buffer.getFin() - ultimaLectura);
+        }
+    }
+
+    /**
+     * @return Número de reconexiones con Range por saltos (seek).
+     */
+    public int getReposicionamientos() {
+        synchronized (monitor) {
+            return reposicionamientos;
+        }
+    }
+
+    /**
+     * @return Número de reconexiones tras un corte de la red.
+     */
+    public int getReconexiones() {
+        synchronized (monitor) {
+            return reconexiones;
+        }
+    }
+
+    /**
+     * @return Número de cortes tras los que volvieron a llegar datos.
+     */
+    public int getCortesRecuperados() {
+        synchronized (monitor) {
+            return cortesRecuperados;
+        }
+    }
+
+    /**
+     * @return Tiempo total (en ns) desde cada corte recuperado hasta que
+     * volvieron a llegar datos.
+     */
+    public long getNanosRecuperacion() {
+        synchronized (monitor) {
+            return nanosRecuperacion;
+        }
+    }
+
+    private static boolean llegaraPronto(long posicion, long desde) {
+        return posicion >= desde && posicion <= desde + VENTANA_ESPERA;
+    }
+
+    /**
+     * Pide al hilo de descarga reconectar a partir de la posición indicada.
+     * Debe invocarse con el monitor tomado.
+     */
+    private void solicitar(long posicion) {
+        posicionSolicitada = posicion;
+        desconectar();
+        monitor.notifyAll();
+    }
+
+    private void desconectar() {
+        if (conexion != null)
+            conexion.disconnect();
+    }
+
+    /**
+     * Ciclo del hilo de descarga.
+     */
+    private void descargar() {
+        byte[] bloque = poolBloques.obtener();
+        long desde = 0;
+
+        try {
+            while (true) {
+                try {
+                    descargarDesde(desde, bloque);
+                } catch (IOException e) {
+                    if (esperarReintento(e)) {
+                        // Retoma desde el último byte recibido, sin vaciar el buffer.
+                        synchronized (monitor) {
+                            desde = buffer.getFin();
+                        }
+                        continue;
+                    }
+                    synchronized (monitor) {
+                        if (posicionSolicitada < 0)
+                            error = e;
+                        cabecerasListas = true;
+                    }
+                }
+
+                synchronized (monitor) {
+                    descargaActiva = false;
+                    monitor.notifyAll();
+                    while (!cerrado && posicionSolicitada < 0)
+                        monitor.wait();
+                    if (cerrado)
+                        break;
+
+                    desde = posicionSolicitada;
+                    posicionSolicitada = -1;
+                    error = null;
+                    finDelFlujo = false;
+                    descargaActiva = true;
+                    buffer.reiniciar(desde);
+                    ultimaLectura = desde;
+                    reposicionamientos++;
+                    inicioCorte = 0;
+                }
+                reintentos.reiniciar();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            poolBloques.devolver(bloque);
+            synchronized (monitor) {
+                cerrado = true;
+                poolBuffers.devolver(buffer.arreglo());
+                monitor.notifyAll();
+            }
+            if (receptor != null)
+                receptor.alTerminar();
+        }
+    }
+
+    /**
+     * Tras un error transitorio, espera antes de reconectar.
+     * @return True si hay que reconectar; false si el error es permanente,
+     * se agotaron los intentos, o mientras tanto se pidió otra posición o se
+     * cerró el lector.
+     */
+    private boolean esperarReintento(IOException e) throws InterruptedException {
+        if (ClienteHttp.clasificar(e) != ClienteHttp.ERROR_TRANSITORIO)
+            return false;
+        long espera = reintentos.siguiente();
+
+        synchronized (monitor) {
+            if (espera < 0 || cerrado || posicionSolicitada >= 0)
+                return false;
+            if (inicioCorte == 0)
+                inicioCorte = System.nanoTime();
+
+            long fin = System.nanoTime() + espera * 1000000;
+            long resto;
+            while (!cerrado && posicionSolicitada < 0 && (resto = fin - System.nanoTime()) > 0)
+                monitor.wait(resto / 1000000 + 1);
+            if (cerrado || posicionSolicitada >= 0)
+                return false;
+            reconexiones++;
+            return true;
+        }
+    }
+
+    /**
+     * Descarga desde la posición indicada hasta el final, o hasta que se pida
+     * otra posición o se cierre el lector.
+     */
+    private void descargarDesde(long desde, byte[] bloque) throws IOException {
+        HttpURLConnection nueva = ClienteHttp.abrir(url);
+        if (desde > 0) {
+            nueva.setRequestProperty("Range", "bytes=" + desde + "-");
+            if (validador != null)
+                nueva.setRequestProperty("If-Range", validador);
+        }
+
+        synchronized (monitor) {
+            if (cerrado || posicionSolicitada >= 0)
+                return;
+            conexion = nueva;
+        }
+
+        boolean completa = false;
+        try {
+            int codigo = ClienteHttp.respuesta(nueva);
+            long total;
+            long saltar = 0;
+
+            if (codigo == HttpURLConnection.HTTP_PARTIAL)
+                total = longitudTotal(nueva.getHeaderField("Content-Range"));
+            else if (codigo == HttpURLConnection.HTTP_OK) {
+                // El servidor ignoró el Range: se descartan los bytes previos.
+                total = nueva.getContentLengthLong();
+                saltar = desde;
+            } else
+                throw new ClienteHttp.ErrorHttp(codigo, url);
+
+            String etag = nueva.getHeaderField("ETag");
+            String ultimaModificacion = nueva.getHeaderField("Last-Modified");
+            String validadorRespuesta = etag != null ? etag : ultimaModificacion;
+            if (validador == null)
+                validador = validadorRespuesta;
+            else if (!validador.equals(validadorRespuesta))
+                throw new ClienteHttp.RecursoCambiado(url);
+
+            boolean primeraRespuesta;
+            synchronized (monitor) {
+                primeraRespuesta = !cabecerasListas;
+                if (total >= 0)
+                    longitud = total;
+                cabecerasListas = true;
+                monitor.notifyAll();
+            }
+            if (primeraRespuesta && receptor != null)
+                receptor.alRecibirCabeceras(etag, ultimaModificacion, total);
+
+            InputStream cuerpo = nueva.getInputStream();
+            while (saltar > 0) {
+                long saltados = cuerpo.skip(saltar);
+                if (saltados <= 0)
+                    throw new IOException("Fin inesperado del flujo");
+                saltar -= saltados;
+            }
+            completa = copiar(cuerpo, desde, bloque);
+        } finally {
+            synchronized (monitor) {
+                if (conexion == nueva)
+                    conexion = null;
+            }
+            // Si se leyó hasta el final, la conexión queda para la siguiente petición.
+            ClienteHttp.liberar(nueva, completa);
+        }
+
+        if (completa)
+            synchronized (monitor) {
+                finDelFlujo = true;
+                if (longitud < 0)
+                    longitud = buffer.getFin();
+                monitor.notifyAll();
+            }
+    }
+
+    /**
+     * Copia el cuerpo de la respuesta al buffer.
+     * @return True si se llegó al final del cuerpo; false si se pidió otra
+     * posición o se cerró el lector.
+     */
+    private boolean copiar(InputStream cuerpo, long posicion, byte[] bloque) throws IOException {
+        while (true) {
+            int leidos = cuerpo.read(bloque);
+            if (leidos == -1) {
+                // Algunas versiones de HttpURLConnection no informan un
+                // cuerpo cortado antes de su longitud.
+                synchronized (monitor) {
+                    if (longitud >= 0 && posicion < longitud)
+                        throw new EOFException("Fin inesperado del flujo en " + posicion);
+                }
+                return true;
+            }
+
+            if (receptor != null)
+                receptor.alRecibirDatos(posicion, bloque, 0, leidos);
+
+            synchronized (monitor) {
+                try {
+                    while (!cerrado && posicionSolicitada < 0
+                           && buffer.espacioLibre(ultimaLectura - RESERVA_ATRAS) < leidos)
+                        monitor.wait();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+                if (cerrado || posicionSolicitada >= 0)
+                    return false;
+
+                buffer.escribir(bloque, 0, leidos);
+                posicion += leidos;
+                bytesDescargados += leidos;
+                if (inicioCorte != 0) {
+                    cortesRecuperados++;
+                    nanosRecuperacion += System.nanoTime() - inicioCorte;
+                    inicioCorte = 0;
+                }
+                monitor.notifyAll();
+            }
+            reintentos.reiniciar();
+        }
+    }
+
+    /**
+     * Obtiene la longitud total de una cabecera "Content-Range: bytes a-b/total".
+     */
+    public static long longitudTotal(String contentRange) {
+        if (contentRange == null)
+            return -1;
+        int barra = contentRange.lastIndexOf('/');
+        if (barra < 0)
+            return -1;
+        try {
+            return Long.parseLong(contentRange.substring(barra + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package ec.epn.detri.awm.reproductor.red;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Lista de reproducción HLS (m3u8): una lista maestra con las variantes de
+ * una misma canción a distintas tasas de bits, o la lista de segmentos de
+ * una variante. Sólo se interpreta lo que necesita LectorHls; las listas
+ * con segmentos cifrados, rangos de bytes o segmentos fMP4 se rechazan.
+ */
+public class ListaHls {
+    /**
+     * Variante de una lista maestra (EXT-X-STREAM-INF).
+     */
+    public static final class Variante {
+        /**
+         * Tasa de bits máxima declarada (BANDWIDTH), en bits/s.
+         */
+        public final long tasa;
+
+        /**
+         * Códecs declarados (CODECS), o null si no se indican.
+         */
+        public final String codecs;
+
+        /**
+         * URL absoluto de la lista de segmentos de la variante.
+         */
+        public final String url;
+
+        Variante(long tasa, String codecs, String url) {
+            this.tasa = tasa;
+            this.codecs = codecs;
+            this.url = url;
+        }
+    }
+
+    /**
+     * Segmento de una lista de medios (EXTINF).
+     */
+    public static final class Segmento {
+        public final String url;
+
+        public final long duracionMs;
+
+        Segmento(String url, long duracionMs) {
+            this.url = url;
+            this.duracionMs = duracionMs;
+        }
+    }
+
+    private final List<Variante> variantes = new ArrayList<>();
+
+    private final List<Segmento> segmentos = new ArrayList<>();
+
+    private long secuenciaInicial;
+
+    private long duracionObjetivoMs;
+
+    private boolean completa;
+
+    private ListaHls() {
+    }
+
+    /**
+     * @return True si el URL apunta a una lista HLS (termina en .m3u8,
+     * sin contar la consulta).
+     */
+    public static boolean esHls(String url) {
+        int fin = url.length();
+        int consulta = url.indexOf('?');
+        if (consulta >= 0)
+            fin = consulta;
+        int fragmento = url.indexOf('#');
+        if (fragmento >= 0 && fragmento < fin)
+            fin = fragmento;
+        return url.regionMatches(true, fin - ".m3u8".length(), ".m3u8", 0, ".m3u8".length());
+    }
+
+    /**
+     * Descarga e interpreta la lista del URL indicado.
+     */
+    public static ListaHls descargar(String url) throws IOException {
+        HttpURLConnection conexion = ClienteHttp.abrir(url);
+        boolean completa = false;
+        try {
+            int codigo = ClienteHttp.respuesta(conexion);
+            if (codigo != HttpURLConnection.HTTP_OK)
+                throw new IOException("HTTP " + codigo + " al leer " + url);
+            ListaHls lista = analizar(url, new InputStreamReader(conexion.getInputStream(),
+                                                                 StandardCharsets.UTF_8));
+            completa = true;
+            return lista;
+        } finally {
+            ClienteHttp.liberar(conexion, completa);
+        }
+    }
+
+    /**
+     * Interpreta el texto de una lista.
+     * @param url URL de la lista, contra el que se resuelven los URL relativos.
+     */
+    public static ListaHls analizar(String url, Reader texto) throws IOException {
+        BufferedReader lineas = new BufferedReader(texto);
+        String linea = lineas.readLine();
+        if (linea == null || !linea.trim().startsWith("#EXTM3U"))
+            throw new IOException("No es una lista HLS: " + url);
+
+        ListaHls lista = new ListaHls();
+        URL base = new URL(url);
+        Map<String, String> variante = null;
+        long duracionMs = -1;
+
+        while ((linea = lineas.readLine()) != null) {
+            linea = linea.trim();
+            if (linea.isEmpty())
+                continue;
+
+            if (!linea.startsWith("#")) {
+                String absoluto = new URL(base, linea).toString();
+                if (variante != null) {
+                    lista.variantes.add(new Variante(entero(variante.get("BANDWIDTH"), linea),
+                                                     variante.get("CODECS"),
+                                                     absoluto));
+                    variante = null;
+                } else if (duracionMs >= 0) {
+                    lista.segmentos.add(new Segmento(absoluto, duracionMs));
+                    duracionMs = -1;
+                }
+            } else if (linea.startsWith("#EXT-X-STREAM-INF:"))
+                variante = atributos(linea.substring("#EXT-X-STREAM-INF:".length()));
+            else if (linea.startsWith("#EXTINF:")) {
+                String valor = linea.substring("#EXTINF:".length());
+                int coma = valor.indexOf(',');
+                duracionMs = milis(coma >= 0 ? valor.substring(0, coma) : valor, linea);
+            } else if (linea.startsWith("#EXT-X-TARGETDURATION:"))
+                lista.duracionObjetivoMs =
+                        milis(linea.substring("#EXT-X-TARGETDURATION:".length()), linea);
+            else if (linea.startsWith("#EXT-X-MEDIA-SEQUENCE:"))
+                lista.secuenciaInicial =
+                        entero(linea.substring("#EXT-X-MEDIA-SEQUENCE:".length()), linea);
+            else if (linea.startsWith("#EXT-X-ENDLIST"))
+                lista.completa = true;
+            else if (linea.startsWith("#EXT-X-KEY:")) {
+                String metodo = atributos(linea.substring("#EXT-X-KEY:".length())).get("METHOD");
+                if (!"NONE".equals(metodo))
+                    throw new IOException("Segmentos cifrados no soportados: " + url);
+            } else if (linea.startsWith("#EXT-X-BYTERANGE") || linea.startsWith("#EXT-X-MAP"))
+                throw new IOException("Lista HLS no soportada: " + linea);
+        }
+
+        if (lista.variantes.isEmpty() && lista.segmentos.isEmpty())
+            throw new IOException("Lista HLS vacía: " + url);
+        return lista;
+    }
+
+    /**
+     * @return True si es una lista maestra (de variantes).
+     */
+    public boolean esMaestra() {
+        return !variantes.isEmpty();
+    }
+
+    /**
+     * @return Las variantes, en el orden de la lista.
+     */
+    public List<Variante> getVariantes() {
+        return Collections.unmodifiableList(variantes);
+    }
+
+    /**
+     * @return Número de secuencia del primer segmento (EXT-X-MEDIA-SEQUENCE).
+     */
+    public long getSecuenciaInicial() {
+        return secuenciaInicial;
+    }
+
+    /**
+     * @return Número de secuencia siguiente al último segmento de la lista.
+     */
+    public long getSecuenciaFinal() {
+        return secuenciaInicial + segmentos.size();
+    }
+
+    /**
+     * @return El segmento con el número de secuencia indicado, o null si no
+     * está en la lista.
+     */
+    public Segmento segmento(long secuencia) {
+        long indice = secuencia - secuenciaInicial;
+        if (indice < 0 || indice >= segmentos.size())
+            return null;
+        return segmentos.get((int) indice);
+    }
+
+    /**
+     * @return Duración máxima de un segmento (EXT-X-TARGETDURATION).
+     */
+    public long getDuracionObjetivoMs() {
+        return duracionObjetivoMs;
+    }
+
+    /**
+     * @return True si la lista no va a crecer (EXT-X-ENDLIST); si es false,
+     * es una transmisión en vivo que hay que volver a descargar.
+     */
+    public boolean esCompleta() {
+        return completa;
+    }
+
+    /**
+     * Separa una lista de atributos "CLAVE=valor,CLAVE="valor, con comas"".
+     */
+    static Map<String, String> atributos(String texto) {
+        Map<String, String> atributos = new HashMap<>();
+        int i = 0;
+        while (i < texto.length()) {
+            int igual = texto.indexOf('=', i);
+            if (igual < 0)
+                break;
+            String clave = texto.substring(i, igual).trim().toUpperCase(Locale.ROOT);
+
+            int fin;
+            String valor;
+            if (igual + 1 < texto.length() && texto.charAt(igual + 1) == '"') {
+                int cierre = texto.indexOf('"', igual + 2);
+                if (cierre < 0)
+                    cierre = texto.length();
+                valor = texto.substring(igual + 2, cierre);
+                fin = texto.indexOf(',', cierre);
+            } else {
+                fin = texto.indexOf(',', igual);
+                valor = texto.substring(igual + 1, fin < 0 ? texto.length() : fin).trim();
+            }
+            atributos.put(clave, valor);
+            if (fin < 0)
+                break;
+            i = fin + 1;
+        }
+        return atributos;
+    }
+
+    private static long entero(String valor, String linea) throws IOException {
+        try {
+            return Long.parseLong(valor.trim());
+        } catch (NullPointerException | NumberFormatException e) {
+            throw new IOException("Valor inválido en la lista HLS: " + linea);
+        }
+    }
+
+    private static long milis(String segundos, String linea) throws IOException {
+        try {
+            return Math.round(Double.parseDouble(segundos.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            throw new IOException("Duración inválida en la lista HLS: " + linea);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package ec.epn.detri.awm.reproductor.red;
+
+import java.util.ArrayDeque;
+
+/**
+ * Pool de arreglos de bytes de un tamaño fijo. Permite reutilizar los
+ * buffers entre canciones en lugar de crear uno nuevo cada vez, evitando
+ * presión sobre el recolector de basura en sesiones largas.
+ */
+public class PoolBuffers {
+    private final int tamanio;
+
+    /**
+     * Número máximo de arreglos libres que se conservan.
+     */
+    private final int maximoLibres;
+
+    private final ArrayDeque<byte[]> libres = new ArrayDeque<>();
+
+    /**
+     * Constructor
+     * @param tamanio Tamaño de cada arreglo.
+     * @param maximoLibres Número máximo de arreglos libres a conservar.
+     */
+    public PoolBuffers(int tamanio, int maximoLibres) {
+        this.tamanio = tamanio;
+        this.maximoLibres = maximoLibres;
+    }
+
+    public int getTamanio() {
+        return tamanio;
+    }
+
+    /**
+     * @return Un arreglo libre, o uno nuevo si el pool está vacío.
+     */
+    public synchronized byte[] obtener() {
+        byte[] arreglo = libres.pollFirst();
+        return arreglo != null ? arreglo : new byte[tamanio];
+    }
+
+    /**
+     * Devuelve un arreglo al pool para que pueda ser reutilizado.
+     */
+    public synchronized void devolver(byte[] arreglo) {
+        if (arreglo.length == tamanio && libres.size() < maximoLibres)
+            libres.addFirst(arreglo);
+    }
+
+    /**
+     * Descarta los arreglos libres (p.ej. cuando hay poca memoria).
+     */
+    public synchronized void vaciar() {
+        libres.clear();
+    }
+
+    public synchronized int libres() {
+        return libres.size();
+    }
+
+    /**
+     * @return Bytes que ocupan los arreglos libres.
+     */
+    public synchronized long bytesLibres() {
+        return (long) libres.size() * tamanio;
+    }
+}
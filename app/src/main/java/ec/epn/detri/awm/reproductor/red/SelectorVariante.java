@@ -0,0 +1,124 @@
+package ec.epn.detri.awm.reproductor.red;
+
+/**
+ * Elige la variante de un flujo HLS según el ancho de banda medido al
+ * descargar sus propios segmentos:
+ * - el ancho de banda se estima con dos promedios exponenciales, uno que
+ *   reacciona rápido y otro lento, y se usa el menor, de modo que la
+ *   estimación baja enseguida pero sube con cautela;
+ * - se elige la variante más alta cuya tasa declarada cabe en una fracción
+ *   (FRACCION_SEGURA) del ancho estimado;
+ * - se baja de variante de inmediato, pero sólo se sube si hay suficiente
+ *   audio descargado por delante, para no oscilar entre variantes.
+ * Mientras no hay muestras propias se usa un ancho inicial (p.ej. el que
+ * midió la precarga).
+ *
+ * No es segura para hilos: la usa sólo el hilo de descarga.
+ */
+public class SelectorVariante {
+    /**
+     * Fracción del ancho de banda estimado que puede ocupar una variante.
+     */
+    static final double FRACCION_SEGURA = 0.7;
+
+    /**
+     * Audio por delante de la reproducción necesario para subir de variante.
+     */
+    static final long MS_PARA_SUBIR = 10000;
+
+    /**
+     * Bytes mínimos de una descarga para usarla como muestra.
+     */
+    private static final long MUESTRA_MINIMA = 8 * 1024;
+
+    /**
+     * Peso de cada nueva muestra en cada promedio.
+     */
+    private static final double PESO_RAPIDO = 0.5;
+    private static final double PESO_LENTO = 0.15;
+
+    private final double anchoInicial;
+
+    private final long msParaSubir;
+
+    private double rapido;
+
+    private double lento;
+
+    private int muestras;
+
+    /**
+     * Constructor
+     * @param anchoInicial Ancho de banda (bytes/s) a suponer antes de la
+     * primera muestra (0 si no se conoce: se empieza por la variante más baja).
+     */
+    public SelectorVariante(double anchoInicial) {
+        this(anchoInicial, MS_PARA_SUBIR);
+    }
+
+    SelectorVariante(double anchoInicial, long msParaSubir) {
+        this.anchoInicial = anchoInicial;
+        this.msParaSubir = msParaSubir;
+    }
+
+    /**
+     * Registra la descarga de un segmento.
+     * @param nanos Tiempo de la transferencia, sin contar esperas por espacio
+     * en el buffer.
+     */
+    public void registrarMuestra(long bytes, long nanos) {
+        if (bytes < MUESTRA_MINIMA || nanos <= 0)
+            return;
+
+        double muestra = bytes * 1e9 / nanos;
+        if (muestras++ == 0) {
+            rapido = muestra;
+            lento = muestra;
+        } else {
+            rapido += PESO_RAPIDO * (muestra - rapido);
+            lento += PESO_LENTO * (muestra - lento);
+        }
+    }
+
+    /**
+     * Registra una descarga fallida: la estimación se reduce a la mitad.
+     */
+    public void registrarFallo() {
+        if (muestras == 0) {
+            rapido = anchoInicial / 2;
+            lento = rapido;
+            muestras = 1;
+        } else {
+            rapido /= 2;
+            lento /= 2;
+        }
+    }
+
+    /**
+     * @return Ancho de banda estimado en bytes/s (0 si no se conoce).
+     */
+    public double getAnchoDeBanda() {
+        return muestras == 0 ? anchoInicial : Math.min(rapido, lento);
+    }
+
+    /**
+     * Elige la variante del próximo segmento.
+     * @param tasas Tasas declaradas de las variantes (bits/s), en orden creciente.
+     * @param actual Variante del segmento anterior (-1 si es el primero).
+     * @param msPorDelante Audio descargado por delante de la reproducción.
+     * @return Índice de la variante elegida.
+     */
+    public int elegir(long[] tasas, int actual, long msPorDelante) {
+        double disponible = getAnchoDeBanda() * 8 * FRACCION_SEGURA;
+        int candidata = 0;
+        for (int i = 1; i < tasas.length; i++)
+            if (tasas[i] <= disponible)
+                candidata = i;
+
+        if (actual < 0 || candidata < actual)
+            return candidata;
+        if (candidata > actual && msPorDelante >= msParaSubir)
+            return candidata;
+        return actual;
+    }
+}
@@ -0,0 +1,66 @@
+package ec.epn.detri.awm.reproductor.servicios;
+
+import android.content.Context;
+import android.net.wifi.WifiManager;
+import android.os.PowerManager;
+import android.os.SystemClock;
+
+/**
+ * Mantiene despiertos la CPU y el Wi-Fi mientras se descarga la canción
+ * que suena (o la que se prepara), para que la descarga no se detenga con
+ * la pantalla apagada. Se libera en cuanto la canción está completa o la
+ * reproducción se pausa.
+ */
+class BloqueoStreaming {
+    /**
+     * Los bloqueos se renuevan con cada publicación del estado; si el
+     * servicio dejara de renovarlos, el sistema los libera tras este tiempo.
+     */
+    private static final long DURACION_MAXIMA_MS = 60 * 1000;
+
+    private static final String ETIQUETA = "reproductor:streaming";
+
+    private final PowerManager.WakeLock cpu;
+
+    private final WifiManager.WifiLock wifi;
+
+    /**
+     * Instante (elapsedRealtime) de la última renovación del bloqueo de CPU.
+     */
+    private long renovacion;
+
+    BloqueoStreaming(Context contexto) {
+        PowerManager energia = (PowerManager) contexto.getSystemService(Context.POWER_SERVICE);
+        cpu = energia.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, ETIQUETA);
+        cpu.setReferenceCounted(false);
+
+        WifiManager redWifi = (WifiManager) contexto.getApplicationContext()
+                                                    .getSystemService(Context.WIFI_SERVICE);
+        wifi = redWifi.createWifiLock(WifiManager.WIFI_MODE_FULL_HIGH_PERF, ETIQUETA);
+        wifi.setReferenceCounted(false);
+    }
+
+    /**
+     * Retiene los bloqueos (o los renueva a mitad de su duración), o los libera.
+     */
+    void asignar(boolean retener) {
+        if (retener) {
+            long ahora = SystemClock.elapsedRealtime();
+            if (!cpu.isHeld() || ahora - renovacion > DURACION_MAXIMA_MS / 2) {
+                cpu.acquire(DURACION_MAXIMA_MS);
+                renovacion = ahora;
+            }
+            if (!wifi.isHeld())
+                wifi.acquire();
+        } else {
+            if (cpu.isHeld())
+                cpu.release();
+            if (wifi.isHeld())
+                wifi.release();
+        }
+    }
+
+    boolean estaRetenido() {
+        return cpu.isHeld();
+    }
+}
@@ -0,0 +1,408 @@
+package ec.epn.detri.awm.reproductor.servicios;
+
+import ec.epn.detri.awm.reproductor.audio.Reproductor;
+import ec.epn.detri.awm.reproductor.cola.ColaPersistente;
+
+/**
+ * Canción actual y siguiente del servicio: qué pista suena, cuál se prepara
+ * por adelantado para encadenarla, y cómo cambian con los comandos
+ * (reproducir, pausar, pasar a la siguiente, detener) y con los avisos de
+ * los reproductores.
+ *
+ * No depende de Android: abrir y liberar las fuentes, la precarga y el
+ * reloj los pone el Entorno, así que se prueba en la JVM con reproductores
+ * y un reloj falsos. Las métricas, la notificación y el foco de audio
+ * quedan en el servicio.
+ *
+ * Como la cola, se usa sólo desde el hilo principal; getActual() e
+ * isPausado() también se leen desde otros hilos.
+ */
+class ControlPistas {
+    /**
+     * Lo que el control necesita del servicio.
+     */
+    interface Entorno {
+        /**
+         * Crea la pista de la canción y empieza a prepararla.
+         * @param inicioComando Instante del comando que pidió la canción, o
+         * 0 si se prepara por adelantado.
+         * @return La pista, o null si no se pudo abrir la canción.
+         */
+        Pista cargar(String url, long inicioComando);
+
+        /**
+         * Devuelve el reproductor de la pista y libera su fuente.
+         */
+        void liberar(Pista pista);
+
+        /**
+         * Ajusta la precarga de las canciones que vienen después de la
+         * siguiente.
+         */
+        void programarPrecarga();
+
+        /**
+         * @return El instante actual, en la escala de System.nanoTime().
+         */
+        long ahora();
+    }
+
+    private final ColaPersistente cola;
+
+    private final Entorno entorno;
+
+    /**
+     * Canción que se está reproduciendo (o preparando para reproducirse).
+     * Es la actual de la cola.
+     */
+    private volatile Pista actual;
+
+    /**
+     * Canción que sigue en la cola, preparada por adelantado para
+     * encadenarla a la actual.
+     */
+    private Pista siguiente;
+
+    /**
+     * True si la canción actual está en pausa.
+     */
+    private volatile boolean pausado;
+
+    /**
+     * Instante en que terminó la canción anterior si la siguiente aún no
+     * estaba preparada (0 si no hay una espera en curso).
+     */
+    private long finAnterior;
+
+    ControlPistas(ColaPersistente cola, Entorno entorno) {
+        this.cola = cola;
+        this.entorno = entorno;
+    }
+
+    Pista getActual() {
+        return actual;
+    }
+
+    Pista getSiguiente() {
+        return siguiente;
+    }
+
+    boolean isPausado() {
+        return pausado;
+    }
+
+    /**
+     * Reproduce inmediatamente la canción, insertándola en la cola justo
+     * después de la actual (que se descarta).
+     */
+    void reproducir(String url, long inicioComando) {
+        if (actual != null)
+            // Detener la reproducción actual (aunque aún se esté preparando)
+            detener();
+
+        int indice = cola.getActual() + 1;
+        cola.insertar(indice, url);
+        cola.setActual(indice);
+        actual = entorno.cargar(url, inicioComando);
+    }
+
+    /**
+     * Empieza por la canción de la cola en la posición indicada; sólo se
+     * usa cuando no suena nada.
+     */
+    void empezar(int indice, long inicioComando) {
+        cola.setActual(indice);
+        actual = entorno.cargar(cola.url(indice), inicioComando);
+    }
+
+    /**
+     * Pausa la canción actual. Si aún se está preparando, no empezará a
+     * sonar al terminar de prepararse.
+     * @return False si no había nada que pausar.
+     */
+    boolean pausar() {
+        Pista pista = actual;
+        if (pista == null || pausado)
+            return false;
+
+        if (pista.preparada)
+            pista.player.pausar();
+        pausado = true;
+        return true;
+    }
+
+    /**
+     * @return True si reanudar() tiene efecto: hay una canción en pausa, o
+     * no suena nada pero la cola (p.ej. recuperada) tiene una actual.
+     */
+    boolean puedeReanudar() {
+        return actual != null ? pausado : cola.getActual() >= 0;
+    }
+
+    /**
+     * Continúa la canción en pausa, o carga la actual de la cola si no
+     * suena nada. Antes se consulta puedeReanudar().
+     */
+    void reanudar() {
+        Pista pista = actual;
+        if (pista == null) {
+            // Retoma la canción actual de la cola recuperada.
+            actual = entorno.cargar(cola.url(cola.getActual()), entorno.ahora());
+            return;
+        }
+
+        pausado = false;
+        if (pista.preparada) {
+            pista.player.iniciar();
+            // La siguiente pudo liberarse por falta de memoria durante la pausa.
+            prepararSiguiente();
+            encadenar();
+        }
+    }
+
+    /**
+     * @return False si la canción actual aún no está preparada.
+     */
+    boolean saltarA(int posicionMs) {
+        Pista pista = actual;
+        if (pista == null || !pista.preparada)
+            return false;
+
+        pista.player.saltarA(posicionMs);
+        return true;
+    }
+
+    /**
+     * Descarta la canción actual y pasa a la siguiente de la cola.
+     * @return False si no había una canción actual.
+     */
+    boolean pasarASiguiente() {
+        if (actual == null)
+            return false;
+
+        Pista anterior = actual;
+        actual = siguiente;
+        siguiente = null;
+        entorno.liberar(anterior);
+
+        if (cola.haySiguiente()) {
+            cola.setActual(cola.getActual() + 1);
+            if (actual == null)
+                actual = entorno.cargar(cola.url(cola.getActual()), entorno.ahora());
+        }
+
+        pausado = false;
+        if (actual != null && actual.preparada)
+            actual.player.iniciar();
+
+        prepararSiguiente();
+        encadenar();
+        return true;
+    }
+
+    /**
+     * Libera la canción actual y la siguiente.
+     */
+    void detener() {
+        if (actual != null) {
+            entorno.liberar(actual);
+            actual = null;
+        }
+        if (siguiente != null) {
+            entorno.liberar(siguiente);
+            siguiente = null;
+        }
+        finAnterior = 0;
+        pausado = false;
+        entorno.programarPrecarga();
+    }
+
+    /**
+     * Reemplaza la canción actual por otra pista (de la misma canción, tras
+     * un error), que se cargará más tarde. La actual se libera.
+     */
+    void reemplazarActual(Pista nueva) {
+        Pista fallida = actual;
+        actual = nueva;
+        if (fallida != null)
+            entorno.liberar(fallida);
+    }
+
+    /**
+     * Olvida la canción actual, que ya se liberó porque no se pudo cargar,
+     * y libera la siguiente.
+     */
+    void descartarActual() {
+        actual = null;
+        detener();
+    }
+
+    /**
+     * @return El estado de la reproducción (ver EstadoReproduccion).
+     */
+    int estado() {
+        Pista pista = actual;
+        if (pista == null)
+            return EstadoReproduccion.DETENIDO;
+        if (!pista.preparada)
+            return EstadoReproduccion.PREPARANDO;
+        return pausado
+                ? EstadoReproduccion.PAUSADO
+                : EstadoReproduccion.REPRODUCIENDO;
+    }
+
+    /**
+     * @return La posición de la canción actual; mientras se prepara, la
+     * posición en la que empezará.
+     */
+    int posicion() {
+        Pista pista = actual;
+        if (pista == null)
+            return 0;
+        return pista.preparada ? pista.player.getPosicion() : pista.posicionInicial;
+    }
+
+    int duracion() {
+        Pista pista = actual;
+        return pista != null && pista.preparada ? pista.player.getDuracion() : 0;
+    }
+
+    /**
+     * Prepara por adelantado la siguiente canción de la cola, si la hay.
+     */
+    void prepararSiguiente() {
+        if (actual != null && siguiente == null && cola.haySiguiente())
+            siguiente = entorno.cargar(cola.url(cola.getActual() + 1), 0);
+        entorno.programarPrecarga();
+    }
+
+    /**
+     * Tras reordenar la cola, descarta la canción preparada si ya no es la
+     * que sigue a la actual y prepara la correcta.
+     */
+    void sincronizarSiguiente() {
+        if (siguiente != null
+            && (!cola.haySiguiente()
+                || !siguiente.url.equals(cola.url(cola.getActual() + 1))))
+            liberarSiguiente();
+
+        prepararSiguiente();
+        encadenar();
+    }
+
+    /**
+     * Libera la canción preparada a continuación (p.ej. por falta de
+     * memoria); se vuelve a preparar al cambiar de canción o al reanudar.
+     */
+    void liberarSiguiente() {
+        if (siguiente == null)
+            return;
+
+        if (actual != null && actual.preparada)
+            actual.player.setSiguiente(null);
+        entorno.liberar(siguiente);
+        siguiente = null;
+    }
+
+    /**
+     * Aviso de que el reproductor terminó de prepararse. La canción actual
+     * empieza a sonar (en la posición por retomar), salvo que se haya
+     * pausado mientras se preparaba.
+     * @return La pista preparada (la actual o la siguiente), o null si el
+     * reproductor ya no es de ninguna.
+     */
+    Pista alPreparar(Reproductor player) {
+        Pista pista = actual;
+        if (pista != null && player == pista.player) {
+            pista.preparada = true;
+            // Retoma la posición guardada; la fuente pide esos bytes con
+            // Range en lugar de descargar los anteriores.
+            if (pista.posicionInicial > 0)
+                player.saltarA(pista.posicionInicial);
+            if (!pausado)
+                player.iniciar();
+
+            prepararSiguiente();
+            encadenar();
+            return pista;
+        }
+
+        pista = siguiente;
+        if (pista != null && player == pista.player) {
+            pista.preparada = true;
+            encadenar();
+            return pista;
+        }
+        return null;
+    }
+
+    /**
+     * Aviso de que falló el reproductor de la siguiente canción (p.ej. por
+     * un corte de la red mientras se preparaba): se desencadena y se
+     * libera. Se vuelve a preparar con prepararSiguiente() o, si no, se
+     * carga al terminar la actual.
+     * @return False si el reproductor no es el de la siguiente.
+     */
+    boolean alFallarSiguiente(Reproductor player) {
+        if (siguiente == null || player != siguiente.player)
+            return false;
+
+        liberarSiguiente();
+        return true;
+    }
+
+    /**
+     * Aviso de que terminó la canción del reproductor. Si la siguiente
+     * estaba encadenada, el reproductor ya la inició; si no, empezará al
+     * prepararse.
+     * @return False si el reproductor no es el de la canción actual. Si
+     * terminó la cola (o la siguiente no se pudo abrir), getActual() queda
+     * en null.
+     */
+    boolean alCompletar(Reproductor player) {
+        Pista terminada = actual;
+        if (terminada == null || player != terminada.player)
+            return false;
+
+        actual = siguiente;
+        siguiente = null;
+        entorno.liberar(terminada);
+        if (actual == null && !cola.haySiguiente())
+            return true;
+
+        cola.setActual(cola.getActual() + 1);
+        if (actual == null) {
+            // La siguiente no estaba cargada (falló o se liberó): se carga ahora.
+            actual = entorno.cargar(cola.url(cola.getActual()), 0);
+            if (actual == null)
+                return true;
+        }
+        if (!actual.preparada)
+            finAnterior = entorno.ahora();
+
+        prepararSiguiente();
+        encadenar();
+        return true;
+    }
+
+    /**
+     * @return El instante en que terminó la canción anterior sin que la
+     * actual estuviera preparada (0 si no hubo silencio); se informa una
+     * sola vez.
+     */
+    long tomarFinAnterior() {
+        long fin = finAnterior;
+        finAnterior = 0;
+        return fin;
+    }
+
+    /**
+     * Encadena la siguiente canción a la actual cuando ambas están
+     * preparadas, para que el reproductor la inicie sin pausa al terminar.
+     */
+    private void encadenar() {
+        if (actual != null && actual.preparada
+            && siguiente != null && siguiente.preparada)
+            actual.player.setSiguiente(siguiente.player);
+    }
+}
@@ -0,0 +1,224 @@
+package ec.epn.detri.awm.reproductor.servicios;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Bloque de estado de la reproducción compartido entre el proceso
+ * :musicService y el de la UI a través de un archivo mapeado en memoria.
+ * El servicio lo publica y la UI lo lee en cada cuadro sin ninguna llamada
+ * entre procesos.
+ *
+ * La consistencia se controla con un "seqlock": el escritor incrementa la
+ * secuencia (queda impar) antes de escribir y la vuelve a incrementar
+ * (queda par) al terminar. El lector descarta cualquier lectura durante la
+ * cual la secuencia fue impar o cambió.
+ *
+ * Entre dos procesos que acceden a un bloque mapeado, Java no ofrece (antes
+ * de VarHandle, que no existe en la API 24) una barrera que ordene las
+ * escrituras del contenido respecto de la secuencia: el lector podría ver
+ * ambas secuencias iguales y un contenido mezclado. Por eso el escritor
+ * guarda además una suma de verificación del contenido y de la secuencia
+ * final, justo antes de cerrarla, y el lector reintenta si no coincide.
+ *
+ * Formato (little endian, 64 bytes):
+ * <pre>
+ *  0 int  MAGIA
+ *  4 int  VERSION
+ *  8 int  secuencia
+ * 12 int  estado (EstadoReproduccion)
+ * 16 long identificador de la pista
+ * 24 long posición en ms
+ * 32 long duración en ms
+ * 40 long bytes disponibles en buffer/caché
+ * 48 long instante de publicación (SystemClock.elapsedRealtime())
+ * 56 long suma de verificación (ver suma())
+ * </pre>
+ */
+public class EstadoCompartido implements Closeable {
+    /**
+     * Nombre del archivo compartido dentro de getFilesDir().
+     */
+    public static final String NOMBRE_ARCHIVO = "estado_reproduccion";
+
+    static final int MAGIA = 0x52455052;
+
+    static final int VERSION = 2;
+
+    static final int TAMANIO = 64;
+
+    private static final int POS_MAGIA = 0;
+    private static final int POS_VERSION = 4;
+    private static final int POS_SECUENCIA = 8;
+    private static final int POS_ESTADO = 12;
+    private static final int POS_PISTA = 16;
+    private static final int POS_POSICION = 24;
+    private static final int POS_DURACION = 32;
+    private static final int POS_BYTES = 40;
+    private static final int POS_INSTANTE = 48;
+    private static final int POS_SUMA = 56;
+
+    /**
+     * Número de intentos del lector antes de rendirse en un cuadro.
+     */
+    private static final int INTENTOS_LECTURA = 8;
+
+    private final RandomAccessFile archivo;
+
+    private final MappedByteBuffer bloque;
+
+    /**
+     * Secuencia local del escritor (sólo hay un escritor).
+     */
+    private int secuencia;
+
+    private EstadoCompartido(RandomAccessFile archivo, MappedByteBuffer bloque) {
+        this.archivo = archivo;
+        this.bloque = bloque;
+        this.bloque.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Mapea el archivo compartido, creándolo si no existe.
+     */
+    public static EstadoCompartido abrir(File archivoEstado) throws IOException {
+        RandomAccessFile archivo = new RandomAccessFile(archivoEstado, "rw");
+        try {
+            if (archivo.length() < TAMANIO)
+                archivo.setLength(TAMANIO);
+            MappedByteBuffer bloque = archivo.getChannel()
+                    .map(FileChannel.MapMode.READ_WRITE, 0, TAMANIO);
+            return new EstadoCompartido(archivo, bloque);
+        } catch (IOException e) {
+            archivo.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Publica un nuevo estado. Sólo debe haber un escritor (el servicio).
+     */
+    public void publicar(int estado,
+                         long idPista,
+                         long posicionMs,
+                         long duracionMs,
+                         long bytesEnBuffer,
+                         long instante) {
+        if ((secuencia & 1) == 0 && secuencia != bloque.getInt(POS_SECUENCIA))
+            // Otro proceso escribió antes (p.ej. una instancia anterior del servicio).
+            secuencia = bloque.getInt(POS_SECUENCIA) & ~1;
+
+        bloque.putInt(POS_SECUENCIA, ++secuencia);
+
+        bloque.putInt(POS_MAGIA, MAGIA);
+        bloque.putInt(POS_VERSION, VERSION);
+        bloque.putInt(POS_ESTADO, estado);
+        bloque.putLong(POS_PISTA, idPista);
+        bloque.putLong(POS_POSICION, posicionMs);
+        bloque.putLong(POS_DURACION, duracionMs);
+        bloque.putLong(POS_BYTES, bytesEnBuffer);
+        bloque.putLong(POS_INSTANTE, instante);
+        bloque.putLong(POS_SUMA, suma(secuencia + 1, estado, idPista, posicionMs,
+                                      duracionMs, bytesEnBuffer, instante));
+
+        bloque.putInt(POS_SECUENCIA, ++secuencia);
+    }
+
+    /**
+     * Lee el estado publicado sin crear objetos.
+     * @param destino Instantánea que se llena con el estado leído.
+     * @return True si se obtuvo una lectura consistente; False si el bloque
+     * aún no tiene datos, tiene otra versión, o el escritor estaba a mitad
+     * de una publicación en todos los intentos.
+     */
+    public boolean leer(Instantanea destino) {
+        for (int intento = 0; intento < INTENTOS_LECTURA; intento++) {
+            int antes = bloque.getInt(POS_SECUENCIA);
+            if ((antes & 1) != 0)
+                continue;
+
+            int magia = bloque.getInt(POS_MAGIA);
+            int version = bloque.getInt(POS_VERSION);
+            int estado = bloque.getInt(POS_ESTADO);
+            long idPista = bloque.getLong(POS_PISTA);
+            long posicion = bloque.getLong(POS_POSICION);
+            long duracion = bloque.getLong(POS_DURACION);
+            long bytes = bloque.getLong(POS_BYTES);
+            long instante = bloque.getLong(POS_INSTANTE);
+            long suma = bloque.getLong(POS_SUMA);
+
+            if (bloque.getInt(POS_SECUENCIA) != antes)
+                continue;
+
+            if (magia != MAGIA || version != VERSION)
+                return false;
+            if (suma != suma(antes, estado, idPista, posicion, duracion, bytes, instante))
+                // Se leyó una mezcla de dos publicaciones.
+                continue;
+
+            destino.estado = estado;
+            destino.idPista = idPista;
+            destino.posicionMs = posicion;
+            destino.duracionMs = duracion;
+            destino.bytesEnBuffer = bytes;
+            destino.instante = instante;
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        archivo.close();
+    }
+
+    /**
+     * Suma de verificación de una publicación: cada valor se mezcla con una
+     * multiplicación, de modo que cambiar cualquiera (o leerlo de otra
+     * publicación) cambia el resultado. Incluye la secuencia final para que
+     * no valga la suma de una publicación anterior.
+     */
+    static long suma(int secuencia, int estado, long idPista, long posicionMs,
+                     long duracionMs, long bytesEnBuffer, long instante) {
+        long suma = mezclar(secuencia, estado);
+        suma = mezclar(suma, idPista);
+        suma = mezclar(suma, posicionMs);
+        suma = mezclar(suma, duracionMs);
+        suma = mezclar(suma, bytesEnBuffer);
+        return mezclar(suma, instante);
+    }
+
+    private static long mezclar(long suma, long valor) {
+        suma = (suma ^ valor) * 0x9E3779B97F4A7C15L;
+        return suma ^ (suma >>> 29);
+    }
+
+    /**
+     * Copia local (reutilizable) del estado compartido.
+     */
+    public static class Instantanea {
+        public int estado = EstadoReproduccion.DETENIDO;
+        public long idPista;
+        public long posicionMs;
+        public long duracionMs;
+        public long bytesEnBuffer;
+        public long instante;
+
+        /**
+         * Estima la posición actual: mientras se reproduce, la posición avanza
+         * con el reloj desde el instante de publicación.
+         * @param ahora SystemClock.elapsedRealtime() del lector.
+         */
+        public long posicionEstimada(long ahora) {
+            if (estado != EstadoReproduccion.REPRODUCIENDO)
+                return posicionMs;
+            long estimada = posicionMs + Math.max(0, ahora - instante);
+            return duracionMs > 0 ? Math.min(estimada, duracionMs) : estimada;
+        }
+    }
+}
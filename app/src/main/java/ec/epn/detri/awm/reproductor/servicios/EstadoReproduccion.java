@@ -0,0 +1,16 @@
+package ec.epn.detri.awm.reproductor.servicios;
+
+/**
+ * Estados de la reproducción que el Servicio de Música comunica a sus
+ * clientes.
+ */
+public final class EstadoReproduccion {
+    public static final int DETENIDO = 0;
+    public static final int PREPARANDO = 1;
+    public static final int REPRODUCIENDO = 2;
+    public static final int PAUSADO = 3;
+
+    private EstadoReproduccion() {
+        throw new AssertionError();
+    }
+}
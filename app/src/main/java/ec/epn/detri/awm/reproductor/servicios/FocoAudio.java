@@ -0,0 +1,115 @@
+package ec.epn.detri.awm.reproductor.servicios;
+
+import android.content.Context;
+import android.media.AudioAttributes;
+import android.media.AudioFocusRequest;
+import android.media.AudioManager;
+import android.os.Build;
+import android.os.Handler;
+
+/**
+ * Solicita y abandona el foco de audio, y traduce sus cambios en pausas y
+ * atenuaciones de la reproducción.
+ */
+class FocoAudio implements AudioManager.OnAudioFocusChangeListener {
+    /**
+     * Atributos de audio de la música; con ellos el sistema atenúa la
+     * reproducción por sí mismo (Android 8+) cuando otra app lo pide.
+     */
+    static final AudioAttributes ATRIBUTOS = new AudioAttributes.Builder()
+            .setUsage(AudioAttributes.USAGE_MEDIA)
+            .setContentType(AudioAttributes.CONTENT_TYPE_MUSIC)
+            .build();
+
+    /**
+     * Recibe los cambios del foco en el hilo principal.
+     */
+    interface Oyente {
+        /**
+         * Otra app tomó el foco.
+         * @param temporal True si lo devolverá pronto (p.ej. una llamada).
+         */
+        void alPerderFoco(boolean temporal);
+
+        /**
+         * La app recuperó el foco tras una pérdida temporal o una atenuación.
+         */
+        void alRecuperarFoco();
+
+        /**
+         * Otra app pide bajar el volumen por un momento (sólo antes de
+         * Android 8; desde entonces el sistema atenúa solo).
+         */
+        void alAtenuar();
+    }
+
+    private final AudioManager audio;
+
+    private final Oyente oyente;
+
+    /**
+     * Solicitud reutilizada en Android 8+ (null en versiones anteriores).
+     */
+    private final AudioFocusRequest solicitud;
+
+    private boolean tieneFoco;
+
+    FocoAudio(Context contexto, Handler manejador, Oyente oyente) {
+        audio = (AudioManager) contexto.getSystemService(Context.AUDIO_SERVICE);
+        this.oyente = oyente;
+        solicitud = Build.VERSION.SDK_INT >= Build.VERSION_CODES.O
+                ? new AudioFocusRequest.Builder(AudioManager.AUDIOFOCUS_GAIN)
+                        .setAudioAttributes(ATRIBUTOS)
+                        .setOnAudioFocusChangeListener(this, manejador)
+                        .build()
+                : null;
+    }
+
+    /**
+     * @return True si la app tiene el foco (o lo acaba de obtener).
+     */
+    @SuppressWarnings("deprecation") // requestAudioFocus(listener, ...) antes de API 26
+    boolean solicitar() {
+        if (tieneFoco)
+            return true;
+
+        int resultado = solicitud != null
+                ? audio.requestAudioFocus(solicitud)
+                : audio.requestAudioFocus(this, AudioManager.STREAM_MUSIC,
+                                          AudioManager.AUDIOFOCUS_GAIN);
+        tieneFoco = resultado == AudioManager.AUDIOFOCUS_REQUEST_GRANTED;
+        return tieneFoco;
+    }
+
+    @SuppressWarnings("deprecation") // abandonAudioFocus(listener) antes de API 26
+    void abandonar() {
+        if (!tieneFoco)
+            return;
+
+        if (solicitud != null)
+            audio.abandonAudioFocusRequest(solicitud);
+        else
+            audio.abandonAudioFocus(this);
+        tieneFoco = false;
+    }
+
+    @Override
+    public void onAudioFocusChange(int cambio) {
+        switch (cambio) {
+            case AudioManager.AUDIOFOCUS_GAIN:
+                tieneFoco = true;
+                oyente.alRecuperarFoco();
+                break;
+            case AudioManager.AUDIOFOCUS_LOSS:
+                abandonar();
+                oyente.alPerderFoco(false);
+                break;
+            case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT:
+                oyente.alPerderFoco(true);
+                break;
+            case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT_CAN_DUCK:
+                oyente.alAtenuar();
+                break;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package ec.epn.detri.awm.reproductor.servicios;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Lleva la cuenta de la memoria que ocupa cada componente del servicio
+ * (reproductores, buffers, precargas, metadatos) y decide qué liberar
+ * cuando el total pasa del presupuesto.
+ *
+ * Los tamaños son estimaciones: la mayor parte es memoria nativa de los
+ * decodificadores y del AudioTrack, que no se puede medir desde Java. Se
+ * liberan en el mismo orden que en onTrimMemory() (ver PoliticaMemoria):
+ * primero lo que se recrea barato.
+ *
+ * Se usa desde el hilo principal del servicio, salvo exportar() y volcar(),
+ * que leen la última medición desde cualquier hilo (p.ej. el de Binder).
+ */
+final class GestorMemoria {
+    /**
+     * Mide los bytes que ocupa un componente.
+     */
+    interface Medidor {
+        long bytes();
+    }
+
+    /**
+     * Orden en que se liberan los recursos para volver al presupuesto. Las
+     * precargas no: ocupan poco y cancelarlas desperdicia lo descargado.
+     */
+    private static final int[] ORDEN = {
+            PoliticaMemoria.REPRODUCTORES_LIBRES,
+            PoliticaMemoria.METADATOS,
+            PoliticaMemoria.BUFFERS_LIBRES,
+            PoliticaMemoria.SIGUIENTE,
+    };
+
+    private static final class Componente {
+        final String nombre;
+        final int recurso;
+        final Medidor medidor;
+
+        Componente(String nombre, int recurso, Medidor medidor) {
+            this.nombre = nombre;
+            this.recurso = recurso;
+            this.medidor = medidor;
+        }
+    }
+
+    private final List<Componente> componentes = new ArrayList<>();
+
+    /**
+     * Bytes de cada componente en la última medición.
+     */
+    private volatile long[] medidas = new long[0];
+
+    private volatile long presupuesto;
+
+    /**
+     * Veces que se liberó memoria por pasar del presupuesto.
+     */
+    private volatile long liberaciones;
+
+    /**
+     * @param presupuesto Bytes que pueden ocupar los componentes medidos.
+     */
+    GestorMemoria(long presupuesto) {
+        this.presupuesto = presupuesto;
+    }
+
+    /**
+     * Agrega un componente a la cuenta (antes de usar el gestor desde
+     * otros hilos).
+     * @param recurso Recurso de PoliticaMemoria que lo libera, o 0 si no se
+     * puede liberar (la canción actual).
+     */
+    void registrar(String nombre, int recurso, Medidor medidor) {
+        componentes.add(new Componente(nombre, recurso, medidor));
+    }
+
+    void setPresupuesto(long presupuesto) {
+        this.presupuesto = presupuesto;
+    }
+
+    long getPresupuesto() {
+        return presupuesto;
+    }
+
+    /**
+     * Mide de nuevo todos los componentes.
+     * @return Bytes que ocupan en total.
+     */
+    long medir() {
+        long[] nuevas = new long[componentes.size()];
+        long total = 0;
+        for (int i = 0; i < nuevas.length; i++) {
+            nuevas[i] = componentes.get(i).medidor.bytes();
+            total += nuevas[i];
+        }
+        medidas = nuevas;
+        return total;
+    }
+
+    /**
+     * @param reproduciendo True si hay una canción sonando o preparándose
+     * (la siguiente no se libera: el paso a ella tendría silencio).
+     * @return Los recursos de PoliticaMemoria que hay que liberar para
+     * volver al presupuesto, o 0 si no se pasa de él.
+     */
+    int recursosSobrePresupuesto(boolean reproduciendo) {
+        long exceso = medir() - presupuesto;
+        if (exceso <= 0)
+            return 0;
+
+        int recursos = 0;
+        for (int i = 0; i < ORDEN.length && exceso > 0; i++) {
+            if (reproduciendo && ORDEN[i] == PoliticaMemoria.SIGUIENTE)
+                continue;
+            long liberables = bytesDe(ORDEN[i]);
+            if (liberables > 0) {
+                recursos |= ORDEN[i];
+                exceso -= liberables;
+            }
+        }
+        if (recursos != 0)
+            liberaciones++;
+        return recursos;
+    }
+
+    /**
+     * Agrega a "valores" la huella de cada componente, el total y el
+     * presupuesto (claves "memoria.*", en bytes).
+     */
+    void exportar(Map<String, Long> valores) {
+        long[] bytes = medidas;
+        long total = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            valores.put("memoria." + componentes.get(i).nombre, bytes[i]);
+            total += bytes[i];
+        }
+        valores.put("memoria.total", total);
+        valores.put("memoria.presupuesto", presupuesto);
+        valores.put("memoria.liberaciones", liberaciones);
+    }
+
+    /**
+     * Escribe la huella de cada componente en la última medición (para
+     * dumpsys).
+     */
+    void volcar(PrintWriter salida) {
+        long[] bytes = medidas;
+        StringBuilder linea = new StringBuilder();
+        long total = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            linea.append(String.format(Locale.ROOT, ", %s %d KB", componentes.get(i).nombre,
+                                       bytes[i] / 1024));
+            total += bytes[i];
+        }
+        salida.println(String.format(Locale.ROOT,
+                "Memoria: %d KB de %d KB%s; %d liberaciones por presupuesto",
+                total / 1024, presupuesto / 1024, linea, liberaciones));
+    }
+
+    /**
+     * @return Bytes de los componentes que libera el recurso, según la
+     * última medición.
+     */
+    private long bytesDe(int recurso) {
+        long[] bytes = medidas;
+        long total = 0;
+        for (int i = 0; i < bytes.length; i++)
+            if (componentes.get(i).recurso == recurso)
+                total += bytes[i];
+        return total;
+    }
+}
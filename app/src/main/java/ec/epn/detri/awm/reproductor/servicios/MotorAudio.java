@@ -0,0 +1,31 @@
+package ec.epn.detri.awm.reproductor.servicios;
+
+/**
+ * Motores de audio con que el Servicio de Música reproduce las canciones
+ * (ver IReproductor.usarMotor()).
+ */
+public final class MotorAudio {
+    /**
+     * MediaPlayer del sistema (por defecto).
+     */
+    public static final int MEDIA_PLAYER = 0;
+
+    /**
+     * Decodificación propia con MediaExtractor, MediaCodec y AudioTrack.
+     */
+    public static final int CODEC = 1;
+
+    /**
+     * Extra del intent de ActividadReproductor con el motor a usar (p.ej.
+     * "adb shell am start -n .../.actividades.ActividadReproductor --ei motor 1").
+     */
+    public static final String EXTRA = "motor";
+
+    private MotorAudio() {
+        throw new AssertionError();
+    }
+
+    static String nombre(int motor) {
+        return motor == CODEC ? "MediaCodec" : "MediaPlayer";
+    }
+}
@@ -0,0 +1,116 @@
+package ec.epn.detri.awm.reproductor.servicios;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.media.session.MediaSession;
+import android.os.Build;
+
+import ec.epn.detri.awm.reproductor.R;
+
+/**
+ * Construye la notificación multimedia del servicio en primer plano, con
+ * los controles de la MediaSession (pausar/reanudar, siguiente y detener).
+ */
+class NotificacionReproductor {
+    /**
+     * Identificador de la notificación (el mismo para startForeground()).
+     */
+    static final int ID = 1;
+
+    private static final String CANAL = "reproduccion";
+
+    private final Service servicio;
+
+    private final MediaSession.Token sesion;
+
+    private final PendingIntent pausar;
+    private final PendingIntent reanudar;
+    private final PendingIntent siguiente;
+    private final PendingIntent detener;
+    private final PendingIntent abrirApp;
+
+    NotificacionReproductor(Service servicio, MediaSession.Token sesion) {
+        this.servicio = servicio;
+        this.sesion = sesion;
+
+        pausar = accion(ServicioReproductor.ACCION_PAUSAR, 1);
+        reanudar = accion(ServicioReproductor.ACCION_REANUDAR, 2);
+        siguiente = accion(ServicioReproductor.ACCION_SIGUIENTE, 3);
+        detener = accion(ServicioReproductor.ACCION_DETENER, 4);
+
+        Intent lanzador = servicio.getPackageManager()
+                                  .getLaunchIntentForPackage(servicio.getPackageName());
+        abrirApp = lanzador != null
+                ? PendingIntent.getActivity(servicio, 0, lanzador, PendingIntent.FLAG_IMMUTABLE)
+                : null;
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationChannel canal = new NotificationChannel(
+                    CANAL,
+                    servicio.getString(R.string.canal_reproduccion),
+                    NotificationManager.IMPORTANCE_LOW);
+            canal.setShowBadge(false);
+            ((NotificationManager) servicio.getSystemService(Context.NOTIFICATION_SERVICE))
+                    .createNotificationChannel(canal);
+        }
+    }
+
+    /**
+     * @param estado Estado de la reproducción (ver EstadoReproduccion).
+     * @param titulo Título de la canción actual.
+     * @param artista Artista, o null si no se conoce.
+     * @param caratula Carátula reducida, o null si no hay.
+     */
+    Notification construir(int estado, String titulo, String artista, Bitmap caratula) {
+        boolean enPausa = estado == EstadoReproduccion.PAUSADO;
+        int texto = enPausa
+                ? R.string.estado_pausado
+                : estado == EstadoReproduccion.PREPARANDO
+                  ? R.string.estado_preparando
+                  : R.string.estado_reproduciendo;
+
+        Notification.Builder constructor = Build.VERSION.SDK_INT >= Build.VERSION_CODES.O
+                ? new Notification.Builder(servicio, CANAL)
+                : new Notification.Builder(servicio);
+
+        constructor.setSmallIcon(android.R.drawable.ic_media_play)
+                   .setContentTitle(titulo)
+                   .setContentText(servicio.getString(texto))
+                   .setSubText(artista)
+                   .setLargeIcon(caratula)
+                   .setContentIntent(abrirApp)
+                   .setDeleteIntent(detener)
+                   .setVisibility(Notification.VISIBILITY_PUBLIC)
+                   .setShowWhen(false)
+                   .setOngoing(!enPausa)
+                   .addAction(new Notification.Action.Builder(
+                           enPausa ? android.R.drawable.ic_media_play : android.R.drawable.ic_media_pause,
+                           servicio.getString(enPausa ? R.string.accion_reanudar : R.string.accion_pausar),
+                           enPausa ? reanudar : pausar).build())
+                   .addAction(new Notification.Action.Builder(
+                           android.R.drawable.ic_media_next,
+                           servicio.getString(R.string.accion_siguiente),
+                           siguiente).build())
+                   .addAction(new Notification.Action.Builder(
+                           R.drawable.ic_media_stop,
+                           servicio.getString(R.string.accion_detener),
+                           detener).build())
+                   .setStyle(new Notification.MediaStyle()
+                                     .setMediaSession(sesion)
+                                     .setShowActionsInCompactView(0, 1));
+        return constructor.build();
+    }
+
+    private PendingIntent accion(String accion, int codigo) {
+        Intent intent = new Intent(servicio, ServicioReproductor.class).setAction(accion);
+        return PendingIntent.getService(servicio, codigo, intent,
+                                        PendingIntent.FLAG_IMMUTABLE
+                                        | PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+}
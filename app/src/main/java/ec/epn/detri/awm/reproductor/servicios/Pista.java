@@ -0,0 +1,103 @@
+package ec.epn.detri.awm.reproductor.servicios;
+
+import ec.epn.detri.awm.reproductor.audio.AnalizadorPicos;
+import ec.epn.detri.awm.reproductor.audio.Reproductor;
+import ec.epn.detri.awm.reproductor.cache.DescargaCache;
+import ec.epn.detri.awm.reproductor.cache.EntradaCache;
+import ec.epn.detri.awm.reproductor.red.EsperaReintentos;
+import ec.epn.detri.awm.reproductor.red.LectorHls;
+import ec.epn.detri.awm.reproductor.red.LectorStreaming;
+
+/**
+ * Canción cargada (o cargándose) en un reproductor, junto con los recursos
+ * de la fuente de datos que usa: entrada de la caché, descarga en curso,
+ * lector por streaming o lector HLS.
+ */
+class Pista {
+    /**
+     * URL de la canción.
+     */
+    final String url;
+
+    /**
+     * Identificador de la pista dentro del proceso del servicio.
+     */
+    final long id;
+
+    /**
+     * Reproductor (tomado del pool) que reproduce la canción.
+     */
+    final Reproductor player;
+
+    EntradaCache entrada;
+
+    DescargaCache descarga;
+
+    LectorStreaming lector;
+
+    LectorHls hls;
+
+    /**
+     * Cálculo de los picos de la canción (null si no se pidió).
+     */
+    AnalizadorPicos picos;
+
+    /**
+     * True cuando el reproductor ya invocó alPreparar().
+     */
+    volatile boolean preparada;
+
+    /**
+     * Instante (System.nanoTime()) en que se llamó a preparar().
+     */
+    long inicioPreparacion;
+
+    /**
+     * Instante del comando del usuario que pidió la canción (0 si se
+     * preparó por adelantado).
+     */
+    long inicioComando;
+
+    /**
+     * Instante en que empezó el corte por falta de datos en curso (0 si no
+     * hay uno).
+     */
+    long inicioRebuffer;
+
+    /**
+     * Posición (ms) desde la que se retoma la canción al prepararla (0 para
+     * empezar desde el inicio).
+     */
+    int posicionInicial;
+
+    /**
+     * Fracción de la canción que representa posicionInicial (entre 0 y 1),
+     * para estimar en qué byte empieza la lectura.
+     */
+    double fraccionInicial;
+
+    /**
+     * Última posición y duración (ms) conocidas, para volver a cargar la
+     * canción donde iba si el reproductor falla (tras un error ya no se
+     * pueden consultar).
+     */
+    int ultimaPosicion;
+    int ultimaDuracion;
+
+    /**
+     * Esperas entre recuperaciones tras errores del reproductor (null si no
+     * falló); pasan a la pista que la reemplaza (ver PoliticaErrores).
+     */
+    EsperaReintentos recuperaciones;
+
+    /**
+     * Instante del error del que se está recuperando (0 si no hay uno).
+     */
+    long inicioRecuperacion;
+
+    Pista(long id, String url, Reproductor player) {
+        this.id = id;
+        this.url = url;
+        this.player = player;
+    }
+}
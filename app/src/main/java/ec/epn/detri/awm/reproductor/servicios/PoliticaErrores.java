@@ -0,0 +1,66 @@
+package ec.epn.detri.awm.reproductor.servicios;
+
+import android.media.MediaPlayer;
+
+/**
+ * Decide qué hacer cuando el reproductor de la canción actual falla
+ * (alFallar(), con los códigos de MediaPlayer):
+ * - los errores de E/S, de tiempo agotado o la muerte del servidor de
+ *   medios se recuperan volviendo a cargar la canción en la posición en
+ *   que iba, tras una espera exponencial con fluctuación. Los cortes de la
+ *   red casi nunca llegan hasta aquí: las fuentes reconectan por su cuenta
+ *   (ver LectorStreaming y DescargaCache) y el reproductor sólo espera;
+ * - el resto (formato no soportado, archivo dañado) no se arregla
+ *   reintentando: se pasa a la siguiente canción.
+ *
+ * Si la canción falla MAXIMO_RECUPERACIONES veces seguidas sin avanzar
+ * PROGRESO_MS, también se pasa a la siguiente.
+ */
+final class PoliticaErrores {
+    /**
+     * Esperas antes de volver a cargar la canción: de 0,5-1 s a 4-8 s.
+     */
+    static final long ESPERA_BASE_MS = 1000;
+    static final long ESPERA_MAXIMA_MS = 8000;
+
+    static final int MAXIMO_RECUPERACIONES = 4;
+
+    /**
+     * Avance de la posición desde la última recuperación con el que los
+     * intentos vuelven a empezar (el error no es del mismo punto de la
+     * canción).
+     */
+    static final int PROGRESO_MS = 10000;
+
+    private PoliticaErrores() {
+        throw new AssertionError();
+    }
+
+    /**
+     * @param que Código principal de alFallar() (MEDIA_ERROR_UNKNOWN o
+     * MEDIA_ERROR_SERVER_DIED).
+     * @param extra Código específico (p.ej. MEDIA_ERROR_IO).
+     * @return True si vale la pena volver a cargar la canción.
+     */
+    static boolean esRecuperable(int que, int extra) {
+        if (que == MediaPlayer.MEDIA_ERROR_SERVER_DIED)
+            return true;
+        switch (extra) {
+            case MediaPlayer.MEDIA_ERROR_IO:
+            case MediaPlayer.MEDIA_ERROR_TIMED_OUT:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @param posicionInicial Posición (ms) en que se cargó la canción.
+     * @param ultimaPosicion Última posición conocida antes del error.
+     * @return True si la canción avanzó lo suficiente para reiniciar los
+     * intentos.
+     */
+    static boolean huboProgreso(int posicionInicial, int ultimaPosicion) {
+        return ultimaPosicion - posicionInicial >= PROGRESO_MS;
+    }
+}
@@ -0,0 +1,93 @@
+package ec.epn.detri.awm.reproductor.servicios;
+
+import android.content.ComponentCallbacks2;
+
+/**
+ * Decide qué recursos libera el servicio según el nivel de onTrimMemory().
+ * Primero lo que se recrea barato (reproductores y buffers libres, y las
+ * carátulas decodificadas, que siguen en disco), luego
+ * las precargas y, si no está sonando nada, la canción preparada por
+ * adelantado. La canción actual nunca se libera: perderla obligaría a
+ * descargarla y prepararla de nuevo.
+ *
+ * Lo mismo se libera, sin esperar a que el sistema lo pida, cuando la
+ * reproducción queda en pausa o detenida por ESPERA_REPOSO_MS: el proceso
+ * sigue vivo con la notificación, y mientras menos ocupe, menos probable
+ * es que lo maten en un equipo con poca RAM.
+ */
+final class PoliticaMemoria {
+    /**
+     * Reproductores libres del pool.
+     */
+    static final int REPRODUCTORES_LIBRES = 1;
+
+    /**
+     * Buffers libres de los pools de streaming.
+     */
+    static final int BUFFERS_LIBRES = 1 << 1;
+
+    /**
+     * Descargas de precarga en curso.
+     */
+    static final int PRECARGAS = 1 << 2;
+
+    /**
+     * Siguiente canción ya preparada (se vuelve a preparar al reanudar).
+     */
+    static final int SIGUIENTE = 1 << 3;
+
+    /**
+     * Metadatos y carátulas en memoria (se vuelven a leer del disco).
+     */
+    static final int METADATOS = 1 << 4;
+
+    /**
+     * Tiempo en pausa o detenido tras el cual se liberan los recursos (una
+     * pausa corta no obliga a preparar de nuevo la siguiente canción).
+     */
+    static final long ESPERA_REPOSO_MS = 30000;
+
+    private PoliticaMemoria() {
+        throw new AssertionError();
+    }
+
+    /**
+     * @param nivel Nivel recibido en onTrimMemory().
+     * @param reproduciendo True si hay una canción sonando o preparándose.
+     * @return Combinación de REPRODUCTORES_LIBRES, BUFFERS_LIBRES, PRECARGAS,
+     * SIGUIENTE y METADATOS (0 si no hay que liberar nada).
+     */
+    static int recursosALiberar(int nivel, boolean reproduciendo) {
+        // Sólo indica que se ocultó la UI, no que falte memoria.
+        if (nivel == ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN)
+            return 0;
+
+        int recursos = 0;
+        if (nivel >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE)
+            recursos |= REPRODUCTORES_LIBRES | METADATOS;
+        if (nivel >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW)
+            recursos |= BUFFERS_LIBRES;
+        if (nivel >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            recursos |= PRECARGAS;
+            if (!reproduciendo)
+                recursos |= SIGUIENTE;
+        }
+        return recursos;
+    }
+
+    /**
+     * @param estado Estado de la reproducción (ver EstadoReproduccion) que
+     * se mantuvo durante ESPERA_REPOSO_MS.
+     * @return Recursos que se liberan en reposo: todo lo que no es la
+     * canción actual si está en pausa o detenida; nada mientras suena.
+     */
+    static int recursosEnReposo(int estado) {
+        switch (estado) {
+            case EstadoReproduccion.PAUSADO:
+            case EstadoReproduccion.DETENIDO:
+                return REPRODUCTORES_LIBRES | BUFFERS_LIBRES | PRECARGAS | SIGUIENTE | METADATOS;
+            default:
+                return 0;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package ec.epn.detri.awm.reproductor.servicios;
+
+import java.util.ArrayDeque;
+
+import ec.epn.detri.awm.reproductor.audio.Reproductor;
+import ec.epn.detri.awm.reproductor.audio.ReproductorCodec;
+import ec.epn.detri.awm.reproductor.audio.ReproductorMediaPlayer;
+
+/**
+ * Pool de reproductores. Crear un reproductor reserva recursos nativos
+ * costosos (y, con el motor MediaCodec, hilos y buffers), así que se
+ * reinician y se reutilizan entre canciones en lugar de crearse cada vez.
+ */
+class PoolReproductores {
+    /**
+     * Memoria (sobre todo nativa) estimada de un MediaPlayer reiniciado y de
+     * uno con una canción preparada (decodificador y buffers de la fuente).
+     */
+    private static final long BYTES_MEDIA_PLAYER_LIBRE = 256 * 1024;
+    private static final long BYTES_MEDIA_PLAYER_EN_USO = 2 * 1024 * 1024;
+
+    /**
+     * Memoria estimada de un ReproductorCodec: sus bloques de PCM más el
+     * decodificador y el AudioTrack, que conserva al reiniciarse.
+     */
+    private static final long BYTES_CODEC = ReproductorCodec.BYTES_BLOQUES + 512 * 1024;
+
+    /**
+     * Número máximo de reproductores libres que se conservan.
+     */
+    private final int maximoLibres;
+
+    private final ArrayDeque<Reproductor> libres = new ArrayDeque<>();
+
+    /**
+     * Motor de los reproductores nuevos (ver MotorAudio).
+     */
+    private int motor = MotorAudio.MEDIA_PLAYER;
+
+    PoolReproductores(int maximoLibres) {
+        this.maximoLibres = maximoLibres;
+    }
+
+    /**
+     * Cambia el motor de los reproductores que se obtengan a partir de
+     * ahora; los libres del motor anterior se liberan.
+     */
+    void setMotor(int motor) {
+        if (motor == this.motor)
+            return;
+        this.motor = motor;
+        liberarTodo();
+    }
+
+    int getMotor() {
+        return motor;
+    }
+
+    /**
+     * @return Un reproductor del motor actual, sin fuente.
+     */
+    Reproductor obtener() {
+        Reproductor player = libres.pollFirst();
+
+        if (player == null)
+            // Los atributos indican que reproduce música (el sistema lo
+            // atenúa cuando otra app lo pide).
+            player = motor == MotorAudio.CODEC
+                    ? new ReproductorCodec(FocoAudio.ATRIBUTOS)
+                    : new ReproductorMediaPlayer(FocoAudio.ATRIBUTOS);
+        return player;
+    }
+
+    /**
+     * Reinicia el reproductor y lo deja disponible para otra canción.
+     */
+    void devolver(Reproductor player) {
+        // Válido en cualquier estado del reproductor.
+        player.reiniciar();
+
+        if (libres.size() < maximoLibres && esDelMotor(player))
+            libres.addFirst(player);
+        else
+            player.liberar();
+    }
+
+    /**
+     * Libera los recursos nativos de todos los reproductores libres (al
+     * terminar o cuando hay poca memoria).
+     */
+    void liberarTodo() {
+        Reproductor player;
+        while ((player = libres.pollFirst()) != null)
+            player.liberar();
+    }
+
+    /**
+     * @return Memoria estimada de los reproductores libres.
+     */
+    long bytesLibres() {
+        long bytes = 0;
+        for (Reproductor player : libres)
+            bytes += bytesEstimados(player, false);
+        return bytes;
+    }
+
+    /**
+     * @param enUso True si el reproductor tiene una canción asignada.
+     * @return Memoria estimada del reproductor.
+     */
+    static long bytesEstimados(Reproductor player, boolean enUso) {
+        if (player instanceof ReproductorCodec)
+            return BYTES_CODEC;
+        return enUso ? BYTES_MEDIA_PLAYER_EN_USO : BYTES_MEDIA_PLAYER_LIBRE;
+    }
+
+    private boolean esDelMotor(Reproductor player) {
+        return (player instanceof ReproductorCodec) == (motor == MotorAudio.CODEC);
+    }
+}
@@ -0,0 +1,438 @@
+package ec.epn.detri.awm.reproductor.servicios;
+
+import android.util.Log;
+import android.webkit.URLUtil;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import ec.epn.detri.awm.reproductor.audio.AnalizadorPicos;
+import ec.epn.detri.awm.reproductor.audio.ArchivoPicos;
+import ec.epn.detri.awm.reproductor.cache.CacheAudio;
+import ec.epn.detri.awm.reproductor.cache.DescargaCache;
+import ec.epn.detri.awm.reproductor.cache.EntradaCache;
+import ec.epn.detri.awm.reproductor.cache.EscrituraCache;
+import ec.epn.detri.awm.reproductor.cache.FuenteCacheAudio;
+import ec.epn.detri.awm.reproductor.cache.FuenteEntradaCache;
+import ec.epn.detri.awm.reproductor.cache.PrecargaCanciones;
+import ec.epn.detri.awm.reproductor.descargas.AlmacenOffline;
+import ec.epn.detri.awm.reproductor.metricas.MetricasReproduccion;
+import ec.epn.detri.awm.reproductor.red.ClienteHttp;
+import ec.epn.detri.awm.reproductor.red.FuenteHls;
+import ec.epn.detri.awm.reproductor.red.FuenteStreaming;
+import ec.epn.detri.awm.reproductor.red.LectorHls;
+import ec.epn.detri.awm.reproductor.red.LectorStreaming;
+import ec.epn.detri.awm.reproductor.red.ListaHls;
+import ec.epn.detri.awm.reproductor.red.PoolBuffers;
+import ec.epn.detri.awm.reproductor.red.SelectorVariante;
+
+/**
+ * Decide de dónde lee cada pista (descargas sin conexión, caché de disco o
+ * red) y administra los recursos compartidos para ello: la caché, los
+ * hilos de descarga, la precarga de las próximas canciones y los pools de
+ * buffers.
+ *
+ * También calcula los picos de cada canción para la forma de onda (ver
+ * AnalizadorPicos), leyéndola de la caché a medida que se descarga.
+ */
+class ProveedorFuentes {
+    /**
+     * TAG de depuración
+     */
+    private static final String TAG = ProveedorFuentes.class.getSimpleName();
+
+    /**
+     * Tamaño máximo de la caché de canciones en disco (200 MB).
+     */
+    private static final long TAMANIO_MAXIMO_CACHE = 200L * 1024 * 1024;
+
+    /**
+     * Tamaño del buffer circular de lectura anticipada (1 MB).
+     */
+    private static final int TAMANIO_BUFFER_STREAMING = 1024 * 1024;
+
+    /**
+     * Tamaño de los bloques de lectura de la red.
+     */
+    private static final int TAMANIO_BLOQUE_RED = 16 * 1024;
+
+    /**
+     * Máximo de canciones que se precargan a la vez con una red rápida.
+     */
+    private static final int MAXIMO_PRECARGAS = 2;
+
+    /**
+     * Se precargan unos 30 s de cada canción, estimando 320 kbps (el
+     * bitrate real no se conoce antes de descargarla).
+     */
+    private static final long BYTES_PRECARGA = 30 * 320 * 1000 / 8;
+
+    /**
+     * Si la canción actual tiene menos de estos bytes descargados por
+     * delante de la reproducción, la precarga se pausa.
+     */
+    private static final long MARGEN_REPRODUCCION = 512 * 1024;
+
+    /**
+     * Caché de disco donde se guardan las canciones mientras se reproducen.
+     */
+    private final CacheAudio cache;
+
+    /**
+     * Hilos donde se ejecutan las descargas y revalidaciones de la caché.
+     */
+    private final ExecutorService ejecutorDescargas = Executors.newCachedThreadPool();
+
+    /**
+     * Hilo donde se calculan los picos, de uno en uno.
+     */
+    private final ExecutorService ejecutorPicos = Executors.newSingleThreadExecutor();
+
+    /**
+     * Directorio de los archivos de picos.
+     */
+    private final File directorioPicos;
+
+    /**
+     * Canciones descargadas para escucharlas sin conexión (ver
+     * TrabajoDescarga); se reproducen sin usar la red.
+     */
+    private final AlmacenOffline offline;
+
+    /**
+     * Pools de buffers reutilizados entre canciones. Se conservan dos
+     * buffers circulares: el de la pista actual y el de la siguiente.
+     */
+    private final PoolBuffers poolBuffers = new PoolBuffers(TAMANIO_BUFFER_STREAMING, 2);
+    private final PoolBuffers poolBloques = new PoolBuffers(TAMANIO_BLOQUE_RED, 4);
+
+    /**
+     * Descarga el inicio de las próximas canciones de la cola.
+     */
+    private final PrecargaCanciones precarga;
+
+    /**
+     * Métricas donde se suman los bytes descargados por cada pista.
+     */
+    private final MetricasReproduccion metricas;
+
+    /**
+     * Constructor
+     * @param directorioCache Directorio de la caché de canciones.
+     * @param directorioPicos Directorio de los picos de las canciones.
+     * @param offline Canciones descargadas sin conexión.
+     * @param prioridad Indica cuándo la reproducción necesita el ancho de
+     * banda (ver necesitaDatos()).
+     * @param metricas Métricas de la reproducción.
+     */
+    ProveedorFuentes(File directorioCache,
+                     File directorioPicos,
+                     AlmacenOffline offline,
+                     PrecargaCanciones.Prioridad prioridad,
+                     MetricasReproduccion metricas) {
+        this.directorioPicos = directorioPicos;
+        this.offline = offline;
+        this.metricas = metricas;
+        cache = new CacheAudio(directorioCache, TAMANIO_MAXIMO_CACHE);
+        precarga = new PrecargaCanciones(cache, MAXIMO_PRECARGAS, prioridad);
+    }
+
+    /**
+     * Asigna la fuente de datos del reproductor de la pista:
+     * - una canción descargada sin conexión se lee desde su archivo, sin
+     *   ninguna petición a la red (ni revalidación);
+     * - una canción completa en caché se lee desde el archivo local (y se
+     *   revalida en segundo plano);
+     * - una canción que se está precargando continúa con esa misma descarga,
+     *   y una descargada a medias se completa con Range hacia la caché; en
+     *   ambos casos el reproductor lee del archivo a medida que llegan los bytes;
+     * - una canción nueva se lee por streaming con un buffer circular (que
+     *   permite saltos con Range) y se guarda en la caché mientras suena;
+     *   también una descargada a medias que se retoma más allá de lo
+     *   descargado, para no bajar los bytes intermedios;
+     * - una lista HLS (.m3u8) se lee segmento a segmento, eligiendo la
+     *   variante según el ancho de banda medido (empezando por el que midió
+     *   la precarga); no se guarda en la caché.
+     */
+    void asignar(Pista pista) throws IOException {
+        if (!URLUtil.isNetworkUrl(pista.url)) {
+            pista.player.setFuente(pista.url);
+            return;
+        }
+
+        File descargada = archivoOffline(pista.url);
+        if (descargada != null) {
+            Log.i(TAG, "Service - reproduciendo la descarga sin conexión");
+            try (FileInputStream archivo = new FileInputStream(descargada)) {
+                pista.player.setFuente(archivo.getFD());
+            }
+            return;
+        }
+
+        if (ListaHls.esHls(pista.url)) {
+            pista.hls = new LectorHls(pista.url,
+                                      poolBuffers,
+                                      poolBloques,
+                                      new SelectorVariante(precarga.getAnchoDeBanda()));
+            pista.player.setFuente(new FuenteHls(pista.hls));
+            return;
+        }
+
+        DescargaCache adoptada = precarga.tomar(pista.url);
+        if (adoptada != null) {
+            Log.i(TAG, "Service - continuando la precarga de la canción");
+            pista.entrada = adoptada.getEntrada();
+            pista.descarga = adoptada;
+            pista.player.setFuente(new FuenteCacheAudio(adoptada,
+                                                            cache.archivo(pista.entrada)));
+            return;
+        }
+
+        pista.entrada = cache.abrir(pista.url);
+
+        if (pista.entrada.estaCompleta()) {
+            Log.i(TAG, "Service - reproduciendo desde la caché");
+
+            try (FileInputStream archivo =
+                         new FileInputStream(cache.archivo(pista.entrada))) {
+                pista.player.setFuente(archivo.getFD());
+            }
+
+            final EntradaCache entrada = pista.entrada;
+            ejecutorDescargas.execute(() -> {
+                if (!DescargaCache.revalidar(entrada)) {
+                    // La canción cambió en el servidor; se descargará de nuevo la próxima vez.
+                    cache.invalidar(entrada);
+                    ArchivoPicos.archivo(directorioPicos, entrada.getUrl()).delete();
+                }
+            });
+        } else if (pista.entrada.getDescargados() > 0 && !saltaFueraDeLaCache(pista)) {
+            pista.descarga = new DescargaCache(cache, pista.entrada);
+            ejecutorDescargas.execute(pista.descarga);
+            pista.player.setFuente(new FuenteCacheAudio(pista.descarga,
+                                                            cache.archivo(pista.entrada)));
+        } else {
+            pista.lector = new LectorStreaming(pista.url,
+                                               poolBuffers,
+                                               poolBloques,
+                                               new EscrituraCache(cache, pista.entrada));
+            pista.player.setFuente(new FuenteStreaming(pista.lector));
+        }
+    }
+
+    /**
+     * @return El archivo de la canción si está descargada sin conexión, o
+     * null.
+     */
+    File archivoOffline(String url) {
+        if (!URLUtil.isNetworkUrl(url))
+            return null;
+        File archivo = offline.archivo(url);
+        return archivo.isFile() ? archivo : null;
+    }
+
+    /**
+     * @return True si la pista se retoma en una posición que, estimada por
+     * su fracción de la longitud, cae más allá de lo descargado en la caché.
+     */
+    private static boolean saltaFueraDeLaCache(Pista pista) {
+        long longitud = pista.entrada.getLongitud();
+        if (pista.fraccionInicial <= 0 || longitud <= 0)
+            return false;
+        long salto = (long) (pista.fraccionInicial * longitud);
+        return salto > pista.entrada.getDescargados() + MARGEN_REPRODUCCION;
+    }
+
+    /**
+     * Detiene la descarga de la pista (lo descargado queda en caché) y
+     * libera su entrada.
+     */
+    void liberar(Pista pista) {
+        if (pista.picos != null) {
+            // Sin la descarga de la pista el análisis no podría terminar.
+            pista.picos.cancelar();
+            pista.picos = null;
+        }
+        if (pista.descarga != null) {
+            pista.descarga.cancelar();
+            metricas.registrarBytes(pista.descarga.getBytesTransferidos());
+            metricas.registrarReconexiones(pista.descarga.getReconexiones(),
+                                           pista.descarga.getNanosSinRed());
+            pista.descarga = null;
+        }
+        if (pista.lector != null) {
+            Log.i(TAG, "Service - espera por datos: "
+                  + pista.lector.getNanosEspera() / 1000000 + " ms en "
+                  + pista.lector.getEsperas() + " lecturas, "
+                  + pista.lector.getCortesRecuperados() + " cortes recuperados en "
+                  + pista.lector.getNanosRecuperacion() / 1000000 + " ms");
+            pista.lector.close();
+            metricas.registrarBytes(pista.lector.getBytesDescargados());
+            metricas.registrarReconexiones(pista.lector.getReconexiones(),
+                                           pista.lector.getNanosRecuperacion());
+            pista.lector = null;
+        }
+        if (pista.hls != null) {
+            Log.i(TAG, "Service - HLS: " + pista.hls.getSegmentos() + " segmentos, "
+                  + pista.hls.getCambiosVariante() + " cambios de variante, espera por datos: "
+                  + pista.hls.getNanosEspera() / 1000000 + " ms");
+            pista.hls.close();
+            metricas.registrarBytes(pista.hls.getBytesDescargados());
+            metricas.registrarCambiosVariante(pista.hls.getCambiosVariante());
+            pista.hls = null;
+        }
+        if (pista.entrada != null) {
+            cache.liberar(pista.entrada);
+            pista.entrada = null;
+        }
+    }
+
+    /**
+     * Obtiene los picos de la canción de la pista en segundo plano: los lee
+     * si ya se calcularon, o los calcula a medida que la canción llega a la
+     * caché (o de su descarga sin conexión). Las listas HLS no se analizan
+     * (no pasan por la caché).
+     * @param oyente Recibe los picos en el hilo del análisis.
+     */
+    void analizarPicos(Pista pista, AnalizadorPicos.Oyente oyente) {
+        if (pista.picos != null || ListaHls.esHls(pista.url))
+            return;
+
+        File destino = ArchivoPicos.archivo(directorioPicos, pista.url);
+        File descargada = archivoOffline(pista.url);
+        if (descargada != null)
+            pista.picos = new AnalizadorPicos(pista.url, descargada.getPath(), destino, oyente);
+        else if (URLUtil.isNetworkUrl(pista.url))
+            pista.picos = new AnalizadorPicos(pista.url, new FuenteEntradaCache(cache, pista.url),
+                                              destino, oyente);
+        else
+            pista.picos = new AnalizadorPicos(pista.url, pista.url, destino, oyente);
+        ejecutorPicos.execute(pista.picos);
+    }
+
+    /**
+     * @return Bytes de la canción ya disponibles localmente (en caché).
+     */
+    long bytesDisponibles(Pista pista) {
+        EntradaCache entrada = pista.entrada;
+        return entrada != null ? entrada.getDescargados() : 0;
+    }
+
+    /**
+     * @return True si la pista tiene poco por delante de la reproducción y
+     * aún lo está descargando.
+     */
+    boolean necesitaDatos(Pista pista) {
+        LectorStreaming lector = pista.lector;
+        LectorHls hls = pista.hls;
+        DescargaCache descarga = pista.descarga;
+        if (lector != null)
+            return lector.getBytesPorDelante() < MARGEN_REPRODUCCION;
+        if (hls != null)
+            return hls.getBytesPorDelante() < MARGEN_REPRODUCCION;
+        if (descarga != null)
+            return descarga.getBytesPorDelante() < MARGEN_REPRODUCCION;
+        return false;
+    }
+
+    /**
+     * @return True si la canción de la pista aún se está descargando.
+     */
+    boolean estaDescargando(Pista pista) {
+        LectorStreaming lector = pista.lector;
+        LectorHls hls = pista.hls;
+        DescargaCache descarga = pista.descarga;
+        return lector != null && lector.getBytesPorDelante() != Long.MAX_VALUE
+               || hls != null && hls.getBytesPorDelante() != Long.MAX_VALUE
+               || descarga != null && descarga.getBytesPorDelante() != Long.MAX_VALUE;
+    }
+
+    /**
+     * @return Bytes de los buffers libres de los pools de streaming.
+     */
+    long bytesBuffersLibres() {
+        return poolBuffers.bytesLibres() + poolBloques.bytesLibres();
+    }
+
+    /**
+     * @return Bytes de lectura de las precargas en curso (lo descargado va
+     * a la caché en disco).
+     */
+    long bytesPrecargas() {
+        return (long) precarga.getSimultaneas() * DescargaCache.TAMANIO_BLOQUE;
+    }
+
+    /**
+     * @return Bytes que ocupa en memoria la fuente de la pista: el buffer
+     * circular y el bloque de red si se lee por streaming o por HLS, o el
+     * bloque de la descarga a la caché.
+     */
+    long bytesEnUso(Pista pista) {
+        if (pista.lector != null || pista.hls != null)
+            return TAMANIO_BUFFER_STREAMING + TAMANIO_BLOQUE_RED;
+        if (pista.descarga != null)
+            return DescargaCache.TAMANIO_BLOQUE;
+        return 0;
+    }
+
+    /**
+     * Libera memoria cuando el sistema lo pide.
+     * @param buffers Descarta los buffers libres de los pools.
+     * @param precargas Cancela las precargas en curso (se reprograman con
+     * el siguiente cambio de canción).
+     */
+    void liberarMemoria(boolean buffers, boolean precargas) {
+        if (buffers) {
+            poolBuffers.vaciar();
+            poolBloques.vaciar();
+        }
+        if (precargas)
+            precarga.cancelarTodo();
+    }
+
+    /**
+     * Reemplaza la lista de canciones a precargar; las precargas de
+     * canciones que ya no están en la lista se cancelan.
+     * @param urls Próximas canciones, en orden de reproducción.
+     */
+    void precargar(List<String> urls) {
+        List<String> deRed = new ArrayList<>(urls.size());
+        for (String url : urls)
+            // Las listas HLS no se precargan: la variante se elige al
+            // reproducir. Las descargadas sin conexión no lo necesitan.
+            if (URLUtil.isNetworkUrl(url) && !ListaHls.esHls(url) && archivoOffline(url) == null)
+                deRed.add(url);
+        precarga.programar(deRed, BYTES_PRECARGA);
+    }
+
+    /**
+     * Escribe el estado de la caché, de la precarga y de las conexiones
+     * HTTP (para dumpsys).
+     */
+    void volcar(PrintWriter salida) {
+        salida.println(String.format(Locale.ROOT,
+                "Caché: %d KB; precarga: %d KB en %d canciones, %.0f KB/s, %d en curso",
+                cache.tamanioActual() / 1024,
+                precarga.getBytesDescargados() / 1024,
+                precarga.getCompletadas(),
+                precarga.getAnchoDeBanda() / 1024,
+                precarga.getSimultaneas()));
+        ClienteHttp.volcar(salida);
+    }
+
+    /**
+     * Detiene todas las descargas pendientes.
+     */
+    void cerrar() {
+        precarga.cerrar();
+        ejecutorDescargas.shutdownNow();
+        ejecutorPicos.shutdownNow();
+    }
+}
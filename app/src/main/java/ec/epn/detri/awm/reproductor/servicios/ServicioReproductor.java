@@ -1,37 +1,638 @@
 package ec.epn.detri.awm.reproductor.servicios;
 
+import android.app.ActivityManager;
+import android.app.Notification;
+import android.app.NotificationManager;
 import android.app.Service;
+import android.content.BroadcastReceiver;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
+import android.graphics.Bitmap;
 import android.media.AudioManager;
+import android.media.MediaMetadata;
 import android.media.MediaPlayer;
+import android.media.session.MediaSession;
+import android.media.session.PlaybackState;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.Process;
+import android.os.RemoteCallbackList;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.os.Trace;
 import android.util.Log;
 
+import java.io.File;
+import java.io.FileDescriptor;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import ec.epn.detri.awm.reproductor.audio.AnalizadorPicos;
+import ec.epn.detri.awm.reproductor.audio.ProcesadorAudio;
+import ec.epn.detri.awm.reproductor.audio.Reproductor;
+import ec.epn.detri.awm.reproductor.cola.ColaPersistente;
+import ec.epn.detri.awm.reproductor.cola.RegistroPosicion;
+import ec.epn.detri.awm.reproductor.descargas.AlmacenOffline;
+import ec.epn.detri.awm.reproductor.metadatos.Metadatos;
+import ec.epn.detri.awm.reproductor.metadatos.ProveedorMetadatos;
+import ec.epn.detri.awm.reproductor.metricas.MetricasReproduccion;
+import ec.epn.detri.awm.reproductor.red.ClienteHttp;
+import ec.epn.detri.awm.reproductor.red.EsperaReintentos;
 
 /**
- * Servicio de música que extiende a la clase Service y usa MediaPlayer
+ * Servicio de música que extiende a la clase Service y usa un Reproductor
  * para descargar y reproducir una canción en segundo plano. Aunque este
- * se ejecuta en el hilo principal, este implementa MdiaPlayer.OnPreparedListener
+ * se ejecuta en el hilo principal, este implementa Reproductor.Oyente
  * para evitar bloquear el hilo principal mientras la canción se reproduce.
+ *
+ * La cola de reproducción se guarda en disco (ColaPersistente) y se
+ * recupera al crear el servicio. La posición de la canción actual se guarda
+ * periódicamente (RegistroPosicion), de modo que si el proceso muere, la
+ * primera canción que se vuelve a cargar retoma donde se quedó, pidiendo
+ * por Range sólo los bytes desde ese punto.
+ *
+ * Las canciones se reproducen con MediaPlayer o, si se elige con
+ * IReproductor.usarMotor(), con MediaCodec y AudioTrack (ver MotorAudio);
+ * el cambio rige desde la siguiente canción que se carga.
+ *
+ * Las canciones encoladas se preparan por adelantado en un segundo
+ * reproductor y se encadenan con setSiguiente(), de modo que el paso
+ * de una canción a otra no tiene silencio ni espera de preparación. El
+ * inicio de las que vienen después se precarga en la caché, para que
+ * saltar a ellas no dependa de la red. Cuál es la canción actual y cuál
+ * la siguiente lo lleva ControlPistas, que no depende de Android.
+ *
+ * El volumen de cada canción se normaliza con el ReplayGain de su etiqueta
+ * y, con el motor de MediaCodec, el paso entre canciones puede ser un
+ * fundido (IReproductor.usarFundido()); ver ProcesadorAudio.
+ *
+ * Los clientes pueden vincularse al servicio (bindService) y controlarlo
+ * con la interfaz IReproductor, sin pasar un intent por cada comando.
+ *
+ * Mientras suena (o se prepara) una canción, el servicio está en primer
+ * plano con una notificación multimedia ligada a una MediaSession, para
+ * que el sistema no mate el proceso en segundo plano. Respeta el foco de
+ * audio, pausa al desconectar los audífonos, retiene la CPU y el Wi-Fi sólo
+ * mientras descarga, y libera memoria en onTrimMemory(), en onLowMemory(),
+ * tras un rato en pausa o detenido (ver PoliticaMemoria) y cuando pasa de
+ * su presupuesto (ver GestorMemoria).
+ *
+ * El título, artista y carátula de la notificación y de la MediaSession
+ * salen de la etiqueta ID3 de la canción (ver ProveedorMetadatos); mientras
+ * se leen se muestra el nombre del archivo.
+ *
+ * Los picos de la canción actual (para la forma de onda de la barra de
+ * progreso) se calculan en segundo plano a medida que la canción llega a
+ * la caché, y se envían a los clientes con alCalcularPicos().
+ *
+ * Las métricas de rendimiento se consultan con IReproductor.obtenerMetricas()
+ * o con "adb shell dumpsys activity service .servicios.ServicioReproductor",
+ * y las etapas principales aparecen como secciones en las trazas del sistema
+ * (systrace/Perfetto).
  */
-public class ServicioReproductor extends Service implements MediaPlayer.OnPreparedListener {
+public class ServicioReproductor extends Service
+        implements Reproductor.Oyente {
     /**
      * TAg de depuración
      */
     private final String TAG = getClass().getSimpleName();
 
     /**
-     * Auxiliar que guarda el estado de si una canción se está reproduciendo actualmente.
+     * Acción del intent para agregar una canción al final de la cola en
+     * lugar de reproducirla inmediatamente.
+     */
+    public static final String ACCION_ENCOLAR =
+            "ec.epn.detri.awm.reproductor.action.ENCOLAR";
+
+    /**
+     * Acciones del intent para controlar la reproducción sin vincularse.
+     */
+    public static final String ACCION_PAUSAR =
+            "ec.epn.detri.awm.reproductor.action.PAUSAR";
+    public static final String ACCION_REANUDAR =
+            "ec.epn.detri.awm.reproductor.action.REANUDAR";
+    public static final String ACCION_DETENER =
+            "ec.epn.detri.awm.reproductor.action.DETENER";
+    public static final String ACCION_SIGUIENTE =
+            "ec.epn.detri.awm.reproductor.action.SIGUIENTE";
+
+    /**
+     * Extra del intent de ActividadReproductor con la duración del fundido
+     * entre canciones en ms (ver IReproductor.usarFundido()).
+     */
+    public static final String EXTRA_FUNDIDO = "fundido";
+
+    /**
+     * Número de reproductores que se reutilizan: la canción actual, la
+     * siguiente y uno de reserva mientras se reinicia el anterior.
+     */
+    private static final int MAXIMO_REPRODUCTORES = 3;
+
+    /**
+     * Cada cuánto se vuelve a publicar el estado compartido mientras suena
+     * una canción, para corregir la estimación de posición de la UI.
+     */
+    private static final long INTERVALO_PUBLICACION_MS = 1000;
+
+    /**
+     * Nombre del registro de la cola dentro de getFilesDir().
+     */
+    private static final String ARCHIVO_COLA = "cola";
+
+    /**
+     * Nombre del registro de la posición dentro de getFilesDir().
+     */
+    private static final String ARCHIVO_POSICION = "posicion";
+
+    /**
+     * Lado de la carátula de la notificación (el icono grande mide 64dp;
+     * el doble cubre la pantalla de bloqueo y los controles del sistema).
+     */
+    private static final int LADO_CARATULA_DP = 128;
+
+    /**
+     * Tamaño de las cachés de metadatos: unas 60 carátulas decodificadas en
+     * memoria y unos cientos de entradas en disco.
+     */
+    private static final int BYTES_MEMORIA_METADATOS = 4 * 1024 * 1024;
+    private static final long BYTES_DISCO_METADATOS = 10 * 1024 * 1024;
+
+    /**
+     * Presupuesto de memoria de los componentes medidos (ver GestorMemoria),
+     * en equipos normales y en los de poca RAM. Con el de poca RAM no caben,
+     * mientras suena, los reproductores y buffers libres ni las carátulas.
+     * Se cambia con "dumpsys ... presupuesto <KB>".
+     */
+    private static final long PRESUPUESTO_MEMORIA = 16 * 1024 * 1024;
+    private static final long PRESUPUESTO_MEMORIA_POCA_RAM = 8 * 1024 * 1024;
+
+    /**
+     * Número de canciones que se precargan después de la siguiente.
+     */
+    private static final int CANCIONES_PRECARGADAS = 3;
+
+    /**
+     * Intervalo y tiempo máximo con que se revisa si la canción ya empezó a
+     * sonar (el reproductor no avisa cuando sale el primer audio).
+     */
+    private static final long INTERVALO_PRIMER_AUDIO_MS = 10;
+    private static final long ESPERA_MAXIMA_PRIMER_AUDIO_MS = 5000;
+
+    /**
+     * Volumen mientras otra app pide atenuar el audio (antes de Android 8).
+     */
+    private static final float VOLUMEN_ATENUADO = 0.2f;
+
+    /**
+     * Duración máxima del fundido entre canciones.
+     */
+    private static final int FUNDIDO_MAXIMO_MS = 12000;
+
+    /**
+     * Acciones que la MediaSession acepta de los controles del sistema.
+     */
+    private static final long ACCIONES_SESION = PlaybackState.ACTION_PLAY
+                                                | PlaybackState.ACTION_PAUSE
+                                                | PlaybackState.ACTION_PLAY_PAUSE
+                                                | PlaybackState.ACTION_STOP
+                                                | PlaybackState.ACTION_SKIP_TO_NEXT
+                                                | PlaybackState.ACTION_SEEK_TO;
+
+    /**
+     * Pool de reproductores reutilizados entre canciones.
+     */
+    private PoolReproductores mPoolReproductores;
+
+    /**
+     * Duración del fundido entre canciones (0 para pasar sin pausa, sin
+     * fundido).
+     */
+    private int mFundidoMs;
+
+    /**
+     * Decide de dónde lee cada canción (caché o red).
+     */
+    private ProveedorFuentes mFuentes;
+
+    /**
+     * Cola de reproducción. Su canción actual es la pista actual de
+     * mControl, y la que le sigue en la cola es la siguiente.
+     */
+    private ColaPersistente mCola;
+
+    /**
+     * Último punto de control de la posición de la canción actual.
+     */
+    private RegistroPosicion mRegistroPosicion;
+
+    /**
+     * True hasta que se carga la primera canción después de crear el
+     * servicio: si es la del punto de control, se retoma en esa posición.
+     */
+    private boolean mPosicionPorRetomar;
+
+    /**
+     * Canción actual y siguiente, y sus cambios con los comandos y los
+     * avisos de los reproductores.
+     */
+    private ControlPistas mControl;
+
+    /**
+     * Lo que mControl hace a través del servicio.
+     */
+    private final ControlPistas.Entorno mEntorno = new ControlPistas.Entorno() {
+        @Override
+        public Pista cargar(String url, long inicioComando) {
+            return cargarPista(url, inicioComando);
+        }
+
+        @Override
+        public void liberar(Pista pista) {
+            liberarPista(pista);
+        }
+
+        @Override
+        public void programarPrecarga() {
+            ServicioReproductor.this.programarPrecarga();
+        }
+
+        @Override
+        public long ahora() {
+            return System.nanoTime();
+        }
+    };
+
+    /**
+     * Esperas entre los intentos de preparar la siguiente canción tras
+     * errores de su reproductor (null si no falló).
+     */
+    private EsperaReintentos mEsperaSiguiente;
+
+    /**
+     * Vuelve a preparar la siguiente canción tras un error; no hace nada si
+     * ya no suena nada o la siguiente ya se cargó.
+     */
+    private final Runnable mPreparacionSiguiente = () -> {
+        if (mControl.getActual() != null)
+            mControl.prepararSiguiente();
+    };
+
+    /**
+     * Contador usado para identificar las pistas en el estado compartido.
+     */
+    private long mContadorPistas;
+
+    /**
+     * Métricas de rendimiento de la reproducción.
+     */
+    private final MetricasReproduccion mMetricas = new MetricasReproduccion();
+
+    /**
+     * Estado de la reproducción publicado en memoria compartida para la UI
+     * (null si no se pudo mapear el archivo).
+     */
+    private EstadoCompartido mEstadoCompartido;
+
+    /**
+     * Último estado publicado, con el que se responden las consultas por
+     * Binder: llegan en otro hilo y no deben tocar los reproductores (que
+     * el hilo principal reinicia o libera en cualquier momento). Cada
+     * publicación crea una instantánea nueva, que ya no se modifica.
+     */
+    private volatile EstadoCompartido.Instantanea mPublicado =
+            new EstadoCompartido.Instantanea();
+
+    /**
+     * Publica periódicamente el estado mientras se reproduce.
+     */
+    private final Runnable mPublicacionPeriodica = new Runnable() {
+        @Override
+        public void run() {
+            recordarPosicion();
+            publicarEstado();
+            actualizarBloqueo();
+            ajustarMemoria();
+            if (mControl.estado() == EstadoReproduccion.REPRODUCIENDO) {
+                guardarPosicion(false);
+                mManejador.postDelayed(this, INTERVALO_PUBLICACION_MS);
+            }
+        }
+    };
+
+    /**
+     * Huella de memoria de los componentes y su presupuesto.
+     */
+    private GestorMemoria mGestorMemoria;
+
+    /**
+     * Libera los recursos cuando la reproducción lleva un rato en pausa o
+     * detenida (ver PoliticaMemoria.recursosEnReposo()).
+     */
+    private final Runnable mLiberacionEnReposo = new Runnable() {
+        @Override
+        public void run() {
+            int recursos = PoliticaMemoria.recursosEnReposo(mControl.estado());
+            if (recursos == 0)
+                return;
+            Log.i(TAG, "Service - en reposo: liberando " + recursos);
+            liberarRecursos(recursos);
+        }
+    };
+
+    /**
+     * Estado con el que se programó mLiberacionEnReposo.
+     */
+    private int mEstadoReposo = EstadoReproduccion.DETENIDO;
+
+    /**
+     * True si la pausa se debe a una pérdida temporal del foco de audio (la
+     * canción se reanuda al recuperarlo).
+     */
+    private boolean mPausadoPorFoco;
+
+    /**
+     * Sesión multimedia: expone el estado y recibe los controles de la
+     * notificación, la pantalla de bloqueo y los audífonos.
+     */
+    private MediaSession mSesion;
+
+    /**
+     * Constructor del estado de la sesión, reutilizado en cada cambio.
+     */
+    private final PlaybackState.Builder mEstadoSesion =
+            new PlaybackState.Builder().setActions(ACCIONES_SESION);
+
+    private NotificacionReproductor mNotificacion;
+
+    private ProveedorMetadatos mMetadatos;
+
+    private FocoAudio mFoco;
+
+    private BloqueoStreaming mBloqueo;
+
+    /**
+     * True mientras el servicio está en primer plano.
+     */
+    private boolean mEnPrimerPlano;
+
+    /**
+     * Estado y pista que muestra la notificación, para reconstruirla sólo
+     * cuando cambian.
+     */
+    private int mEstadoNotificado = EstadoReproduccion.DETENIDO;
+    private Pista mPistaNotificada;
+
+    /**
+     * Pista cuyos picos se pidieron, y los picos de la canción actual una
+     * vez calculados (para los clientes que se registren después).
+     */
+    private Pista mPistaPicos;
+    private String mUrlPicos;
+    private byte[] mPicos;
+
+    /**
+     * True mientras se escucha la desconexión de los audífonos.
+     */
+    private boolean mEscuchandoDesconexiones;
+
+    /**
+     * Pausa la reproducción al desconectar los audífonos, antes de que el
+     * audio pase al parlante.
+     */
+    private final BroadcastReceiver mReceptorDesconexion = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context contexto, Intent intent) {
+            pausarCancion(false);
+        }
+    };
+
+    /**
+     * Pausa, reanuda o atenúa la reproducción según el foco de audio.
+     */
+    private final FocoAudio.Oyente mOyenteFoco = new FocoAudio.Oyente() {
+        @Override
+        public void alPerderFoco(boolean temporal) {
+            pausarCancion(temporal);
+        }
+
+        @Override
+        public void alRecuperarFoco() {
+            asignarVolumen(1f);
+            if (mPausadoPorFoco)
+                reanudarCancion();
+        }
+
+        @Override
+        public void alAtenuar() {
+            asignarVolumen(VOLUMEN_ATENUADO);
+        }
+    };
+
+    /**
+     * Actualiza la notificación cuando llegan los metadatos de la canción
+     * actual, y la ganancia de la actual o la siguiente.
+     */
+    private final ProveedorMetadatos.Oyente mOyenteMetadatos = (url, metadatos) -> {
+        Pista siguiente = mControl.getSiguiente();
+        if (siguiente != null && siguiente.url.equals(url))
+            asignarGanancia(siguiente, metadatos);
+        Pista pista = mControl.getActual();
+        if (pista != null && pista.url.equals(url)) {
+            asignarGanancia(pista, metadatos);
+            if (pista == mPistaNotificada) {
+                mPistaNotificada = null;
+                notificarEstado();
+            }
+        }
+    };
+
+    /**
+     * Controles que llegan por la MediaSession (se ejecutan en el hilo
+     * principal).
+     */
+    private final MediaSession.Callback mCallbackSesion = new MediaSession.Callback() {
+        @Override
+        public void onPlay() {
+            reanudarCancion();
+        }
+
+        @Override
+        public void onPause() {
+            pausarCancion(false);
+        }
+
+        @Override
+        public void onSkipToNext() {
+            pasarASiguiente();
+        }
+
+        @Override
+        public void onStop() {
+            detenerCancion();
+            detenerSiInactivo();
+        }
+
+        @Override
+        public void onSeekTo(long posicionMs) {
+            buscarPosicion((int) posicionMs);
+        }
+    };
+
+    /**
+     * True si hay clientes vinculados al servicio.
+     */
+    private boolean mVinculado;
+
+    /**
+     * True si el servicio se inició a sí mismo para seguir vivo sin clientes.
+     */
+    private boolean mIniciado;
+
+    /**
+     * Manejador del hilo principal: los comandos que llegan por Binder se
+     * ejecutan aquí, igual que los que llegan por intent.
      */
-    private static boolean auxReproduciendo;
+    private final Handler mManejador = new Handler(Looper.getMainLooper());
 
     /**
-     * Referencia al objeto MediaPlayer que reproduce una canción en background
+     * Clientes que reciben los cambios de estado.
      */
-    private MediaPlayer mPlayer;
+    private final RemoteCallbackList<ICallbackReproductor> mCallbacks =
+            new RemoteCallbackList<>();
+
+    /**
+     * Guarda los picos de la canción actual y los envía a los clientes. Se
+     * invoca en el hilo del análisis.
+     */
+    private final AnalizadorPicos.Oyente mOyentePicos = (url, picos) -> mManejador.post(() -> {
+        Pista pista = mControl.getActual();
+        if (pista == null || !pista.url.equals(url))
+            return;
+        mUrlPicos = url;
+        mPicos = picos;
+
+        int clientes = mCallbacks.beginBroadcast();
+        for (int i = 0; i < clientes; i++)
+            enviarPicos(mCallbacks.getBroadcastItem(i));
+        mCallbacks.finishBroadcast();
+    });
+
+    /**
+     * Implementación de la interfaz de control. Los comandos se envían al
+     * hilo principal; las consultas leen el estado directamente.
+     */
+    private final IReproductor.Stub mBinder = new IReproductor.Stub() {
+        @Override
+        public void reproducir(final String url) {
+            final long inicio = registrarComando();
+            mManejador.post(() -> reproducirCancion(url, inicio));
+        }
+
+        @Override
+        public void encolar(final List<String> urls) {
+            final long inicio = registrarComando();
+            mManejador.post(() -> encolarCanciones(urls, inicio));
+        }
+
+        @Override
+        public void pausar() {
+            mManejador.post(() -> pausarCancion(false));
+        }
+
+        @Override
+        public void reanudar() {
+            mManejador.post(() -> reanudarCancion());
+        }
+
+        @Override
+        public void detener() {
+            mManejador.post(() -> detenerCancion());
+        }
+
+        @Override
+        public void saltarA(final int posicionMs) {
+            mManejador.post(() -> buscarPosicion(posicionMs));
+        }
+
+        @Override
+        public void siguiente() {
+            mManejador.post(() -> pasarASiguiente());
+        }
+
+        @Override
+        public void moverEnCola(final int desde, final int hasta) {
+            mManejador.post(() -> moverEnLaCola(desde, hasta));
+        }
+
+        @Override
+        public void eliminarDeCola(final int indice) {
+            mManejador.post(() -> eliminarDeLaCola(indice));
+        }
+
+        @Override
+        public void usarMotor(final int motor) {
+            mManejador.post(() -> cambiarMotor(motor));
+        }
+
+        @Override
+        public void usarFundido(final int ms) {
+            mManejador.post(() -> cambiarFundido(ms));
+        }
+
+        @Override
+        public int obtenerEstado() {
+            return mPublicado.estado;
+        }
+
+        @Override
+        public int obtenerPosicion() {
+            return (int) mPublicado.posicionEstimada(SystemClock.elapsedRealtime());
+        }
+
+        @Override
+        public int obtenerDuracion() {
+            return (int) mPublicado.duracionMs;
+        }
+
+        @Override
+        public Bundle obtenerMetricas() {
+            Map<String, Long> valores = new TreeMap<>();
+            mMetricas.exportar(valores);
+            ClienteHttp.exportar(valores);
+            mGestorMemoria.exportar(valores);
+
+            Bundle metricas = new Bundle();
+            for (Map.Entry<String, Long> valor : valores.entrySet())
+                metricas.putLong(valor.getKey(), valor.getValue());
+            return metricas;
+        }
+
+        @Override
+        public void registrarCallback(ICallbackReproductor callback) {
+            if (callback != null) {
+                mCallbacks.register(callback);
+                mManejador.post(() -> enviarPicos(callback));
+            }
+        }
+
+        @Override
+        public void eliminarCallback(ICallbackReproductor callback) {
+            if (callback != null)
+                mCallbacks.unregister(callback);
+        }
+    };
 
     /**
      * Fabrica un intent explícito usando para iniciar y detener la reproducción
@@ -44,6 +645,14 @@ public class ServicioReproductor extends Service implements MediaPlayer.OnPrepar
 
     }
 
+    /**
+     * Fabrica un intent explícito para agregar una canción a la cola.
+     */
+    public static Intent fabricarIntentEncolar(Context context, Uri URLCancion) {
+        return fabricarIntent(context, URLCancion)
+            .setAction(ACCION_ENCOLAR);
+    }
+
     /**
      * Callback invocado cuando se crea la instancia de un Servicio.
      * El código de inicialización va aquí.
@@ -54,11 +663,80 @@ public class ServicioReproductor extends Service implements MediaPlayer.OnPrepar
 
         super.onCreate();
 
-        // Crea un objeto MediaPlayer que reproducirá una canción.
-        mPlayer = new MediaPlayer();
+        mPoolReproductores = new PoolReproductores(MAXIMO_REPRODUCTORES);
+        mFuentes = new ProveedorFuentes(new File(getCacheDir(), "audio"),
+                                        new File(getCacheDir(), "picos"),
+                                        new AlmacenOffline(new File(getFilesDir(),
+                                                                    AlmacenOffline.DIRECTORIO)),
+                                        () -> {
+            // La precarga cede el ancho de banda si la canción actual lo necesita.
+            Pista pista = mControl.getActual();
+            return pista != null && mFuentes.necesitaDatos(pista);
+        }, mMetricas);
+
+        long inicio = System.nanoTime();
+        mCola = ColaPersistente.abrir(new File(getFilesDir(), ARCHIVO_COLA));
+        Log.i(TAG, "Service - cola recuperada: " + mCola.tamanio() + " canciones en "
+              + milisDesde(inicio) + " ms");
+        if (!mCola.esPersistente())
+            Log.w(TAG, "Service - la cola no se podrá guardar");
+        mControl = new ControlPistas(mCola, mEntorno);
 
-        // Indica que el MediaPlayer transmitirá el audio.
-        mPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
+        mRegistroPosicion = RegistroPosicion.abrir(new File(getFilesDir(), ARCHIVO_POSICION));
+        mPosicionPorRetomar = mRegistroPosicion.getUrl() != null;
+
+        try {
+            mEstadoCompartido = EstadoCompartido.abrir(
+                    new File(getFilesDir(), EstadoCompartido.NOMBRE_ARCHIVO));
+        } catch (IOException e) {
+            Log.w(TAG, "Service - no se pudo mapear el estado compartido", e);
+        }
+
+        mSesion = new MediaSession(this, TAG);
+        mSesion.setCallback(mCallbackSesion, mManejador);
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O)
+            mSesion.setFlags(MediaSession.FLAG_HANDLES_MEDIA_BUTTONS
+                             | MediaSession.FLAG_HANDLES_TRANSPORT_CONTROLS);
+        mNotificacion = new NotificacionReproductor(this, mSesion.getSessionToken());
+        mMetadatos = new ProveedorMetadatos(
+                new File(getCacheDir(), "metadatos"), BYTES_DISCO_METADATOS,
+                BYTES_MEMORIA_METADATOS,
+                Math.round(LADO_CARATULA_DP * getResources().getDisplayMetrics().density),
+                mFuentes::archivoOffline, mManejador);
+        mGestorMemoria = crearGestorMemoria();
+        mFoco = new FocoAudio(this, mManejador, mOyenteFoco);
+        mBloqueo = new BloqueoStreaming(this);
+    }
+
+    /**
+     * Registra los componentes cuya memoria se cuenta. El presupuesto
+     * depende de si el sistema considera el equipo de poca RAM.
+     */
+    private GestorMemoria crearGestorMemoria() {
+        ActivityManager actividades = (ActivityManager) getSystemService(ACTIVITY_SERVICE);
+        GestorMemoria gestor = new GestorMemoria(
+                actividades != null && actividades.isLowRamDevice()
+                        ? PRESUPUESTO_MEMORIA_POCA_RAM
+                        : PRESUPUESTO_MEMORIA);
+        gestor.registrar("pista_actual", 0, () -> bytesPista(mControl.getActual()));
+        gestor.registrar("pista_siguiente", PoliticaMemoria.SIGUIENTE,
+                         () -> bytesPista(mControl.getSiguiente()));
+        gestor.registrar("reproductores_libres", PoliticaMemoria.REPRODUCTORES_LIBRES,
+                         mPoolReproductores::bytesLibres);
+        gestor.registrar("buffers_libres", PoliticaMemoria.BUFFERS_LIBRES,
+                         mFuentes::bytesBuffersLibres);
+        gestor.registrar("precargas", PoliticaMemoria.PRECARGAS, mFuentes::bytesPrecargas);
+        gestor.registrar("metadatos", PoliticaMemoria.METADATOS, mMetadatos::bytesEnMemoria);
+        return gestor;
+    }
+
+    /**
+     * @return Memoria estimada del reproductor y de la fuente de la pista.
+     */
+    private long bytesPista(Pista pista) {
+        return pista != null
+                ? PoolReproductores.bytesEstimados(pista.player, true) + mFuentes.bytesEnUso(pista)
+                : 0;
     }
 
     /**
@@ -68,9 +746,29 @@ public class ServicioReproductor extends Service implements MediaPlayer.OnPrepar
     public void onDestroy() {
         Log.i(TAG,"Service - ejecutando onDestroy()");
 
-        // Detener la canción
+        // Guarda dónde se quedó antes de detener la canción.
+        guardarPosicion(true);
         detenerCancion();
 
+        mPoolReproductores.liberarTodo();
+        mFuentes.cerrar();
+        mMetadatos.cerrar();
+        mCola.close();
+        mRegistroPosicion.close();
+        mManejador.removeCallbacksAndMessages(null);
+        mCallbacks.kill();
+        mBloqueo.asignar(false);
+        mSesion.release();
+
+        if (mEstadoCompartido != null) {
+            try {
+                mEstadoCompartido.close();
+            } catch (IOException e) {
+                // El mapeo se libera igual al terminar el proceso.
+            }
+            mEstadoCompartido = null;
+        }
+
         super.onDestroy();
     }
 
@@ -81,71 +779,879 @@ public class ServicioReproductor extends Service implements MediaPlayer.OnPrepar
     public int onStartCommand(Intent intent,
                               int flags,
                               int startid) {
+        final long inicio = registrarComando();
+
         // Extrae la URL de la canción a reproducir.
         final String UrlCancion = intent.getDataString();
+        final String accion = intent.getAction();
 
         Log.i(TAG,
               "Service -ejecutando onStartCommand()"  + UrlCancion);
 
-        if (auxReproduciendo)
-            // Detener la reproducción actual
+        if (ACCION_ENCOLAR.equals(accion))
+            encolarCanciones(Collections.singletonList(UrlCancion), inicio);
+        else if (ACCION_PAUSAR.equals(accion))
+            pausarCancion(false);
+        else if (ACCION_REANUDAR.equals(accion))
+            reanudarCancion();
+        else if (ACCION_SIGUIENTE.equals(accion))
+            pasarASiguiente();
+        else if (ACCION_DETENER.equals(accion)) {
             detenerCancion();
+            detenerSiInactivo();
+        } else if (UrlCancion != null)
+            reproducirCancion(UrlCancion, inicio);
+
+        // No reinicie el servicio si éste se apaga.
+        return START_NOT_STICKY;
+    }
+
+    /**
+     * Reproduce inmediatamente la canción indicada. La canción se inserta
+     * en la cola justo después de la actual.
+     * @param inicioComando Instante (System.nanoTime()) en que llegó el comando.
+     */
+    private void reproducirCancion(String urlCancion, long inicioComando) {
+        if (!mFoco.solicitar()) {
+            Log.w(TAG, "Service - sin foco de audio, no se reproduce " + urlCancion);
+            return;
+        }
+
+        mantenerIniciado();
+        mControl.reproducir(urlCancion, inicioComando);
+        notificarEstado();
+    }
+
+    /**
+     * Agrega canciones al final de la cola. Si no suena nada, empieza por
+     * la primera de las agregadas.
+     * @param inicioComando Instante (System.nanoTime()) en que llegó el comando.
+     */
+    private void encolarCanciones(List<String> urls, long inicioComando) {
+        if (urls.isEmpty())
+            return;
+
+        int primera = mCola.tamanio();
+        mCola.agregar(urls);
+
+        mantenerIniciado();
+        if (mControl.getActual() == null && mFoco.solicitar())
+            mControl.empezar(primera, inicioComando);
+        else if (mControl.getActual() != null)
+            mControl.prepararSiguiente();
+        notificarEstado();
+    }
+
+    /**
+     * Mueve una canción dentro de la cola.
+     */
+    private void moverEnLaCola(int desde, int hasta) {
+        if (desde < 0 || desde >= mCola.tamanio() || hasta < 0 || hasta >= mCola.tamanio())
+            return;
+
+        mCola.mover(desde, hasta);
+        mControl.sincronizarSiguiente();
+    }
+
+    /**
+     * Elimina una canción de la cola. Si es la actual, sigue sonando hasta
+     * terminar y luego pasa a la que ocupó su lugar.
+     */
+    private void eliminarDeLaCola(int indice) {
+        if (indice < 0 || indice >= mCola.tamanio())
+            return;
+
+        mCola.eliminar(indice);
+        mControl.sincronizarSiguiente();
+    }
+
+    /**
+     * Pausa la canción actual. Si aún se está preparando, no empezará a
+     * sonar al terminar de prepararse.
+     * @param porFoco True si se pausa por una pérdida temporal del foco de
+     * audio; la canción se reanudará al recuperarlo.
+     */
+    private void pausarCancion(boolean porFoco) {
+        if (mControl.pausar()) {
+            mPausadoPorFoco = porFoco;
+            guardarPosicion(true);
+            notificarEstado();
+        }
+    }
+
+    private void reanudarCancion() {
+        mPausadoPorFoco = false;
+        if (!mControl.puedeReanudar() || !mFoco.solicitar())
+            return;
+
+        if (mControl.getActual() == null)
+            mantenerIniciado();
+        mControl.reanudar();
+        notificarEstado();
+    }
+
+    private void buscarPosicion(int posicionMs) {
+        if (mControl.saltarA(posicionMs))
+            notificarEstado();
+    }
+
+    /**
+     * Descarta la canción actual y pasa a la siguiente de la cola.
+     */
+    private void pasarASiguiente() {
+        if (mControl.pasarASiguiente())
+            notificarEstado();
+    }
+
+    /**
+     * Anota la posición de la canción actual por si el reproductor falla.
+     */
+    private void recordarPosicion() {
+        Pista pista = mControl.getActual();
+        if (pista != null && pista.preparada) {
+            pista.ultimaPosicion = pista.player.getPosicion();
+            pista.ultimaDuracion = pista.player.getDuracion();
+        }
+    }
+
+    /**
+     * Guarda un punto de control de la posición de la canción actual.
+     * @param inmediato Si es false, la escritura se omite cuando la posición
+     * cambió poco desde el último punto de control.
+     */
+    private void guardarPosicion(boolean inmediato) {
+        Pista pista = mControl.getActual();
+        if (pista != null && pista.preparada)
+            mRegistroPosicion.guardar(pista.url, mControl.posicion(), mControl.duracion(),
+                                      inmediato);
+    }
+
+    /**
+     * Publica el estado actual para las consultas por Binder y lo escribe
+     * en la memoria compartida con la UI.
+     */
+    private void publicarEstado() {
+        Pista pista = mControl.getActual();
+        EstadoCompartido.Instantanea publicado = new EstadoCompartido.Instantanea();
+        publicado.estado = mControl.estado();
+        publicado.idPista = pista != null ? pista.id : 0;
+        publicado.posicionMs = mControl.posicion();
+        publicado.duracionMs = mControl.duracion();
+        publicado.bytesEnBuffer = pista != null ? mFuentes.bytesDisponibles(pista) : 0;
+        publicado.instante = SystemClock.elapsedRealtime();
+        mPublicado = publicado;
+
+        if (mEstadoCompartido != null)
+            mEstadoCompartido.publicar(publicado.estado,
+                                       publicado.idPista,
+                                       publicado.posicionMs,
+                                       publicado.duracionMs,
+                                       publicado.bytesEnBuffer,
+                                       publicado.instante);
+    }
+
+    /**
+     * Informa el estado actual a todos los clientes registrados, lo
+     * publica en la memoria compartida y en la MediaSession.
+     */
+    private void notificarEstado() {
+        mManejador.removeCallbacks(mPublicacionPeriodica);
+        mPublicacionPeriodica.run();
+
+        Pista pista = mControl.getActual();
+        int estado = mControl.estado();
+        String url = pista != null ? pista.url : null;
+        int posicion = mControl.posicion();
+        int duracion = mControl.duracion();
+
+        actualizarControles(estado, pista, posicion, duracion);
+        programarReposo(estado);
+        if (pista != mPistaPicos) {
+            mPistaPicos = pista;
+            if (pista != null)
+                mFuentes.analizarPicos(pista, mOyentePicos);
+        }
+
+        int clientes = mCallbacks.beginBroadcast();
+        for (int i = 0; i < clientes; i++)
+            try {
+                mCallbacks.getBroadcastItem(i).alCambiarEstado(estado, url, posicion, duracion);
+            } catch (RemoteException e) {
+                // RemoteCallbackList elimina por sí misma los clientes muertos.
+            }
+        mCallbacks.finishBroadcast();
+    }
+
+    /**
+     * Programa la liberación de recursos en reposo al entrar en pausa o
+     * detenerse, y la cancela al volver a sonar.
+     */
+    private void programarReposo(int estado) {
+        if (estado == mEstadoReposo)
+            return;
+        mEstadoReposo = estado;
+        mManejador.removeCallbacks(mLiberacionEnReposo);
+        if (PoliticaMemoria.recursosEnReposo(estado) != 0)
+            mManejador.postDelayed(mLiberacionEnReposo, PoliticaMemoria.ESPERA_REPOSO_MS);
+    }
+
+    /**
+     * Libera lo que haga falta para volver al presupuesto de memoria.
+     */
+    private void ajustarMemoria() {
+        int recursos = mGestorMemoria.recursosSobrePresupuesto(reproduciendo());
+        if (recursos == 0)
+            return;
+        Log.i(TAG, "Service - sobre el presupuesto de memoria: liberando " + recursos);
+        liberarRecursos(recursos);
+    }
+
+    /**
+     * @return True si hay una canción sonando o preparándose.
+     */
+    private boolean reproduciendo() {
+        int estado = mControl.estado();
+        return estado == EstadoReproduccion.PREPARANDO || estado == EstadoReproduccion.REPRODUCIENDO;
+    }
+
+    /**
+     * Envía al cliente los picos de la canción actual, si ya se calcularon.
+     */
+    private void enviarPicos(ICallbackReproductor callback) {
+        Pista pista = mControl.getActual();
+        if (mPicos == null || pista == null || !pista.url.equals(mUrlPicos))
+            return;
+        try {
+            callback.alCalcularPicos(mUrlPicos, mPicos);
+        } catch (RemoteException e) {
+            // RemoteCallbackList elimina por sí misma los clientes muertos.
+        }
+    }
+
+    /**
+     * Refleja el estado en la MediaSession y en la notificación:
+     * - mientras suena o se prepara una canción, el servicio está en primer
+     *   plano y escucha la desconexión de los audífonos;
+     * - en pausa la notificación queda, pero se puede descartar (salvo si la
+     *   pausa es por una llamada u otra pérdida temporal del foco);
+     * - detenido, se quitan la notificación y el foco de audio.
+     */
+    private void actualizarControles(int estado, Pista pista, int posicion, int duracion) {
+        mSesion.setPlaybackState(mEstadoSesion.setState(estadoSesion(estado),
+                                                        posicion,
+                                                        estado == EstadoReproduccion.REPRODUCIENDO ? 1f : 0f,
+                                                        SystemClock.elapsedRealtime())
+                                              .build());
+
+        if (estado == mEstadoNotificado && pista == mPistaNotificada)
+            return;
+        mEstadoNotificado = estado;
+        mPistaNotificada = pista;
+
+        escucharDesconexiones(estado == EstadoReproduccion.PREPARANDO
+                              || estado == EstadoReproduccion.REPRODUCIENDO);
+
+        if (estado == EstadoReproduccion.DETENIDO) {
+            stopForeground(true);
+            mEnPrimerPlano = false;
+            mSesion.setActive(false);
+            mFoco.abandonar();
+            return;
+        }
+
+        Metadatos metadatos = mMetadatos.obtener(pista.url, mOyenteMetadatos);
+        String titulo = metadatos != null && metadatos.titulo != null
+                ? metadatos.titulo
+                : titulo(pista);
+        String artista = metadatos != null ? metadatos.artista : null;
+        Bitmap caratula = metadatos != null ? metadatos.caratula : null;
+        if (duracion <= 0 && metadatos != null && metadatos.duracionMs > 0)
+            duracion = (int) metadatos.duracionMs;
+        mSesion.setMetadata(new MediaMetadata.Builder()
+                                    .putString(MediaMetadata.METADATA_KEY_TITLE, titulo)
+                                    .putString(MediaMetadata.METADATA_KEY_ARTIST, artista)
+                                    .putString(MediaMetadata.METADATA_KEY_ALBUM,
+                                               metadatos != null ? metadatos.album : null)
+                                    .putBitmap(MediaMetadata.METADATA_KEY_ALBUM_ART, caratula)
+                                    .putLong(MediaMetadata.METADATA_KEY_DURATION, duracion)
+                                    .build());
+        mSesion.setActive(true);
+
+        Notification notificacion = mNotificacion.construir(estado, titulo, artista, caratula);
+        if (estado == EstadoReproduccion.PAUSADO && !mPausadoPorFoco) {
+            stopForeground(false);
+            mEnPrimerPlano = false;
+            ((NotificationManager) getSystemService(NOTIFICATION_SERVICE))
+                    .notify(NotificacionReproductor.ID, notificacion);
+        } else
+            iniciarPrimerPlano(notificacion);
+    }
+
+    private void iniciarPrimerPlano(Notification notificacion) {
+        try {
+            startForeground(NotificacionReproductor.ID, notificacion);
+            mEnPrimerPlano = true;
+        } catch (IllegalStateException e) {
+            // Android 12+ no permite pasar a primer plano desde segundo plano
+            // salvo excepciones (p.ej. los botones de la notificación).
+            Log.w(TAG, "Service - no se pudo pasar a primer plano", e);
+            ((NotificationManager) getSystemService(NOTIFICATION_SERVICE))
+                    .notify(NotificacionReproductor.ID, notificacion);
+        }
+    }
+
+    private void escucharDesconexiones(boolean escuchar) {
+        if (escuchar == mEscuchandoDesconexiones)
+            return;
+
+        if (escuchar)
+            registerReceiver(mReceptorDesconexion,
+                             new IntentFilter(AudioManager.ACTION_AUDIO_BECOMING_NOISY));
+        else
+            unregisterReceiver(mReceptorDesconexion);
+        mEscuchandoDesconexiones = escuchar;
+    }
+
+    /**
+     * Retiene la CPU y el Wi-Fi sólo mientras la canción actual o la
+     * siguiente se están descargando y la reproducción no está en pausa.
+     */
+    private void actualizarBloqueo() {
+        int estado = mControl.estado();
+        boolean activa = estado == EstadoReproduccion.PREPARANDO
+                         || estado == EstadoReproduccion.REPRODUCIENDO;
+        Pista actual = mControl.getActual();
+        Pista siguiente = mControl.getSiguiente();
+        mBloqueo.asignar(activa
+                         && (actual != null && mFuentes.estaDescargando(actual)
+                             || siguiente != null && mFuentes.estaDescargando(siguiente)));
+    }
+
+    private void asignarVolumen(float volumen) {
+        Pista actual = mControl.getActual();
+        Pista siguiente = mControl.getSiguiente();
+        if (actual != null)
+            actual.player.setVolumen(volumen);
+        if (siguiente != null)
+            siguiente.player.setVolumen(volumen);
+    }
+
+    /**
+     * Normaliza el volumen de la canción con su ReplayGain.
+     */
+    private static void asignarGanancia(Pista pista, Metadatos metadatos) {
+        pista.player.setGanancia(ProcesadorAudio.ganancia(metadatos.gananciaDb, metadatos.pico));
+    }
+
+    private static int estadoSesion(int estado) {
+        switch (estado) {
+            case EstadoReproduccion.PREPARANDO:
+                return PlaybackState.STATE_BUFFERING;
+            case EstadoReproduccion.REPRODUCIENDO:
+                return PlaybackState.STATE_PLAYING;
+            case EstadoReproduccion.PAUSADO:
+                return PlaybackState.STATE_PAUSED;
+            default:
+                return PlaybackState.STATE_STOPPED;
+        }
+    }
+
+    /**
+     * @return El nombre del archivo de la canción, o su URL si no tiene.
+     */
+    private static String titulo(Pista pista) {
+        String archivo = Uri.parse(pista.url).getLastPathSegment();
+        return archivo != null ? archivo : pista.url;
+    }
+
+    /**
+     * Se inicia a sí mismo para que la reproducción continúe aunque los
+     * clientes se desvinculen.
+     */
+    private void mantenerIniciado() {
+        if (!mIniciado) {
+            startService(new Intent(this, ServicioReproductor.class));
+            mIniciado = true;
+        }
+    }
+
+    /**
+     * Detiene el servicio si no reproduce nada y no hay clientes vinculados.
+     */
+    private void detenerSiInactivo() {
+        if (!mVinculado && mControl.getActual() == null) {
+            mIniciado = false;
+            stopSelf();
+        }
+    }
+
+    /**
+     * Toma un reproductor del pool, le asigna la canción y empieza a
+     * prepararla sin bloquear el hilo de la UI.
+     * @param inicioComando Instante del comando que pidió la canción, o 0
+     * si se prepara por adelantado.
+     * @return La pista, o null si no se pudo abrir la canción.
+     */
+    private Pista cargarPista(String urlCancion, long inicioComando) {
+        Pista pista = new Pista(++mContadorPistas, urlCancion, mPoolReproductores.obtener());
+        pista.inicioComando = inicioComando;
+        retomarPosicion(pista);
+        return cargar(pista) ? pista : null;
+    }
 
+    /**
+     * Asigna la fuente de la pista y empieza a prepararla.
+     * @return False si no se pudo (la pista queda liberada).
+     */
+    private boolean cargar(Pista pista) {
+        Trace.beginSection("ServicioReproductor.cargarPista");
         try {
-            // Indica la URL de la canción a reproducir.
-            mPlayer.setDataSource(UrlCancion);
-                
+            // Indica la canción a reproducir (desde la caché si es posible).
+            mFuentes.asignar(pista);
+
             // Registra "this" como el callback cuando la canción designada esté lista para ser reproducida.
-            mPlayer.setOnPreparedListener(this);
+            pista.player.setOyente(this);
+            pista.player.setFundido(mFundidoMs);
+            Metadatos metadatos = mMetadatos.obtener(pista.url, mOyenteMetadatos);
+            if (metadatos != null)
+                asignarGanancia(pista, metadatos);
 
             // Esta llamada no bloquea el hilo de la UI.
-            mPlayer.prepareAsync(); 
+            pista.inicioPreparacion = System.nanoTime();
+            iniciarSeccionAsincrona("preparar", pista);
+            pista.player.preparar();
+            return true;
         } catch (IOException e) {
-        	e.printStackTrace();
+            Log.w(TAG, "Service - no se pudo cargar " + pista.url, e);
+            liberarPista(pista);
+            return false;
+        } finally {
+            Trace.endSection();
         }
+    }
 
-        // No reinicie el servicio si éste se apaga.
-        return START_NOT_STICKY;
+    /**
+     * La primera canción que se carga tras crear el servicio es siempre la
+     * actual (la siguiente sólo se prepara cuando ya hay una actual); si es
+     * la del punto de control, se retoma en la posición guardada.
+     */
+    private void retomarPosicion(Pista pista) {
+        if (!mPosicionPorRetomar)
+            return;
+        mPosicionPorRetomar = false;
+
+        if (pista.url.equals(mRegistroPosicion.getUrl())) {
+            pista.posicionInicial = mRegistroPosicion.getPosicion();
+            int duracion = mRegistroPosicion.getDuracion();
+            if (duracion > 0)
+                pista.fraccionInicial = Math.min(1.0, (double) pista.posicionInicial / duracion);
+            Log.i(TAG, "Service - retomando en " + pista.posicionInicial + " ms");
+        }
+    }
+
+    /**
+     * Precarga el inicio de las canciones que vienen después de la
+     * siguiente (que ya se está preparando), y cancela las precargas que
+     * dejaron de hacer falta.
+     */
+    private void programarPrecarga() {
+        List<String> proximas = new ArrayList<>(CANCIONES_PRECARGADAS);
+        if (mControl.getActual() != null) {
+            int desde = mCola.getActual() + 2;
+            int hasta = Math.min(mCola.tamanio(), desde + CANCIONES_PRECARGADAS);
+            for (int i = desde; i < hasta; i++)
+                proximas.add(mCola.url(i));
+        }
+        mFuentes.precargar(proximas);
     }
 
     /**
-     * Se requiere porque se trata de un método abstracto
+     * Entrega la interfaz de control a los clientes que se vinculan.
      */
     @Override
     public IBinder onBind(Intent intent) {
-        return null;
+        mVinculado = true;
+        return mBinder;
+    }
+
+    @Override
+    public void onRebind(Intent intent) {
+        mVinculado = true;
+    }
+
+    /**
+     * Cuando se desvincula el último cliente, el servicio sólo sigue vivo
+     * si está reproduciendo.
+     */
+    @Override
+    public boolean onUnbind(Intent intent) {
+        mVinculado = false;
+        detenerSiInactivo();
+        return true;
     }
 
     /** 
-     * Callback invocado cuando el MediaPlayer está listo para reproducir una canción.
+     * Callback invocado cuando el reproductor está listo para reproducir una canción.
+     */
+    @Override
+    public void alPreparar(Reproductor player) {
+        Log.i(TAG,"Service Reproductor - ejecutando alPreparar()");
+        Trace.beginSection("ServicioReproductor.alPreparar");
+
+        long ahora = System.nanoTime();
+
+        // Marca la pista como preparada; la actual empieza a sonar (salvo
+        // que se haya pausado mientras se preparaba) y se prepara la siguiente.
+        Pista pista = mControl.alPreparar(player);
+        if (pista != null && pista == mControl.getActual()) {
+            terminarSeccionAsincrona("preparar", pista);
+            mMetricas.registrarPreparada(pista.inicioComando, pista.inicioPreparacion, ahora);
+            Log.i(TAG, "Service - preparación: "
+                  + milisDesde(pista.inicioPreparacion) + " ms");
+
+            if (pista.inicioRecuperacion != 0) {
+                Log.i(TAG, "Service - recuperada tras un error en "
+                      + milisDesde(pista.inicioRecuperacion) + " ms");
+                mMetricas.registrarRecuperacion(ahora - pista.inicioRecuperacion);
+                pista.inicioRecuperacion = 0;
+            }
+
+            if (!mControl.isPausado())
+                esperarPrimerAudio(pista);
+
+            long finAnterior = mControl.tomarFinAnterior();
+            if (finAnterior != 0) {
+                Log.i(TAG, "Service - silencio entre canciones: "
+                      + milisDesde(finAnterior) + " ms");
+                mMetricas.registrarSilencio(ahora - finAnterior);
+            }
+            notificarEstado();
+        } else if (pista != null) {
+            mEsperaSiguiente = null;
+            terminarSeccionAsincrona("preparar", pista);
+            mMetricas.registrarPreparada(0, pista.inicioPreparacion, ahora);
+            Log.i(TAG, "Service - preparación oculta de la siguiente canción: "
+                  + milisDesde(pista.inicioPreparacion) + " ms");
+        }
+        Trace.endSection();
+    }
+
+    /**
+     * Callback invocado con avisos del reproductor. Se usan los de inicio y
+     * fin de un corte por falta de datos (rebuffer).
+     */
+    @Override
+    public void alInformar(Reproductor player, int what, int extra) {
+        Pista pista = mControl.getActual();
+        if (pista == null || player != pista.player)
+            return;
+
+        if (what == MediaPlayer.MEDIA_INFO_BUFFERING_START && pista.inicioRebuffer == 0) {
+            pista.inicioRebuffer = System.nanoTime();
+            iniciarSeccionAsincrona("rebuffer", pista);
+        } else if (what == MediaPlayer.MEDIA_INFO_BUFFERING_END && pista.inicioRebuffer != 0) {
+            mMetricas.registrarRebuffer(System.nanoTime() - pista.inicioRebuffer);
+            terminarSeccionAsincrona("rebuffer", pista);
+            pista.inicioRebuffer = 0;
+        }
+    }
+
+    /**
+     * Callback invocado cuando el reproductor falla. Si el error de la
+     * canción actual es recuperable (ver PoliticaErrores), se vuelve a
+     * cargar donde iba; si no, al devolver false el reproductor invoca
+     * alCompletar() y se pasa a la siguiente. Si falla el reproductor de la
+     * siguiente canción, se libera y se vuelve a preparar (ver
+     * reintentarSiguiente()).
+     */
+    @Override
+    public boolean alFallar(Reproductor player, int what, int extra) {
+        Log.w(TAG, "Service Reproductor - error " + what + "/" + extra);
+        mMetricas.registrarError(what, extra);
+
+        if (mControl.alFallarSiguiente(player)) {
+            reintentarSiguiente(what, extra);
+            return true;
+        }
+
+        Pista pista = mControl.getActual();
+        if (pista == null || player != pista.player
+            || !PoliticaErrores.esRecuperable(what, extra))
+            return false;
+
+        if (pista.recuperaciones == null)
+            pista.recuperaciones = new EsperaReintentos(PoliticaErrores.ESPERA_BASE_MS,
+                                                        PoliticaErrores.ESPERA_MAXIMA_MS,
+                                                        PoliticaErrores.MAXIMO_RECUPERACIONES,
+                                                        new Random());
+        else if (PoliticaErrores.huboProgreso(pista.posicionInicial, pista.ultimaPosicion))
+            pista.recuperaciones.reiniciar();
+        long espera = pista.recuperaciones.siguiente();
+        if (espera < 0)
+            return false;
+
+        recuperar(pista, espera);
+        return true;
+    }
+
+    /**
+     * Tras un error recuperable del reproductor de la siguiente canción
+     * (que ya se liberó), la vuelve a preparar tras una espera. Si el error
+     * no es recuperable o se agotaron los intentos, se carga al terminar la
+     * actual, y entonces se trata como un error de la canción actual.
      */
-    public void onPrepared(MediaPlayer player) {
-        Log.i(TAG,"Service MediaPlayer - ejecutando onPrepared()");
+    private void reintentarSiguiente(int what, int extra) {
+        if (!PoliticaErrores.esRecuperable(what, extra))
+            return;
 
-        // Sólo reproduce la canción una vez, en lugar de tenerla en bucle  sin fin.
-        player.setLooping(false);
+        if (mEsperaSiguiente == null)
+            mEsperaSiguiente = new EsperaReintentos(PoliticaErrores.ESPERA_BASE_MS,
+                                                    PoliticaErrores.ESPERA_MAXIMA_MS,
+                                                    PoliticaErrores.MAXIMO_RECUPERACIONES,
+                                                    new Random());
+        long espera = mEsperaSiguiente.siguiente();
+        if (espera < 0)
+            return;
 
-        // Indica que la canción se está reprociendo
-        auxReproduciendo = true;
+        Log.i(TAG, "Service - preparando de nuevo la siguiente canción dentro de "
+              + espera + " ms");
+        mManejador.removeCallbacks(mPreparacionSiguiente);
+        mManejador.postDelayed(mPreparacionSiguiente, espera);
+    }
 
-        // Empieza a reproducir la canción
-        player.start();
+    /**
+     * Reemplaza la pista que falló por una nueva de la misma canción, que
+     * se carga tras la espera y retoma la última posición conocida. Mientras
+     * tanto la canción figura como preparándose, y los comandos (pausa,
+     * saltos, detener) actúan sobre la pista nueva.
+     */
+    private void recuperar(Pista fallida, long esperaMs) {
+        // Si falló al prepararse, aún no sonó: se retoma donde iba a empezar.
+        int posicion = fallida.preparada ? fallida.ultimaPosicion : fallida.posicionInicial;
+        Log.i(TAG, "Service - recuperando la canción en " + posicion
+              + " ms dentro de " + esperaMs + " ms (intento "
+              + fallida.recuperaciones.getFallos() + ")");
+
+        final Pista nueva = new Pista(++mContadorPistas, fallida.url, mPoolReproductores.obtener());
+        nueva.posicionInicial = posicion;
+        nueva.ultimaPosicion = posicion;
+        nueva.ultimaDuracion = fallida.ultimaDuracion;
+        if (fallida.ultimaDuracion > 0)
+            nueva.fraccionInicial = Math.min(1.0, (double) posicion / fallida.ultimaDuracion);
+        nueva.recuperaciones = fallida.recuperaciones;
+        nueva.inicioRecuperacion = fallida.inicioRecuperacion != 0
+                ? fallida.inicioRecuperacion
+                : System.nanoTime();
+
+        mControl.reemplazarActual(nueva);
+        mManejador.postDelayed(() -> {
+            // Pudo reemplazarse (o detenerse) durante la espera.
+            if (nueva == mControl.getActual() && !cargar(nueva)) {
+                mControl.descartarActual();
+                notificarEstado();
+                detenerSiInactivo();
+            }
+        }, esperaMs);
+        notificarEstado();
     }
 
     /**
-     * Detiene el MediaPlayer
+     * Revisa periódicamente la posición de la canción recién iniciada para
+     * medir cuánto tardó en sonar desde el comando del usuario.
+     */
+    private void esperarPrimerAudio(final Pista pista) {
+        if (pista.inicioComando == 0)
+            return;
+
+        final long inicio = System.nanoTime();
+        mManejador.post(new Runnable() {
+            @Override
+            public void run() {
+                if (pista != mControl.getActual())
+                    return;
+
+                if (pista.player.getPosicion() > pista.posicionInicial) {
+                    mMetricas.registrarPrimerAudio(pista.inicioComando, System.nanoTime());
+                    Log.i(TAG, "Service - del comando al primer audio: "
+                          + milisDesde(pista.inicioComando) + " ms");
+                } else if (milisDesde(inicio) < ESPERA_MAXIMA_PRIMER_AUDIO_MS)
+                    mManejador.postDelayed(this, INTERVALO_PRIMER_AUDIO_MS);
+            }
+        });
+    }
+
+    /**
+     * Callback invocado cuando termina una canción. Si la siguiente estaba
+     * encadenada, el reproductor ya la inició; si no, empezará al prepararse.
+     */
+    @Override
+    public void alCompletar(Reproductor player) {
+        if (!mControl.alCompletar(player))
+            return;
+        mEsperaSiguiente = null;
+
+        Pista pista = mControl.getActual();
+        if (pista == null) {
+            // Terminó la cola: no hay nada que retomar.
+            mRegistroPosicion.limpiar();
+            notificarEstado();
+            detenerSiInactivo();
+            return;
+        }
+        if (pista.preparada)
+            Log.i(TAG, "Service - cambio de canción sin pausa");
+        notificarEstado();
+    }
+
+    /**
+     * Detiene el reproductor
      */
     private void detenerCancion() {
         Log.i(TAG,"Service - Ejecutando stopSong()");
 
-        // detener la canción
-        mPlayer.stop();
-        
-        // resetear la máquina de estados de MediaPlayer
-        mPlayer.reset();
+        mControl.detener();
 
         // Indicamos que no está ejecutando una canción.
-        auxReproduciendo = false;
+        notificarEstado();
+    }
+
+    /**
+     * Libera memoria según la presión que indica el sistema, sin tocar la
+     * canción actual (ver PoliticaMemoria).
+     */
+    @Override
+    public void onTrimMemory(int nivel) {
+        super.onTrimMemory(nivel);
+
+        int recursos = PoliticaMemoria.recursosALiberar(nivel, reproduciendo());
+        if (recursos == 0)
+            return;
+        Log.i(TAG, "Service - onTrimMemory(" + nivel + "): liberando " + recursos);
+        liberarRecursos(recursos);
+        mMetricas.registrarRecorteMemoria();
+    }
+
+    /**
+     * Sólo llega en versiones que no avisan con onTrimMemory(), o cuando el
+     * sistema ya está matando procesos: se libera como en el nivel máximo.
+     */
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
     }
 
+    /**
+     * Libera los recursos indicados (combinación de los de PoliticaMemoria);
+     * la canción actual se conserva.
+     */
+    private void liberarRecursos(int recursos) {
+        if ((recursos & PoliticaMemoria.REPRODUCTORES_LIBRES) != 0)
+            mPoolReproductores.liberarTodo();
+        if ((recursos & PoliticaMemoria.METADATOS) != 0)
+            mMetadatos.liberarMemoria();
+        mFuentes.liberarMemoria((recursos & PoliticaMemoria.BUFFERS_LIBRES) != 0,
+                                (recursos & PoliticaMemoria.PRECARGAS) != 0);
+
+        if ((recursos & PoliticaMemoria.SIGUIENTE) != 0)
+            mControl.liberarSiguiente();
+        mGestorMemoria.medir();
+    }
+
+    /**
+     * Devuelve el reproductor de la pista al pool y libera su fuente.
+     */
+    private void liberarPista(Pista pista) {
+        if (!pista.preparada)
+            terminarSeccionAsincrona("preparar", pista);
+        if (pista.inicioRebuffer != 0)
+            terminarSeccionAsincrona("rebuffer", pista);
+
+        mPoolReproductores.devolver(pista.player);
+        mFuentes.liberar(pista);
+    }
+
+    /**
+     * Elige el motor de audio de las canciones que se carguen a partir de
+     * ahora (ver MotorAudio); la actual y la siguiente ya preparada siguen
+     * con el anterior.
+     */
+    private void cambiarMotor(int motor) {
+        if (motor != MotorAudio.MEDIA_PLAYER && motor != MotorAudio.CODEC)
+            return;
+        Log.i(TAG, "Service - motor de audio: " + MotorAudio.nombre(motor));
+        mPoolReproductores.setMotor(motor);
+    }
+
+    /**
+     * Cambia la duración del fundido entre canciones, también para las ya
+     * cargadas.
+     */
+    private void cambiarFundido(int ms) {
+        mFundidoMs = Math.max(0, Math.min(ms, FUNDIDO_MAXIMO_MS));
+        Log.i(TAG, "Service - fundido: " + mFundidoMs + " ms");
+        Pista actual = mControl.getActual();
+        Pista siguiente = mControl.getSiguiente();
+        if (actual != null)
+            actual.player.setFundido(mFundidoMs);
+        if (siguiente != null)
+            siguiente.player.setFundido(mFundidoMs);
+    }
+
+    /**
+     * Cuenta un comando y devuelve el instante en que llegó.
+     */
+    private long registrarComando() {
+        mMetricas.registrarComando();
+        return System.nanoTime();
+    }
+
+    /**
+     * Escribe el estado y las métricas del servicio para dumpsys.
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter salida, String[] args) {
+        if (args != null && args.length == 2 && "presupuesto".equals(args[0])) {
+            try {
+                mGestorMemoria.setPresupuesto(Long.parseLong(args[1]) * 1024);
+                mManejador.post(this::ajustarMemoria);
+            } catch (NumberFormatException e) {
+                salida.println("Uso: presupuesto <KB>");
+            }
+        }
+
+        Pista pista = mControl.getActual();
+        salida.println("Estado: " + mControl.estado()
+                       + (pista != null ? " " + pista.url : ""));
+        salida.println("Cola: " + mCola.tamanio() + " canciones, actual=" + mCola.getActual());
+        salida.println("Punto de control: " + mRegistroPosicion.getPosicion() + " ms de "
+                       + mRegistroPosicion.getUrl());
+        salida.println("Motor de audio: " + MotorAudio.nombre(mPoolReproductores.getMotor())
+                       + ", fundido: " + mFundidoMs + " ms");
+        salida.println("CPU del proceso: " + Process.getElapsedCpuTime() + " ms");
+        salida.println("Primer plano: " + mEnPrimerPlano
+                       + ", bloqueo de streaming: " + mBloqueo.estaRetenido());
+        mMetricas.volcar(salida);
+        mFuentes.volcar(salida);
+        mMetadatos.volcar(salida);
+        mGestorMemoria.volcar(salida);
+    }
+
+    /**
+     * Las secciones asíncronas (que empiezan y terminan en callbacks
+     * distintos) sólo existen desde Android 10.
+     */
+    private static void iniciarSeccionAsincrona(String nombre, Pista pista) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q)
+            Trace.beginAsyncSection(nombre, (int) pista.id);
+    }
+
+    private static void terminarSeccionAsincrona(String nombre, Pista pista) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q)
+            Trace.endAsyncSection(nombre, (int) pista.id);
+    }
+
+    private static long milisDesde(long inicioNanos) {
+        return (System.nanoTime() - inicioNanos) / 1000000;
+    }
 }
@@ -0,0 +1,288 @@
+package ec.epn.detri.awm.reproductor.utilidades;
+
+import android.animation.TimeInterpolator;
+import android.animation.ValueAnimator;
+import android.content.Context;
+import android.graphics.Outline;
+import android.view.View;
+import android.view.ViewOutlineProvider;
+import android.view.animation.AccelerateDecelerateInterpolator;
+import android.view.animation.AccelerateInterpolator;
+import android.view.animation.Animation;
+import android.view.animation.AnimationUtils;
+import android.view.animation.DecelerateInterpolator;
+import android.widget.EditText;
+
+import com.google.android.material.floatingactionbutton.FloatingActionButton;
+
+import ec.epn.detri.awm.reproductor.R;
+
+/**
+ * Animaciones del cuadro del URL y de los botones de una actividad. Los
+ * animadores, interpoladores y animaciones se crean una vez (por vista) y
+ * se reutilizan, de modo que mostrar u ocultar algo no crea objetos, ni
+ * al iniciar la animación ni en cada cuadro:
+ * - no se usan AnimatorListener (ValueAnimator copia su lista al iniciar y
+ *   al terminar); el fin se detecta en el último cuadro;
+ * - la revelación circular recorta la vista con su Outline (en el
+ *   RenderThread) en lugar de crear un RevealAnimator por llamada, que no se
+ *   puede reiniciar, y dibuja la vista en una capa de hardware mientras dura.
+ *
+ * Sólo se usa desde el hilo de la UI.
+ */
+public class ControladorAnimaciones {
+    private static final TimeInterpolator DESACELERAR = new DecelerateInterpolator(2);
+
+    private static final TimeInterpolator ACELERAR = new AccelerateInterpolator(2);
+
+    private static final TimeInterpolator ACELERAR_DESACELERAR =
+            new AccelerateDecelerateInterpolator();
+
+    /**
+     * Duración de la revelación circular (la de ViewAnimationUtils).
+     */
+    private static final long DURACION_REVELACION_MS = 300;
+
+    /**
+     * Duración de la aparición de un botón.
+     */
+    private static final long DURACION_BOTON_MS = 200;
+
+    /**
+     * Distancia (px) desde el borde derecho al centro de la revelación.
+     */
+    private static final int MARGEN_CENTRO = 30;
+
+    /**
+     * Desplazamiento extra (px) de un botón oculto, bajo su borde inferior.
+     */
+    private static final int DESPLAZAMIENTO_OCULTO = 100;
+
+    private final Animation rotarAdelante;
+
+    private final Animation rotarAtras;
+
+    /**
+     * Transiciones de la última vista animada de cada tipo (se recrean si
+     * cambia la vista, p.ej. al recrear la actividad).
+     */
+    RevelacionCircular revelacion;
+    AparicionBoton aparicion;
+
+    public ControladorAnimaciones(Context contexto) {
+        rotarAdelante = AnimationUtils.loadAnimation(contexto, R.anim.fab_rotate_forward);
+        rotarAtras = AnimationUtils.loadAnimation(contexto, R.anim.fab_rotate_backward);
+    }
+
+    /**
+     * Muestra el EditText con una revelación circular desde su borde derecho.
+     */
+    public void mostrarEditText(EditText texto) {
+        revelacion(texto).mostrar();
+    }
+
+    /**
+     * Oculta el EditText con una revelación circular inversa y limpia su texto.
+     */
+    public void ocultarEditText(EditText texto) {
+        revelacion(texto).ocultar();
+        // Borrar texto sí crea objetos (avisos a los TextWatcher); si ya está
+        // vacío no hace falta.
+        if (texto.length() > 0)
+            texto.getText().clear();
+    }
+
+    /**
+     * Muestra el botón (escala, opacidad y desplazamiento hacia arriba).
+     */
+    public void mostrarBoton(FloatingActionButton boton) {
+        aparicion(boton).mostrar();
+    }
+
+    /**
+     * Oculta el botón (lo encoge y lo desplaza hacia abajo).
+     */
+    public void ocultarBoton(FloatingActionButton boton) {
+        aparicion(boton).ocultar();
+    }
+
+    /**
+     * Rota el botón de agregar: de '+' a 'x' si se abre, o al revés.
+     */
+    public void rotarBoton(View boton, boolean abrir) {
+        boton.startAnimation(abrir ? rotarAdelante : rotarAtras);
+    }
+
+    private RevelacionCircular revelacion(View vista) {
+        if (revelacion == null || revelacion.vista != vista)
+            revelacion = new RevelacionCircular(vista);
+        return revelacion;
+    }
+
+    private AparicionBoton aparicion(View vista) {
+        if (aparicion == null || aparicion.vista != vista)
+            aparicion = new AparicionBoton(vista);
+        return aparicion;
+    }
+
+    /**
+     * Animación reversible entre una vista oculta y visible, con un único
+     * ValueAnimator lineal. Si se invierte a mitad de camino, continúa desde
+     * donde estaba.
+     */
+    abstract static class Transicion implements ValueAnimator.AnimatorUpdateListener {
+        final View vista;
+
+        private final ValueAnimator animador = ValueAnimator.ofFloat(0f, 1f);
+
+        private final TimeInterpolator alMostrar;
+
+        private final TimeInterpolator alOcultar;
+
+        /**
+         * Cuánto se ve la vista, de 0 (oculta) a 1 (visible), sin interpolar.
+         */
+        private float visible;
+
+        private boolean mostrando;
+
+        Transicion(View vista, long duracion,
+                   TimeInterpolator alMostrar, TimeInterpolator alOcultar) {
+            this.vista = vista;
+            this.alMostrar = alMostrar;
+            this.alOcultar = alOcultar;
+            visible = vista.getVisibility() == View.VISIBLE ? 1f : 0f;
+
+            // La interpolación se aplica en avanzar(), para que el último
+            // cuadro tenga exactamente la fracción 1.
+            animador.setInterpolator(null);
+            animador.setDuration(duracion);
+            animador.addUpdateListener(this);
+        }
+
+        void mostrar() {
+            iniciar(true);
+        }
+
+        void ocultar() {
+            iniciar(false);
+        }
+
+        private void iniciar(boolean mostrar) {
+            animador.cancel();
+            mostrando = mostrar;
+            vista.setVisibility(View.VISIBLE);
+            alIniciar();
+            animador.setCurrentFraction(mostrar ? visible : 1f - visible);
+            animador.start();
+        }
+
+        @Override
+        public void onAnimationUpdate(ValueAnimator animacion) {
+            avanzar(animacion.getAnimatedFraction());
+        }
+
+        /**
+         * Aplica un cuadro de la animación.
+         * @param fraccion Fracción lineal del recorrido en la dirección actual.
+         */
+        void avanzar(float fraccion) {
+            visible = mostrando ? fraccion : 1f - fraccion;
+            aplicar(mostrando
+                    ? alMostrar.getInterpolation(visible)
+                    : 1f - alOcultar.getInterpolation(1f - visible));
+
+            if (fraccion >= 1f) {
+                alTerminar(mostrando);
+                if (!mostrando)
+                    vista.setVisibility(View.INVISIBLE);
+            }
+        }
+
+        /**
+         * Se invoca antes del primer cuadro.
+         */
+        abstract void alIniciar();
+
+        /**
+         * Dibuja la vista con el progreso indicado (0 oculta, 1 visible).
+         */
+        abstract void aplicar(float progreso);
+
+        /**
+         * Se invoca en el último cuadro.
+         */
+        abstract void alTerminar(boolean visible);
+    }
+
+    /**
+     * Revelación circular con centro cerca del borde derecho de la vista,
+     * recortando la vista a un círculo (Outline) que crece o se encoge.
+     */
+    static final class RevelacionCircular extends Transicion {
+        private float radio;
+
+        private final ViewOutlineProvider contorno = new ViewOutlineProvider() {
+            @Override
+            public void getOutline(View vista, Outline outline) {
+                int ancho = vista.getWidth();
+                int alto = vista.getHeight();
+                int cx = Math.max(0, ancho - MARGEN_CENTRO);
+                int cy = alto / 2;
+                // Al menos 1 px: un contorno vacío no recorta.
+                int r = Math.max(1, (int) (radio * Math.hypot(cx, Math.max(cy, alto - cy))));
+                outline.setOval(cx - r, cy - r, cx + r, cy + r);
+            }
+        };
+
+        RevelacionCircular(View vista) {
+            super(vista, DURACION_REVELACION_MS, ACELERAR_DESACELERAR, ACELERAR_DESACELERAR);
+        }
+
+        @Override
+        void alIniciar() {
+            vista.setOutlineProvider(contorno);
+            vista.setClipToOutline(true);
+            vista.setLayerType(View.LAYER_TYPE_HARDWARE, null);
+        }
+
+        @Override
+        void aplicar(float progreso) {
+            radio = progreso;
+            vista.invalidateOutline();
+        }
+
+        @Override
+        void alTerminar(boolean visible) {
+            vista.setLayerType(View.LAYER_TYPE_NONE, null);
+            if (visible)
+                vista.setClipToOutline(false);
+        }
+    }
+
+    /**
+     * Aparición de un botón flotante: escala, opacidad y desplazamiento
+     * vertical (propiedades del RenderNode, sin volver a dibujarlo).
+     */
+    static final class AparicionBoton extends Transicion {
+        AparicionBoton(View vista) {
+            super(vista, DURACION_BOTON_MS, DESACELERAR, ACELERAR);
+        }
+
+        @Override
+        void alIniciar() {
+        }
+
+        @Override
+        void aplicar(float progreso) {
+            vista.setScaleX(progreso);
+            vista.setScaleY(progreso);
+            vista.setAlpha(progreso);
+            vista.setTranslationY((1f - progreso) * (vista.getHeight() + DESPLAZAMIENTO_OCULTO));
+        }
+
+        @Override
+        void alTerminar(boolean visible) {
+        }
+    }
+}
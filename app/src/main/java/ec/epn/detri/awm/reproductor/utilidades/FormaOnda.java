@@ -0,0 +1,200 @@
+package ec.epn.detri.awm.reproductor.utilidades;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.View;
+
+import ec.epn.detri.awm.reproductor.R;
+
+/**
+ * Barra de progreso que dibuja la forma de onda de la canción a partir de
+ * sus picos (ver ReductorPicos). Las barras se calculan al asignar los
+ * picos o al cambiar el tamaño; en cada cuadro sólo se dibujan, en dos
+ * colores según la posición, sin asignar memoria.
+ *
+ * Al arrastrar sobre ella muestra la posición elegida y al soltar avisa
+ * al oyente.
+ */
+public class FormaOnda extends View {
+    /**
+     * Recibe la posición elegida por el usuario.
+     */
+    public interface Oyente {
+        /**
+         * @param fraccion Posición entre 0 (inicio) y 1 (final).
+         */
+        void alElegirPosicion(float fraccion);
+    }
+
+    private static final float ANCHO_BARRA_DP = 2f;
+
+    private static final float ESPACIO_DP = 1f;
+
+    /**
+     * Alto mínimo de una barra (fracción del alto), para que el silencio
+     * siga viéndose como parte de la canción.
+     */
+    private static final float ALTO_MINIMO = 0.04f;
+
+    private final Paint reproducidas = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+    private final Paint pendientes = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+    private final float densidad;
+
+    private byte[] picos;
+
+    /**
+     * Extremos de las barras (x0, y0, x1, y1 por barra) para drawLines().
+     */
+    private float[] lineas = new float[0];
+
+    private int barras;
+
+    private float fraccion;
+
+    private boolean arrastrando;
+
+    private Oyente oyente;
+
+    public FormaOnda(Context contexto, AttributeSet atributos) {
+        super(contexto, atributos);
+        densidad = getResources().getDisplayMetrics().density;
+
+        reproducidas.setColor(contexto.getColor(R.color.colorAccent));
+        reproducidas.setStrokeWidth(ANCHO_BARRA_DP * densidad);
+        reproducidas.setStrokeCap(Paint.Cap.ROUND);
+        pendientes.setColor(contexto.getColor(R.color.colorPrimary));
+        pendientes.setStrokeWidth(ANCHO_BARRA_DP * densidad);
+        pendientes.setStrokeCap(Paint.Cap.ROUND);
+        pendientes.setAlpha(0x60);
+    }
+
+    public void setOyente(Oyente oyente) {
+        this.oyente = oyente;
+    }
+
+    /**
+     * @param picos Picos de la canción, o null para borrar la forma de onda.
+     */
+    public void setPicos(byte[] picos) {
+        this.picos = picos;
+        fraccion = 0;
+        calcularBarras();
+        invalidate();
+    }
+
+    public boolean tienePicos() {
+        return picos != null && picos.length > 0;
+    }
+
+    /**
+     * Mueve el progreso; sólo redibuja si cambia la última barra
+     * reproducida. Se ignora mientras el usuario arrastra.
+     */
+    public void setProgreso(long posicionMs, long duracionMs) {
+        if (arrastrando || duracionMs <= 0)
+            return;
+        float nueva = Math.min(1f, Math.max(0f, (float) posicionMs / duracionMs));
+        boolean redibujar = Math.round(nueva * barras) != Math.round(fraccion * barras);
+        fraccion = nueva;
+        if (redibujar)
+            invalidate();
+    }
+
+    @Override
+    protected void onSizeChanged(int ancho, int alto, int anchoAnterior, int altoAnterior) {
+        super.onSizeChanged(ancho, alto, anchoAnterior, altoAnterior);
+        calcularBarras();
+    }
+
+    @Override
+    protected void onDraw(Canvas lienzo) {
+        super.onDraw(lienzo);
+        if (barras == 0)
+            return;
+        int hasta = Math.round(fraccion * barras);
+        lienzo.drawLines(lineas, 0, 4 * hasta, reproducidas);
+        lienzo.drawLines(lineas, 4 * hasta, 4 * (barras - hasta), pendientes);
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent evento) {
+        if (barras == 0)
+            return false;
+
+        switch (evento.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                arrastrando = true;
+                if (getParent() != null)
+                    getParent().requestDisallowInterceptTouchEvent(true);
+                // Sigue como un movimiento.
+            case MotionEvent.ACTION_MOVE:
+                mostrarPosicion(evento.getX());
+                return true;
+            case MotionEvent.ACTION_UP:
+                mostrarPosicion(evento.getX());
+                arrastrando = false;
+                performClick();
+                if (oyente != null)
+                    oyente.alElegirPosicion(fraccion);
+                return true;
+            case MotionEvent.ACTION_CANCEL:
+                arrastrando = false;
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    public boolean performClick() {
+        return super.performClick();
+    }
+
+    private void mostrarPosicion(float x) {
+        int ancho = getWidth() - getPaddingLeft() - getPaddingRight();
+        if (ancho <= 0)
+            return;
+        fraccion = Math.min(1f, Math.max(0f, (x - getPaddingLeft()) / ancho));
+        invalidate();
+    }
+
+    /**
+     * Agrupa los picos en tantas barras como caben en el ancho (cada barra
+     * con el máximo de sus picos) y calcula sus extremos.
+     */
+    private void calcularBarras() {
+        int ancho = getWidth() - getPaddingLeft() - getPaddingRight();
+        int alto = getHeight() - getPaddingTop() - getPaddingBottom();
+        if (!tienePicos() || ancho <= 0 || alto <= 0) {
+            barras = 0;
+            return;
+        }
+
+        float paso = (ANCHO_BARRA_DP + ESPACIO_DP) * densidad;
+        barras = Math.max(1, Math.min(picos.length, (int) (ancho / paso)));
+        if (lineas.length < 4 * barras)
+            lineas = new float[4 * barras];
+
+        float centro = getPaddingTop() + alto / 2f;
+        float anchoBarra = (float) ancho / barras;
+        for (int i = 0; i < barras; i++) {
+            int desde = (int) ((long) i * picos.length / barras);
+            int hasta = (int) ((long) (i + 1) * picos.length / barras);
+            int maximo = 0;
+            for (int j = desde; j < hasta; j++)
+                maximo = Math.max(maximo, picos[j] & 0xff);
+
+            float mitad = alto / 2f * Math.max(ALTO_MINIMO, maximo / 255f);
+            float x = getPaddingLeft() + (i + 0.5f) * anchoBarra;
+            lineas[4 * i] = x;
+            lineas[4 * i + 1] = centro - mitad;
+            lineas[4 * i + 2] = x;
+            lineas[4 * i + 3] = centro + mitad;
+        }
+    }
+}
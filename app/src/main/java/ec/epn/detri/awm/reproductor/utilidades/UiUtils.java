@@ -1,27 +1,19 @@
 package ec.epn.detri.awm.reproductor.utilidades;
 
-import android.animation.Animator;
-import android.animation.AnimatorListenerAdapter;
 import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
 import android.os.IBinder;
 import android.os.Looper;
-import android.view.View;
-import android.view.ViewAnimationUtils;
-import android.view.animation.AccelerateInterpolator;
-import android.view.animation.DecelerateInterpolator;
 import android.view.inputmethod.InputMethodManager;
-import android.widget.EditText;
 import android.widget.Toast;
 
-import com.google.android.material.floatingactionbutton.FloatingActionButton;
-
 import java.util.Locale;
 
 /**
- * Contiene métodos estáticos que pueden ser usados por varias Actividades
+ * Contiene métodos estáticos que pueden ser usados por varias Actividades.
+ * Las animaciones están en ControladorAnimaciones.
  */
 public class UiUtils {
     /**
@@ -86,86 +78,6 @@ public class UiUtils {
                                           rutaAlContenido));
     }
 
-    /**
-     * Animación del botón
-     * @param boton Botón a mostrar
-     */
-    public static void mostrarBoton(FloatingActionButton boton) {
-        boton.show();
-        boton.animate()
-           .translationY(0)
-           .setInterpolator(new DecelerateInterpolator(2))
-           .start();
-    }
-
-    /**
-     * Oculta el botón
-     * @param boton BOtón a ocultar
-     */
-    public static void ocultarBoton(FloatingActionButton boton) {
-        boton.hide();
-        boton.animate()
-           .translationY(boton.getHeight() + 100)
-           .setInterpolator(new AccelerateInterpolator(2))
-           .start();
-    }
-
-    /**
-     * Muestra el EditText.
-     * @param texto EditText a mostrar
-     */
-    public static void mostrarEditText(EditText texto) {
-        // Obtiene la posición x e y de la vista para desplazar y animar el elemento UI
-        int cx = texto.getRight() - 30;
-        int cy = texto.getBottom() - 60;
-
-        // Muestra un contorno circular.
-        int finalRadius = Math.max(texto.getWidth(),
-                texto.getHeight());
-
-        Animator anim =
-                ViewAnimationUtils.createCircularReveal(texto,
-                        cx,
-                        cy,
-                        0,
-                        finalRadius);
-        texto.setVisibility(View.VISIBLE);
-        anim.start();
-    }
-
-    /**
-     * Oculta el EditText
-     * @param texto EditText to be hidden.
-     */
-    public static void ocultarEditText(final EditText texto) {
-        int cx = texto.getRight() - 30;
-        int cy = texto.getBottom() - 60;
-
-        int initialRadius = texto.getWidth();
-
-        Animator anim =
-                ViewAnimationUtils.createCircularReveal(texto,
-                        cx,
-                        cy,
-                        initialRadius,
-                        0);
-
-        // Cre un "listener" tal que se hace inviible el EditText una vez que se
-        // solapa con la amimación circular
-        anim.addListener(new AnimatorListenerAdapter() {
-            @Override
-            public void onAnimationEnd(Animator animation) {
-                super.onAnimationEnd(animation);
-                texto.setVisibility(View.INVISIBLE);
-            }
-        });
-
-        anim.start();
-
-        // Limpiar el texto del EdiText cuando el usuario presiona el botón
-        texto.getText().clear();
-    }
-
     /**
      * Retorna el texto en mayúsculas.
      */
@@ -0,0 +1,65 @@
+package ec.epn.detri.awm.reproductor;
+
+import org.junit.Assume;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+
+/**
+ * Apoyo de las mediciones de rendimiento de las pruebas de la JVM. Sus
+ * resultados dependen de la carga de la máquina y de la JVM, así que no
+ * corren con la tarea test normal: se piden con "./gradlew test
+ * -Pmediciones" e imprimen una línea por medición.
+ */
+public final class Mediciones {
+    /**
+     * Propiedad del sistema que asigna app/build.gradle.
+     */
+    private static final String PROPIEDAD = "mediciones";
+
+    /**
+     * ThreadMXBean.getThreadAllocatedBytes(long) de HotSpot (y derivadas), o
+     * null si la JVM no lo ofrece.
+     */
+    private static final Method BYTES_ASIGNADOS = metodoBytesAsignados();
+
+    private Mediciones() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Omite la prueba, sin fallar, si no se pidieron las mediciones.
+     */
+    public static void requerirActivadas() {
+        Assume.assumeTrue("Medición omitida (se pide con -Pmediciones)",
+                          Boolean.getBoolean(PROPIEDAD));
+    }
+
+    /**
+     * @return Los bytes asignados hasta ahora por el hilo actual, o -1 si la
+     * JVM no los informa (en ese caso no se verifican las asignaciones).
+     */
+    public static long bytesAsignados() {
+        if (BYTES_ASIGNADOS == null)
+            return -1;
+        try {
+            return (Long) BYTES_ASIGNADOS.invoke(ManagementFactory.getThreadMXBean(),
+                                                 Thread.currentThread().getId());
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return -1;
+        }
+    }
+
+    private static Method metodoBytesAsignados() {
+        try {
+            Class<?> extendido = Class.forName("com.sun.management.ThreadMXBean");
+            ThreadMXBean hilos = ManagementFactory.getThreadMXBean();
+            if (!extendido.isInstance(hilos))
+                return null;
+            return extendido.getMethod("getThreadAllocatedBytes", long.class);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package ec.epn.detri.awm.reproductor;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+
+/**
+ * Servidor HTTP local usado por las pruebas en lugar de un servidor real.
+ * Sirve un único recurso binario y soporta Range, ETag y peticiones
+ * condicionales, además de limitar el ancho de banda (por conexión) y
+ * simular la latencia de cada respuesta si se desea. Para probar la
+ * recuperación de errores puede cortar conexiones a mitad del cuerpo o
+ * responder con un código de error. Puede
+ * servir por HTTPS con un certificado de prueba (servidor-prueba.p12,
+ * emitido para 127.0.0.1).
+ */
+public class ServidorHttpLocal implements AutoCloseable {
+    private final HttpServer servidor;
+
+    private volatile byte[] contenido;
+
+    private volatile String etag = "\"v1\"";
+
+    /**
+     * Bytes por segundo a los que se envía el cuerpo (0 = sin límite).
+     */
+    private volatile int bytesPorSegundo;
+
+    /**
+     * Espera antes de responder cada petición (simula la latencia de red).
+     */
+    private volatile int latenciaMs;
+
+    /**
+     * Respuestas que aún se cortarán tras enviar bytesAntesDelCorte bytes
+     * del cuerpo.
+     */
+    private final AtomicInteger cortesPendientes = new AtomicInteger();
+
+    private volatile int bytesAntesDelCorte;
+
+    private final AtomicInteger cortes = new AtomicInteger();
+
+    /**
+     * Peticiones que aún se responderán con codigoError.
+     */
+    private final AtomicInteger erroresPendientes = new AtomicInteger();
+
+    private volatile int codigoError;
+
+    private final AtomicInteger peticiones = new AtomicInteger();
+
+    private final AtomicInteger peticionesRange = new AtomicInteger();
+
+    private final AtomicInteger respuestasNoModificado = new AtomicInteger();
+
+    private final AtomicInteger bytesEnviados = new AtomicInteger();
+
+    /**
+     * Direcciones (puertos) de los clientes, una por conexión TCP.
+     */
+    private final Set<InetSocketAddress> conexiones = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Crea el servidor con un contenido pseudoaleatorio del tamaño indicado.
+     */
+    public ServidorHttpLocal(int tamanio) throws IOException {
+        this(tamanio, null);
+    }
+
+    /**
+     * @param tls Contexto TLS con el que se sirve por HTTPS (null para HTTP).
+     */
+    public ServidorHttpLocal(int tamanio, SSLContext tls) throws IOException {
+        contenido = generarContenido(tamanio, 1);
+        InetSocketAddress direccion = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        if (tls != null) {
+            HttpsServer https = HttpsServer.create(direccion, 0);
+            https.setHttpsConfigurator(new HttpsConfigurator(tls));
+            servidor = https;
+        } else
+            servidor = HttpServer.create(direccion, 0);
+        servidor.createContext("/", this::atender);
+        servidor.setExecutor(Executors.newCachedThreadPool());
+        servidor.start();
+    }
+
+    public static byte[] generarContenido(int tamanio, long semilla) {
+        byte[] datos = new byte[tamanio];
+        new Random(semilla).nextBytes(datos);
+        return datos;
+    }
+
+    /**
+     * @return Contexto TLS con el certificado de prueba, que sirve tanto al
+     * servidor como a un cliente que deba confiar en él.
+     */
+    public static SSLContext contextoDePrueba() throws IOException {
+        try (InputStream archivo =
+                     ServidorHttpLocal.class.getResourceAsStream("/servidor-prueba.p12")) {
+            char[] clave = "prueba".toCharArray();
+            KeyStore almacen = KeyStore.getInstance("PKCS12");
+            almacen.load(archivo, clave);
+
+            KeyManagerFactory llaves =
+                    KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            llaves.init(almacen, clave);
+            TrustManagerFactory confianza =
+                    TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            confianza.init(almacen);
+
+            SSLContext contexto = SSLContext.getInstance("TLS");
+            contexto.init(llaves.getKeyManagers(), confianza.getTrustManagers(), null);
+            return contexto;
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * @return URL del recurso con la ruta indicada.
+     */
+    public String url(String ruta) {
+        String esquema = servidor instanceof HttpsServer ? "https" : "http";
+        return esquema + "://127.0.0.1:" + servidor.getAddress().getPort() + ruta;
+    }
+
+    public byte[] getContenido() {
+        return contenido;
+    }
+
+    /**
+     * Reemplaza el contenido y su ETag (simula un cambio en el servidor).
+     */
+    public void cambiarContenido(byte[] contenido, String etag) {
+        this.contenido = contenido;
+        this.etag = etag;
+    }
+
+    public void limitarAnchoDeBanda(int bytesPorSegundo) {
+        this.bytesPorSegundo = bytesPorSegundo;
+    }
+
+    public void simularLatencia(int latenciaMs) {
+        this.latenciaMs = latenciaMs;
+    }
+
+    /**
+     * Corta las próximas respuestas con cuerpo después de enviar los bytes
+     * indicados (el cliente ve el cuerpo incompleto y la conexión cerrada).
+     */
+    public void cortarConexiones(int veces, int trasBytes) {
+        bytesAntesDelCorte = trasBytes;
+        cortesPendientes.set(veces);
+    }
+
+    /**
+     * Responde las próximas peticiones con el código de error indicado.
+     */
+    public void fallarPeticiones(int veces, int codigo) {
+        codigoError = codigo;
+        erroresPendientes.set(veces);
+    }
+
+    /**
+     * @return Número de respuestas cortadas con cortarConexiones().
+     */
+    public int getCortes() {
+        return cortes.get();
+    }
+
+    public int getPeticiones() {
+        return peticiones.get();
+    }
+
+    public int getPeticionesRange() {
+        return peticionesRange.get();
+    }
+
+    public int getRespuestasNoModificado() {
+        return respuestasNoModificado.get();
+    }
+
+    public int getBytesEnviados() {
+        return bytesEnviados.get();
+    }
+
+    /**
+     * @return Número de conexiones TCP distintas por las que llegaron peticiones.
+     */
+    public int getConexiones() {
+        return conexiones.size();
+    }
+
+    private void atender(HttpExchange intercambio) throws IOException {
+        peticiones.incrementAndGet();
+        conexiones.add(intercambio.getRemoteAddress());
+        byte[] datos = contenido;
+        String etagActual = etag;
+
+        try {
+            if (latenciaMs > 0)
+                try {
+                    Thread.sleep(latenciaMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            if (erroresPendientes.getAndDecrement() > 0) {
+                intercambio.sendResponseHeaders(codigoError, -1);
+                return;
+            }
+            intercambio.getResponseHeaders().set("ETag", etagActual);
+            intercambio.getResponseHeaders().set("Accept-Ranges", "bytes");
+
+            if (etagActual.equals(intercambio.getRequestHeaders().getFirst("If-None-Match"))) {
+                respuestasNoModificado.incrementAndGet();
+                intercambio.sendResponseHeaders(304, -1);
+                return;
+            }
+
+            int inicio = 0;
+            int fin = datos.length - 1;
+            String rango = intercambio.getRequestHeaders().getFirst("Range");
+            String siRango = intercambio.getRequestHeaders().getFirst("If-Range");
+            boolean parcial = rango != null && rango.startsWith("bytes=")
+                    && (siRango == null || siRango.equals(etagActual));
+
+            if (parcial) {
+                peticionesRange.incrementAndGet();
+                String[] limites = rango.substring("bytes=".length()).split("-", -1);
+                inicio = Integer.parseInt(limites[0]);
+                if (!limites[1].isEmpty())
+                    fin = Math.min(fin, Integer.parseInt(limites[1]));
+                if (inicio >= datos.length) {
+                    intercambio.getResponseHeaders().set("Content-Range", "bytes */" + datos.length);
+                    intercambio.sendResponseHeaders(416, -1);
+                    return;
+                }
+                intercambio.getResponseHeaders().set("Content-Range",
+                        "bytes " + inicio + "-" + fin + "/" + datos.length);
+                responder(intercambio, 206, fin - inicio + 1);
+            } else
+                responder(intercambio, 200, datos.length);
+
+            if ("HEAD".equals(intercambio.getRequestMethod()))
+                return;
+
+            if (cortesPendientes.getAndDecrement() > 0) {
+                enviar(intercambio.getResponseBody(), datos, inicio,
+                       Math.min(fin + 1, inicio + bytesAntesDelCorte));
+                // Cerrar sin completar la longitud anunciada cierra la conexión.
+                cortes.incrementAndGet();
+                intercambio.getResponseBody().close();
+                return;
+            }
+            enviar(intercambio.getResponseBody(), datos, inicio, fin + 1);
+        } finally {
+            intercambio.close();
+        }
+    }
+
+    /**
+     * Envía las cabeceras. La respuesta a HEAD lleva el Content-Length del
+     * cuerpo que se habría enviado, pero sin cuerpo.
+     */
+    private static void responder(HttpExchange intercambio, int codigo, long longitud)
+            throws IOException {
+        if ("HEAD".equals(intercambio.getRequestMethod())) {
+            intercambio.getResponseHeaders().set("Content-Length", String.valueOf(longitud));
+            intercambio.sendResponseHeaders(codigo, -1);
+        } else
+            intercambio.sendResponseHeaders(codigo, longitud);
+    }
+
+    private void enviar(OutputStream salida, byte[] datos, int inicio, int fin) throws IOException {
+        int bloque = 8 * 1024;
+        for (int i = inicio; i < fin; i += bloque) {
+            int n = Math.min(bloque, fin - i);
+            // Se cuenta antes de enviar: el cliente puede terminar de leer
+            // antes de que este hilo vuelva de flush().
+            bytesEnviados.addAndGet(n);
+            salida.write(datos, i, n);
+            salida.flush();
+
+            int limite = bytesPorSegundo;
+            if (limite > 0)
+                try {
+                    Thread.sleep(Math.max(1, n * 1000L / limite));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+        }
+    }
+
+    @Override
+    public void close() {
+        servidor.stop(0);
+    }
+}
@@ -0,0 +1,145 @@
+package ec.epn.detri.awm.reproductor.audio;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+import ec.epn.detri.awm.reproductor.Mediciones;
+
+import static org.junit.Assert.*;
+
+/**
+ * Pruebas y medición de la etapa de ganancia y fundido.
+ */
+public class ProcesadorAudioTest {
+    /**
+     * Bloque de 16 KB, como los de ReproductorCodec.
+     */
+    private static final int BYTES_BLOQUE = 16 * 1024;
+
+    private static ByteBuffer bloque() {
+        return ByteBuffer.allocateDirect(BYTES_BLOQUE).order(ByteOrder.nativeOrder());
+    }
+
+    @Test
+    public void rampaYSaturacionEn16Bits() {
+        ShortBuffer pcm = bloque().asShortBuffer();
+        int n = 1000;
+        for (int i = 0; i < n; i++)
+            pcm.put(i, (short) (i % 2 == 0 ? 16000 : -16000));
+
+        ProcesadorAudio procesador = new ProcesadorAudio(BYTES_BLOQUE / 2);
+        procesador.procesar(pcm, n, 0.5f, 0.5f);
+        assertEquals(8000, pcm.get(0));
+        assertEquals(-8000, pcm.get(n - 1));
+
+        // De x1 a x8: al final satura en lugar de dar la vuelta.
+        procesador.procesar(pcm, n, 1f, 8f);
+        assertEquals(8000, pcm.get(0), 1);
+        assertEquals(Short.MAX_VALUE, pcm.get(n - 2));
+        assertEquals(Short.MIN_VALUE, pcm.get(n - 1));
+        // La ganancia crece de forma monótona.
+        for (int i = 2; i < n / 4; i += 2)
+            assertTrue(pcm.get(i) >= pcm.get(i - 2));
+    }
+
+    @Test
+    public void rampaEnFloat() {
+        FloatBuffer pcm = bloque().asFloatBuffer();
+        int n = 100;
+        for (int i = 0; i < n; i++)
+            pcm.put(i, 0.5f);
+
+        new ProcesadorAudio(BYTES_BLOQUE / 4).procesar(pcm, n, 0f, 4f);
+        assertEquals(0f, pcm.get(0), 0f);
+        assertEquals(0.5f * 4f * 50 / n, pcm.get(50), 1e-6f);
+        assertEquals(1f, pcm.get(n - 1), 0f);
+    }
+
+    @Test
+    public void gananciaDeReplayGain() {
+        assertEquals(1f, ProcesadorAudio.ganancia(Float.NaN, 0), 0f);
+        assertEquals(0.5f, ProcesadorAudio.ganancia(-6.0206f, 0), 1e-4f);
+        // +6 dB con un pico de 0,9: sólo se sube hasta que el pico llega a 1.
+        assertEquals(1f / 0.9f, ProcesadorAudio.ganancia(6f, 0.9f), 1e-6f);
+        assertEquals(ProcesadorAudio.GANANCIA_MAXIMA, ProcesadorAudio.ganancia(30f, 0), 0f);
+    }
+
+    @Test
+    public void fundidoDeIgualPotencia() {
+        assertEquals(0f, ProcesadorAudio.curvaEntrada(0f), 0f);
+        assertEquals(1f, ProcesadorAudio.curvaEntrada(1f), 0f);
+        assertEquals(1f, ProcesadorAudio.curvaSalida(-1f), 0f);
+        assertEquals(0f, ProcesadorAudio.curvaSalida(2f), 1e-6f);
+        for (float x = 0; x <= 1; x += 0.05f) {
+            float entrada = ProcesadorAudio.curvaEntrada(x);
+            float salida = ProcesadorAudio.curvaSalida(x);
+            assertEquals(1f, entrada * entrada + salida * salida, 1e-5f);
+        }
+    }
+
+    /**
+     * Mide la etapa sobre una hora de PCM estéreo a 44,1 kHz, en bloques de
+     * 16 KB con una rampa distinta en cada uno (el caso de un fundido), en
+     * 16 bits y en float, y la fracción de un núcleo que ocupa en tiempo
+     * real. Verifica que no asigna memoria. Sólo con -Pmediciones.
+     */
+    @Test
+    public void tiempoDeUnaHora() {
+        Mediciones.requerirActivadas();
+        ByteBuffer datos = bloque();
+        ShortBuffer cortos = datos.asShortBuffer();
+        FloatBuffer flotantes = datos.duplicate().order(ByteOrder.nativeOrder()).asFloatBuffer();
+        int muestras16 = BYTES_BLOQUE / 2;
+        int muestrasFloat = BYTES_BLOQUE / 4;
+        for (int i = 0; i < muestras16; i++)
+            cortos.put(i, (short) (20000 * Math.sin(2 * Math.PI * 440 * (i / 2) / 44100)));
+        ProcesadorAudio procesador = new ProcesadorAudio(muestras16);
+
+        long segundos = 3600;
+        long bloques = segundos * 44100 * 2 / muestras16;
+        for (int i = 0; i < 2000; i++)
+            procesador.procesar(cortos, muestras16, 1f, 1f);
+
+        long asignadosAntes = Mediciones.bytesAsignados();
+
+        long inicio = System.nanoTime();
+        for (long i = 0; i < bloques; i++)
+            procesador.procesar(cortos, muestras16, rampa(i), rampa(i) * 1.1f);
+        long nanos16 = System.nanoTime() - inicio;
+
+        for (int i = 0; i < muestrasFloat; i++)
+            flotantes.put(i, 0.5f);
+        long bloquesFloat = segundos * 44100 * 2 / muestrasFloat;
+        inicio = System.nanoTime();
+        for (long i = 0; i < bloquesFloat; i++)
+            procesador.procesar(flotantes, muestrasFloat, rampa(i), rampa(i) * 1.1f);
+        long nanosFloat = System.nanoTime() - inicio;
+        long asignados = Mediciones.bytesAsignados() - asignadosAntes;
+
+        double nsPorMuestra16 = (double) nanos16 / (bloques * muestras16);
+        double nsPorMuestraFloat = (double) nanosFloat / (bloquesFloat * muestrasFloat);
+        // Fracción de un núcleo que ocupa en tiempo real (88200 muestras/s).
+        double nucleo16 = nanos16 / (segundos * 1e9);
+        System.out.println("ProcesadorAudio: 1 h de audio en " + nanos16 / 1000000 + " ms (16 bits, "
+                           + String.format("%.2f", nsPorMuestra16) + " ns/muestra, "
+                           + String.format("%.4f", nucleo16 * 100) + " % de un núcleo), "
+                           + nanosFloat / 1000000 + " ms (float, "
+                           + String.format("%.2f", nsPorMuestraFloat) + " ns/muestra), "
+                           + asignados + " bytes asignados");
+        if (asignadosAntes >= 0)
+            assertTrue(asignados < 64 * 1024);
+    }
+
+    /**
+     * Ganancia inicial del bloque i: se alterna entre atenuar y amplificar
+     * para que las muestras no terminen en cero (ni en valores subnormales,
+     * que son mucho más lentos en float).
+     */
+    private static float rampa(long i) {
+        return (i & 1) == 0 ? 0.5f : 2f;
+    }
+}
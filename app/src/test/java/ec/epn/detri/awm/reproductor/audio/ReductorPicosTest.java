@@ -0,0 +1,161 @@
+package ec.epn.detri.awm.reproductor.audio;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+import ec.epn.detri.awm.reproductor.Mediciones;
+
+import static org.junit.Assert.*;
+
+/**
+ * Pruebas y medición del reductor de picos y de su archivo.
+ */
+public class ReductorPicosTest {
+    /**
+     * PCM de 16 bits con una senoide de la amplitud indicada.
+     */
+    private static ByteBuffer senoide(int frecuencia, int canales, int ms, int amplitud) {
+        int cuadros = frecuencia * ms / 1000;
+        ByteBuffer pcm = ByteBuffer.allocateDirect(cuadros * canales * 2)
+                                   .order(ByteOrder.nativeOrder());
+        for (int i = 0; i < cuadros; i++) {
+            short muestra = (short) Math.round(amplitud * Math.sin(2 * Math.PI * 440 * i / frecuencia));
+            for (int c = 0; c < canales; c++)
+                pcm.putShort(muestra);
+        }
+        pcm.flip();
+        return pcm;
+    }
+
+    @Test
+    public void unPicoPorIntervalo() throws IOException {
+        ByteArrayOutputStream salida = new ByteArrayOutputStream();
+        ReductorPicos reductor = new ReductorPicos(salida);
+        reductor.configurar(44100, 2, false);
+
+        reductor.agregar(senoide(44100, 2, 1000, 32767));
+        reductor.agregar(senoide(44100, 2, 500, 32767 / 4));
+        reductor.agregar(senoide(44100, 2, 1000, 0));
+        reductor.terminar();
+
+        byte[] picos = salida.toByteArray();
+        assertEquals(25, picos.length);
+        assertEquals(255, picos[0] & 0xff);
+        assertEquals(255, picos[9] & 0xff);
+        // Escala de raíz cuadrada: un cuarto de la amplitud es la mitad de alto.
+        assertEquals(128, picos[10] & 0xff, 1);
+        assertEquals(0, picos[24]);
+    }
+
+    @Test
+    public void bloquesQueNoCoincidenConLosPicos() throws IOException {
+        // 22050 Hz mono en bloques de 1000 cuadros: los picos quedan a
+        // mitad de bloque, y el último es incompleto.
+        ByteArrayOutputStream salida = new ByteArrayOutputStream();
+        ReductorPicos reductor = new ReductorPicos(salida);
+        reductor.configurar(22050, 1, false);
+        ByteBuffer pcm = senoide(22050, 1, 1050, 1000);
+        int bloque = 1000 * 2;
+        for (int pos = 0; pos < pcm.limit(); pos += bloque) {
+            pcm.limit(Math.min(pos + bloque, pcm.capacity()));
+            pcm.position(pos);
+            reductor.agregar(pcm);
+            pcm.limit(pcm.capacity());
+        }
+        reductor.terminar();
+
+        assertEquals(11, salida.size());
+        assertEquals(11, reductor.getPicos());
+    }
+
+    @Test
+    public void pcmEnFloatYCambioDeFormato() throws IOException {
+        ByteArrayOutputStream salida = new ByteArrayOutputStream();
+        ReductorPicos reductor = new ReductorPicos(salida);
+        reductor.configurar(48000, 2, true);
+        ByteBuffer pcm = ByteBuffer.allocate(48000 / 10 * 2 * 4).order(ByteOrder.nativeOrder());
+        while (pcm.hasRemaining())
+            pcm.putFloat(-0.25f);
+        pcm.flip();
+        reductor.agregar(pcm);
+
+        reductor.configurar(44100, 1, false);
+        reductor.agregar(senoide(44100, 1, 100, 32767));
+        reductor.terminar();
+
+        byte[] picos = salida.toByteArray();
+        assertEquals(2, picos.length);
+        assertEquals(128, picos[0] & 0xff, 1);
+        assertEquals(255, picos[1] & 0xff);
+    }
+
+    @Test
+    public void archivoDePicos() throws IOException {
+        File directorio = Files.createTempDirectory("picos").toFile();
+        File archivo = ArchivoPicos.archivo(directorio, "http://a/cancion.mp3");
+        assertNull(ArchivoPicos.leer(archivo));
+
+        try (OutputStream salida = ArchivoPicos.crear(archivo)) {
+            ReductorPicos reductor = new ReductorPicos(salida);
+            reductor.configurar(44100, 2, false);
+            reductor.agregar(senoide(44100, 2, 2000, 16000));
+            reductor.terminar();
+        }
+        byte[] picos = ArchivoPicos.leer(archivo);
+        assertEquals(20, picos.length);
+        assertEquals(ReductorPicos.escalar(16000), picos[5] & 0xff);
+
+        assertTrue(archivo.delete());
+        assertTrue(directorio.delete());
+    }
+
+    /**
+     * Mide el reductor sobre 3 horas de PCM estéreo a 44,1 kHz (pasando el
+     * mismo bloque de 16 KB, como las salidas de MediaCodec) y verifica que
+     * no asigna memoria mientras procesa. Sólo con -Pmediciones.
+     */
+    @Test
+    public void tiempoDeTresHoras() throws IOException {
+        Mediciones.requerirActivadas();
+        ByteBuffer bloque = senoide(44100, 2, 16 * 1024 * 1000 / (44100 * 4), 20000);
+        long horas = 3;
+        long bloques = horas * 3600 * 44100 * 4 / bloque.remaining();
+
+        final long[] escritos = new long[1];
+        OutputStream contador = new OutputStream() {
+            @Override
+            public void write(int b) {
+                escritos[0]++;
+            }
+        };
+        ReductorPicos reductor = new ReductorPicos(contador);
+        reductor.configurar(44100, 2, false);
+        for (int i = 0; i < 2000; i++)
+            reductor.agregar(bloque);
+
+        long picosAntes = escritos[0];
+        long asignadosAntes = Mediciones.bytesAsignados();
+        long inicio = System.nanoTime();
+        for (long i = 0; i < bloques; i++)
+            reductor.agregar(bloque);
+        long nanos = System.nanoTime() - inicio;
+        long asignados = Mediciones.bytesAsignados() - asignadosAntes;
+
+        long muestras = bloques * bloque.remaining() / 2;
+        System.out.println("ReductorPicos: " + horas + " h de audio en " + nanos / 1000000
+                           + " ms (" + String.format("%.2f", (double) nanos / muestras)
+                           + " ns/muestra, " + horas * 3600 * 1000000000L / nanos
+                           + "x tiempo real), " + (escritos[0] - picosAntes) + " picos, "
+                           + asignados + " bytes asignados");
+        assertEquals((double) muestras / 2 / 4410, escritos[0] - picosAntes, 1);
+        if (asignadosAntes >= 0)
+            assertTrue(asignados < 64 * 1024);
+    }
+}
@@ -0,0 +1,184 @@
+package ec.epn.detri.awm.reproductor.cache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import ec.epn.detri.awm.reproductor.ServidorHttpLocal;
+import ec.epn.detri.awm.reproductor.red.LectorStreaming;
+import ec.epn.detri.awm.reproductor.red.PoolBuffers;
+
+import static org.junit.Assert.*;
+
+/**
+ * Pruebas de la caché de disco contra un servidor HTTP local.
+ */
+public class CacheAudioTest {
+    private static final int TAMANIO = 256 * 1024;
+
+    private ServidorHttpLocal servidor;
+
+    private File directorio;
+
+    @Before
+    public void setUp() throws IOException {
+        servidor = new ServidorHttpLocal(TAMANIO);
+        directorio = Files.createTempDirectory("cache").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        servidor.close();
+        File[] archivos = directorio.listFiles();
+        if (archivos != null)
+            for (File f : archivos)
+                f.delete();
+        directorio.delete();
+    }
+
+    @Test
+    public void descargaCompletaQuedaEnCache() throws IOException {
+        CacheAudio cache = new CacheAudio(directorio, 10 * TAMANIO);
+        EntradaCache entrada = cache.abrir(servidor.url("/cancion.mp3"));
+
+        new DescargaCache(cache, entrada).run();
+
+        assertTrue(entrada.estaCompleta());
+        assertArrayEquals(servidor.getContenido(),
+                          Files.readAllBytes(cache.archivo(entrada).toPath()));
+        cache.liberar(entrada);
+
+        // Un nuevo proceso recupera la entrada desde el índice.
+        CacheAudio recargada = new CacheAudio(directorio, 10 * TAMANIO);
+        EntradaCache otra = recargada.abrir(servidor.url("/cancion.mp3"));
+        assertTrue(otra.estaCompleta());
+        assertEquals("\"v1\"", otra.getEtag());
+    }
+
+    @Test
+    public void lectorRecibeLosBytesMientrasSeDescarga() throws Exception {
+        servidor.limitarAnchoDeBanda(TAMANIO * 4);
+        CacheAudio cache = new CacheAudio(directorio, 10 * TAMANIO);
+        EntradaCache entrada = cache.abrir(servidor.url("/cancion.mp3"));
+        DescargaCache descarga = new DescargaCache(cache, entrada);
+        Thread hilo = new Thread(descarga);
+        hilo.start();
+
+        assertEquals(TAMANIO, descarga.esperarLongitud());
+
+        byte[] leido = new byte[TAMANIO];
+        try (RandomAccessFile archivo = new RandomAccessFile(cache.archivo(entrada), "rw")) {
+            int posicion = 0;
+            long disponibles;
+            while ((disponibles = descarga.esperarDatos(posicion)) > 0) {
+                archivo.seek(posicion);
+                posicion += archivo.read(leido, posicion,
+                                         (int) Math.min(disponibles, TAMANIO - posicion));
+            }
+            assertEquals(TAMANIO, posicion);
+        }
+        hilo.join();
+
+        assertArrayEquals(servidor.getContenido(), leido);
+    }
+
+    @Test
+    public void descargaParcialSeReanudaConRange() throws IOException {
+        CacheAudio cache = new CacheAudio(directorio, 10 * TAMANIO);
+        EntradaCache entrada = cache.abrir(servidor.url("/cancion.mp3"));
+
+        // Simula una descarga interrumpida a la mitad.
+        byte[] mitad = Arrays.copyOf(servidor.getContenido(), TAMANIO / 2);
+        Files.write(cache.archivo(entrada).toPath(), mitad);
+        cache.registrarCabeceras(entrada, "\"v1\"", null, TAMANIO);
+        entrada.asignarDescargados(mitad.length);
+
+        new DescargaCache(cache, entrada).run();
+
+        assertEquals(1, servidor.getPeticionesRange());
+        assertEquals(TAMANIO - TAMANIO / 2, servidor.getBytesEnviados());
+        assertArrayEquals(servidor.getContenido(),
+                          Files.readAllBytes(cache.archivo(entrada).toPath()));
+    }
+
+    @Test
+    public void descargaSeReanudaTrasCortesDeLaConexion() throws IOException {
+        servidor.cortarConexiones(2, TAMANIO / 4);
+        CacheAudio cache = new CacheAudio(directorio, 10 * TAMANIO);
+        EntradaCache entrada = cache.abrir(servidor.url("/cancion.mp3"));
+        DescargaCache descarga = new DescargaCache(cache, entrada);
+
+        descarga.run();
+
+        assertTrue(entrada.estaCompleta());
+        assertEquals(2, descarga.getReconexiones());
+        assertEquals(2, servidor.getPeticionesRange());
+        assertEquals(TAMANIO, descarga.getBytesTransferidos());
+        assertArrayEquals(servidor.getContenido(),
+                          Files.readAllBytes(cache.archivo(entrada).toPath()));
+    }
+
+    @Test
+    public void revalidacionDetectaCambios() throws IOException {
+        CacheAudio cache = new CacheAudio(directorio, 10 * TAMANIO);
+        EntradaCache entrada = cache.abrir(servidor.url("/cancion.mp3"));
+        new DescargaCache(cache, entrada).run();
+
+        assertTrue(DescargaCache.revalidar(entrada));
+        assertEquals(1, servidor.getRespuestasNoModificado());
+
+        servidor.cambiarContenido(ServidorHttpLocal.generarContenido(TAMANIO, 2), "\"v2\"");
+        assertFalse(DescargaCache.revalidar(entrada));
+    }
+
+    @Test
+    public void elStreamingDescartaElTramoSiLaCancionCambio() throws IOException {
+        CacheAudio cache = new CacheAudio(directorio, 10 * TAMANIO);
+        EntradaCache entrada = cache.abrir(servidor.url("/cancion.mp3"));
+
+        // Quedó la mitad de la versión anterior.
+        byte[] mitad = Arrays.copyOf(servidor.getContenido(), TAMANIO / 2);
+        Files.write(cache.archivo(entrada).toPath(), mitad);
+        cache.registrarCabeceras(entrada, "\"v1\"", null, TAMANIO);
+        entrada.asignarDescargados(mitad.length);
+
+        byte[] nuevo = ServidorHttpLocal.generarContenido(TAMANIO, 2);
+        servidor.cambiarContenido(nuevo, "\"v2\"");
+        try (LectorStreaming lector = new LectorStreaming(servidor.url("/cancion.mp3"),
+                new PoolBuffers(1024 * 1024, 1), new PoolBuffers(16 * 1024, 1),
+                new EscrituraCache(cache, entrada))) {
+            byte[] bloque = new byte[16 * 1024];
+            long posicion = 0;
+            int leidos;
+            while ((leidos = lector.leer(posicion, bloque, 0, bloque.length)) != -1)
+                posicion += leidos;
+        }
+
+        assertEquals("\"v2\"", entrada.getEtag());
+        assertEquals(TAMANIO, entrada.getDescargados());
+        assertArrayEquals(nuevo, Files.readAllBytes(cache.archivo(entrada).toPath()));
+    }
+
+    @Test
+    public void expulsaLasEntradasMenosUsadas() throws IOException {
+        CacheAudio cache = new CacheAudio(directorio, TAMANIO + TAMANIO / 2);
+
+        EntradaCache primera = cache.abrir(servidor.url("/uno.mp3"));
+        new DescargaCache(cache, primera).run();
+        cache.liberar(primera);
+
+        EntradaCache segunda = cache.abrir(servidor.url("/dos.mp3"));
+        new DescargaCache(cache, segunda).run();
+        cache.liberar(segunda);
+
+        assertFalse(cache.archivo(primera).exists());
+        assertTrue(cache.archivo(segunda).exists());
+        assertEquals(TAMANIO, cache.tamanioActual());
+    }
+}
@@ -0,0 +1,89 @@
+package ec.epn.detri.awm.reproductor.cache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+
+import ec.epn.detri.awm.reproductor.ServidorHttpLocal;
+
+import static org.junit.Assert.*;
+
+/**
+ * Pruebas de la lectura de una canción de la caché mientras se descarga.
+ */
+public class LectorEntradaCacheTest {
+    private static final int TAMANIO = 256 * 1024;
+
+    private ServidorHttpLocal servidor;
+
+    private File directorio;
+
+    @Before
+    public void setUp() throws IOException {
+        servidor = new ServidorHttpLocal(TAMANIO);
+        directorio = Files.createTempDirectory("cache").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        servidor.close();
+        File[] archivos = directorio.listFiles();
+        if (archivos != null)
+            for (File f : archivos)
+                f.delete();
+        directorio.delete();
+    }
+
+    @Test
+    public void sigueALaDescarga() throws Exception {
+        servidor.limitarAnchoDeBanda(TAMANIO * 2);
+        CacheAudio cache = new CacheAudio(directorio, 10 * TAMANIO);
+        String url = servidor.url("/cancion.mp3");
+        EntradaCache entrada = cache.abrir(url);
+        Thread hilo = new Thread(new DescargaCache(cache, entrada));
+        hilo.start();
+
+        byte[] leido = new byte[TAMANIO];
+        LectorEntradaCache lector = new LectorEntradaCache(cache, url);
+        int posicion = 0;
+        int leidos;
+        while ((leidos = lector.leer(posicion, leido, posicion,
+                                     Math.min(8192, TAMANIO - posicion))) > 0)
+            posicion += leidos;
+        assertEquals(TAMANIO, posicion);
+        assertArrayEquals(servidor.getContenido(), leido);
+        assertEquals(-1, lector.leer(TAMANIO, leido, 0, 1));
+
+        lector.close();
+        hilo.join();
+        cache.liberar(entrada);
+    }
+
+    @Test(timeout = 5000)
+    public void cerrarDesbloqueaLaLectura() throws Exception {
+        CacheAudio cache = new CacheAudio(directorio, 10 * TAMANIO);
+        String url = servidor.url("/cancion.mp3");
+        // Nadie descarga la canción: la lectura espera.
+        final LectorEntradaCache lector = new LectorEntradaCache(cache, url);
+        new Thread(() -> {
+            try {
+                Thread.sleep(300);
+                lector.close();
+            } catch (InterruptedException | IOException e) {
+                throw new AssertionError(e);
+            }
+        }).start();
+
+        try {
+            lector.leer(0, new byte[16], 0, 16);
+            fail("La lectura debió fallar al cerrar el lector");
+        } catch (InterruptedIOException e) {
+            // Esperado.
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package ec.epn.detri.awm.reproductor.cache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+import ec.epn.detri.awm.reproductor.ServidorHttpLocal;
+
+import static org.junit.Assert.*;
+
+/**
+ * Pruebas de la precarga contra un servidor HTTP local con ancho de banda
+ * limitado.
+ */
+public class PrecargaCancionesTest {
+    private static final int TAMANIO = 512 * 1024;
+
+    private ServidorHttpLocal servidor;
+
+    private File directorio;
+
+    private CacheAudio cache;
+
+    private final AtomicBoolean reproduccionEsperando = new AtomicBoolean();
+
+    private PrecargaCanciones precarga;
+
+    @Before
+    public void setUp() throws IOException {
+        servidor = new ServidorHttpLocal(TAMANIO);
+        directorio = Files.createTempDirectory("precarga").toFile();
+        cache = new CacheAudio(directorio, 20 * TAMANIO);
+        precarga = new PrecargaCanciones(cache, 2, reproduccionEsperando::get);
+    }
+
+    @After
+    public void tearDown() {
+        precarga.cerrar();
+        servidor.close();
+        File[] archivos = directorio.listFiles();
+        if (archivos != null)
+            for (File f : archivos)
+                f.delete();
+        directorio.delete();
+    }
+
+    @Test
+    public void descargaSoloElInicioDeLasProximas() throws Exception {
+        long limite = 128 * 1024;
+        precarga.programar(Arrays.asList(url("a"), url("b"), url("c")), limite);
+        esperarHasta(() -> precarga.getCompletadas() == 3);
+
+        for (String nombre : new String[]{"a", "b", "c"}) {
+            EntradaCache entrada = cache.abrir(url(nombre));
+            assertTrue(entrada.getDescargados() >= limite);
+            assertTrue(entrada.getDescargados() < TAMANIO);
+            byte[] archivo = Files.readAllBytes(cache.archivo(entrada).toPath());
+            assertArrayEquals(Arrays.copyOf(servidor.getContenido(), archivo.length), archivo);
+            cache.liberar(entrada);
+        }
+        // Una red rápida permite varias precargas a la vez.
+        assertTrue(precarga.getAnchoDeBanda() >= PrecargaCanciones.ANCHO_PARALELO);
+    }
+
+    @Test
+    public void redLentaPrecargaUnaALaVez() throws Exception {
+        servidor.limitarAnchoDeBanda(64 * 1024);
+        precarga.programar(Arrays.asList(url("a"), url("b"), url("c")), 32 * 1024);
+
+        int maximo = 0;
+        long fin = System.currentTimeMillis() + 10000;
+        while (precarga.getCompletadas() < 3 && System.currentTimeMillis() < fin) {
+            maximo = Math.max(maximo, precarga.getSimultaneas());
+            Thread.sleep(5);
+        }
+        assertEquals(3, precarga.getCompletadas());
+        assertEquals(1, maximo);
+        assertTrue(precarga.getAnchoDeBanda() < PrecargaCanciones.ANCHO_PARALELO);
+    }
+
+    @Test
+    public void reprogramarCancelaLasQueYaNoHacenFalta() throws Exception {
+        servidor.limitarAnchoDeBanda(64 * 1024);
+        precarga.programar(Collections.singletonList(url("a")), TAMANIO);
+        EntradaCache a = cache.abrir(url("a"));
+        esperarHasta(() -> a.getDescargados() > 0);
+
+        // El usuario saltó: "a" ya no está entre las próximas.
+        precarga.programar(Collections.singletonList(url("b")), TAMANIO);
+        Thread.sleep(200);
+        long descargados = a.getDescargados();
+        Thread.sleep(300);
+
+        assertEquals(descargados, a.getDescargados());
+        assertTrue(descargados < TAMANIO);
+        assertEquals(1, precarga.getSimultaneas());
+        cache.liberar(a);
+    }
+
+    @Test
+    public void cedeElAnchoDeBandaALaReproduccion() throws Exception {
+        reproduccionEsperando.set(true);
+        precarga.programar(Collections.singletonList(url("a")), 64 * 1024);
+        EntradaCache a = cache.abrir(url("a"));
+
+        Thread.sleep(500);
+        assertEquals(0, a.getDescargados());
+
+        reproduccionEsperando.set(false);
+        esperarHasta(() -> precarga.getCompletadas() == 1);
+        assertTrue(a.getDescargados() >= 64 * 1024);
+        cache.liberar(a);
+    }
+
+    @Test
+    public void laReproduccionAdoptaLaPrecargaEnCurso() throws Exception {
+        servidor.limitarAnchoDeBanda(256 * 1024);
+        reproduccionEsperando.set(true);
+        precarga.programar(Collections.singletonList(url("a")), 64 * 1024);
+        Thread.sleep(200);
+
+        DescargaCache descarga = precarga.tomar(url("a"));
+        assertNotNull(descarga);
+        // Adoptada, la descarga ya no cede ni se detiene en el límite.
+        assertEquals(TAMANIO, descarga.esperarLongitud());
+        esperarHasta(() -> descarga.getEntrada().estaCompleta());
+
+        assertEquals(1, servidor.getPeticiones());
+        assertEquals(0, precarga.getSimultaneas());
+        assertArrayEquals(servidor.getContenido(),
+                          Files.readAllBytes(cache.archivo(descarga.getEntrada()).toPath()));
+        cache.liberar(descarga.getEntrada());
+    }
+
+    private String url(String nombre) {
+        return servidor.url("/" + nombre + ".mp3");
+    }
+
+    private static void esperarHasta(BooleanSupplier condicion) throws InterruptedException {
+        long fin = System.currentTimeMillis() + 10000;
+        while (!condicion.getAsBoolean()) {
+            assertTrue("Tiempo de espera agotado", System.currentTimeMillis() < fin);
+            Thread.sleep(10);
+        }
+    }
+}
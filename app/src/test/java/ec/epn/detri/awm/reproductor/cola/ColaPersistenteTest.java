@@ -0,0 +1,161 @@
+package ec.epn.detri.awm.reproductor.cola;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import ec.epn.detri.awm.reproductor.Mediciones;
+
+import static org.junit.Assert.*;
+
+/**
+ * Pruebas y medición de rendimiento de la cola guardada en disco.
+ */
+public class ColaPersistenteTest {
+    private File directorio;
+
+    private File archivo;
+
+    @Before
+    public void setUp() throws IOException {
+        directorio = Files.createTempDirectory("cola").toFile();
+        archivo = new File(directorio, "cola");
+    }
+
+    @After
+    public void tearDown() {
+        File[] archivos = directorio.listFiles();
+        if (archivos != null)
+            for (File f : archivos)
+                f.delete();
+        directorio.delete();
+    }
+
+    @Test
+    public void recuperaLasOperacionesAlReabrir() {
+        ColaPersistente cola = ColaPersistente.abrir(archivo);
+        assertTrue(cola.esPersistente());
+        cola.agregar(Arrays.asList("a", "b", "c", "d"));
+        cola.setActual(1);
+        cola.insertar(0, "x");
+        cola.mover(4, 1);
+        cola.eliminar(3);
+        cola.close();
+
+        ColaPersistente recuperada = ColaPersistente.abrir(archivo);
+        assertEquals(Arrays.asList("x", "d", "a", "c"), recuperada.urls());
+        // La canción actual ("b") fue eliminada: la siguiente es la que ocupó su lugar.
+        assertEquals("c", recuperada.url(recuperada.getActual() + 1));
+        recuperada.close();
+    }
+
+    @Test
+    public void laActualSigueALaCancionAlMover() {
+        ColaPersistente cola = ColaPersistente.abrir(archivo);
+        cola.agregar(Arrays.asList("a", "b", "c", "d"));
+        cola.setActual(2);
+
+        cola.mover(2, 0);
+        assertEquals("c", cola.url(cola.getActual()));
+        cola.mover(3, 0);
+        assertEquals("c", cola.url(cola.getActual()));
+        cola.mover(0, 3);
+        assertEquals("c", cola.url(cola.getActual()));
+        cola.close();
+    }
+
+    @Test
+    public void descartaUnRegistroIncompleto() throws IOException {
+        ColaPersistente cola = ColaPersistente.abrir(archivo);
+        cola.agregar(Arrays.asList("a", "b"));
+        cola.agregar("c");
+        cola.close();
+
+        // Simula que el proceso murió a mitad de la última escritura.
+        try (RandomAccessFile raf = new RandomAccessFile(archivo, "rw")) {
+            raf.setLength(raf.length() - 1);
+        }
+
+        ColaPersistente recuperada = ColaPersistente.abrir(archivo);
+        assertEquals(Arrays.asList("a", "b"), recuperada.urls());
+        recuperada.agregar("d");
+        recuperada.close();
+
+        assertEquals(Arrays.asList("a", "b", "d"), ColaPersistente.abrir(archivo).urls());
+    }
+
+    @Test
+    public void compactaCuandoElRegistroCrece() {
+        ColaPersistente cola = ColaPersistente.abrir(archivo);
+        cola.agregar(Arrays.asList("a", "b", "c"));
+        for (int i = 0; i < 5000; i++)
+            cola.mover(0, 2);
+        cola.close();
+
+        // Sin compactar, 5000 movimientos ocuparían unos 45 KB.
+        assertTrue(archivo.length() < 20 * 1024);
+        ColaPersistente recuperada = ColaPersistente.abrir(archivo);
+        assertEquals(cola.urls(), recuperada.urls());
+        recuperada.close();
+    }
+
+    /**
+     * Mide cargar, insertar y reordenar con 1k, 10k y 100k canciones. Sólo
+     * con -Pmediciones.
+     */
+    @Test
+    public void rendimiento() {
+        Mediciones.requerirActivadas();
+        for (int tamanio : new int[]{1_000, 10_000, 100_000}) {
+            archivo.delete();
+            List<String> urls = new ArrayList<>(tamanio);
+            for (int i = 0; i < tamanio; i++)
+                urls.add("https://musica.example.com/albumes/" + (i / 12) + "/pista-" + i + ".mp3");
+
+            ColaPersistente cola = ColaPersistente.abrir(archivo);
+            long inicio = System.nanoTime();
+            cola.agregar(urls);
+            long nanosAgregar = System.nanoTime() - inicio;
+
+            Random azar = new Random(tamanio);
+            int operaciones = 1000;
+            inicio = System.nanoTime();
+            for (int i = 0; i < operaciones; i++)
+                cola.insertar(azar.nextInt(cola.tamanio()), "https://musica.example.com/insertada-" + i);
+            long nanosInsertar = System.nanoTime() - inicio;
+
+            inicio = System.nanoTime();
+            for (int i = 0; i < operaciones; i++)
+                cola.mover(azar.nextInt(cola.tamanio()), azar.nextInt(cola.tamanio()));
+            long nanosMover = System.nanoTime() - inicio;
+            cola.setActual(tamanio / 2);
+            cola.close();
+
+            // La primera apertura incluye el calentamiento del JIT.
+            ColaPersistente.abrir(archivo).close();
+            inicio = System.nanoTime();
+            ColaPersistente recuperada = ColaPersistente.abrir(archivo);
+            long nanosCargar = System.nanoTime() - inicio;
+            assertEquals(cola.urls(), recuperada.urls());
+            assertEquals(cola.getActual(), recuperada.getActual());
+            recuperada.close();
+
+            System.out.println(String.format(Locale.ROOT,
+                    "ColaPersistente %6d: cargar %.1f ms, agregar %.1f ms, "
+                    + "insertar %.1f us/op, mover %.1f us/op, archivo %d KB",
+                    tamanio, nanosCargar / 1e6, nanosAgregar / 1e6,
+                    nanosInsertar / 1e3 / operaciones, nanosMover / 1e3 / operaciones,
+                    archivo.length() / 1024));
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package ec.epn.detri.awm.reproductor.cola;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import ec.epn.detri.awm.reproductor.Mediciones;
+import ec.epn.detri.awm.reproductor.ServidorHttpLocal;
+
+import static org.junit.Assert.*;
+
+/**
+ * Pruebas y medición de la importación de listas contra un servidor local.
+ */
+public class ImportacionUrlsTest {
+    private ServidorHttpLocal servidor;
+
+    /**
+     * Hace de hilo principal: los avisos se entregan en orden, en un solo hilo.
+     */
+    private ExecutorService principal;
+
+    private final Resultado resultado = new Resultado();
+
+    /**
+     * Guarda lo que recibe el oyente.
+     */
+    private static final class Resultado implements ImportacionUrls.Oyente {
+        final List<String> urls = new ArrayList<>();
+        final CountDownLatch terminada = new CountDownLatch(1);
+        int lotes;
+        long primerLoteNanos;
+        ImportacionUrls.Resumen resumen;
+
+        @Override
+        public void alValidar(List<String> lote) {
+            if (lotes++ == 0)
+                primerLoteNanos = System.nanoTime();
+            urls.addAll(lote);
+        }
+
+        @Override
+        public void alTerminar(ImportacionUrls.Resumen resumen) {
+            this.resumen = resumen;
+            terminada.countDown();
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        servidor = new ServidorHttpLocal(1024);
+        principal = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        principal.shutdownNow();
+        servidor.close();
+    }
+
+    @Test
+    public void leeM3uPlsYTextoPegado() throws IOException {
+        assertEquals(Arrays.asList("http://a/1.mp3", "canción 2.mp3"),
+                     leer("#EXTM3U\n#EXTINF:123,Artista - Uno\nhttp://a/1.mp3\n\n"
+                          + "#EXTINF:-1,Dos\ncanción 2.mp3\n"));
+        assertEquals(Arrays.asList("http://a/1.mp3", "http://a/2.mp3?x=1"),
+                     leer("[playlist]\nNumberOfEntries=2\nFile1=http://a/1.mp3\n"
+                          + "Title1=Uno\nLength1=-1\nFile2=http://a/2.mp3?x=1\nVersion=2\n"));
+        assertEquals(Arrays.asList("http://a/1.mp3", "https://b/2.mp3", "http://c/3.mp3"),
+                     leer("http://a/1.mp3   https://b/2.mp3\thttp://c/3.mp3"));
+
+        URL base = new URL("http://servidor/listas/mia.m3u");
+        assertEquals("http://servidor/listas/canción%202.mp3",
+                     LectorListas.resolver("canción 2.mp3", base));
+        assertEquals("http://a/1.mp3", LectorListas.resolver("http://a/1.mp3#t=10", null));
+        assertNull(LectorListas.resolver("ftp://a/1.mp3", null));
+        assertNull(LectorListas.resolver("canción.mp3", null));
+    }
+
+    @Test
+    public void descartaRepetidasInvalidasYRechazadas() throws Exception {
+        String caida = "http://127.0.0.1:" + puertoLibre() + "/caida.mp3";
+        String lista = "#EXTM3U\n"
+                       + servidor.url("/a.mp3") + "\n"
+                       + servidor.url("/b.mp3") + "\n"
+                       + servidor.url("/a.mp3") + "\n"
+                       + servidor.url("/a.mp3#repetida") + "\n"
+                       + "mailto:alguien@example.com\n"
+                       + "ftp://127.0.0.1/c.mp3\n"
+                       + caida + "\n"
+                       + "c.mp3\n";
+
+        ImportacionUrls importacion = new ImportacionUrls(resultado, principal);
+        importacion.importar(() -> new StringReader(lista), new URL(servidor.url("/lista.m3u")));
+        assertTrue(resultado.terminada.await(10, TimeUnit.SECONDS));
+
+        ImportacionUrls.Resumen resumen = resultado.resumen;
+        assertEquals(8, resumen.entradas);
+        assertEquals(2, resumen.repetidas);
+        assertEquals(2, resumen.invalidas);
+        assertEquals(1, resumen.rechazadas);
+        assertEquals(3, resumen.validas);
+        assertTrue(resumen.completa);
+        assertEquals(new HashSet<>(Arrays.asList(servidor.url("/a.mp3"),
+                                                 servidor.url("/b.mp3"),
+                                                 servidor.url("/c.mp3"))),
+                     new HashSet<>(resultado.urls));
+        // Una petición HEAD por URL distinta.
+        assertEquals(3, servidor.getPeticiones());
+    }
+
+    @Test
+    public void cancelarDetieneLosAvisos() throws Exception {
+        CountDownLatch primerLote = new CountDownLatch(1);
+        ImportacionUrls importacion = new ImportacionUrls(new ImportacionUrls.Oyente() {
+            @Override
+            public void alValidar(List<String> urls) {
+                resultado.alValidar(urls);
+                primerLote.countDown();
+            }
+
+            @Override
+            public void alTerminar(ImportacionUrls.Resumen resumen) {
+                resultado.alTerminar(resumen);
+            }
+        }, principal);
+        importacion.importar(() -> new StringReader(lista(100000)), null);
+        assertTrue(primerLote.await(10, TimeUnit.SECONDS));
+
+        importacion.close();
+        principal.submit(() -> { }).get();
+        int recibidas = resultado.urls.size();
+        Thread.sleep(500);
+        principal.submit(() -> { }).get();
+        assertEquals(recibidas, resultado.urls.size());
+        assertEquals(1, resultado.terminada.getCount());
+    }
+
+    /**
+     * Una validación lenta (un servidor que acepta la conexión y no
+     * responde) no retiene las URLs ya validadas más allá del plazo del lote.
+     */
+    @Test
+    public void unaValidacionLentaNoRetieneElLote() throws Exception {
+        final CountDownLatch validadas = new CountDownLatch(2);
+        try (ServerSocket mudo = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            String lista = servidor.url("/a.mp3") + "\n"
+                           + servidor.url("/b.mp3") + "\n"
+                           + "http://127.0.0.1:" + mudo.getLocalPort() + "/lenta.mp3\n";
+            ImportacionUrls importacion = new ImportacionUrls(new ImportacionUrls.Oyente() {
+                @Override
+                public void alValidar(List<String> urls) {
+                    resultado.alValidar(urls);
+                    for (int i = 0; i < urls.size(); i++)
+                        validadas.countDown();
+                }
+
+                @Override
+                public void alTerminar(ImportacionUrls.Resumen resumen) {
+                    resultado.alTerminar(resumen);
+                }
+            }, principal);
+            importacion.importar(() -> new StringReader(lista), null);
+
+            // La validación lenta tarda el tiempo de espera completo (5 s).
+            assertTrue(validadas.await(2, TimeUnit.SECONDS));
+            assertEquals(1, resultado.terminada.getCount());
+            importacion.close();
+        }
+    }
+
+    /**
+     * Una lista de 10000 canciones se valida completa y el hilo principal
+     * sólo recibe unos cientos de lotes.
+     */
+    @Test
+    public void diezMilLineasLleganEnPocosLotes() throws Exception {
+        final int lineas = 10000;
+        String lista = lista(lineas);
+
+        long inicio = System.nanoTime();
+        ImportacionUrls importacion = new ImportacionUrls(resultado, principal);
+        importacion.importar(() -> new StringReader(lista), null);
+        assertTrue(resultado.terminada.await(60, TimeUnit.SECONDS));
+        long ms = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inicio);
+
+        assertEquals(lineas, resultado.resumen.validas);
+        assertEquals(lineas, new HashSet<>(resultado.urls).size());
+        int maximoLotes = lineas / ImportacionUrls.LOTE
+                          + (int) (ms / ImportacionUrls.INTERVALO_LOTE_MS) + 2;
+        assertTrue(resultado.lotes + " lotes", resultado.lotes <= maximoLotes);
+    }
+
+    /**
+     * Mide cuánto tarda una lista de 10000 canciones y cuándo llega la
+     * primera. Sólo con -Pmediciones.
+     */
+    @Test
+    public void rendimientoDiezMilLineas() throws Exception {
+        Mediciones.requerirActivadas();
+        final int lineas = 10000;
+        String lista = lista(lineas);
+
+        long inicio = System.nanoTime();
+        ImportacionUrls importacion = new ImportacionUrls(resultado, principal);
+        importacion.importar(() -> new StringReader(lista), null);
+        assertTrue(resultado.terminada.await(60, TimeUnit.SECONDS));
+        long ms = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inicio);
+
+        long primera = TimeUnit.NANOSECONDS.toMillis(resultado.primerLoteNanos - inicio);
+        System.out.println(String.format(Locale.ROOT,
+                "Importación de %d líneas: %d ms (%.0f URLs/s), primera en %d ms, %d lotes",
+                lineas, ms, lineas * 1000.0 / Math.max(ms, 1), primera, resultado.lotes));
+    }
+
+    private static List<String> leer(String texto) throws IOException {
+        LectorListas lector = new LectorListas(new StringReader(texto));
+        List<String> entradas = new ArrayList<>();
+        String entrada;
+        while ((entrada = lector.siguiente()) != null)
+            entradas.add(entrada);
+        return entradas;
+    }
+
+    private String lista(int lineas) {
+        StringBuilder texto = new StringBuilder("#EXTM3U\n");
+        for (int i = 0; i < lineas; i++)
+            texto.append("#EXTINF:-1,Canción ").append(i).append('\n')
+                 .append(servidor.url("/cancion" + i + ".mp3")).append('\n');
+        return texto.toString();
+    }
+
+    /**
+     * @return Un puerto local en el que nadie escucha.
+     */
+    private static int puertoLibre() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package ec.epn.detri.awm.reproductor.cola;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/**
+ * Pruebas del registro de la posición de la canción actual.
+ */
+public class RegistroPosicionTest {
+    private File directorio;
+
+    private File archivo;
+
+    @Before
+    public void setUp() throws IOException {
+        directorio = Files.createTempDirectory("posicion").toFile();
+        archivo = new File(directorio, "posicion");
+    }
+
+    @After
+    public void tearDown() {
+        File[] archivos = directorio.listFiles();
+        if (archivos != null)
+            for (File f : archivos)
+                f.delete();
+        directorio.delete();
+    }
+
+    @Test
+    public void recuperaLaUltimaPosicionAlReabrir() {
+        RegistroPosicion registro = RegistroPosicion.abrir(archivo);
+        assertNull(registro.getUrl());
+        assertTrue(registro.esPersistente());
+
+        registro.guardar("a", 1000, 60000, true);
+        registro.guardar("b", 0, 3600000, true);
+        registro.guardar("b", 1800000, 3600000, true);
+        registro.close();
+
+        RegistroPosicion recuperado = RegistroPosicion.abrir(archivo);
+        assertEquals("b", recuperado.getUrl());
+        assertEquals(1800000, recuperado.getPosicion());
+        assertEquals(3600000, recuperado.getDuracion());
+        recuperado.close();
+    }
+
+    @Test
+    public void agrupaLasPosicionesCercanas() {
+        RegistroPosicion registro = RegistroPosicion.abrir(archivo);
+        assertTrue(registro.guardar("a", 0, 60000, false));
+
+        // Cada segundo de reproducción: sólo se escribe cada INTERVALO_MS.
+        int escrituras = 0;
+        for (int ms = 1000; ms <= 20000; ms += 1000)
+            if (registro.guardar("a", ms, 60000, false))
+                escrituras++;
+        assertEquals(20000 / RegistroPosicion.INTERVALO_MS, escrituras);
+
+        // Una canción nueva o una escritura inmediata no esperan.
+        assertTrue(registro.guardar("a", 20500, 60000, true));
+        assertTrue(registro.guardar("b", 100, 60000, false));
+        assertFalse(registro.guardar("b", 100, 60000, true));
+        registro.close();
+    }
+
+    @Test
+    public void descartaUnPuntoDeControlIncompleto() throws IOException {
+        RegistroPosicion registro = RegistroPosicion.abrir(archivo);
+        registro.guardar("a", 10000, 60000, true);
+        registro.guardar("a", 20000, 60000, true);
+        registro.close();
+
+        // Simula que el proceso murió a mitad del último registro.
+        try (RandomAccessFile raf = new RandomAccessFile(archivo, "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+
+        RegistroPosicion recuperado = RegistroPosicion.abrir(archivo);
+        assertEquals("a", recuperado.getUrl());
+        assertEquals(10000, recuperado.getPosicion());
+
+        // El registro se reescribió y se puede seguir agregando.
+        recuperado.guardar("a", 30000, 60000, true);
+        recuperado.close();
+        assertEquals(30000, RegistroPosicion.abrir(archivo).getPosicion());
+    }
+
+    @Test
+    public void compactaSinPerderLaPosicion() {
+        RegistroPosicion registro = RegistroPosicion.abrir(archivo);
+        for (int i = 0; i < 3 * RegistroPosicion.MAXIMO_REGISTROS; i++)
+            registro.guardar("a", i * RegistroPosicion.INTERVALO_MS, Integer.MAX_VALUE, false);
+        registro.close();
+
+        // El archivo se mantiene pequeño (unos pocos KB).
+        assertTrue(archivo.length() < 16 * RegistroPosicion.MAXIMO_REGISTROS);
+        RegistroPosicion recuperado = RegistroPosicion.abrir(archivo);
+        assertEquals((3 * RegistroPosicion.MAXIMO_REGISTROS - 1) * RegistroPosicion.INTERVALO_MS,
+                     recuperado.getPosicion());
+        recuperado.close();
+    }
+
+    @Test
+    public void limpiarOlvidaLaPosicion() {
+        RegistroPosicion registro = RegistroPosicion.abrir(archivo);
+        registro.guardar("a", 10000, 60000, true);
+        registro.limpiar();
+        registro.close();
+
+        RegistroPosicion recuperado = RegistroPosicion.abrir(archivo);
+        assertNull(recuperado.getUrl());
+        assertEquals(0, recuperado.getPosicion());
+        recuperado.close();
+    }
+}
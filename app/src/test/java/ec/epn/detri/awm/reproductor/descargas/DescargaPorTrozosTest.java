@@ -0,0 +1,175 @@
+package ec.epn.detri.awm.reproductor.descargas;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReference;
+
+import ec.epn.detri.awm.reproductor.Mediciones;
+import ec.epn.detri.awm.reproductor.ServidorHttpLocal;
+
+import static org.junit.Assert.*;
+
+/**
+ * Pruebas de la descarga por trozos contra un servidor HTTP local: trozos
+ * en paralelo, reanudación tras cortarla (como si el proceso muriera),
+ * cambio de la canción en el servidor y rendimiento frente a un solo flujo
+ * con latencia simulada.
+ */
+public class DescargaPorTrozosTest {
+    private static final int TROZO = 64 * 1024;
+
+    private ServidorHttpLocal servidor;
+
+    private File directorio;
+
+    private String url;
+
+    private File destino;
+
+    @Before
+    public void setUp() throws IOException {
+        servidor = new ServidorHttpLocal(16 * TROZO + 1000);
+        directorio = Files.createTempDirectory("offline").toFile();
+        url = servidor.url("/cancion.mp3");
+        destino = new File(directorio, "cancion");
+    }
+
+    @After
+    public void tearDown() {
+        servidor.close();
+        File[] archivos = directorio.listFiles();
+        if (archivos != null)
+            for (File f : archivos)
+                f.delete();
+        directorio.delete();
+    }
+
+    @Test
+    public void descargaLosTrozosEnParaleloYVerifica() throws Exception {
+        DescargaPorTrozos descarga = new DescargaPorTrozos(url, destino, 4, TROZO);
+        descarga.descargar();
+
+        assertArrayEquals(servidor.getContenido(), Files.readAllBytes(destino.toPath()));
+        assertEquals(17, descarga.getTrozosTotales());
+        assertEquals(0, descarga.getTrozosPrevios());
+        assertEquals(17, servidor.getPeticionesRange());
+        assertEquals(servidor.getContenido().length, descarga.getBytesTransferidos());
+        assertArrayEquals(new String[] { "cancion" }, directorio.list());
+
+        // Ya descargada: no se vuelve a pedir.
+        new DescargaPorTrozos(url, destino, 4, TROZO).descargar();
+        assertEquals(17, servidor.getPeticiones());
+    }
+
+    @Test
+    public void retomaSoloLosTrozosQueFaltan() throws Exception {
+        int escritos = cortarDespuesDe(4);
+        assertFalse(destino.exists());
+
+        // Una descarga nueva (como tras la muerte del proceso) lee el estado del disco.
+        servidor.limitarAnchoDeBanda(0);
+        DescargaPorTrozos descarga = new DescargaPorTrozos(url, destino, 4, TROZO);
+        descarga.descargar();
+
+        // Los trozos escritos (del inicio de la canción, todos completos) no se piden.
+        assertTrue(descarga.getTrozosPrevios() >= escritos);
+        assertEquals(servidor.getContenido().length - (long) descarga.getTrozosPrevios() * TROZO,
+                     descarga.getBytesTransferidos());
+        assertArrayEquals(servidor.getContenido(), Files.readAllBytes(destino.toPath()));
+    }
+
+    @Test
+    public void empiezaDeNuevoSiLaCancionCambio() throws Exception {
+        cortarDespuesDe(4);
+
+        byte[] nueva = ServidorHttpLocal.generarContenido(10 * TROZO, 2);
+        servidor.cambiarContenido(nueva, "\"v2\"");
+        servidor.limitarAnchoDeBanda(0);
+        new DescargaPorTrozos(url, destino, 4, TROZO).descargar();
+
+        assertArrayEquals(nueva, Files.readAllBytes(destino.toPath()));
+        assertArrayEquals(new String[] { "cancion" }, directorio.list());
+    }
+
+    /**
+     * Mide un solo flujo frente a cuatro conexiones con trozos de 256 KB,
+     * con 50 ms de latencia por petición y el ancho de banda limitado por
+     * conexión (como un servidor o un enlace que reparte por flujo). Sólo
+     * con -Pmediciones.
+     */
+    @Test
+    public void rendimientoTrozosParalelosFrenteAUnFlujo() throws Exception {
+        Mediciones.requerirActivadas();
+        int tamanio = 2 * 1024 * 1024;
+        servidor.cambiarContenido(ServidorHttpLocal.generarContenido(tamanio, 3), "\"v3\"");
+        servidor.simularLatencia(50);
+        servidor.limitarAnchoDeBanda(2 * 1024 * 1024);
+
+        long unFlujo = medir(new DescargaPorTrozos(url, new File(directorio, "uno"),
+                                                   1, Integer.MAX_VALUE));
+        long trozos = medir(new DescargaPorTrozos(url, new File(directorio, "trozos"),
+                                                  4, 256 * 1024));
+
+        System.out.println(String.format(Locale.ROOT,
+                "Descarga de %d KB: un flujo %d ms (%.0f KB/s), 4 conexiones %d ms (%.0f KB/s)",
+                tamanio / 1024, unFlujo, tamanio / 1.024 / unFlujo,
+                trozos, tamanio / 1.024 / trozos));
+        assertArrayEquals(servidor.getContenido(),
+                          Files.readAllBytes(new File(directorio, "trozos").toPath()));
+    }
+
+    /**
+     * Descarga con el ancho de banda limitado y la corta cuando hay al menos
+     * "minimo" trozos escritos.
+     * @return Trozos escritos según el estado en disco.
+     */
+    private int cortarDespuesDe(int minimo) throws Exception {
+        servidor.limitarAnchoDeBanda(512 * 1024);
+        final DescargaPorTrozos descarga = new DescargaPorTrozos(url, destino, 2, TROZO);
+        final AtomicReference<IOException> error = new AtomicReference<>();
+        Thread hilo = new Thread(() -> {
+            try {
+                descarga.descargar();
+            } catch (IOException e) {
+                error.set(e);
+            }
+        });
+        hilo.start();
+
+        File estado = new File(destino.getPath() + ".trozos");
+        long fin = System.currentTimeMillis() + 10000;
+        while (escritos(estado) < minimo) {
+            assertTrue("Tiempo de espera agotado", System.currentTimeMillis() < fin);
+            Thread.sleep(10);
+        }
+        descarga.cancelar();
+        hilo.join();
+
+        assertTrue(String.valueOf(error.get()), error.get() instanceof InterruptedIOException);
+        return escritos(estado);
+    }
+
+    private int escritos(File archivo) throws IOException {
+        EstadoDescarga estado = EstadoDescarga.abrir(archivo, url);
+        if (estado == null)
+            return 0;
+        try {
+            return estado.getEscritos();
+        } finally {
+            estado.close();
+        }
+    }
+
+    private static long medir(DescargaPorTrozos descarga) throws IOException {
+        long inicio = System.nanoTime();
+        descarga.descargar();
+        return (System.nanoTime() - inicio) / 1000000;
+    }
+}
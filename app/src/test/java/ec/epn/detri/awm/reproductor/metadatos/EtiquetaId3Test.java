@@ -0,0 +1,226 @@
+package ec.epn.detri.awm.reproductor.metadatos;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import ec.epn.detri.awm.reproductor.Mediciones;
+
+import static org.junit.Assert.*;
+
+/**
+ * Pruebas de la lectura de etiquetas ID3v2 armadas a mano.
+ */
+public class EtiquetaId3Test {
+    /**
+     * Arma etiquetas ID3v2.3 y 2.4 sin cabecera extendida.
+     */
+    static final class Constructor {
+        private final int version;
+        private final ByteArrayOutputStream cuadros = new ByteArrayOutputStream();
+
+        Constructor(int version) {
+            this.version = version;
+        }
+
+        Constructor texto(String id, String texto) {
+            byte[] bytes = texto.getBytes(version == 4 ? StandardCharsets.UTF_8
+                                                       : StandardCharsets.ISO_8859_1);
+            byte[] cuerpo = new byte[bytes.length + 1];
+            cuerpo[0] = (byte) (version == 4 ? 3 : 0);
+            System.arraycopy(bytes, 0, cuerpo, 1, bytes.length);
+            return cuadro(id, cuerpo);
+        }
+
+        /**
+         * Cuadro TXXX (descripción y valor) en ISO-8859-1.
+         */
+        Constructor textoLibre(String descripcion, String valor) {
+            return cuadro("TXXX", ("\0" + descripcion + "\0" + valor)
+                    .getBytes(StandardCharsets.ISO_8859_1));
+        }
+
+        Constructor imagen(int tipo, byte[] imagen) {
+            ByteArrayOutputStream cuerpo = new ByteArrayOutputStream();
+            cuerpo.write(0);
+            cuerpo.write("image/jpeg".getBytes(StandardCharsets.ISO_8859_1), 0, 10);
+            cuerpo.write(0);
+            cuerpo.write(tipo);
+            cuerpo.write('x');
+            cuerpo.write(0);
+            cuerpo.write(imagen, 0, imagen.length);
+            return cuadro("APIC", cuerpo.toByteArray());
+        }
+
+        Constructor cuadro(String id, byte[] cuerpo) {
+            cuadros.write(id.getBytes(StandardCharsets.ISO_8859_1), 0, 4);
+            escribirTamanio(cuadros, cuerpo.length, version == 4);
+            cuadros.write(0);
+            cuadros.write(0);
+            cuadros.write(cuerpo, 0, cuerpo.length);
+            return this;
+        }
+
+        /**
+         * @param relleno Bytes en cero al final (como dejan los editores).
+         */
+        byte[] construir(int relleno) {
+            ByteArrayOutputStream etiqueta = new ByteArrayOutputStream();
+            etiqueta.write('I');
+            etiqueta.write('D');
+            etiqueta.write('3');
+            etiqueta.write(version);
+            etiqueta.write(0);
+            etiqueta.write(0);
+            escribirTamanio(etiqueta, cuadros.size() + relleno, true);
+            etiqueta.write(cuadros.toByteArray(), 0, cuadros.size());
+            etiqueta.write(new byte[relleno], 0, relleno);
+            return etiqueta.toByteArray();
+        }
+
+        private static void escribirTamanio(ByteArrayOutputStream salida, int tamanio,
+                                            boolean sincronizado) {
+            for (int i = 3; i >= 0; i--)
+                salida.write(sincronizado ? tamanio >> 7 * i & 0x7f : tamanio >> 8 * i & 0xff);
+        }
+    }
+
+    static byte[] imagen(int tamanio) {
+        byte[] imagen = new byte[tamanio];
+        for (int i = 0; i < tamanio; i++)
+            imagen[i] = (byte) (i * 31);
+        return imagen;
+    }
+
+    @Test
+    public void leeTextosDeLaVersion23() {
+        byte[] datos = new Constructor(3).texto("TIT2", "Canción")
+                                         .texto("TPE1", "Artista")
+                                         .texto("TALB", "Álbum")
+                                         .texto("TLEN", "215000")
+                                         .construir(64);
+        assertEquals(datos.length, EtiquetaId3.tamanio(datos, datos.length));
+
+        EtiquetaId3 etiqueta = EtiquetaId3.leer(datos, datos.length);
+        assertEquals("Canción", etiqueta.titulo);
+        assertEquals("Artista", etiqueta.artista);
+        assertEquals("Álbum", etiqueta.album);
+        assertEquals(215000, etiqueta.duracionMs);
+        assertNull(etiqueta.imagen);
+    }
+
+    @Test
+    public void prefiereLaPortadaEnLaVersion24() {
+        byte[] otra = imagen(300);
+        byte[] portada = imagen(200);
+        byte[] datos = new Constructor(4).texto("TIT2", "Título")
+                                         .imagen(0, otra)
+                                         .imagen(3, portada)
+                                         .construir(0);
+
+        EtiquetaId3 etiqueta = EtiquetaId3.leer(datos, datos.length);
+        assertEquals("Título", etiqueta.titulo);
+        assertArrayEquals(portada, etiqueta.imagen);
+        assertEquals("image/jpeg", etiqueta.tipoImagen);
+    }
+
+    @Test
+    public void deshaceLaDesincronizacion() {
+        // Un JPEG tiene muchos FF seguidos de 0 o de bytes >= E0.
+        byte[] portada = imagen(256);
+        portada[10] = (byte) 0xff;
+        portada[11] = 0;
+        portada[20] = (byte) 0xff;
+        portada[21] = (byte) 0xe0;
+        byte[] original = new Constructor(3).imagen(3, portada).construir(0);
+
+        ByteArrayOutputStream desincronizada = new ByteArrayOutputStream();
+        desincronizada.write(original, 0, EtiquetaId3.CABECERA);
+        for (int i = EtiquetaId3.CABECERA; i < original.length; i++) {
+            desincronizada.write(original[i]);
+            if (original[i] == (byte) 0xff
+                && (i + 1 == original.length || (original[i + 1] & 0xe0) == 0xe0
+                    || original[i + 1] == 0))
+                desincronizada.write(0);
+        }
+        byte[] datos = desincronizada.toByteArray();
+        datos[5] = (byte) 0x80;
+        int tamanio = datos.length - EtiquetaId3.CABECERA;
+        for (int i = 0; i < 4; i++)
+            datos[6 + i] = (byte) (tamanio >> 7 * (3 - i) & 0x7f);
+        assertTrue(datos.length > original.length);
+
+        assertArrayEquals(portada, EtiquetaId3.leer(datos, datos.length).imagen);
+    }
+
+    @Test
+    public void leeReplayGainYEbuR128() {
+        byte[] datos = new Constructor(4).texto("TIT2", "Fuerte")
+                                         .textoLibre("replaygain_track_gain", "-6.20 dB")
+                                         .textoLibre("REPLAYGAIN_TRACK_PEAK", "0.988")
+                                         .textoLibre("R128_TRACK_GAIN", "-512")
+                                         .construir(0);
+        EtiquetaId3 etiqueta = EtiquetaId3.leer(datos, datos.length);
+        assertEquals(-6.2f, etiqueta.gananciaDb, 1e-6f);
+        assertEquals(0.988f, etiqueta.pico, 1e-6f);
+
+        // Sin ReplayGain se usa R128: -2 dB respecto a -23 LUFS son +3 dB
+        // respecto a los -18 LUFS de ReplayGain.
+        datos = new Constructor(3).textoLibre("R128_TRACK_GAIN", "-512").construir(0);
+        etiqueta = EtiquetaId3.leer(datos, datos.length);
+        assertEquals(3f, etiqueta.gananciaDb, 1e-6f);
+        assertEquals(0f, etiqueta.pico, 0f);
+
+        datos = new Constructor(3).texto("TIT2", "Sin ganancia")
+                                  .textoLibre("REPLAYGAIN_TRACK_GAIN", "alto")
+                                  .construir(0);
+        assertTrue(Float.isNaN(EtiquetaId3.leer(datos, datos.length).gananciaDb));
+    }
+
+    @Test
+    public void etiquetaIncompletaOAusente() {
+        byte[] datos = new Constructor(3).texto("TIT2", "Primero")
+                                         .imagen(3, imagen(4096))
+                                         .construir(0);
+        // Sólo llegaron los primeros bytes: se leen los cuadros completos.
+        EtiquetaId3 parcial = EtiquetaId3.leer(datos, 100);
+        assertEquals("Primero", parcial.titulo);
+        assertNull(parcial.imagen);
+
+        byte[] mp3 = new byte[1024];
+        mp3[0] = (byte) 0xff;
+        mp3[1] = (byte) 0xfb;
+        assertEquals(0, EtiquetaId3.tamanio(mp3, mp3.length));
+        assertSame(EtiquetaId3.VACIA, EtiquetaId3.leer(mp3, mp3.length));
+        assertSame(EtiquetaId3.VACIA, EtiquetaId3.leer(Arrays.copyOf(datos, 4), 4));
+    }
+
+    /**
+     * Mide la lectura de una etiqueta típica (textos y una portada de
+     * 40 KB) y cuánto ocupa en memoria. Sólo con -Pmediciones.
+     */
+    @Test
+    public void tiempoDeLectura() {
+        Mediciones.requerirActivadas();
+        byte[] datos = new Constructor(4).texto("TIT2", "Título de la canción")
+                                         .texto("TPE1", "Artista")
+                                         .texto("TALB", "Álbum")
+                                         .imagen(3, imagen(40 * 1024))
+                                         .construir(1024);
+        int repeticiones = 2000;
+        EtiquetaId3 etiqueta = null;
+        for (int i = 0; i < repeticiones; i++)
+            etiqueta = EtiquetaId3.leer(datos, datos.length);
+        long inicio = System.nanoTime();
+        for (int i = 0; i < repeticiones; i++)
+            etiqueta = EtiquetaId3.leer(datos, datos.length);
+        long micros = (System.nanoTime() - inicio) / 1000 / repeticiones;
+
+        System.out.println("EtiquetaId3.leer: " + micros + " µs por etiqueta de "
+                           + datos.length / 1024 + " KB, " + etiqueta.getBytes()
+                           + " bytes en memoria");
+        assertNotNull(etiqueta.imagen);
+    }
+}
@@ -0,0 +1,133 @@
+package ec.epn.detri.awm.reproductor.metadatos;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import ec.epn.detri.awm.reproductor.ServidorHttpLocal;
+
+import static org.junit.Assert.*;
+
+/**
+ * Pruebas de la lectura de etiquetas contra un servidor HTTP local y de la
+ * caché en disco.
+ */
+public class LectorMetadatosTest {
+    private static final int TAMANIO = 4 * 1024 * 1024;
+
+    private ServidorHttpLocal servidor;
+
+    private File directorio;
+
+    @Before
+    public void setUp() throws IOException {
+        servidor = new ServidorHttpLocal(TAMANIO);
+        directorio = Files.createTempDirectory("metadatos").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        servidor.close();
+        File[] archivos = directorio.listFiles();
+        if (archivos != null)
+            for (File f : archivos)
+                f.delete();
+        directorio.delete();
+    }
+
+    /**
+     * Pone la etiqueta al inicio de una canción de TAMANIO bytes.
+     */
+    private void publicar(byte[] etiqueta) {
+        byte[] cancion = Arrays.copyOf(etiqueta, TAMANIO);
+        servidor.cambiarContenido(cancion, "\"id3\"");
+    }
+
+    @Test
+    public void etiquetaPequeniaEnUnaPeticion() throws IOException {
+        publicar(new EtiquetaId3Test.Constructor(3).texto("TIT2", "Corta")
+                                                   .texto("TPE1", "Artista")
+                                                   .construir(512));
+
+        EtiquetaId3 etiqueta = LectorMetadatos.leer(servidor.url("/cancion.mp3"));
+
+        assertEquals("Corta", etiqueta.titulo);
+        assertEquals("Artista", etiqueta.artista);
+        assertEquals(1, servidor.getPeticiones());
+        assertTrue(servidor.getBytesEnviados() <= LectorMetadatos.PRIMER_BLOQUE);
+    }
+
+    @Test
+    public void caratulaGrandeSoloPideLaEtiqueta() throws IOException {
+        byte[] portada = EtiquetaId3Test.imagen(300 * 1024);
+        byte[] datos = new EtiquetaId3Test.Constructor(4).texto("TIT2", "Con carátula")
+                                                         .imagen(3, portada)
+                                                         .construir(0);
+        publicar(datos);
+
+        EtiquetaId3 etiqueta = LectorMetadatos.leer(servidor.url("/cancion.mp3"));
+
+        assertArrayEquals(portada, etiqueta.imagen);
+        assertEquals(2, servidor.getPeticionesRange());
+        assertEquals(datos.length, servidor.getBytesEnviados());
+        // La segunda petición reutilizó la conexión de la primera.
+        assertEquals(1, servidor.getConexiones());
+    }
+
+    @Test
+    public void sinEtiquetaLeeUnSoloBloque() throws IOException {
+        EtiquetaId3 etiqueta = LectorMetadatos.leer(servidor.url("/cancion.mp3"));
+
+        assertSame(EtiquetaId3.VACIA, etiqueta);
+        assertEquals(LectorMetadatos.PRIMER_BLOQUE, servidor.getBytesEnviados());
+    }
+
+    @Test
+    public void cancionDescargadaSeLeeDelArchivo() throws IOException {
+        byte[] portada = EtiquetaId3Test.imagen(64 * 1024);
+        byte[] datos = new EtiquetaId3Test.Constructor(4).texto("TIT2", "Sin conexión")
+                                                         .imagen(3, portada)
+                                                         .construir(0);
+        File cancion = new File(directorio, "cancion");
+        Files.write(cancion.toPath(), Arrays.copyOf(datos, datos.length + 1024));
+
+        EtiquetaId3 etiqueta = LectorMetadatos.leer(cancion);
+
+        assertEquals("Sin conexión", etiqueta.titulo);
+        assertArrayEquals(portada, etiqueta.imagen);
+        assertEquals(0, servidor.getPeticiones());
+    }
+
+    @Test
+    public void cacheEnDiscoGuardaYRecorta() {
+        EtiquetaId3 etiqueta = new EtiquetaId3("Título", null, "Álbum", 1000,
+                                               EtiquetaId3Test.imagen(8 * 1024), "image/png",
+                                               -4.5f, 0.9f);
+        CacheMetadatos cache = new CacheMetadatos(directorio, 20 * 1024);
+        assertNull(cache.leer("http://a/1.mp3"));
+
+        cache.guardar("http://a/1.mp3", etiqueta);
+        EtiquetaId3 leida = new CacheMetadatos(directorio, 20 * 1024).leer("http://a/1.mp3");
+        assertEquals("Título", leida.titulo);
+        assertNull(leida.artista);
+        assertEquals("Álbum", leida.album);
+        assertEquals(1000, leida.duracionMs);
+        assertArrayEquals(etiqueta.imagen, leida.imagen);
+        assertEquals("image/png", leida.tipoImagen);
+        assertEquals(-4.5f, leida.gananciaDb, 0f);
+        assertEquals(0.9f, leida.pico, 0f);
+
+        // La tercera entrada no cabe: se borra la usada menos recientemente.
+        assertTrue(new File(directorio, directorio.list()[0]).setLastModified(0));
+        cache.guardar("http://a/2.mp3", etiqueta);
+        cache.guardar("http://a/3.mp3", etiqueta);
+        assertNull(cache.leer("http://a/1.mp3"));
+        assertNotNull(cache.leer("http://a/3.mp3"));
+        assertTrue(cache.tamanioActual() <= 20 * 1024);
+    }
+}
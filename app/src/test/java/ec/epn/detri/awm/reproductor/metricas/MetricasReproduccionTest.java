@@ -0,0 +1,91 @@
+package ec.epn.detri.awm.reproductor.metricas;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Pruebas de los contadores e histogramas de métricas.
+ */
+public class MetricasReproduccionTest {
+    @Test
+    public void percentilesPorCubeta() {
+        Histograma histograma = new Histograma();
+        for (int i = 1; i <= 100; i++)
+            histograma.registrar(i);
+
+        assertEquals(100, histograma.getTotal());
+        assertEquals(50, histograma.getPromedio());
+        assertEquals(50, histograma.percentil(0.5));
+        assertEquals(100, histograma.percentil(0.9));
+        assertEquals(100, histograma.getMaximo());
+
+        // Un valor fuera de la última cubeta se informa con el máximo.
+        histograma.registrar(60000);
+        assertEquals(60000, histograma.percentil(1.0));
+        assertEquals(0, new Histograma().percentil(0.5));
+    }
+
+    @Test
+    public void registrosConcurrentesNoSePierden() throws InterruptedException {
+        final Histograma histograma = new Histograma();
+        Thread[] hilos = new Thread[4];
+        for (int h = 0; h < hilos.length; h++) {
+            final int base = h;
+            hilos[h] = new Thread(() -> {
+                for (int i = 0; i < 10000; i++)
+                    histograma.registrar(base * 1000 + i % 1000);
+            });
+            hilos[h].start();
+        }
+        for (Thread hilo : hilos)
+            hilo.join();
+
+        assertEquals(40000, histograma.getTotal());
+        assertEquals(3999, histograma.getMaximo());
+    }
+
+    @Test
+    public void erroresPorCodigo() {
+        MetricasReproduccion metricas = new MetricasReproduccion();
+        metricas.registrarError(1, -1004);   // MEDIA_ERROR_UNKNOWN / MEDIA_ERROR_IO
+        metricas.registrarError(100, 0);     // MEDIA_ERROR_SERVER_DIED
+        metricas.registrarError(1, 12345);
+
+        Map<String, Long> valores = new HashMap<>();
+        metricas.exportar(valores);
+        assertEquals(3L, (long) valores.get(MetricasReproduccion.ERRORES));
+        assertEquals(1L, (long) valores.get(MetricasReproduccion.ERRORES + ".IO"));
+        assertEquals(1L, (long) valores.get(MetricasReproduccion.ERRORES + ".SERVER_DIED"));
+        assertEquals(1L, (long) valores.get(MetricasReproduccion.ERRORES + ".UNKNOWN"));
+    }
+
+    @Test
+    public void latenciasDesdeElComando() {
+        MetricasReproduccion metricas = new MetricasReproduccion();
+        long comando = 1_000_000_000L;
+        metricas.registrarPreparada(comando, comando + 5_000_000, comando + 125_000_000);
+        metricas.registrarPreparada(0, comando, comando + 40_000_000);
+        metricas.registrarPrimerAudio(comando, comando + 180_000_000);
+        metricas.registrarRebuffer(700_000_000);
+
+        Map<String, Long> valores = new HashMap<>();
+        metricas.exportar(valores);
+        // La preparación por adelantado no cuenta como latencia del comando.
+        assertEquals(1L, (long) valores.get(MetricasReproduccion.COMANDO_A_PREPARADA + ".n"));
+        assertEquals(125L, (long) valores.get(MetricasReproduccion.COMANDO_A_PREPARADA + ".max"));
+        assertEquals(2L, (long) valores.get(MetricasReproduccion.PREPARACION + ".n"));
+        assertEquals(180L, (long) valores.get(MetricasReproduccion.COMANDO_A_AUDIO + ".p50"));
+        assertEquals(1L, (long) valores.get(MetricasReproduccion.REBUFFERS));
+        assertEquals(700L, (long) valores.get(MetricasReproduccion.MS_EN_REBUFFER));
+
+        StringWriter texto = new StringWriter();
+        metricas.volcar(new PrintWriter(texto));
+        assertTrue(texto.toString().contains("comandoAAudio"));
+    }
+}
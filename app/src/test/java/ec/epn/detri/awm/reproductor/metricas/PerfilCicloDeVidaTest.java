@@ -0,0 +1,41 @@
+package ec.epn.detri.awm.reproductor.metricas;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+/**
+ * Pruebas de los tiempos del ciclo de vida.
+ */
+public class PerfilCicloDeVidaTest {
+    @Test
+    public void unPerfilPorClase() {
+        PerfilCicloDeVida perfil = PerfilCicloDeVida.de(String.class);
+        assertSame(perfil, PerfilCicloDeVida.de(String.class));
+        assertNotSame(perfil, PerfilCicloDeVida.de(Integer.class));
+    }
+
+    @Test
+    public void callbacksEnMicrosegundos() {
+        PerfilCicloDeVida perfil = PerfilCicloDeVida.de(PerfilCicloDeVidaTest.class);
+        perfil.registrar(PerfilCicloDeVida.CREAR, 3_400_000);       // 3,4 ms
+        perfil.registrar(PerfilCicloDeVida.CONTENIDO, 1_200_000);   // 1,2 ms
+
+        Histograma crear = perfil.getCallback(PerfilCicloDeVida.CREAR);
+        assertEquals(1, crear.getTotal());
+        assertEquals(3400, crear.getMaximo());
+        assertEquals(0, perfil.getCallback(PerfilCicloDeVida.DESTRUIR).getTotal());
+
+        PerfilCicloDeVida.registrarArranque(PerfilCicloDeVida.ARRANQUE_FRIO, 850);
+        assertEquals(850, PerfilCicloDeVida.getArranque(PerfilCicloDeVida.ARRANQUE_FRIO).getMaximo());
+
+        StringWriter texto = new StringWriter();
+        PerfilCicloDeVida.volcarTodos(new PrintWriter(texto));
+        assertTrue(texto.toString().contains("PerfilCicloDeVidaTest:"));
+        assertTrue(texto.toString().contains("setContentView"));
+        assertFalse(texto.toString().contains("onDestroy"));
+    }
+}
@@ -0,0 +1,140 @@
+package ec.epn.detri.awm.reproductor.red;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import ec.epn.detri.awm.reproductor.ServidorHttpLocal;
+import ec.epn.detri.awm.reproductor.cache.CacheAudio;
+import ec.epn.detri.awm.reproductor.cache.DescargaCache;
+import ec.epn.detri.awm.reproductor.cache.EntradaCache;
+
+import static org.junit.Assert.*;
+
+/**
+ * Pruebas de la reutilización de conexiones contra un servidor HTTPS local.
+ */
+public class ClienteHttpTest {
+    private static final int TAMANIO = 512 * 1024;
+
+    private ServidorHttpLocal servidor;
+
+    private PoolBuffers poolBuffers;
+
+    private PoolBuffers poolBloques;
+
+    private long handshakes;
+
+    private long reanudadas;
+
+    @Before
+    public void setUp() throws IOException {
+        ClienteHttp.usarFabricaTls(ServidorHttpLocal.contextoDePrueba().getSocketFactory());
+        servidor = new ServidorHttpLocal(TAMANIO, ServidorHttpLocal.contextoDePrueba());
+        poolBuffers = new PoolBuffers(1024 * 1024, 1);
+        poolBloques = new PoolBuffers(16 * 1024, 2);
+        handshakes = ClienteHttp.getHandshakesTls();
+        reanudadas = ClienteHttp.getSesionesReanudadas();
+    }
+
+    @After
+    public void tearDown() {
+        servidor.close();
+    }
+
+    @Test
+    public void cancionesSeguidasUsanLaMismaConexion() throws IOException {
+        for (int i = 0; i < 3; i++)
+            try (LectorStreaming lector = new LectorStreaming(servidor.url("/cancion.mp3"),
+                                                              poolBuffers, poolBloques, null)) {
+                assertEquals(TAMANIO, leerTodo(lector));
+                esperarFinDeLaDescarga(lector);
+            }
+
+        assertEquals(3, servidor.getPeticiones());
+        assertEquals(1, servidor.getConexiones());
+        assertEquals(1, ClienteHttp.getHandshakesTls() - handshakes);
+    }
+
+    @Test
+    public void revalidacionReutilizaLaConexionDeLaDescarga() throws IOException {
+        File directorio = Files.createTempDirectory("cache").toFile();
+        try {
+            CacheAudio cache = new CacheAudio(directorio, 10 * TAMANIO);
+            EntradaCache entrada = cache.abrir(servidor.url("/cancion.mp3"));
+            new DescargaCache(cache, entrada).run();
+            assertTrue(entrada.estaCompleta());
+
+            // La revalidación (304) usa la conexión que dejó la descarga.
+            assertTrue(DescargaCache.revalidar(entrada));
+            cache.liberar(entrada);
+        } finally {
+            File[] archivos = directorio.listFiles();
+            if (archivos != null)
+                for (File f : archivos)
+                    f.delete();
+            directorio.delete();
+        }
+
+        assertEquals(1, servidor.getRespuestasNoModificado());
+        assertEquals(1, servidor.getConexiones());
+    }
+
+    @Test
+    public void saltoReanudaLaSesionTls() throws IOException {
+        try (LectorStreaming lector = new LectorStreaming(servidor.url("/cancion.mp3"),
+                                                          poolBuffers, poolBloques, null)) {
+            byte[] bloque = new byte[4096];
+            assertTrue(lector.leer(0, bloque, 0, bloque.length) > 0);
+
+            // Un salto lejano corta la respuesta en curso y abre otra conexión...
+            assertTrue(lector.leer(TAMANIO - 1000, bloque, 0, bloque.length) > 0);
+            assertEquals(1, lector.getReposicionamientos());
+        }
+
+        // ... pero sin un handshake completo.
+        assertEquals(2, servidor.getConexiones());
+        assertEquals(2, ClienteHttp.getHandshakesTls() - handshakes);
+        assertEquals(1, ClienteHttp.getSesionesReanudadas() - reanudadas);
+    }
+
+    @Test
+    public void exportaLasMetricas() throws IOException {
+        try (LectorStreaming lector = new LectorStreaming(servidor.url("/cancion.mp3"),
+                                                          poolBuffers, poolBloques, null)) {
+            leerTodo(lector);
+        }
+
+        Map<String, Long> valores = new HashMap<>();
+        ClienteHttp.exportar(valores);
+        assertTrue(valores.get(ClienteHttp.PETICIONES) >= 1);
+        assertTrue(valores.get(ClienteHttp.CONEXIONES_TLS) >= 1);
+        assertTrue(valores.get(ClienteHttp.HASTA_CABECERAS + ".n") >= 1);
+    }
+
+    /**
+     * El lector entrega el último byte antes de que el hilo de descarga
+     * devuelva la conexión al pool.
+     */
+    private static void esperarFinDeLaDescarga(LectorStreaming lector) {
+        long limite = System.currentTimeMillis() + 5000;
+        while (lector.getBytesPorDelante() != Long.MAX_VALUE
+               && System.currentTimeMillis() < limite)
+            Thread.yield();
+    }
+
+    private static long leerTodo(LectorStreaming lector) throws IOException {
+        byte[] bloque = new byte[16 * 1024];
+        long total = 0;
+        int leidos;
+        while ((leidos = lector.leer(total, bloque, 0, bloque.length)) != -1)
+            total += leidos;
+        return total;
+    }
+}
@@ -0,0 +1,67 @@
+package ec.epn.detri.awm.reproductor.red;
+
+import org.junit.Test;
+
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Pruebas de las esperas entre reintentos y de la clasificación de los
+ * errores de red.
+ */
+public class EsperaReintentosTest {
+    @Test
+    public void esperasCrecenConFluctuacionHastaElMaximo() {
+        EsperaReintentos espera = new EsperaReintentos(100, 1000, 6, new Random(7));
+        long[] topes = {100, 200, 400, 800, 1000, 1000};
+        for (long tope : topes) {
+            long ms = espera.siguiente();
+            assertTrue(ms + " fuera de [" + tope / 2 + ", " + tope + "]",
+                       ms >= tope / 2 && ms <= tope);
+        }
+        assertEquals(-1, espera.siguiente());
+
+        espera.reiniciar();
+        assertTrue(espera.siguiente() <= 100);
+    }
+
+    @Test
+    public void laFluctuacionSeparaLosReintentos() {
+        EsperaReintentos a = new EsperaReintentos(1000, 8000, 3, new Random(11));
+        EsperaReintentos b = new EsperaReintentos(1000, 8000, 3, new Random(29));
+        int distintas = 0;
+        for (int i = 0; i < 3; i++)
+            if (a.siguiente() != b.siguiente())
+                distintas++;
+        assertTrue(distintas > 0);
+    }
+
+    @Test
+    public void clasificaLosErrores() {
+        assertEquals(ClienteHttp.ERROR_TRANSITORIO,
+                     ClienteHttp.clasificar(new SocketException("Connection reset")));
+        assertEquals(ClienteHttp.ERROR_TRANSITORIO,
+                     ClienteHttp.clasificar(new SocketTimeoutException()));
+        assertEquals(ClienteHttp.ERROR_TRANSITORIO, ClienteHttp.clasificar(new EOFException()));
+        assertEquals(ClienteHttp.ERROR_TRANSITORIO,
+                     ClienteHttp.clasificar(new ClienteHttp.ErrorHttp(503, "u")));
+        assertEquals(ClienteHttp.ERROR_TRANSITORIO,
+                     ClienteHttp.clasificar(new ClienteHttp.ErrorHttp(429, "u")));
+
+        assertEquals(ClienteHttp.ERROR_PERMANENTE,
+                     ClienteHttp.clasificar(new ClienteHttp.ErrorHttp(404, "u")));
+        assertEquals(ClienteHttp.ERROR_PERMANENTE,
+                     ClienteHttp.clasificar(new FileNotFoundException()));
+        assertEquals(ClienteHttp.ERROR_PERMANENTE,
+                     ClienteHttp.clasificar(new ClienteHttp.RecursoCambiado("u")));
+
+        assertEquals(ClienteHttp.ERROR_CANCELADO,
+                     ClienteHttp.clasificar(new InterruptedIOException()));
+    }
+}
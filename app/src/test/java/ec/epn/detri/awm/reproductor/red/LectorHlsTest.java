@@ -0,0 +1,160 @@
+package ec.epn.detri.awm.reproductor.red;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Pruebas del lector HLS y de la elección de variante contra un servidor
+ * local que sirve un flujo sintético con tres variantes.
+ */
+public class LectorHlsTest {
+    private static final long[] TASAS = {400_000, 800_000, 1_600_000};
+
+    private static final int SEGMENTOS = 6;
+
+    private ServidorHls servidor;
+
+    private PoolBuffers poolBuffers;
+
+    private PoolBuffers poolBloques;
+
+    @Before
+    public void setUp() throws IOException {
+        servidor = new ServidorHls(TASAS, SEGMENTOS, 500);
+        poolBuffers = new PoolBuffers(1024 * 1024, 1);
+        poolBloques = new PoolBuffers(16 * 1024, 2);
+    }
+
+    @After
+    public void tearDown() {
+        servidor.close();
+    }
+
+    @Test
+    public void selectorBajaDeInmediatoYSubeConAudioPorDelante() {
+        SelectorVariante selector = new SelectorVariante(0, 10000);
+        assertEquals(0, selector.elegir(TASAS, -1, 0));
+
+        // Las descargas pequeñas no cuentan como muestra.
+        selector.registrarMuestra(1000, 1000);
+        assertEquals(0, selector.getAnchoDeBanda(), 0);
+
+        // 100 KB/s: sólo cabe la variante de 400 kbps.
+        selector.registrarMuestra(100_000, 1_000_000_000L);
+        assertEquals(100_000, selector.getAnchoDeBanda(), 1);
+        assertEquals(0, selector.elegir(TASAS, -1, 0));
+
+        // Una muestra rápida sube más el promedio rápido; se usa el lento.
+        selector.registrarMuestra(1_000_000, 1_000_000_000L);
+        assertEquals(235_000, selector.getAnchoDeBanda(), 1);
+        assertEquals(0, selector.elegir(TASAS, 0, 5000));
+        assertEquals(1, selector.elegir(TASAS, 0, 10000));
+        assertEquals(1, selector.elegir(TASAS, 2, 0));
+
+        selector.registrarFallo();
+        assertEquals(0, selector.elegir(TASAS, 1, 0));
+    }
+
+    @Test
+    public void concatenaLosSegmentosYSubeDeVariante() throws IOException {
+        try (LectorHls lector = new LectorHls(servidor.url("/maestra.m3u8"), poolBuffers,
+                                              poolBloques, new SelectorVariante(0, 0))) {
+            int[] variantes = verificarFlujo(leerTodo(lector));
+
+            assertEquals(0, variantes[0]);
+            assertEquals(TASAS.length - 1, variantes[SEGMENTOS - 1]);
+            assertEquals(TASAS[TASAS.length - 1], lector.getTasaActual());
+            assertTrue(lector.getCambiosVariante() > 0);
+            assertEquals(SEGMENTOS, lector.getSegmentos());
+            assertEquals(Long.MAX_VALUE, lector.getBytesPorDelante());
+        }
+    }
+
+    @Test
+    public void bajaDeVarianteConPocoAnchoDeBanda() throws IOException {
+        // 120 KB/s: sólo alcanza para la variante de 400 kbps (50 KB/s).
+        servidor.limitarAnchoDeBanda(120 * 1024);
+        try (LectorHls lector = new LectorHls(servidor.url("/maestra.m3u8"), poolBuffers,
+                                              poolBloques, new SelectorVariante(10e6, 0))) {
+            int[] variantes = verificarFlujo(leerTodo(lector));
+
+            assertEquals(TASAS.length - 1, variantes[0]);
+            assertEquals(0, variantes[SEGMENTOS - 1]);
+            assertEquals(TASAS[0], lector.getTasaActual());
+            assertEquals(1, servidor.getPeticionesSegmentos(TASAS.length - 1));
+        }
+    }
+
+    @Test
+    public void noSubeSinAudioPorDelante() throws IOException {
+        // El lector consume todo de inmediato: nunca hay 10 s por delante.
+        try (LectorHls lector = new LectorHls(servidor.url("/maestra.m3u8"), poolBuffers,
+                                              poolBloques, new SelectorVariante(0))) {
+            int[] variantes = verificarFlujo(leerTodo(lector));
+
+            for (int v : variantes)
+                assertEquals(0, v);
+            assertEquals(0, lector.getCambiosVariante());
+        }
+    }
+
+    @Test
+    public void reintentaUnSegmentoFallido() throws IOException {
+        servidor.fallarUnaVez("/v0/s2.aac");
+        try (LectorHls lector = new LectorHls(servidor.url("/v0/lista.m3u8"), poolBuffers,
+                                              poolBloques, new SelectorVariante(0))) {
+            verificarFlujo(leerTodo(lector));
+            assertEquals(SEGMENTOS + 1, servidor.getPeticionesSegmentos(0));
+        }
+    }
+
+    @Test
+    public void informaUnaListaInexistente() {
+        try (LectorHls lector = new LectorHls(servidor.url("/otra.m3u8"), poolBuffers,
+                                              poolBloques, new SelectorVariante(0))) {
+            lector.leer(0, new byte[1], 0, 1);
+            fail("Se leyó una lista inexistente");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("404"));
+        }
+    }
+
+    /**
+     * Comprueba que el flujo sea la etiqueta ID3 del primer segmento seguida
+     * del contenido de cada segmento, en orden y sin huecos.
+     * @return La variante de la que se tomó cada segmento.
+     */
+    private int[] verificarFlujo(byte[] flujo) {
+        assertArrayEquals(ServidorHls.ID3, Arrays.copyOf(flujo, ServidorHls.ID3.length));
+
+        int[] variantes = new int[SEGMENTOS];
+        int posicion = ServidorHls.ID3.length;
+        for (int j = 0; j < SEGMENTOS; j++) {
+            int v = flujo[posicion] / 32;
+            assertEquals("segmento " + j, j, flujo[posicion] % 32);
+            int tamanio = servidor.tamanioSegmento(v);
+            for (int i = 0; i < tamanio; i++)
+                assertEquals(flujo[posicion], flujo[posicion + i]);
+            variantes[j] = v;
+            posicion += tamanio;
+        }
+        assertEquals(flujo.length, posicion);
+        return variantes;
+    }
+
+    private static byte[] leerTodo(LectorHls lector) throws IOException {
+        ByteArrayOutputStream salida = new ByteArrayOutputStream();
+        byte[] bloque = new byte[4096];
+        int leidos;
+        while ((leidos = lector.leer(salida.size(), bloque, 0, bloque.length)) != -1)
+            salida.write(bloque, 0, leidos);
+        return salida.toByteArray();
+    }
+}
@@ -0,0 +1,264 @@
+package ec.epn.detri.awm.reproductor.red;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import ec.epn.detri.awm.reproductor.Mediciones;
+import ec.epn.detri.awm.reproductor.ServidorHttpLocal;
+
+import static org.junit.Assert.*;
+
+/**
+ * Pruebas y medición de rendimiento del lector con buffer circular contra
+ * un servidor HTTP local, incluida la recuperación de cortes y errores que
+ * el servidor inyecta a propósito.
+ */
+public class LectorStreamingTest {
+    private static final int TAMANIO = 4 * 1024 * 1024;
+
+    private ServidorHttpLocal servidor;
+
+    private PoolBuffers poolBuffers;
+
+    private PoolBuffers poolBloques;
+
+    @Before
+    public void setUp() throws IOException {
+        servidor = new ServidorHttpLocal(TAMANIO);
+        poolBuffers = new PoolBuffers(1024 * 1024, 1);
+        poolBloques = new PoolBuffers(16 * 1024, 2);
+    }
+
+    @After
+    public void tearDown() {
+        servidor.close();
+    }
+
+    @Test
+    public void bufferCircularDaLaVueltaSinPerderDatos() {
+        BufferCircular buffer = new BufferCircular(new byte[10]);
+        byte[] datos = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13};
+
+        buffer.escribir(datos, 0, 8);
+        buffer.escribir(datos, 8, 6);
+
+        assertEquals(4, buffer.getInicio());
+        assertEquals(14, buffer.getFin());
+        assertFalse(buffer.contiene(3));
+
+        byte[] leido = new byte[10];
+        assertEquals(10, buffer.leer(4, leido, 0, 10));
+        assertArrayEquals(Arrays.copyOfRange(datos, 4, 14), leido);
+    }
+
+    @Test
+    public void lecturaSecuencialCompleta() throws IOException {
+        try (LectorStreaming lector = new LectorStreaming(servidor.url("/cancion.mp3"),
+                poolBuffers, poolBloques, null)) {
+            assertEquals(TAMANIO, lector.longitud());
+            assertArrayEquals(servidor.getContenido(), leerTodo(lector, 0, 4096));
+            assertEquals(0, lector.getReposicionamientos());
+        }
+    }
+
+    @Test
+    public void saltoLejanoReconectaConRange() throws IOException {
+        try (LectorStreaming lector = new LectorStreaming(servidor.url("/cancion.mp3"),
+                poolBuffers, poolBloques, null)) {
+            byte[] bloque = new byte[4096];
+            long posicion = TAMANIO - 100_000;
+
+            int leidos = lector.leer(posicion, bloque, 0, bloque.length);
+            assertTrue(leidos > 0);
+            assertArrayEquals(Arrays.copyOfRange(servidor.getContenido(),
+                                                 (int) posicion, (int) posicion + leidos),
+                              Arrays.copyOf(bloque, leidos));
+            assertEquals(1, lector.getReposicionamientos());
+            assertEquals(1, servidor.getPeticionesRange());
+
+            // Volver sobre lo ya leído se sirve desde el buffer, sin reconectar.
+            assertEquals(1, lector.leer(posicion + 1, bloque, 0, 1));
+            assertEquals(1, lector.leer(posicion, bloque, 0, 1));
+            assertEquals(1, lector.getReposicionamientos());
+        }
+    }
+
+    @Test
+    public void receptorRecibeTodosLosBytes() throws Exception {
+        final ByteArrayOutputStream copia = new ByteArrayOutputStream();
+        final Object fin = new Object();
+        final boolean[] terminado = {false};
+
+        LectorStreaming.Receptor receptor = new LectorStreaming.Receptor() {
+            @Override
+            public void alRecibirCabeceras(String etag, String ultimaModificacion, long longitud) {
+                assertEquals("\"v1\"", etag);
+            }
+
+            @Override
+            public void alRecibirDatos(long posicion, byte[] datos, int offset, int tamanio) {
+                assertEquals(copia.size(), posicion);
+                copia.write(datos, offset, tamanio);
+            }
+
+            @Override
+            public void alTerminar() {
+                synchronized (fin) {
+                    terminado[0] = true;
+                    fin.notifyAll();
+                }
+            }
+        };
+
+        LectorStreaming lector = new LectorStreaming(servidor.url("/cancion.mp3"),
+                poolBuffers, poolBloques, receptor);
+        leerTodo(lector, 0, 8192);
+        lector.close();
+
+        synchronized (fin) {
+            while (!terminado[0])
+                fin.wait();
+        }
+        assertArrayEquals(servidor.getContenido(), copia.toByteArray());
+        // El buffer circular vuelve al pool para la siguiente canción.
+        assertEquals(1, poolBuffers.libres());
+    }
+
+    /**
+     * El servidor corta tres veces la conexión a mitad del cuerpo: el lector
+     * reconecta desde el último byte recibido y quien lee no ve ningún
+     * error, sólo una espera.
+     */
+    @Test
+    public void seRecuperaDeCortesSinQueElLectorLoNote() throws IOException {
+        servidor.cortarConexiones(3, 300 * 1024);
+        try (LectorStreaming lector = lectorConEsperasCortas()) {
+            assertArrayEquals(servidor.getContenido(), leerTodo(lector, 0, 4096));
+
+            assertEquals(3, servidor.getCortes());
+            assertEquals(3, lector.getReconexiones());
+            assertEquals(3, lector.getCortesRecuperados());
+            assertEquals(0, lector.getReposicionamientos());
+            // Cada reconexión pide sólo lo que faltaba.
+            assertEquals(3, servidor.getPeticionesRange());
+            assertEquals(TAMANIO, lector.getBytesDescargados());
+        }
+    }
+
+    @Test
+    public void reintentaLosErroresDelServidorPeroNoLosPermanentes() throws IOException {
+        servidor.fallarPeticiones(2, 503);
+        try (LectorStreaming lector = lectorConEsperasCortas()) {
+            assertEquals(TAMANIO, lector.longitud());
+            assertArrayEquals(servidor.getContenido(), leerTodo(lector, 0, 4096));
+            assertEquals(2, lector.getReconexiones());
+        }
+
+        servidor.fallarPeticiones(1, 404);
+        int peticiones = servidor.getPeticiones();
+        try (LectorStreaming lector = lectorConEsperasCortas()) {
+            try {
+                lector.longitud();
+                fail();
+            } catch (ClienteHttp.ErrorHttp e) {
+                assertEquals(404, e.codigo);
+            }
+            assertEquals(0, lector.getReconexiones());
+            assertEquals(peticiones + 1, servidor.getPeticiones());
+        }
+    }
+
+    @Test
+    public void noMezclaVersionesSiLaCancionCambioDuranteElCorte() throws IOException {
+        servidor.cortarConexiones(1, 300 * 1024);
+        servidor.limitarAnchoDeBanda(1024 * 1024);
+        try (LectorStreaming lector = lectorConEsperasCortas()) {
+            byte[] bloque = new byte[4096];
+            assertEquals(bloque.length, lector.leer(0, bloque, 0, bloque.length));
+            servidor.cambiarContenido(ServidorHttpLocal.generarContenido(TAMANIO, 2), "\"v2\"");
+
+            try {
+                leerTodo(lector, bloque.length, bloque.length);
+                fail();
+            } catch (ClienteHttp.RecursoCambiado e) {
+                // Lo leído de la primera versión no se completa con la segunda.
+            }
+        }
+    }
+
+    /**
+     * Mide el rendimiento de lectura secuencial, la latencia de los saltos y
+     * la espera desde un corte hasta los datos siguientes. Sólo con
+     * -Pmediciones.
+     */
+    @Test
+    public void rendimientoContraServidorLocal() throws IOException {
+        Mediciones.requerirActivadas();
+        int repeticiones = 5;
+        byte[] bloque = new byte[8192];
+        long nanosLectura = 0;
+        long nanosSaltos = 0;
+        int saltos = 0;
+
+        for (int r = 0; r < repeticiones; r++) {
+            try (LectorStreaming lector = new LectorStreaming(servidor.url("/cancion.mp3"),
+                    poolBuffers, poolBloques, null)) {
+                long inicio = System.nanoTime();
+                leerTodo(lector, 0, bloque.length);
+                nanosLectura += System.nanoTime() - inicio;
+
+                for (long posicion = TAMANIO / 8; posicion < TAMANIO; posicion += TAMANIO / 4) {
+                    inicio = System.nanoTime();
+                    assertTrue(lector.leer(posicion, bloque, 0, bloque.length) > 0);
+                    nanosSaltos += System.nanoTime() - inicio;
+                    saltos++;
+                }
+            }
+        }
+
+        double mbPorSegundo = (double) TAMANIO * repeticiones / (1024 * 1024)
+                              / (nanosLectura / 1e9);
+        System.out.println(String.format(Locale.ROOT,
+                "LectorStreaming: %.1f MB/s secuencial, %.2f ms por salto, pool libre=%d",
+                mbPorSegundo, nanosSaltos / 1e6 / saltos, poolBuffers.libres()));
+
+        servidor.cortarConexiones(3, 300 * 1024);
+        try (LectorStreaming lector = lectorConEsperasCortas()) {
+            leerTodo(lector, 0, bloque.length);
+            System.out.println(String.format(Locale.ROOT,
+                    "LectorStreaming: %.1f ms del corte a los datos siguientes",
+                    lector.getNanosRecuperacion() / 1e6 / lector.getCortesRecuperados()));
+        }
+    }
+
+    /**
+     * @return Un lector que reintenta tras 10-20 ms (para que la prueba mida
+     * la reconexión más que la espera).
+     */
+    private LectorStreaming lectorConEsperasCortas() {
+        return new LectorStreaming(servidor.url("/cancion.mp3"), poolBuffers, poolBloques, null,
+                                   new EsperaReintentos(20, 200, LectorStreaming.REINTENTOS,
+                                                        new Random(1)));
+    }
+
+    private static byte[] leerTodo(LectorStreaming lector, long desde, int tamanioBloque)
+            throws IOException {
+        ByteArrayOutputStream salida = new ByteArrayOutputStream();
+        byte[] bloque = new byte[tamanioBloque];
+        long posicion = desde;
+        int leidos;
+
+        while ((leidos = lector.leer(posicion, bloque, 0, bloque.length)) != -1) {
+            salida.write(bloque, 0, leidos);
+            posicion += leidos;
+        }
+        return salida.toByteArray();
+    }
+}
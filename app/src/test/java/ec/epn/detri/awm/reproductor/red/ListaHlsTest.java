@@ -0,0 +1,89 @@
+package ec.epn.detri.awm.reproductor.red;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.Assert.*;
+
+/**
+ * Pruebas de la interpretación de listas HLS.
+ */
+public class ListaHlsTest {
+    private static final String URL = "http://servidor/radio/maestra.m3u8";
+
+    @Test
+    public void reconoceLosUrlDeListas() {
+        assertTrue(ListaHls.esHls("http://servidor/a.m3u8"));
+        assertTrue(ListaHls.esHls("http://servidor/a.M3U8?token=1"));
+        assertFalse(ListaHls.esHls("http://servidor/a.mp3"));
+        assertFalse(ListaHls.esHls("http://servidor/m3u8"));
+        assertFalse(ListaHls.esHls("http://servidor/a.mp3?lista=.m3u8"));
+    }
+
+    @Test
+    public void interpretaUnaListaMaestra() throws IOException {
+        ListaHls lista = ListaHls.analizar(URL, new StringReader(
+                "#EXTM3U\n"
+                + "#EXT-X-STREAM-INF:BANDWIDTH=256000,CODECS=\"mp4a.40.2,mp4a.40.5\"\n"
+                + "alta/lista.m3u8\n"
+                + "\n"
+                + "#EXT-X-STREAM-INF:CODECS=\"mp4a.40.5\",BANDWIDTH=64000\n"
+                + "/baja/lista.m3u8?token=1\n"));
+
+        assertTrue(lista.esMaestra());
+        assertEquals(2, lista.getVariantes().size());
+
+        ListaHls.Variante alta = lista.getVariantes().get(0);
+        assertEquals(256000, alta.tasa);
+        assertEquals("mp4a.40.2,mp4a.40.5", alta.codecs);
+        assertEquals("http://servidor/radio/alta/lista.m3u8", alta.url);
+
+        ListaHls.Variante baja = lista.getVariantes().get(1);
+        assertEquals(64000, baja.tasa);
+        assertEquals("http://servidor/baja/lista.m3u8?token=1", baja.url);
+    }
+
+    @Test
+    public void interpretaUnaListaDeSegmentos() throws IOException {
+        ListaHls lista = ListaHls.analizar(URL, new StringReader(
+                "#EXTM3U\n"
+                + "#EXT-X-TARGETDURATION:10\n"
+                + "#EXT-X-MEDIA-SEQUENCE:7\n"
+                + "#EXTINF:9.009,\n"
+                + "s7.aac\n"
+                + "#EXTINF:10,Título\n"
+                + "http://cdn/s8.aac\n"));
+
+        assertFalse(lista.esMaestra());
+        assertFalse(lista.esCompleta());
+        assertEquals(10000, lista.getDuracionObjetivoMs());
+        assertEquals(7, lista.getSecuenciaInicial());
+        assertEquals(9, lista.getSecuenciaFinal());
+
+        assertNull(lista.segmento(6));
+        assertEquals("http://servidor/radio/s7.aac", lista.segmento(7).url);
+        assertEquals(9009, lista.segmento(7).duracionMs);
+        assertEquals("http://cdn/s8.aac", lista.segmento(8).url);
+        assertNull(lista.segmento(9));
+    }
+
+    @Test
+    public void rechazaListasNoSoportadas() {
+        String[] listas = {
+                "<html></html>",
+                "#EXTM3U\n",
+                "#EXTM3U\n#EXT-X-KEY:METHOD=AES-128,URI=\"clave\"\n#EXTINF:10,\ns0.ts\n",
+                "#EXTM3U\n#EXT-X-MAP:URI=\"init.mp4\"\n#EXTINF:10,\ns0.m4s\n",
+                "#EXTM3U\n#EXT-X-STREAM-INF:CODECS=\"mp4a.40.2\"\nlista.m3u8\n",
+        };
+        for (String texto : listas)
+            try {
+                ListaHls.analizar(URL, new StringReader(texto));
+                fail("Se aceptó: " + texto);
+            } catch (IOException e) {
+                // Esperado.
+            }
+    }
+}
@@ -0,0 +1,168 @@
+package ec.epn.detri.awm.reproductor.red;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Servidor HTTP local que sirve un flujo HLS sintético: una lista maestra
+ * con varias variantes de audio y, para cada una, una lista de segmentos.
+ * El segmento j de la variante v empieza con una etiqueta ID3 y el resto
+ * de sus bytes valen v * 32 + j, con un tamaño acorde a la tasa declarada
+ * de la variante. El ancho de banda se puede limitar como en
+ * ServidorHttpLocal.
+ */
+class ServidorHls implements AutoCloseable {
+    /**
+     * Etiqueta ID3v2 (cabecera de 10 bytes más 20 de contenido).
+     */
+    static final byte[] ID3 = {
+            'I', 'D', '3', 4, 0, 0, 0, 0, 0, 20,
+            1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20
+    };
+
+    private final HttpServer servidor;
+
+    private final long[] tasas;
+
+    private final int segmentos;
+
+    private final long duracionMs;
+
+    private volatile int bytesPorSegundo;
+
+    private final AtomicIntegerArray peticionesSegmentos;
+
+    private final Set<String> fallarUnaVez = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param tasas Tasas declaradas de las variantes (bits/s).
+     * @param segmentos Segmentos por variante.
+     * @param duracionMs Duración de cada segmento.
+     */
+    ServidorHls(long[] tasas, int segmentos, long duracionMs) throws IOException {
+        this.tasas = tasas;
+        this.segmentos = segmentos;
+        this.duracionMs = duracionMs;
+        peticionesSegmentos = new AtomicIntegerArray(tasas.length);
+        servidor = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        servidor.createContext("/", this::atender);
+        servidor.setExecutor(Executors.newCachedThreadPool());
+        servidor.start();
+    }
+
+    String url(String ruta) {
+        return "http://127.0.0.1:" + servidor.getAddress().getPort() + ruta;
+    }
+
+    void limitarAnchoDeBanda(int bytesPorSegundo) {
+        this.bytesPorSegundo = bytesPorSegundo;
+    }
+
+    /**
+     * Responde 503 la próxima vez que se pida la ruta indicada.
+     */
+    void fallarUnaVez(String ruta) {
+        fallarUnaVez.add(ruta);
+    }
+
+    int getPeticionesSegmentos(int variante) {
+        return peticionesSegmentos.get(variante);
+    }
+
+    /**
+     * @return Bytes del segmento j de la variante v, sin la etiqueta ID3.
+     */
+    int tamanioSegmento(int v) {
+        return (int) (tasas[v] * duracionMs / 8000);
+    }
+
+    byte[] segmento(int v, int j) {
+        byte[] datos = Arrays.copyOf(ID3, ID3.length + tamanioSegmento(v));
+        Arrays.fill(datos, ID3.length, datos.length, (byte) (v * 32 + j));
+        return datos;
+    }
+
+    private String maestra() {
+        StringBuilder texto = new StringBuilder("#EXTM3U\n");
+        // En orden decreciente, como suelen publicarse.
+        for (int v = tasas.length - 1; v >= 0; v--)
+            texto.append("#EXT-X-STREAM-INF:BANDWIDTH=").append(tasas[v])
+                 .append(",CODECS=\"mp4a.40.2\"\n")
+                 .append("v").append(v).append("/lista.m3u8\n");
+        return texto.toString();
+    }
+
+    private String lista() {
+        StringBuilder texto = new StringBuilder("#EXTM3U\n#EXT-X-VERSION:3\n")
+                .append("#EXT-X-TARGETDURATION:").append((duracionMs + 999) / 1000).append('\n')
+                .append("#EXT-X-MEDIA-SEQUENCE:0\n");
+        for (int j = 0; j < segmentos; j++)
+            texto.append("#EXTINF:").append(duracionMs / 1000.0).append(",\n")
+                 .append("s").append(j).append(".aac\n");
+        return texto.append("#EXT-X-ENDLIST\n").toString();
+    }
+
+    private void atender(HttpExchange intercambio) throws IOException {
+        try {
+            String ruta = intercambio.getRequestURI().getPath();
+            byte[] datos;
+            if (ruta.equals("/maestra.m3u8"))
+                datos = maestra().getBytes(StandardCharsets.UTF_8);
+            else if (ruta.matches("/v\\d+/lista\\.m3u8"))
+                datos = lista().getBytes(StandardCharsets.UTF_8);
+            else if (ruta.matches("/v\\d+/s\\d+\\.aac")) {
+                String[] partes = ruta.split("/");
+                int v = Integer.parseInt(partes[1].substring(1));
+                int j = Integer.parseInt(partes[2].substring(1, partes[2].indexOf('.')));
+                peticionesSegmentos.incrementAndGet(v);
+                datos = segmento(v, j);
+            } else {
+                intercambio.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            if (fallarUnaVez.remove(ruta)) {
+                intercambio.sendResponseHeaders(503, -1);
+                return;
+            }
+            intercambio.sendResponseHeaders(200, datos.length);
+            enviar(intercambio.getResponseBody(), datos);
+        } finally {
+            intercambio.close();
+        }
+    }
+
+    private void enviar(OutputStream salida, byte[] datos) throws IOException {
+        int bloque = 8 * 1024;
+        for (int i = 0; i < datos.length; i += bloque) {
+            int n = Math.min(bloque, datos.length - i);
+            salida.write(datos, i, n);
+            salida.flush();
+
+            int limite = bytesPorSegundo;
+            if (limite > 0)
+                try {
+                    Thread.sleep(Math.max(1, n * 1000L / limite));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+        }
+    }
+
+    @Override
+    public void close() {
+        servidor.stop(0);
+    }
+}
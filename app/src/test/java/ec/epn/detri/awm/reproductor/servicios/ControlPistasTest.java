@@ -0,0 +1,475 @@
+package ec.epn.detri.awm.reproductor.servicios;
+
+import android.media.MediaDataSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import ec.epn.detri.awm.reproductor.Mediciones;
+import ec.epn.detri.awm.reproductor.audio.Reproductor;
+import ec.epn.detri.awm.reproductor.cola.ColaPersistente;
+
+import static org.junit.Assert.*;
+
+/**
+ * Pruebas y medición de los cambios de la canción actual y la siguiente,
+ * con reproductores y un reloj falsos.
+ */
+public class ControlPistasTest {
+    /**
+     * Reproductor que sólo anota lo que se le pide. Termina la canción
+     * cuando la prueba llama a terminar().
+     */
+    private static class ReproductorFalso implements Reproductor {
+        boolean preparando;
+        boolean sonando;
+        int posicion;
+        Reproductor siguiente;
+        int reinicios;
+
+        @Override
+        public void setOyente(Oyente oyente) {
+        }
+
+        @Override
+        public void setFuente(String ruta) {
+        }
+
+        @Override
+        public void setFuente(FileDescriptor descriptor) {
+        }
+
+        @Override
+        public void setFuente(MediaDataSource fuente) {
+        }
+
+        @Override
+        public void preparar() {
+            preparando = true;
+        }
+
+        @Override
+        public void iniciar() {
+            sonando = true;
+        }
+
+        @Override
+        public void pausar() {
+            sonando = false;
+        }
+
+        @Override
+        public void saltarA(int posicionMs) {
+            posicion = posicionMs;
+        }
+
+        @Override
+        public int getPosicion() {
+            return posicion;
+        }
+
+        @Override
+        public int getDuracion() {
+            return 180000;
+        }
+
+        @Override
+        public void setVolumen(float volumen) {
+        }
+
+        @Override
+        public void setGanancia(float ganancia) {
+        }
+
+        @Override
+        public void setFundido(int ms) {
+        }
+
+        @Override
+        public void setSiguiente(Reproductor siguiente) {
+            this.siguiente = siguiente;
+        }
+
+        @Override
+        public void reiniciar() {
+            preparando = false;
+            sonando = false;
+            posicion = 0;
+            siguiente = null;
+            reinicios++;
+        }
+
+        @Override
+        public void liberar() {
+        }
+
+        /**
+         * Como MediaPlayer: la encadenada empieza sola.
+         */
+        void terminar() {
+            sonando = false;
+            if (siguiente != null)
+                siguiente.iniciar();
+        }
+    }
+
+    /**
+     * Entorno con un pool de reproductores falsos y un reloj que avanza
+     * sólo cuando la prueba lo cambia.
+     */
+    private static class EntornoFalso implements ControlPistas.Entorno {
+        final ArrayDeque<ReproductorFalso> libres = new ArrayDeque<>();
+        final Set<String> fallidas = new HashSet<>();
+        long reloj;
+        long contador;
+        int cargadas;
+        int liberadas;
+
+        @Override
+        public Pista cargar(String url, long inicioComando) {
+            if (fallidas.contains(url))
+                return null;
+
+            ReproductorFalso player = libres.pollFirst();
+            if (player == null)
+                player = new ReproductorFalso();
+            Pista pista = new Pista(++contador, url, player);
+            pista.inicioComando = inicioComando;
+            player.preparar();
+            cargadas++;
+            return pista;
+        }
+
+        @Override
+        public void liberar(Pista pista) {
+            pista.player.reiniciar();
+            libres.addFirst((ReproductorFalso) pista.player);
+            liberadas++;
+        }
+
+        @Override
+        public void programarPrecarga() {
+        }
+
+        @Override
+        public long ahora() {
+            return reloj;
+        }
+    }
+
+    private File directorio;
+
+    private ColaPersistente cola;
+
+    private EntornoFalso entorno;
+
+    private ControlPistas control;
+
+    @Before
+    public void setUp() throws IOException {
+        directorio = Files.createTempDirectory("control").toFile();
+        // Sin el directorio no se puede guardar: la cola queda en memoria y
+        // las mediciones no incluyen el disco.
+        cola = ColaPersistente.abrir(new File(directorio, "sin-directorio/cola"));
+        cola.agregar(Arrays.asList("a", "b", "c", "d"));
+        entorno = new EntornoFalso();
+        control = new ControlPistas(cola, entorno);
+    }
+
+    @After
+    public void tearDown() {
+        cola.close();
+        directorio.delete();
+    }
+
+    private static ReproductorFalso reproductor(Pista pista) {
+        return (ReproductorFalso) pista.player;
+    }
+
+    /**
+     * Prepara la actual y la siguiente.
+     */
+    private void prepararAmbas() {
+        control.alPreparar(control.getActual().player);
+        control.alPreparar(control.getSiguiente().player);
+    }
+
+    private void terminarActual() {
+        Pista pista = control.getActual();
+        reproductor(pista).terminar();
+        assertTrue(control.alCompletar(pista.player));
+    }
+
+    @Test
+    public void encadenaLaSiguienteYPasaSinPausa() {
+        control.empezar(0, 100);
+        Pista a = control.getActual();
+        assertEquals(100, a.inicioComando);
+        assertEquals(EstadoReproduccion.PREPARANDO, control.estado());
+        assertNull(control.getSiguiente());
+
+        assertSame(a, control.alPreparar(a.player));
+        assertTrue(reproductor(a).sonando);
+        assertEquals(EstadoReproduccion.REPRODUCIENDO, control.estado());
+        // La siguiente se prepara por adelantado, sin comando.
+        Pista b = control.getSiguiente();
+        assertEquals("b", b.url);
+        assertEquals(0, b.inicioComando);
+
+        assertSame(b, control.alPreparar(b.player));
+        assertSame(b.player, reproductor(a).siguiente);
+        assertFalse(reproductor(b).sonando);
+
+        terminarActual();
+        assertSame(b, control.getActual());
+        assertTrue(reproductor(b).sonando);
+        assertEquals(1, reproductor(a).reinicios);
+        assertEquals(1, cola.getActual());
+        assertEquals(0, control.tomarFinAnterior());
+        assertEquals("c", control.getSiguiente().url);
+    }
+
+    @Test
+    public void anotaElSilencioSiLaSiguienteNoEstabaLista() {
+        control.empezar(0, 0);
+        control.alPreparar(control.getActual().player);
+        entorno.reloj = 5000;
+
+        terminarActual();
+        Pista b = control.getActual();
+        assertFalse(reproductor(b).sonando);
+        assertEquals(EstadoReproduccion.PREPARANDO, control.estado());
+
+        control.alPreparar(b.player);
+        assertTrue(reproductor(b).sonando);
+        assertEquals(5000, control.tomarFinAnterior());
+        assertEquals(0, control.tomarFinAnterior());
+    }
+
+    @Test
+    public void laPausaDuranteLaPreparacionSeRespeta() {
+        control.empezar(0, 0);
+        Pista a = control.getActual();
+        a.posicionInicial = 30000;
+        assertEquals(30000, control.posicion());
+        assertEquals(0, control.duracion());
+
+        assertTrue(control.pausar());
+        assertFalse(control.pausar());
+        assertEquals(EstadoReproduccion.PREPARANDO, control.estado());
+
+        control.alPreparar(a.player);
+        assertFalse(reproductor(a).sonando);
+        assertEquals(EstadoReproduccion.PAUSADO, control.estado());
+        assertEquals(30000, control.posicion());
+
+        assertTrue(control.saltarA(45000));
+        assertEquals(45000, control.posicion());
+        assertTrue(control.puedeReanudar());
+        control.reanudar();
+        assertTrue(reproductor(a).sonando);
+        assertEquals(EstadoReproduccion.REPRODUCIENDO, control.estado());
+        assertFalse(control.puedeReanudar());
+    }
+
+    @Test
+    public void pasarASiguienteYDetenerLiberanLasPistas() {
+        control.empezar(0, 0);
+        prepararAmbas();
+        control.pausar();
+        Pista a = control.getActual();
+        Pista b = control.getSiguiente();
+
+        assertTrue(control.pasarASiguiente());
+        assertSame(b, control.getActual());
+        assertTrue(reproductor(b).sonando);
+        assertFalse(control.isPausado());
+        assertEquals(1, reproductor(a).reinicios);
+        assertEquals(1, cola.getActual());
+
+        control.detener();
+        assertNull(control.getActual());
+        assertNull(control.getSiguiente());
+        assertEquals(EstadoReproduccion.DETENIDO, control.estado());
+        assertEquals(entorno.cargadas, entorno.liberadas);
+        assertFalse(control.pasarASiguiente());
+        // Los avisos de reproductores ya liberados se ignoran.
+        assertNull(control.alPreparar(b.player));
+        assertFalse(control.alCompletar(b.player));
+
+        // Reanudar sin nada cargado retoma la actual de la cola.
+        entorno.reloj = 7000;
+        assertTrue(control.puedeReanudar());
+        control.reanudar();
+        assertEquals("b", control.getActual().url);
+        assertEquals(7000, control.getActual().inicioComando);
+    }
+
+    @Test
+    public void reproducirInsertaDespuesDeLaActual() {
+        control.empezar(0, 0);
+        prepararAmbas();
+
+        control.reproducir("x", 200);
+        assertEquals(Arrays.asList("a", "x", "b", "c", "d"), cola.urls());
+        assertEquals(1, cola.getActual());
+        assertEquals("x", control.getActual().url);
+        assertNull(control.getSiguiente());
+        assertEquals(3, entorno.cargadas);
+        assertEquals(2, entorno.liberadas);
+    }
+
+    @Test
+    public void sincronizaLaSiguienteAlReordenar() {
+        control.empezar(0, 0);
+        prepararAmbas();
+        Pista a = control.getActual();
+
+        cola.mover(2, 1);
+        control.sincronizarSiguiente();
+        assertNull(reproductor(a).siguiente);
+        assertEquals("c", control.getSiguiente().url);
+
+        control.alPreparar(control.getSiguiente().player);
+        assertSame(control.getSiguiente().player, reproductor(a).siguiente);
+
+        control.liberarSiguiente();
+        assertNull(reproductor(a).siguiente);
+        assertNull(control.getSiguiente());
+    }
+
+    @Test
+    public void unaCancionQueNoAbreDetieneElPaso() {
+        entorno.fallidas.add("b");
+        control.empezar(0, 0);
+        control.alPreparar(control.getActual().player);
+        assertNull(control.getSiguiente());
+
+        assertTrue(control.pasarASiguiente());
+        assertNull(control.getActual());
+        assertEquals(1, cola.getActual());
+        assertEquals(EstadoReproduccion.DETENIDO, control.estado());
+
+        // Tras un error, la pista de reemplazo se descarta si tampoco abre.
+        control.empezar(2, 0);
+        Pista c = control.getActual();
+        // El reproductor viene del pool: ya se reinició antes.
+        int reinicios = reproductor(c).reinicios;
+        Pista nueva = new Pista(99, "c", new ReproductorFalso());
+        control.reemplazarActual(nueva);
+        assertEquals(reinicios + 1, reproductor(c).reinicios);
+        assertSame(nueva, control.getActual());
+        control.descartarActual();
+        assertNull(control.getActual());
+    }
+
+    @Test
+    public void unErrorDeLaSiguienteAntesDeEncadenarlaLaLibera() {
+        control.empezar(0, 0);
+        Pista a = control.getActual();
+        control.alPreparar(a.player);
+        Pista b = control.getSiguiente();
+
+        assertFalse(control.alFallarSiguiente(a.player));
+        assertTrue(control.alFallarSiguiente(b.player));
+        assertNull(control.getSiguiente());
+        assertEquals(1, reproductor(b).reinicios);
+        // Su aviso posterior de alCompletar() se ignora.
+        assertFalse(control.alCompletar(b.player));
+
+        // Se vuelve a preparar tras la espera.
+        control.prepararSiguiente();
+        Pista nueva = control.getSiguiente();
+        assertEquals("b", nueva.url);
+        control.alPreparar(nueva.player);
+        assertSame(nueva.player, reproductor(a).siguiente);
+    }
+
+    @Test
+    public void unErrorDeLaSiguienteEncadenadaSeCargaAlTerminarLaActual() {
+        control.empezar(0, 0);
+        prepararAmbas();
+        Pista a = control.getActual();
+        Pista b = control.getSiguiente();
+
+        assertTrue(control.alFallarSiguiente(b.player));
+        assertNull(reproductor(a).siguiente);
+
+        // Sin volver a prepararla: la canción se carga al terminar la actual.
+        entorno.reloj = 9000;
+        terminarActual();
+        Pista nueva = control.getActual();
+        assertEquals("b", nueva.url);
+        assertEquals(1, cola.getActual());
+        assertEquals(EstadoReproduccion.PREPARANDO, control.estado());
+
+        control.alPreparar(nueva.player);
+        assertTrue(reproductor(nueva).sonando);
+        assertEquals(9000, control.tomarFinAnterior());
+        assertEquals("c", control.getSiguiente().url);
+    }
+
+    /**
+     * Mide secuencias de iniciar, pausar, reanudar, pasar a la siguiente,
+     * cambio sin pausa, saltar y detener, a la mayor velocidad posible.
+     * Verifica que sólo se asignan las pistas nuevas. Sólo con
+     * -Pmediciones.
+     */
+    @Test
+    public void tiempoDeComandos() {
+        Mediciones.requerirActivadas();
+        int ciclos = 1000000;
+        int comandosPorCiclo = ciclo();
+        for (int i = 0; i < 20000; i++)
+            ciclo();
+
+        long asignadosAntes = Mediciones.bytesAsignados();
+        int cargadasAntes = entorno.cargadas;
+
+        long inicio = System.nanoTime();
+        for (int i = 0; i < ciclos; i++)
+            ciclo();
+        long nanos = System.nanoTime() - inicio;
+        long asignados = Mediciones.bytesAsignados() - asignadosAntes;
+        int pistas = entorno.cargadas - cargadasAntes;
+
+        long comandos = (long) ciclos * comandosPorCiclo;
+        double nsPorComando = (double) nanos / comandos;
+        System.out.println("ControlPistas: " + comandos + " comandos en " + nanos / 1000000
+                           + " ms (" + String.format("%.1f", nsPorComando) + " ns/comando), "
+                           + pistas + " pistas, " + asignados / pistas + " bytes por pista");
+        assertEquals(entorno.cargadas, entorno.liberadas);
+        // Lo único que se asigna es la Pista de cada canción cargada.
+        if (asignadosAntes >= 0)
+            assertTrue(asignados / pistas < 256);
+    }
+
+    /**
+     * @return El número de comandos y avisos del ciclo.
+     */
+    private int ciclo() {
+        entorno.reloj++;
+        control.empezar(0, entorno.reloj);
+        prepararAmbas();
+        control.pausar();
+        control.reanudar();
+        control.pasarASiguiente();
+        control.alPreparar(control.getSiguiente().player);
+        Pista actual = control.getActual();
+        reproductor(actual).terminar();
+        control.alCompletar(actual.player);
+        control.saltarA(1000);
+        control.detener();
+        return 10;
+    }
+}
@@ -0,0 +1,133 @@
+package ec.epn.detri.awm.reproductor.servicios;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Pruebas del bloque de estado compartido y de su protocolo seqlock.
+ */
+public class EstadoCompartidoTest {
+    private File archivo;
+
+    @Before
+    public void setUp() throws IOException {
+        archivo = File.createTempFile("estado", null);
+        archivo.delete();
+    }
+
+    @After
+    public void tearDown() {
+        archivo.delete();
+    }
+
+    @Test
+    public void bloqueVacioNoSeLee() throws IOException {
+        try (EstadoCompartido estado = EstadoCompartido.abrir(archivo)) {
+            assertFalse(estado.leer(new EstadoCompartido.Instantanea()));
+        }
+    }
+
+    @Test
+    public void otroMapeoVeLoPublicado() throws IOException {
+        try (EstadoCompartido escritor = EstadoCompartido.abrir(archivo);
+             EstadoCompartido lector = EstadoCompartido.abrir(archivo)) {
+            escritor.publicar(EstadoReproduccion.REPRODUCIENDO, 7, 1000, 60000, 4096, 5000);
+
+            EstadoCompartido.Instantanea instantanea = new EstadoCompartido.Instantanea();
+            assertTrue(lector.leer(instantanea));
+            assertEquals(EstadoReproduccion.REPRODUCIENDO, instantanea.estado);
+            assertEquals(7, instantanea.idPista);
+            assertEquals(4096, instantanea.bytesEnBuffer);
+
+            // La posición avanza con el reloj mientras se reproduce.
+            assertEquals(1500, instantanea.posicionEstimada(5500));
+            assertEquals(60000, instantanea.posicionEstimada(500000));
+        }
+    }
+
+    @Test
+    public void escritorReiniciadoContinuaLaSecuencia() throws IOException {
+        try (EstadoCompartido primero = EstadoCompartido.abrir(archivo)) {
+            primero.publicar(EstadoReproduccion.REPRODUCIENDO, 1, 0, 1000, 0, 0);
+        }
+        try (EstadoCompartido segundo = EstadoCompartido.abrir(archivo);
+             EstadoCompartido lector = EstadoCompartido.abrir(archivo)) {
+            segundo.publicar(EstadoReproduccion.PAUSADO, 2, 10, 1000, 0, 0);
+
+            EstadoCompartido.Instantanea instantanea = new EstadoCompartido.Instantanea();
+            assertTrue(lector.leer(instantanea));
+            assertEquals(EstadoReproduccion.PAUSADO, instantanea.estado);
+            assertEquals(2, instantanea.idPista);
+        }
+    }
+
+    /**
+     * Un contenido que no corresponde a su secuencia (p.ej. porque el
+     * lector vio las escrituras fuera de orden) no pasa la verificación.
+     */
+    @Test
+    public void unContenidoMezcladoSeDescarta() throws IOException {
+        try (EstadoCompartido escritor = EstadoCompartido.abrir(archivo);
+             EstadoCompartido lector = EstadoCompartido.abrir(archivo)) {
+            escritor.publicar(EstadoReproduccion.REPRODUCIENDO, 7, 1000, 60000, 4096, 5000);
+
+            // La posición de otra publicación, con la secuencia par intacta.
+            try (RandomAccessFile raw = new RandomAccessFile(archivo, "rw")) {
+                raw.seek(24);
+                raw.writeLong(Long.reverseBytes(2000));
+            }
+            assertFalse(lector.leer(new EstadoCompartido.Instantanea()));
+
+            escritor.publicar(EstadoReproduccion.REPRODUCIENDO, 7, 2000, 60000, 4096, 6000);
+            EstadoCompartido.Instantanea instantanea = new EstadoCompartido.Instantanea();
+            assertTrue(lector.leer(instantanea));
+            assertEquals(2000, instantanea.posicionMs);
+        }
+    }
+
+    /**
+     * El escritor publica sin pausa campos relacionados entre sí; el lector
+     * nunca debe observar una mezcla de dos publicaciones.
+     */
+    @Test
+    public void lectorNuncaVeUnEstadoAMedias() throws Exception {
+        try (final EstadoCompartido escritor = EstadoCompartido.abrir(archivo);
+             EstadoCompartido lector = EstadoCompartido.abrir(archivo)) {
+            final AtomicBoolean seguir = new AtomicBoolean(true);
+            Thread hilo = new Thread(() -> {
+                long k = 1;
+                while (seguir.get()) {
+                    escritor.publicar(EstadoReproduccion.REPRODUCIENDO, k, k, 2 * k, 3 * k, 4 * k);
+                    k++;
+                }
+            });
+            hilo.start();
+
+            EstadoCompartido.Instantanea instantanea = new EstadoCompartido.Instantanea();
+            int consistentes = 0;
+            long inicio = System.nanoTime();
+            while (System.nanoTime() - inicio < 500_000_000L) {
+                if (lector.leer(instantanea)) {
+                    long k = instantanea.idPista;
+                    assertEquals(k, instantanea.posicionMs);
+                    assertEquals(2 * k, instantanea.duracionMs);
+                    assertEquals(3 * k, instantanea.bytesEnBuffer);
+                    assertEquals(4 * k, instantanea.instante);
+                    consistentes++;
+                }
+            }
+            seguir.set(false);
+            hilo.join();
+
+            assertTrue(consistentes > 0);
+        }
+    }
+}
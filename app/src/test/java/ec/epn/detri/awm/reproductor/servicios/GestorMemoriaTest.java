@@ -0,0 +1,93 @@
+package ec.epn.detri.awm.reproductor.servicios;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+import static ec.epn.detri.awm.reproductor.servicios.PoliticaMemoria.*;
+import static org.junit.Assert.*;
+
+/**
+ * Pruebas de la huella por componente y de los recursos que se liberan al
+ * pasar del presupuesto.
+ */
+public class GestorMemoriaTest {
+    private static final long MB = 1024 * 1024;
+
+    private final long[] bytes = new long[5];
+
+    private GestorMemoria gestor;
+
+    @Before
+    public void setUp() {
+        gestor = new GestorMemoria(8 * MB);
+        gestor.registrar("actual", 0, () -> bytes[0]);
+        gestor.registrar("siguiente", SIGUIENTE, () -> bytes[1]);
+        gestor.registrar("libres", REPRODUCTORES_LIBRES, () -> bytes[2]);
+        gestor.registrar("buffers", BUFFERS_LIBRES, () -> bytes[3]);
+        gestor.registrar("metadatos", METADATOS, () -> bytes[4]);
+    }
+
+    @Test
+    public void dentroDelPresupuestoNoLiberaNada() {
+        medir(3 * MB, 3 * MB, MB, MB, 0);
+        assertEquals(0, gestor.recursosSobrePresupuesto(true));
+    }
+
+    @Test
+    public void liberaLoJustoEnOrden() {
+        // 1 MB de más: bastan los reproductores libres.
+        medir(3 * MB, 3 * MB, MB, MB, MB);
+        assertEquals(REPRODUCTORES_LIBRES, gestor.recursosSobrePresupuesto(true));
+
+        // 2,5 MB de más: también los metadatos (0,5 MB) y los buffers.
+        medir(5 * MB, 3 * MB, MB, MB, MB / 2);
+        assertEquals(REPRODUCTORES_LIBRES | METADATOS | BUFFERS_LIBRES,
+                     gestor.recursosSobrePresupuesto(true));
+    }
+
+    @Test
+    public void laSiguienteSoloSiNoSuenaNada() {
+        medir(6 * MB, 3 * MB, 0, 0, 0);
+        assertEquals(0, gestor.recursosSobrePresupuesto(true));
+        assertEquals(SIGUIENTE, gestor.recursosSobrePresupuesto(false));
+
+        // La actual nunca se libera, aunque sola pase del presupuesto.
+        medir(10 * MB, 0, 0, 0, 0);
+        assertEquals(0, gestor.recursosSobrePresupuesto(false));
+    }
+
+    @Test
+    public void exportaLaUltimaMedicion() {
+        medir(3 * MB, 3 * MB, MB, MB, MB);
+        gestor.recursosSobrePresupuesto(true);
+        gestor.setPresupuesto(16 * MB);
+        // Cambios posteriores no se ven hasta volver a medir.
+        bytes[2] = 0;
+
+        Map<String, Long> valores = new HashMap<>();
+        gestor.exportar(valores);
+        assertEquals(Long.valueOf(MB), valores.get("memoria.libres"));
+        assertEquals(Long.valueOf(9 * MB), valores.get("memoria.total"));
+        assertEquals(Long.valueOf(16 * MB), valores.get("memoria.presupuesto"));
+        assertEquals(Long.valueOf(1), valores.get("memoria.liberaciones"));
+
+        assertEquals(8 * MB, gestor.medir());
+        StringWriter texto = new StringWriter();
+        gestor.volcar(new PrintWriter(texto));
+        assertTrue(texto.toString(), texto.toString().startsWith("Memoria: 8192 KB de 16384 KB"));
+        assertTrue(texto.toString(), texto.toString().contains("libres 0 KB"));
+    }
+
+    private void medir(long actual, long siguiente, long libres, long buffers, long metadatos) {
+        bytes[0] = actual;
+        bytes[1] = siguiente;
+        bytes[2] = libres;
+        bytes[3] = buffers;
+        bytes[4] = metadatos;
+    }
+}
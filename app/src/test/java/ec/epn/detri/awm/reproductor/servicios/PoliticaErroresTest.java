@@ -0,0 +1,32 @@
+package ec.epn.detri.awm.reproductor.servicios;
+
+import org.junit.Test;
+
+import static android.media.MediaPlayer.*;
+import static ec.epn.detri.awm.reproductor.servicios.PoliticaErrores.*;
+import static org.junit.Assert.*;
+
+/**
+ * Pruebas de qué errores del reproductor se recuperan.
+ */
+public class PoliticaErroresTest {
+    @Test
+    public void seRecuperanLosErroresDeEntradaSalida() {
+        assertTrue(esRecuperable(MEDIA_ERROR_UNKNOWN, MEDIA_ERROR_IO));
+        assertTrue(esRecuperable(MEDIA_ERROR_UNKNOWN, MEDIA_ERROR_TIMED_OUT));
+        assertTrue(esRecuperable(MEDIA_ERROR_SERVER_DIED, 0));
+    }
+
+    @Test
+    public void losDeFormatoPasanALaSiguiente() {
+        assertFalse(esRecuperable(MEDIA_ERROR_UNKNOWN, MEDIA_ERROR_MALFORMED));
+        assertFalse(esRecuperable(MEDIA_ERROR_UNKNOWN, MEDIA_ERROR_UNSUPPORTED));
+        assertFalse(esRecuperable(MEDIA_ERROR_UNKNOWN, 0));
+    }
+
+    @Test
+    public void losIntentosSeReinicianSiLaCancionAvanzo() {
+        assertFalse(huboProgreso(30000, 30000 + PROGRESO_MS - 1));
+        assertTrue(huboProgreso(30000, 30000 + PROGRESO_MS));
+    }
+}
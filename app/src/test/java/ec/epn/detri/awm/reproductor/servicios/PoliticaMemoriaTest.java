@@ -0,0 +1,47 @@
+package ec.epn.detri.awm.reproductor.servicios;
+
+import org.junit.Test;
+
+import static android.content.ComponentCallbacks2.*;
+import static ec.epn.detri.awm.reproductor.servicios.PoliticaMemoria.*;
+import static org.junit.Assert.*;
+
+/**
+ * Pruebas de los recursos liberados en cada nivel de onTrimMemory() y en
+ * reposo.
+ */
+public class PoliticaMemoriaTest {
+    @Test
+    public void ocultarLaUiNoLiberaNada() {
+        assertEquals(0, recursosALiberar(TRIM_MEMORY_UI_HIDDEN, false));
+        assertEquals(0, recursosALiberar(0, false));
+    }
+
+    @Test
+    public void nivelesCrecientesLiberanMas() {
+        assertEquals(REPRODUCTORES_LIBRES | METADATOS,
+                recursosALiberar(TRIM_MEMORY_RUNNING_MODERATE, true));
+        assertEquals(REPRODUCTORES_LIBRES | METADATOS | BUFFERS_LIBRES,
+                recursosALiberar(TRIM_MEMORY_RUNNING_LOW, true));
+        assertEquals(REPRODUCTORES_LIBRES | METADATOS | BUFFERS_LIBRES | PRECARGAS,
+                recursosALiberar(TRIM_MEMORY_RUNNING_CRITICAL, true));
+        assertEquals(REPRODUCTORES_LIBRES | METADATOS | BUFFERS_LIBRES | PRECARGAS,
+                recursosALiberar(TRIM_MEMORY_COMPLETE, true));
+    }
+
+    @Test
+    public void siguienteSoloSiNoSuenaNada() {
+        assertEquals(0, recursosALiberar(TRIM_MEMORY_RUNNING_LOW, false) & SIGUIENTE);
+        assertEquals(SIGUIENTE, recursosALiberar(TRIM_MEMORY_RUNNING_CRITICAL, false) & SIGUIENTE);
+        assertEquals(SIGUIENTE, recursosALiberar(TRIM_MEMORY_BACKGROUND, false) & SIGUIENTE);
+    }
+
+    @Test
+    public void enReposoSeLiberaTodoMenosLaActual() {
+        int todo = REPRODUCTORES_LIBRES | BUFFERS_LIBRES | PRECARGAS | SIGUIENTE | METADATOS;
+        assertEquals(todo, recursosEnReposo(EstadoReproduccion.PAUSADO));
+        assertEquals(todo, recursosEnReposo(EstadoReproduccion.DETENIDO));
+        assertEquals(0, recursosEnReposo(EstadoReproduccion.REPRODUCIENDO));
+        assertEquals(0, recursosEnReposo(EstadoReproduccion.PREPARANDO));
+    }
+}
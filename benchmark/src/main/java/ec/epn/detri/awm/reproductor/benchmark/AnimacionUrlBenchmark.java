@@ -0,0 +1,59 @@
+package ec.epn.detri.awm.reproductor.benchmark;
+
+import androidx.benchmark.macro.CompilationMode;
+import androidx.benchmark.macro.FrameTimingMetric;
+import androidx.benchmark.macro.Metric;
+import androidx.benchmark.macro.junit4.MacrobenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.uiautomator.UiDevice;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Collections;
+
+import kotlin.Unit;
+
+import static ec.epn.detri.awm.reproductor.benchmark.Reproductor.PAQUETE;
+
+/**
+ * Duración de los cuadros mientras se muestra y oculta el cuadro del URL
+ * (ControladorAnimaciones.mostrarEditText() y ocultarEditText(), con la
+ * rotación del botón).
+ */
+@RunWith(AndroidJUnit4.class)
+public class AnimacionUrlBenchmark {
+    private static final int ITERACIONES = 10;
+
+    /**
+     * Veces que se muestra y oculta el cuadro en cada iteración.
+     */
+    private static final int REPETICIONES = 5;
+
+    @Rule
+    public final MacrobenchmarkRule regla = new MacrobenchmarkRule();
+
+    @Test
+    public void mostrarYOcultarUrl() {
+        regla.measureRepeated(
+                PAQUETE,
+                Collections.<Metric>singletonList(new FrameTimingMetric()),
+                new CompilationMode.Partial(),
+                null,
+                ITERACIONES,
+                escenario -> {
+                    escenario.pressHome();
+                    escenario.startActivityAndWait();
+                    return Unit.INSTANCE;
+                },
+                escenario -> {
+                    UiDevice dispositivo = escenario.getDevice();
+                    for (int i = 0; i < REPETICIONES; i++) {
+                        Reproductor.mostrarCuadroUrl(dispositivo);
+                        Reproductor.ocultarCuadroUrl(dispositivo);
+                    }
+                    return Unit.INSTANCE;
+                });
+    }
+}
@@ -0,0 +1,70 @@
+package ec.epn.detri.awm.reproductor.benchmark;
+
+import androidx.benchmark.macro.CompilationMode;
+import androidx.benchmark.macro.Metric;
+import androidx.benchmark.macro.StartupMode;
+import androidx.benchmark.macro.StartupTimingMetric;
+import androidx.benchmark.macro.junit4.MacrobenchmarkRule;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import kotlin.Unit;
+
+import static ec.epn.detri.awm.reproductor.benchmark.Reproductor.PAQUETE;
+
+/**
+ * Tiempo de arranque de ActividadReproductor hasta el primer cuadro y hasta
+ * reportFullyDrawn(), en frío, tibio y caliente, sin compilar y con el
+ * Baseline Profile.
+ */
+@RunWith(Parameterized.class)
+public class ArranqueBenchmark {
+    private static final int ITERACIONES = 10;
+
+    @Parameterized.Parameters(name = "{0}-{1}")
+    public static List<Object[]> parametros() {
+        List<Object[]> parametros = new ArrayList<>();
+        for (StartupMode modo : StartupMode.values()) {
+            parametros.add(new Object[]{modo, "sinCompilar", new CompilationMode.None()});
+            parametros.add(new Object[]{modo, "perfilBase", new CompilationMode.Partial()});
+        }
+        return parametros;
+    }
+
+    @Rule
+    public final MacrobenchmarkRule regla = new MacrobenchmarkRule();
+
+    private final StartupMode modo;
+
+    private final CompilationMode compilacion;
+
+    public ArranqueBenchmark(StartupMode modo, String nombre, CompilationMode compilacion) {
+        this.modo = modo;
+        this.compilacion = compilacion;
+    }
+
+    @Test
+    public void arranque() {
+        regla.measureRepeated(
+                PAQUETE,
+                Collections.<Metric>singletonList(new StartupTimingMetric()),
+                compilacion,
+                modo,
+                ITERACIONES,
+                escenario -> {
+                    escenario.pressHome();
+                    return Unit.INSTANCE;
+                },
+                escenario -> {
+                    escenario.startActivityAndWait();
+                    return Unit.INSTANCE;
+                });
+    }
+}
@@ -0,0 +1,55 @@
+package ec.epn.detri.awm.reproductor.benchmark;
+
+import androidx.benchmark.macro.junit4.BaselineProfileRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.uiautomator.UiDevice;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Collections;
+
+import kotlin.Unit;
+
+import static ec.epn.detri.awm.reproductor.benchmark.Reproductor.PAQUETE;
+
+/**
+ * Genera el Baseline Profile de la app recorriendo el camino crítico:
+ * arranque, mostrar el cuadro del URL y reproducir una canción del servidor
+ * local. Necesita un emulador con acceso root (imagen sin Google Play,
+ * API 28+):
+ *
+ *   ./gradlew :benchmark:connectedBenchmarkAndroidTest \
+ *       -P android.testInstrumentationRunnerArguments.class=ec.epn.detri.awm.reproductor.benchmark.GeneradorPerfilBase
+ *
+ * y copiar el archivo *-baseline-prof.txt de
+ * benchmark/build/outputs/connected_android_test_additional_output/ a
+ * app/src/main/baseline-prof.txt.
+ */
+@RunWith(AndroidJUnit4.class)
+public class GeneradorPerfilBase {
+    @Rule
+    public final BaselineProfileRule regla = new BaselineProfileRule();
+
+    @Test
+    public void generar() throws Exception {
+        try (ServidorMp3Local servidor = new ServidorMp3Local(10)) {
+            regla.collectBaselineProfile(
+                    PAQUETE,
+                    Collections.emptyList(),
+                    escenario -> {
+                        escenario.pressHome();
+                        escenario.startActivityAndWait();
+
+                        UiDevice dispositivo = escenario.getDevice();
+                        Reproductor.escribirUrl(dispositivo, servidor.getUrl());
+                        Reproductor.pulsarReproducir(dispositivo);
+                        dispositivo.waitForIdle();
+                        Reproductor.pulsarReproducir(dispositivo);
+                        Reproductor.ocultarCuadroUrl(dispositivo);
+                        return Unit.INSTANCE;
+                    });
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package ec.epn.detri.awm.reproductor.benchmark;
+
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.uiautomator.UiDevice;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static ec.epn.detri.awm.reproductor.benchmark.Reproductor.ACTIVIDAD;
+import static ec.epn.detri.awm.reproductor.benchmark.Reproductor.PAQUETE;
+import static org.junit.Assert.*;
+
+/**
+ * Compara los motores de audio del servicio (MotorAudio): MediaPlayer y
+ * MediaCodec + AudioTrack. Para cada uno, en cada iteración la app arranca
+ * de cero con el motor elegido por el extra del intent y reproduce una
+ * canción que no está en la caché. Se mide:
+ * - la latencia del comando al primer audio (comandoAAudio del servicio);
+ * - el uso de CPU del proceso :musicService durante MS_MEDICION de
+ *   reproducción, en porcentaje de un núcleo (por la diferencia de
+ *   "CPU del proceso" en dumpsys).
+ */
+@RunWith(AndroidJUnit4.class)
+public class MotorAudioBenchmark {
+    private static final String TAG = "MotorAudioBenchmark";
+
+    private static final int ITERACIONES = 5;
+
+    private static final int SEGUNDOS_CANCION = 30;
+
+    private static final long MS_MEDICION = 10000;
+
+    // Valores de MotorAudio en :app.
+    private static final int MEDIA_PLAYER = 0;
+    private static final int CODEC = 1;
+
+    private static final Pattern CPU = Pattern.compile("CPU del proceso: (\\d+) ms");
+
+    private ServidorMp3Local servidor;
+
+    private UiDevice dispositivo;
+
+    @Before
+    public void setUp() throws IOException {
+        servidor = new ServidorMp3Local(SEGUNDOS_CANCION);
+        dispositivo = UiDevice.getInstance(InstrumentationRegistry.getInstrumentation());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        dispositivo.executeShellCommand("am force-stop " + PAQUETE);
+        servidor.close();
+    }
+
+    @Test
+    public void mediaPlayerFrenteACodec() throws Exception {
+        Bundle resultados = new Bundle();
+        medir(MEDIA_PLAYER, "MediaPlayer", resultados);
+        medir(CODEC, "MediaCodec", resultados);
+        InstrumentationRegistry.getInstrumentation().sendStatus(2, resultados);
+    }
+
+    private void medir(int motor, String nombre, Bundle resultados) throws Exception {
+        long[] latencias = new long[ITERACIONES];
+        long[] cpu = new long[ITERACIONES];
+        for (int i = 0; i < ITERACIONES; i++) {
+            dispositivo.executeShellCommand("am force-stop " + PAQUETE);
+            dispositivo.executeShellCommand("am start -W -n " + ACTIVIDAD + " --ei motor " + motor);
+
+            Reproductor.escribirUrl(dispositivo, servidor.getUrl() + "?" + nombre + "=" + i);
+            Reproductor.pulsarReproducir(dispositivo);
+            latencias[i] = Reproductor.esperarPrimerAudio(dispositivo);
+
+            String volcado = Reproductor.volcarServicio(dispositivo);
+            assertTrue("El servicio no usa " + nombre,
+                       volcado.contains("Motor de audio: " + nombre));
+            long inicio = SystemClock.uptimeMillis();
+            long cpuInicial = cpuMs(volcado);
+            SystemClock.sleep(MS_MEDICION);
+            long cpuFinal = cpuMs(Reproductor.volcarServicio(dispositivo));
+            // Décimas de punto porcentual de un núcleo.
+            cpu[i] = (cpuFinal - cpuInicial) * 1000 / (SystemClock.uptimeMillis() - inicio);
+        }
+
+        Arrays.sort(latencias);
+        Arrays.sort(cpu);
+        long latencia = latencias[ITERACIONES / 2];
+        long milesimas = cpu[ITERACIONES / 2];
+        Log.i(TAG, nombre + ": comando hasta primer audio, mediana " + latencia
+                   + " ms; CPU mediana " + milesimas / 10 + "." + milesimas % 10 + " %");
+
+        resultados.putLong("comandoAAudio" + nombre + "MedianaMs", latencia);
+        resultados.putLong("cpu" + nombre + "MedianaPorMil", milesimas);
+    }
+
+    private static long cpuMs(String volcado) {
+        Matcher linea = CPU.matcher(volcado);
+        assertTrue("dumpsys no informa el uso de CPU", linea.find());
+        return Long.parseLong(linea.group(1));
+    }
+}
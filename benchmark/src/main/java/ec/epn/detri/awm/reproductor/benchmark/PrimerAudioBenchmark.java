@@ -0,0 +1,78 @@
+package ec.epn.detri.awm.reproductor.benchmark;
+
+import android.os.Bundle;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.uiautomator.UiDevice;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static ec.epn.detri.awm.reproductor.benchmark.Reproductor.ACTIVIDAD;
+import static ec.epn.detri.awm.reproductor.benchmark.Reproductor.PAQUETE;
+
+/**
+ * Latencia desde que se pulsa reproducir (iniciarCancion()) hasta que la
+ * canción suena, contra el servidor local. En cada iteración la app arranca
+ * de cero y pide un URL distinto, así que la canción no está en la caché.
+ *
+ * La latencia la mide el propio servicio (comandoAAudio en sus métricas,
+ * desde que recibe el comando hasta que la posición avanza) y se lee con
+ * dumpsys. Macrobenchmark no tiene una métrica para esto.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PrimerAudioBenchmark {
+    private static final String TAG = "PrimerAudioBenchmark";
+
+    private static final int ITERACIONES = 10;
+
+    private static final int SEGUNDOS_CANCION = 30;
+
+    private ServidorMp3Local servidor;
+
+    private UiDevice dispositivo;
+
+    @Before
+    public void setUp() throws IOException {
+        servidor = new ServidorMp3Local(SEGUNDOS_CANCION);
+        dispositivo = UiDevice.getInstance(InstrumentationRegistry.getInstrumentation());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        dispositivo.executeShellCommand("am force-stop " + PAQUETE);
+        servidor.close();
+    }
+
+    @Test
+    public void clicHastaPrimerAudio() throws Exception {
+        long[] muestras = new long[ITERACIONES];
+        for (int i = 0; i < ITERACIONES; i++) {
+            // Mata la actividad y el proceso :musicService: métricas desde cero.
+            dispositivo.executeShellCommand("am force-stop " + PAQUETE);
+            dispositivo.executeShellCommand("am start -W -n " + ACTIVIDAD);
+
+            Reproductor.escribirUrl(dispositivo, servidor.getUrl() + "?i=" + i);
+            Reproductor.pulsarReproducir(dispositivo);
+            muestras[i] = Reproductor.esperarPrimerAudio(dispositivo);
+        }
+
+        Arrays.sort(muestras);
+        long mediana = muestras[ITERACIONES / 2];
+        Log.i(TAG, "comando hasta primer audio: mediana " + mediana + " ms, mín "
+                   + muestras[0] + " ms, máx " + muestras[ITERACIONES - 1] + " ms");
+
+        Bundle resultados = new Bundle();
+        resultados.putLong("comandoAAudioMedianaMs", mediana);
+        resultados.putLong("comandoAAudioMinMs", muestras[0]);
+        resultados.putLong("comandoAAudioMaxMs", muestras[ITERACIONES - 1]);
+        InstrumentationRegistry.getInstrumentation().sendStatus(2, resultados);
+    }
+}
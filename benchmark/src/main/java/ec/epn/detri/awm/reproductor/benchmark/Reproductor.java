@@ -0,0 +1,112 @@
+package ec.epn.detri.awm.reproductor.benchmark;
+
+import android.os.SystemClock;
+
+import androidx.test.uiautomator.By;
+import androidx.test.uiautomator.BySelector;
+import androidx.test.uiautomator.UiDevice;
+import androidx.test.uiautomator.UiObject2;
+import androidx.test.uiautomator.Until;
+
+import java.io.IOException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Acciones sobre la UI de ActividadReproductor comunes a los benchmarks.
+ */
+final class Reproductor {
+    static final String PAQUETE = "ec.epn.detri.awm.reproductor";
+
+    static final String ACTIVIDAD = PAQUETE + "/.actividades.ActividadReproductor";
+
+    static final String SERVICIO = PAQUETE + "/.servicios.ServicioReproductor";
+
+    /**
+     * Espera máxima a que aparezca o desaparezca una vista.
+     */
+    static final long ESPERA_MS = 5000;
+
+    /**
+     * Línea del histograma en "dumpsys activity service" del servicio.
+     */
+    private static final Pattern COMANDO_A_AUDIO =
+            Pattern.compile("comandoAAudio\\s+n=(\\d+).*max=(\\d+)ms");
+
+    private Reproductor() {
+        throw new AssertionError();
+    }
+
+    static BySelector vista(String id) {
+        return By.res(PAQUETE, id);
+    }
+
+    /**
+     * Espera a que la vista esté visible y la devuelve.
+     */
+    static UiObject2 esperar(UiDevice dispositivo, String id) {
+        UiObject2 objeto = dispositivo.wait(Until.findObject(vista(id)), ESPERA_MS);
+        if (objeto == null)
+            throw new AssertionError("No apareció la vista " + id);
+        return objeto;
+    }
+
+    /**
+     * Muestra el cuadro del URL (animación circular) y espera a que termine.
+     */
+    static void mostrarCuadroUrl(UiDevice dispositivo) {
+        esperar(dispositivo, "btnAgregar").click();
+        esperar(dispositivo, "txtUrl");
+        dispositivo.waitForIdle();
+    }
+
+    /**
+     * Oculta el cuadro del URL y espera a que termine la animación.
+     */
+    static void ocultarCuadroUrl(UiDevice dispositivo) {
+        esperar(dispositivo, "btnAgregar").click();
+        dispositivo.wait(Until.gone(vista("txtUrl")), ESPERA_MS);
+    }
+
+    /**
+     * Escribe el URL y confirma con ENTER, lo que muestra el botón de
+     * reproducir.
+     */
+    static void escribirUrl(UiDevice dispositivo, String url) {
+        mostrarCuadroUrl(dispositivo);
+        esperar(dispositivo, "txtUrl").setText(url);
+        dispositivo.pressEnter();
+        esperar(dispositivo, "btnIniciarDetener");
+    }
+
+    /**
+     * Pulsa el botón de reproducir/detener.
+     */
+    static void pulsarReproducir(UiDevice dispositivo) {
+        esperar(dispositivo, "btnIniciarDetener").click();
+    }
+
+    /**
+     * @return La salida de "dumpsys activity service" del Servicio de Música.
+     */
+    static String volcarServicio(UiDevice dispositivo) throws IOException {
+        return dispositivo.executeShellCommand("dumpsys activity service " + SERVICIO);
+    }
+
+    /**
+     * Espera a que suene la única canción pedida desde que arrancó el
+     * servicio.
+     * @return Su latencia desde el comando (comandoAAudio, medida por el
+     * propio servicio).
+     */
+    static long esperarPrimerAudio(UiDevice dispositivo) throws IOException, InterruptedException {
+        long limite = SystemClock.uptimeMillis() + 2 * ESPERA_MS;
+        while (SystemClock.uptimeMillis() < limite) {
+            Matcher linea = COMANDO_A_AUDIO.matcher(volcarServicio(dispositivo));
+            if (linea.find() && Integer.parseInt(linea.group(1)) > 0)
+                return Long.parseLong(linea.group(2));
+            Thread.sleep(100);
+        }
+        throw new AssertionError("La canción no empezó a sonar");
+    }
+}
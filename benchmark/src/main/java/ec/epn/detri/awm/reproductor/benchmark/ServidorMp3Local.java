@@ -0,0 +1,134 @@
+package ec.epn.detri.awm.reproductor.benchmark;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Servidor HTTP mínimo en 127.0.0.1 que sirve una canción MP3 de silencio
+ * generada en memoria, para que los benchmarks no dependan de la red.
+ * Responde peticiones Range ("bytes=N-") como lo hace un servidor real.
+ */
+final class ServidorMp3Local implements Closeable {
+    /**
+     * MPEG-1 capa III, 128 kbps, 44,1 kHz, mono y sin CRC.
+     */
+    private static final byte[] CABECERA_CUADRO = {
+            (byte) 0xFF, (byte) 0xFB, (byte) 0x90, (byte) 0xC0
+    };
+
+    private static final int FRECUENCIA = 44100;
+
+    private static final int MUESTRAS_POR_CUADRO = 1152;
+
+    /**
+     * 144 * bitrate / frecuencia, sin relleno (417 bytes).
+     */
+    private static final int BYTES_POR_CUADRO = 144 * 128000 / FRECUENCIA;
+
+    private static final String ETAG = "\"silencio\"";
+
+    private final byte[] cancion;
+
+    private final ServerSocket servidor;
+
+    /**
+     * Constructor; el servidor empieza a aceptar conexiones de inmediato.
+     * @param segundos Duración de la canción.
+     */
+    ServidorMp3Local(int segundos) throws IOException {
+        cancion = generarSilencio(segundos);
+        servidor = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+
+        Thread hilo = new Thread(this::aceptar, "ServidorMp3Local");
+        hilo.setDaemon(true);
+        hilo.start();
+    }
+
+    /**
+     * @return URL de la canción. Los parámetros de consulta se ignoran, así
+     * que agregando uno distinto se evita la caché del reproductor.
+     */
+    String getUrl() {
+        return "http://127.0.0.1:" + servidor.getLocalPort() + "/silencio.mp3";
+    }
+
+    @Override
+    public void close() throws IOException {
+        servidor.close();
+    }
+
+    /**
+     * Cuadros de silencio: con la información lateral y los datos en cero,
+     * cada cuadro se decodifica como 1152 muestras en cero.
+     */
+    static byte[] generarSilencio(int segundos) {
+        int cuadros = segundos * FRECUENCIA / MUESTRAS_POR_CUADRO;
+        byte[] datos = new byte[cuadros * BYTES_POR_CUADRO];
+        for (int i = 0; i < cuadros; i++)
+            System.arraycopy(CABECERA_CUADRO, 0, datos, i * BYTES_POR_CUADRO,
+                             CABECERA_CUADRO.length);
+        return datos;
+    }
+
+    private void aceptar() {
+        while (!servidor.isClosed()) {
+            try {
+                final Socket conexion = servidor.accept();
+                new Thread(() -> atender(conexion)).start();
+            } catch (IOException e) {
+                // Servidor cerrado.
+                return;
+            }
+        }
+    }
+
+    private void atender(Socket conexion) {
+        try (Socket c = conexion) {
+            BufferedReader lector = new BufferedReader(
+                    new InputStreamReader(c.getInputStream(), StandardCharsets.US_ASCII));
+            String peticion = lector.readLine();
+            if (peticion == null)
+                return;
+
+            long inicio = 0;
+            String cabecera;
+            while ((cabecera = lector.readLine()) != null && !cabecera.isEmpty())
+                if (cabecera.regionMatches(true, 0, "Range: bytes=", 0, 13))
+                    inicio = Long.parseLong(cabecera.substring(13, cabecera.indexOf('-')).trim());
+
+            boolean parcial = inicio > 0 && inicio < cancion.length;
+            if (!parcial)
+                inicio = 0;
+
+            StringBuilder respuesta = new StringBuilder(parcial
+                                                        ? "HTTP/1.1 206 Partial Content\r\n"
+                                                        : "HTTP/1.1 200 OK\r\n");
+            respuesta.append("Content-Type: audio/mpeg\r\n")
+                     .append("Accept-Ranges: bytes\r\n")
+                     .append("ETag: ").append(ETAG).append("\r\n")
+                     .append("Connection: close\r\n")
+                     .append("Content-Length: ").append(cancion.length - inicio).append("\r\n");
+            if (parcial)
+                respuesta.append("Content-Range: bytes ").append(inicio).append('-')
+                         .append(cancion.length - 1).append('/').append(cancion.length)
+                         .append("\r\n");
+            respuesta.append("\r\n");
+
+            OutputStream salida = c.getOutputStream();
+            salida.write(respuesta.toString().getBytes(StandardCharsets.US_ASCII));
+            if (!peticion.startsWith("HEAD"))
+                salida.write(cancion, (int) inicio, (int) (cancion.length - inicio));
+            salida.flush();
+        } catch (IOException | RuntimeException e) {
+            // El cliente cerró la conexión (p.ej. una precarga cancelada) o
+            // envió una petición inválida.
+        }
+    }
+}